@@ -307,9 +307,27 @@ public final class DhtConfig extends PropertiesConfig {
      */
     public static final int MAX_NODE_SIZE = 1024;
     /**
-     * DHT超时请求清理执行周期（分钟）
+     * K桶节点数量：{@value}
      */
-    public static final int DHT_REQUEST_TIMEOUT_INTERVAL = 8;
+    public static final int BUCKET_NODE_SIZE = 8;
+    /**
+     * K桶刷新执行周期（分钟）
+     * 超过周期没有更新的K桶随机查找节点
+     */
+    public static final int DHT_BUCKET_REFRESH_INTERVAL = 15;
+    /**
+     * 迭代查找并发请求数量（alpha）：{@value}
+     */
+    public static final int LOOKUP_ALPHA = 3;
+    /**
+     * 迭代查找超时时间（秒）：{@value}
+     */
+    public static final int LOOKUP_TIMEOUT = 30;
+    /**
+     * 迭代查找单个请求超时时间（毫秒）：{@value}
+     * 超时节点不再等待：继续查找其他节点
+     */
+    public static final int LOOKUP_REQUEST_TIMEOUT = 2000;
     
     /**
      * 默认DHT节点
@@ -20,6 +20,43 @@ public final class DownloadConfig extends PropertiesConfig {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DownloadConfig.class);
     
+    /**
+     * 文件分配模式
+     * 
+     * @author acgist
+     */
+    public enum AllocateMode {
+        
+        /**
+         * 按需增长：随机写入时增长文件
+         */
+        LAZY,
+        /**
+         * 稀疏文件：新建时设置文件大小不写入数据
+         */
+        SPARSE,
+        /**
+         * 预先分配：新建时写入零值分配全部磁盘空间（减少文件碎片）
+         */
+        PREALLOCATE;
+        
+        /**
+         * @param value 文件分配模式名称
+         * 
+         * @return 文件分配模式（无效名称：按需增长）
+         */
+        public static final AllocateMode of(String value) {
+            final AllocateMode[] modes = AllocateMode.values();
+            for (AllocateMode mode : modes) {
+                if(mode.name().equalsIgnoreCase(value)) {
+                    return mode;
+                }
+            }
+            return LAZY;
+        }
+        
+    }
+    
     /**
      * 下载配置文件
      */
@@ -71,6 +108,18 @@ public final class DownloadConfig extends PropertiesConfig {
      * @see #memoryBuffer
      */
     private static final String DOWNLOAD_MEMORY_BUFFER = "acgist.download.memory.buffer";
+    /**
+     * Piece缓冲（全部）（MB）配置名称
+     * 
+     * @see #pieceBuffer
+     */
+    private static final String DOWNLOAD_PIECE_BUFFER = "acgist.download.piece.buffer";
+    /**
+     * 文件分配模式配置名称
+     * 
+     * @see #allocateMode
+     */
+    private static final String DOWNLOAD_ALLOCATE_MODE = "acgist.download.allocate.mode";
     
     /**
      * 下载目录
@@ -118,6 +167,21 @@ public final class DownloadConfig extends PropertiesConfig {
      * @see #memoryBuffer
      */
     private int memoryBufferByte;
+    /**
+     * Piece缓冲（全部）（MB）
+     * 所有任务下载中的Piece共享
+     */
+    private int pieceBuffer;
+    /**
+     * Piece缓冲（全部）（B）
+     * 
+     * @see #pieceBuffer
+     */
+    private long pieceBufferByte;
+    /**
+     * 文件分配模式
+     */
+    private AllocateMode allocateMode;
     
     private static final DownloadConfig INSTANCE = new DownloadConfig();
     
@@ -131,6 +195,7 @@ public final class DownloadConfig extends PropertiesConfig {
         this.release();
         this.refreshBuffer();
         this.refreshMemoryBuffer();
+        this.refreshPieceBuffer();
     }
     
     @Override
@@ -143,6 +208,8 @@ public final class DownloadConfig extends PropertiesConfig {
         this.buffer       = this.getInteger(DOWNLOAD_BUFFER, 1024);
         this.lastPath     = this.getString(DOWNLOAD_LAST_PATH);
         this.memoryBuffer = this.getInteger(DOWNLOAD_MEMORY_BUFFER, 8);
+        this.pieceBuffer  = this.getInteger(DOWNLOAD_PIECE_BUFFER, 256);
+        this.allocateMode = AllocateMode.of(this.getString(DOWNLOAD_ALLOCATE_MODE));
         // 记录日志
         LOGGER.debug("下载目录：{}", this.path);
         LOGGER.debug("下载数量：{}", this.size);
@@ -151,6 +218,8 @@ public final class DownloadConfig extends PropertiesConfig {
         LOGGER.debug("下载速度（单个）（KB）：{}", this.buffer);
         LOGGER.debug("最后一次选择目录：{}", this.lastPath);
         LOGGER.debug("磁盘缓存（单个）（MB）：{}", this.memoryBuffer);
+        LOGGER.debug("Piece缓冲（全部）（MB）：{}", this.pieceBuffer);
+        LOGGER.debug("文件分配模式：{}", this.allocateMode);
     }
     
     @Override
@@ -163,6 +232,8 @@ public final class DownloadConfig extends PropertiesConfig {
         data.put(DOWNLOAD_BUFFER, Objects.toString(this.buffer, "1024"));
         data.put(DOWNLOAD_LAST_PATH, this.lastPath);
         data.put(DOWNLOAD_MEMORY_BUFFER, Objects.toString(this.memoryBuffer, "8"));
+        data.put(DOWNLOAD_PIECE_BUFFER, Objects.toString(this.pieceBuffer, "256"));
+        data.put(DOWNLOAD_ALLOCATE_MODE, this.allocateMode.name());
         this.persistent(data, DOWNLOAD_CONFIG);
     }
     
@@ -372,6 +443,57 @@ public final class DownloadConfig extends PropertiesConfig {
         return INSTANCE.memoryBufferByte;
     }
     
+    /**
+     * @param pieceBuffer Piece缓冲（全部）（MB）
+     */
+    public static final void setPieceBuffer(int pieceBuffer) {
+        if(INSTANCE.pieceBuffer == pieceBuffer) {
+            return;
+        }
+        INSTANCE.pieceBuffer = pieceBuffer;
+        INSTANCE.persistent();
+        INSTANCE.refreshPieceBuffer();
+    }
+    
+    /**
+     * 刷新Piece缓冲
+     */
+    private void refreshPieceBuffer() {
+        this.pieceBufferByte = (long) this.pieceBuffer * SystemConfig.ONE_MB;
+    }
+    
+    /**
+     * @return Piece缓冲（全部）（MB）
+     */
+    public static final int getPieceBuffer() {
+        return INSTANCE.pieceBuffer;
+    }
+    
+    /**
+     * @return Piece缓冲（全部）（B）
+     */
+    public static final long getPieceBufferByte() {
+        return INSTANCE.pieceBufferByte;
+    }
+    
+    /**
+     * @param allocateMode 文件分配模式
+     */
+    public static final void setAllocateMode(AllocateMode allocateMode) {
+        if(INSTANCE.allocateMode == allocateMode) {
+            return;
+        }
+        INSTANCE.allocateMode = allocateMode;
+        INSTANCE.persistent();
+    }
+    
+    /**
+     * @return 文件分配模式
+     */
+    public static final AllocateMode getAllocateMode() {
+        return INSTANCE.allocateMode;
+    }
+    
     /**
      * @param fileSize 默认文件大小（B）
      * 
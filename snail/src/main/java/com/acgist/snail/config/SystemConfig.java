@@ -1,5 +1,6 @@
 package com.acgist.snail.config;
 
+import com.acgist.snail.context.SystemThreadContext;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.PacketSizeException;
@@ -221,6 +222,14 @@ public final class SystemConfig extends PropertiesConfig {
      * 任务即将完成时可以重复下载的Piece数量
      */
     private int pieceRepeatSize;
+    /**
+     * 文件校验线程数量（0：CPU核心数量）
+     */
+    private int verifyThreadSize;
+    /**
+     * 文件校验预读缓冲大小（MB）
+     */
+    private int verifyBufferSize;
     /**
      * DHT执行周期（秒）
      */
@@ -249,6 +258,14 @@ public final class SystemConfig extends PropertiesConfig {
      * Peer（连接、接入）优化周期（秒）
      */
     private int peerOptimizeInterval;
+    /**
+     * UTP拥塞控制目标延迟（毫秒）
+     */
+    private int utpTargetDelay;
+    /**
+     * UDP发送速率（KB/s）（0：不限速）
+     */
+    private int udpPacingRate;
     /**
      * 软件信息
      * 
@@ -295,6 +312,8 @@ public final class SystemConfig extends PropertiesConfig {
         this.peerSize             = this.getInteger("acgist.system.peer.size", 20);
         this.trackerSize          = this.getInteger("acgist.system.tracker.size", 50);
         this.pieceRepeatSize      = this.getInteger("acgist.system.piece.repeat.size", 8);
+        this.verifyThreadSize     = this.getInteger("acgist.system.verify.thread.size", 0);
+        this.verifyBufferSize     = this.getInteger("acgist.system.verify.buffer.size", 64);
         this.dhtInterval          = this.getInteger("acgist.system.dht.interval", 120);
         this.pexInterval          = this.getInteger("acgist.system.pex.interval", 120);
         this.lsdInterval          = this.getInteger("acgist.system.lsd.interval", 120);
@@ -302,6 +321,8 @@ public final class SystemConfig extends PropertiesConfig {
         this.stunInterval         = this.getInteger("acgist.system.stun.interval", 30);
         this.trackerInterval      = this.getInteger("acgist.system.tracker.interval", 120);
         this.peerOptimizeInterval = this.getInteger("acgist.system.peer.optimize.interval", 60);
+        this.utpTargetDelay       = this.getInteger("acgist.system.utp.target.delay", 100);
+        this.udpPacingRate        = this.getInteger("acgist.system.udp.pacing.rate", 0);
         this.nameEnAndVersion     = SymbolConfig.Symbol.SPACE.join(this.nameEn, this.version);
         // 记录日志
         LOGGER.debug("软件名称：{}", this.name);
@@ -319,6 +340,8 @@ public final class SystemConfig extends PropertiesConfig {
         LOGGER.debug("单个任务Peer数量（同时下载）：{}", this.peerSize);
         LOGGER.debug("单个任务Tracker数量：{}", this.trackerSize);
         LOGGER.debug("任务即将完成时可以重复下载的Piece数量：{}", this.pieceRepeatSize);
+        LOGGER.debug("文件校验线程数量：{}", this.verifyThreadSize);
+        LOGGER.debug("文件校验预读缓冲大小（MB）：{}", this.verifyBufferSize);
         LOGGER.debug("DHT执行周期（秒）：{}", this.dhtInterval);
         LOGGER.debug("PEX执行周期（秒）：{}", this.pexInterval);
         LOGGER.debug("本地发现执行周期（秒）：{}", this.lsdInterval);
@@ -326,6 +349,8 @@ public final class SystemConfig extends PropertiesConfig {
         LOGGER.debug("Stun消息执行周期（秒）：{}", this.stunInterval);
         LOGGER.debug("Tracker执行周期（秒）：{}", this.trackerInterval);
         LOGGER.debug("Peer（连接、接入）优化周期（秒）：{}", this.peerOptimizeInterval);
+        LOGGER.debug("UTP拥塞控制目标延迟（毫秒）：{}", this.utpTargetDelay);
+        LOGGER.debug("UDP发送速率（KB/s）（0：不限速）：{}", this.udpPacingRate);
         LOGGER.debug("软件信息：{}", this.nameEnAndVersion);
     }
 
@@ -469,6 +494,23 @@ public final class SystemConfig extends PropertiesConfig {
         return INSTANCE.pieceRepeatSize;
     }
     
+    /**
+     * @return 文件校验线程数量
+     */
+    public static final int getVerifyThreadSize() {
+        if(INSTANCE.verifyThreadSize <= 0) {
+            return SystemThreadContext.DEFAULT_THREAD_SIZE;
+        }
+        return INSTANCE.verifyThreadSize;
+    }
+    
+    /**
+     * @return 文件校验预读缓冲大小（MB）
+     */
+    public static final int getVerifyBufferSize() {
+        return Math.max(1, INSTANCE.verifyBufferSize);
+    }
+    
     /**
      * @return DHT执行周期（秒）
      */
@@ -517,6 +559,20 @@ public final class SystemConfig extends PropertiesConfig {
     public static final int getPeerOptimizeInterval() {
         return INSTANCE.peerOptimizeInterval;
     }
+    
+    /**
+     * @return UTP拥塞控制目标延迟（毫秒）
+     */
+    public static final int getUtpTargetDelay() {
+        return INSTANCE.utpTargetDelay;
+    }
+    
+    /**
+     * @return UDP发送速率（KB/s）（0：不限速）
+     */
+    public static final int getUdpPacingRate() {
+        return INSTANCE.udpPacingRate;
+    }
 
     /**
      * @return 软件信息
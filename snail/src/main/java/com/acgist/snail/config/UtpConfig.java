@@ -123,13 +123,23 @@ public final class UtpConfig {
      */
     public static final int HEADER_MIN_LENGTH = 20;
     /**
-     * UTP扩展
+     * UTP扩展：没有扩展
      */
     public static final byte EXTENSION = 0;
+    /**
+     * UTP扩展：选择确认
+     */
+    public static final byte EXTENSION_SACK = 1;
     /**
      * UTP扩展消息最小长度
+     * 扩展消息格式：下一个扩展类型（1字节）+ 扩展长度（1字节）+ 扩展数据
      */
     public static final int EXTENSION_MIN_LENGTH = 2;
+    /**
+     * 选择确认最大长度（字节）
+     * 选择确认长度必须是4的倍数，每位表示一个数据包，第一个字节最低位表示acknr + 2。
+     */
+    public static final int SACK_MAX_LENGTH = 32;
     /**
      * UTP最大包长度
      * UDP最大包长度：1472 = 1500 - 20（IP头） - 8（UDP头）
@@ -4,6 +4,8 @@ import java.nio.channels.AsynchronousChannelGroup;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -46,6 +48,10 @@ public final class SystemThreadContext implements IContext {
      * 定时线程名称
      */
     public static final String SNAIL_THREAD_SCHEDULED = SNAIL_THREAD + "-Scheduled";
+    /**
+     * BT校验线程名称
+     */
+    public static final String SNAIL_THREAD_BT_VERIFY = SNAIL_THREAD_BT + "-Verify";
     /**
      * BT定时线程名称
      */
@@ -54,10 +60,18 @@ public final class SystemThreadContext implements IContext {
      * UTP队列线程名称
      */
     public static final String SNAIL_THREAD_UTP_QUEUE = SNAIL_THREAD + "-UTP-Queue";
+    /**
+     * UTP发送节奏控制线程名称
+     */
+    public static final String SNAIL_THREAD_UTP_PACER = SNAIL_THREAD + "-UTP-Pacer";
     /**
      * UDP服务端线程名称
      */
     public static final String SNAIL_THREAD_UDP_SERVER = SNAIL_THREAD + "-UDP-Server";
+    /**
+     * UDP发送线程名称
+     */
+    public static final String SNAIL_THREAD_UDP_SENDER = SNAIL_THREAD + "-UDP-Sender";
     /**
      * TCP客户端线程名称
      */
@@ -249,6 +263,70 @@ public final class SystemThreadContext implements IContext {
         );
     }
     
+    /**
+     * 新建并行线程池
+     * 
+     * @param parallelism 并行线程数量
+     * @param name        线程池名称
+     * 
+     * @return 并行线程池
+     */
+    public static final ForkJoinPool newForkJoinPool(int parallelism, String name) {
+        LOGGER.debug("新建并行线程池：{} - {}", name, parallelism);
+        return new ForkJoinPool(
+            parallelism,
+            SystemThreadContext.newForkJoinWorkerThreadFactory(name),
+            (thread, e) -> LOGGER.error("并行线程池异常：{}", thread, e),
+            false
+        );
+    }
+    
+    /**
+     * 新建工作窃取线程池
+     * 任务阻塞（{@link ForkJoinPool#managedBlock(ForkJoinPool.ManagedBlocker)}）时补偿线程：补偿以后线程数量不能超过最大线程数量
+     * 
+     * @param parallelism   并行线程数量
+     * @param maxPoolSize   最大线程数量
+     * @param keepAliveTime 线程空闲时间（秒）
+     * @param name          线程池名称
+     * 
+     * @return 工作窃取线程池
+     */
+    public static final ForkJoinPool newWorkStealingPool(int parallelism, int maxPoolSize, long keepAliveTime, String name) {
+        LOGGER.debug("新建工作窃取线程池：{} - {} - {}", name, parallelism, maxPoolSize);
+        return new ForkJoinPool(
+            parallelism,
+            SystemThreadContext.newForkJoinWorkerThreadFactory(name),
+            (thread, e) -> LOGGER.error("工作窃取线程池异常：{}", thread, e),
+            true,
+            0,
+            maxPoolSize,
+            1,
+            // 超过最大线程数量：不再补偿线程
+            pool -> true,
+            keepAliveTime,
+            TimeUnit.SECONDS
+        );
+    }
+    
+    /**
+     * 新建并行线程池工厂
+     * 
+     * @param poolName 线程池名称
+     * 
+     * @return 并行线程池工厂
+     */
+    private static final ForkJoinPool.ForkJoinWorkerThreadFactory newForkJoinWorkerThreadFactory(String poolName) {
+        return pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            // 线程名称
+            thread.setName(SystemThreadContext.newThreadName(poolName));
+            // 守护线程
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
     /**
      * 新建线程池工厂
      * 
@@ -259,18 +337,29 @@ public final class SystemThreadContext implements IContext {
     private static final ThreadFactory newThreadFactory(String poolName) {
         return runnable -> {
             final Thread thread = new Thread(runnable);
-            int index = 0;
-            synchronized(THREAD_INDEX_MAPPING) {
-                index = THREAD_INDEX_MAPPING.compute(poolName, (k, v) -> v == null || v >= MAX_THREAD_INDEX ? 1 : v + 1);
-            }
             // 线程名称
-            thread.setName(String.format(THREAD_NAME, poolName, index));
+            thread.setName(SystemThreadContext.newThreadName(poolName));
             // 守护线程
             thread.setDaemon(true);
             return thread;
         };
     }
     
+    /**
+     * 新建线程名称
+     * 
+     * @param poolName 线程池名称
+     * 
+     * @return 线程名称
+     */
+    private static final String newThreadName(String poolName) {
+        int index = 0;
+        synchronized(THREAD_INDEX_MAPPING) {
+            index = THREAD_INDEX_MAPPING.compute(poolName, (k, v) -> v == null || v >= MAX_THREAD_INDEX ? 1 : v + 1);
+        }
+        return String.format(THREAD_NAME, poolName, index);
+    }
+    
     /**
      * 关闭系统线程池
      */
@@ -358,6 +447,22 @@ public final class SystemThreadContext implements IContext {
         }
     }
     
+    /**
+     * 关闭时间轮定时任务
+     * 
+     * @param timeout 定时任务
+     */
+    public static final void shutdown(TimerWheel.Timeout timeout) {
+        if(timeout == null || timeout.isCancelled()) {
+            return;
+        }
+        try {
+            timeout.cancel();
+        } catch (Exception e) {
+            LOGGER.error("关闭定时任务异常", e);
+        }
+    }
+    
     /**
      * 关闭异步通道线程池
      * 
@@ -0,0 +1,451 @@
+package com.acgist.snail.context;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * 时间轮
+ * 定时任务按照到期时间放入槽位：添加和取消时间复杂度O(1)，一个线程推进时间轮。
+ * 到期任务交给执行器执行：时间轮线程不会执行任务
+ * 
+ * @author acgist
+ */
+public final class TimerWheel {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimerWheel.class);
+
+    /**
+     * 每次推进最多添加任务数量：{@value}
+     */
+    private static final int MAX_TRANSFER_SIZE = 100000;
+
+    /**
+     * 槽位时间（毫秒）
+     */
+    private final long tickDuration;
+    /**
+     * 槽位掩码
+     */
+    private final int mask;
+    /**
+     * 槽位
+     */
+    private final Bucket[] buckets;
+    /**
+     * 等待添加任务
+     */
+    private final Queue<Timeout> timeouts;
+    /**
+     * 取消任务
+     */
+    private final Queue<Timeout> cancelledTimeouts;
+    /**
+     * 开始时间（纳秒）
+     */
+    private final long startTime;
+    /**
+     * 当前槽位
+     * 只有时间轮线程使用
+     */
+    private long tick;
+    /**
+     * 任务数量
+     */
+    private final AtomicInteger size;
+    /**
+     * 是否运行
+     */
+    private volatile boolean running;
+
+    /**
+     * @param tickDuration 槽位时间（毫秒）
+     * @param wheelSize    槽位数量（2的幂）
+     * @param name         线程名称
+     */
+    private TimerWheel(long tickDuration, int wheelSize, String name) {
+        if(Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("槽位数量必须是2的幂：" + wheelSize);
+        }
+        this.tickDuration      = tickDuration;
+        this.mask              = wheelSize - 1;
+        this.buckets           = new Bucket[wheelSize];
+        for (int index = 0; index < wheelSize; index++) {
+            this.buckets[index] = new Bucket();
+        }
+        this.timeouts          = new ConcurrentLinkedQueue<>();
+        this.cancelledTimeouts = new ConcurrentLinkedQueue<>();
+        this.startTime         = System.nanoTime();
+        this.size              = new AtomicInteger(0);
+        this.running           = true;
+        final Thread thread = new Thread(this::loop);
+        thread.setName(name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 新建时间轮
+     * 
+     * @param tickDuration 槽位时间（毫秒）
+     * @param wheelSize    槽位数量（2的幂）
+     * @param name         线程名称
+     * 
+     * @return {@link TimerWheel}
+     */
+    public static final TimerWheel newInstance(long tickDuration, int wheelSize, String name) {
+        return new TimerWheel(tickDuration, wheelSize, name);
+    }
+
+    /**
+     * 定时执行任务（单次执行）
+     * 
+     * @param delay    延迟时间
+     * @param unit     时间单位
+     * @param executor 执行器
+     * @param runnable 任务
+     * 
+     * @return 定时任务
+     */
+    public Timeout scheduled(long delay, TimeUnit unit, Executor executor, Runnable runnable) {
+        ScheduledException.verify(delay);
+        final Timeout timeout = new Timeout(this, executor, runnable, 0L);
+        this.schedule(timeout, unit.toMillis(delay));
+        return timeout;
+    }
+
+    /**
+     * 定时执行任务（重复执行）
+     * 固定周期：周期受到执行时间影响
+     * 
+     * @param delay    延迟时间
+     * @param period   周期时间
+     * @param unit     时间单位
+     * @param executor 执行器
+     * @param runnable 任务
+     * 
+     * @return 定时任务
+     */
+    public Timeout scheduledAtFixedDelay(long delay, long period, TimeUnit unit, Executor executor, Runnable runnable) {
+        ScheduledException.verify(delay);
+        ScheduledException.verify(period);
+        final Timeout timeout = new Timeout(this, executor, runnable, Math.max(1L, unit.toMillis(period)));
+        this.schedule(timeout, unit.toMillis(delay));
+        return timeout;
+    }
+
+    /**
+     * 添加任务
+     * 
+     * @param timeout 任务
+     * @param delay   延迟时间（毫秒）
+     */
+    private void schedule(Timeout timeout, long delay) {
+        timeout.deadline = System.nanoTime() - this.startTime + TimeUnit.MILLISECONDS.toNanos(delay);
+        this.timeouts.offer(timeout);
+    }
+
+    /**
+     * 时间轮线程
+     */
+    private void loop() {
+        while(this.running) {
+            final long deadline = this.waitForNextTick();
+            if(deadline < 0L) {
+                // 线程中断：结束时间轮
+                break;
+            }
+            try {
+                this.processCancelledTimeouts();
+                this.transferTimeouts();
+                this.buckets[(int) (this.tick & this.mask)].expire(deadline);
+            } catch (Exception e) {
+                LOGGER.error("时间轮执行异常", e);
+            }
+            this.tick++;
+        }
+    }
+
+    /**
+     * 等待下一个槽位
+     * 
+     * @return 当前时间（纳秒：相对开始时间）
+     */
+    private long waitForNextTick() {
+        final long deadline = TimeUnit.MILLISECONDS.toNanos(this.tickDuration * (this.tick + 1));
+        while(true) {
+            final long currentTime = System.nanoTime() - this.startTime;
+            final long sleepTime = TimeUnit.NANOSECONDS.toMillis(deadline - currentTime + 999999);
+            if(sleepTime <= 0L) {
+                return currentTime;
+            }
+            try {
+                Thread.sleep(sleepTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.debug("时间轮等待异常", e);
+                return -1L;
+            }
+        }
+    }
+
+    /**
+     * 添加等待任务到槽位
+     */
+    private void transferTimeouts() {
+        for (int index = 0; index < MAX_TRANSFER_SIZE; index++) {
+            final Timeout timeout = this.timeouts.poll();
+            if(timeout == null) {
+                break;
+            }
+            if(timeout.cancelled) {
+                continue;
+            }
+            final long ticks = timeout.deadline / TimeUnit.MILLISECONDS.toNanos(this.tickDuration);
+            timeout.remainingRounds = (ticks - this.tick) / this.buckets.length;
+            // 已经过期任务放入当前槽位
+            final long ticked = Math.max(ticks, this.tick);
+            this.buckets[(int) (ticked & this.mask)].add(timeout);
+        }
+    }
+
+    /**
+     * 删除取消任务
+     */
+    private void processCancelledTimeouts() {
+        Timeout timeout;
+        while((timeout = this.cancelledTimeouts.poll()) != null) {
+            if(timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * @return 任务数量
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    /**
+     * 关闭时间轮
+     */
+    public void shutdown() {
+        this.running = false;
+    }
+
+    /**
+     * 槽位
+     * 双向链表：只有时间轮线程使用
+     * 
+     * @author acgist
+     */
+    private final class Bucket {
+
+        /**
+         * 头部任务
+         */
+        private Timeout head;
+        /**
+         * 尾部任务
+         */
+        private Timeout tail;
+
+        /**
+         * 添加任务
+         * 
+         * @param timeout 任务
+         */
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if(this.head == null) {
+                this.head = this.tail = timeout;
+            } else {
+                this.tail.next = timeout;
+                timeout.prev = this.tail;
+                this.tail = timeout;
+            }
+            TimerWheel.this.size.incrementAndGet();
+        }
+
+        /**
+         * 删除任务
+         * 
+         * @param timeout 任务
+         * 
+         * @return 下一个任务
+         */
+        private Timeout remove(Timeout timeout) {
+            final Timeout next = timeout.next;
+            if(timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if(timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            if(timeout == this.head) {
+                if(timeout == this.tail) {
+                    this.head = null;
+                    this.tail = null;
+                } else {
+                    this.head = next;
+                }
+            } else if(timeout == this.tail) {
+                this.tail = timeout.prev;
+            }
+            timeout.prev   = null;
+            timeout.next   = null;
+            timeout.bucket = null;
+            TimerWheel.this.size.decrementAndGet();
+            return next;
+        }
+
+        /**
+         * 执行到期任务
+         * 
+         * @param deadline 当前时间（纳秒：相对开始时间）
+         */
+        private void expire(long deadline) {
+            Timeout timeout = this.head;
+            while(timeout != null) {
+                if(timeout.remainingRounds <= 0L) {
+                    final Timeout expired = timeout;
+                    timeout = this.remove(expired);
+                    if(expired.deadline <= deadline) {
+                        expired.expire();
+                    } else {
+                        // 时间误差：下一轮执行
+                        TimerWheel.this.timeouts.offer(expired);
+                    }
+                } else if(timeout.cancelled) {
+                    timeout = this.remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * 定时任务
+     * 
+     * @author acgist
+     */
+    public static final class Timeout {
+
+        /**
+         * 时间轮
+         */
+        private final TimerWheel timerWheel;
+        /**
+         * 执行器
+         */
+        private final Executor executor;
+        /**
+         * 任务
+         */
+        private final Runnable runnable;
+        /**
+         * 周期时间（毫秒）
+         * 单次执行：0
+         */
+        private final long period;
+        /**
+         * 到期时间（纳秒：相对开始时间）
+         */
+        private long deadline;
+        /**
+         * 剩余轮数
+         */
+        private long remainingRounds;
+        /**
+         * 是否取消
+         */
+        private volatile boolean cancelled;
+        /**
+         * 所在槽位
+         */
+        private Bucket bucket;
+        /**
+         * 上一个任务
+         */
+        private Timeout prev;
+        /**
+         * 下一个任务
+         */
+        private Timeout next;
+
+        /**
+         * @param timerWheel 时间轮
+         * @param executor   执行器
+         * @param runnable   任务
+         * @param period     周期时间（毫秒）
+         */
+        private Timeout(TimerWheel timerWheel, Executor executor, Runnable runnable, long period) {
+            this.timerWheel = timerWheel;
+            this.executor   = executor;
+            this.runnable   = runnable;
+            this.period     = period;
+        }
+
+        /**
+         * 到期执行
+         */
+        private void expire() {
+            if(this.cancelled) {
+                return;
+            }
+            try {
+                this.executor.execute(this::execute);
+            } catch (Exception e) {
+                LOGGER.error("定时任务执行异常", e);
+            }
+        }
+
+        /**
+         * 执行任务
+         * 重复执行任务执行完成以后重新添加
+         */
+        private void execute() {
+            try {
+                if(!this.cancelled) {
+                    this.runnable.run();
+                }
+            } catch (Exception e) {
+                LOGGER.error("定时任务执行异常", e);
+            } finally {
+                if(this.period > 0L && !this.cancelled) {
+                    this.timerWheel.schedule(this, this.period);
+                }
+            }
+        }
+
+        /**
+         * 取消任务
+         */
+        public void cancel() {
+            if(this.cancelled) {
+                return;
+            }
+            this.cancelled = true;
+            this.timerWheel.cancelledTimeouts.offer(this);
+        }
+
+        /**
+         * @return 是否取消
+         */
+        public boolean isCancelled() {
+            return this.cancelled;
+        }
+
+    }
+
+}
@@ -1,7 +1,5 @@
 package com.acgist.snail.format;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -13,15 +11,14 @@ import com.acgist.snail.config.SymbolConfig;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.PacketSizeException;
-import com.acgist.snail.utils.ByteUtils;
 import com.acgist.snail.utils.CollectionUtils;
 import com.acgist.snail.utils.ListUtils;
 import com.acgist.snail.utils.MapUtils;
-import com.acgist.snail.utils.StringUtils;
 
 /**
  * B编码解码器
  * 除了Long其他类型均为byte[]
+ * 直接读取缓冲数据：不用复制原始数据，只需读取部分字段使用{@link BEncodeReader}。
  * 
  * @author acgist
  */
@@ -71,17 +68,17 @@ public final class BEncodeDecoder {
     /**
      * 原始数据
      */
-    private final ByteArrayInputStream inputStream;
+    private final ByteBuffer buffer;
     
     /**
-     * @param bytes 数据
+     * @param buffer 数据
      */
-    private BEncodeDecoder(byte[] bytes) {
-        Objects.requireNonNull(bytes, "B编码内容错误");
-        if(bytes.length < BEncodeDecoder.MIN_CONTENT_LENGTH) {
+    private BEncodeDecoder(ByteBuffer buffer) {
+        Objects.requireNonNull(buffer, "B编码内容错误");
+        if(buffer.remaining() < BEncodeDecoder.MIN_CONTENT_LENGTH) {
             throw new IllegalArgumentException("B编码内容错误");
         }
-        this.inputStream = new ByteArrayInputStream(bytes);
+        this.buffer = buffer;
     }
     
     /**
@@ -93,7 +90,7 @@ public final class BEncodeDecoder {
      */
     public static final BEncodeDecoder newInstance(byte[] bytes) {
         Objects.requireNonNull(bytes, "B编码内容错误");
-        return new BEncodeDecoder(bytes);
+        return new BEncodeDecoder(ByteBuffer.wrap(bytes));
     }
     
     /**
@@ -105,11 +102,12 @@ public final class BEncodeDecoder {
      */
     public static final BEncodeDecoder newInstance(String content) {
         Objects.requireNonNull(content, "B编码内容错误");
-        return new BEncodeDecoder(content.getBytes());
+        return new BEncodeDecoder(ByteBuffer.wrap(content.getBytes()));
     }
     
     /**
      * 新建B编码解码器
+     * 不用复制数据：读取剩余数据（原始数据位置移动到结尾）
      * 
      * @param buffer 数据
      * 
@@ -117,7 +115,9 @@ public final class BEncodeDecoder {
      */
     public static final BEncodeDecoder newInstance(ByteBuffer buffer) {
         Objects.requireNonNull(buffer, "B编码内容错误");
-        return new BEncodeDecoder(ByteUtils.remainingToBytes(buffer));
+        final ByteBuffer slice = buffer.slice();
+        buffer.position(buffer.limit());
+        return new BEncodeDecoder(slice);
     }
     
     /**
@@ -168,19 +168,19 @@ public final class BEncodeDecoder {
      */
     public Type nextType() throws PacketSizeException {
         // 是否含有数据
-        final boolean none = this.inputStream == null || this.inputStream.available() <= 0;
+        final boolean none = !this.buffer.hasRemaining();
         if(none) {
             this.type = Type.NONE;
             return this.type;
         }
-        final char charType = (char) this.inputStream.read();
+        final char charType = (char) this.buffer.get();
         switch (charType) {
         case SymbolConfig.BEncode.TYPE_D:
-            this.map  = BEncodeDecoder.readMap(this.inputStream);
+            this.map  = BEncodeDecoder.readMap(this.buffer);
             this.type = Type.MAP;
             break;
         case SymbolConfig.BEncode.TYPE_L:
-            this.list = BEncodeDecoder.readList(this.inputStream);
+            this.list = BEncodeDecoder.readList(this.buffer);
             this.type = Type.LIST;
             break;
         default:
@@ -235,35 +235,45 @@ public final class BEncodeDecoder {
      * @return 剩余所有字节数组
      */
     public byte[] oddBytes() {
-        if(this.inputStream == null) {
-            return new byte[0];
-        }
-        return this.inputStream.readAllBytes();
+        final byte[] bytes = new byte[this.buffer.remaining()];
+        this.buffer.get(bytes);
+        return bytes;
     }
 
     /**
      * 读取数值
      * 
-     * @param inputStream 数据
+     * @param buffer 数据
      * 
      * @return 数值
      * 
-     * @see #TYPE_I
+     * @throws PacketSizeException 网络包大小异常
+     * 
+     * @see SymbolConfig.BEncode#TYPE_I
      */
-    private static final Long readLong(ByteArrayInputStream inputStream) {
-        int index;
-        char indexChar;
-        final StringBuilder valueBuilder = new StringBuilder();
-        while((index = inputStream.read()) >= 0) {
-            indexChar = (char) index;
+    private static final Long readLong(ByteBuffer buffer) throws PacketSizeException {
+        long value = 0L;
+        int length = 0;
+        boolean negative = false;
+        while(buffer.hasRemaining()) {
+            final char indexChar = (char) buffer.get();
             if(indexChar == SymbolConfig.BEncode.TYPE_E) {
-                final String number = valueBuilder.toString();
-                if(!StringUtils.isNumeric(number)) {
-                    throw new IllegalArgumentException("B编码错误（数值）：" + number);
+                if(length == 0) {
+                    throw new IllegalArgumentException("B编码错误（数值）：" + (negative ? "-" : ""));
                 }
-                return Long.valueOf(number);
+                return value;
+            } else if(indexChar >= '0' && indexChar <= '9') {
+                // 负数按照负数累加：可以读取最小值
+                try {
+                    value = Math.addExact(Math.multiplyExact(value, 10L), negative ? '0' - indexChar : indexChar - '0');
+                } catch (ArithmeticException e) {
+                    throw new PacketSizeException("B编码错误（数值溢出）", e);
+                }
+                length++;
+            } else if(indexChar == '-' && length == 0 && !negative) {
+                negative = true;
             } else {
-                valueBuilder.append(indexChar);
+                throw new IllegalArgumentException("B编码错误（数值）：" + indexChar);
             }
         }
         return 0L;
@@ -272,34 +282,33 @@ public final class BEncodeDecoder {
     /**
      * 读取List
      * 
-     * @param inputStream 数据
+     * @param buffer 数据
      * 
      * @return List
      * 
      * @throws PacketSizeException 网络包大小异常
      * 
-     * @see #TYPE_L
+     * @see SymbolConfig.BEncode#TYPE_L
      */
-    private static final List<Object> readList(ByteArrayInputStream inputStream) throws PacketSizeException {
-        int index;
-        char indexChar;
+    private static final List<Object> readList(ByteBuffer buffer) throws PacketSizeException {
+        int length = -1;
         final List<Object> list = new ArrayList<>();
-        final StringBuilder lengthBuilder = new StringBuilder();
-        while ((index = inputStream.read()) >= 0) {
-            indexChar = (char) index;
+        while (buffer.hasRemaining()) {
+            final char indexChar = (char) buffer.get();
             switch (indexChar) {
                 case SymbolConfig.BEncode.TYPE_E -> {
                     return list;
                 }
-                case SymbolConfig.BEncode.TYPE_I -> list.add(BEncodeDecoder.readLong(inputStream));
-                case SymbolConfig.BEncode.TYPE_L -> list.add(BEncodeDecoder.readList(inputStream));
-                case SymbolConfig.BEncode.TYPE_D -> list.add(BEncodeDecoder.readMap(inputStream));
-                case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> lengthBuilder.append(indexChar);
+                case SymbolConfig.BEncode.TYPE_I -> list.add(BEncodeDecoder.readLong(buffer));
+                case SymbolConfig.BEncode.TYPE_L -> list.add(BEncodeDecoder.readList(buffer));
+                case SymbolConfig.BEncode.TYPE_D -> list.add(BEncodeDecoder.readMap(buffer));
+                case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> length = BEncodeDecoder.readLength(length, indexChar);
                 case SymbolConfig.BEncode.SEPARATOR -> {
-                    if(lengthBuilder.length() > 0) {
-                        list.add(BEncodeDecoder.readBytes(lengthBuilder, inputStream));
+                    if(length >= 0) {
+                        list.add(BEncodeDecoder.readBytes(length, buffer));
+                        length = -1;
                     } else {
-                        LOGGER.warn("B编码错误（长度）：{}", lengthBuilder);
+                        LOGGER.warn("B编码错误（长度）：{}", length);
                     }
                 }
                 default -> LOGGER.warn("B编码错误（未知类型）：{}", indexChar);
@@ -311,30 +320,28 @@ public final class BEncodeDecoder {
     /**
      * 读取Map
      * 
-     * @param inputStream 数据
+     * @param buffer 数据
      * 
      * @return Map
      * 
      * @throws PacketSizeException 网络包大小异常
      * 
-     * @see #TYPE_D
+     * @see SymbolConfig.BEncode#TYPE_D
      */
-    private static final Map<String, Object> readMap(ByteArrayInputStream inputStream) throws PacketSizeException {
-        int index;
-        char indexChar;
+    private static final Map<String, Object> readMap(ByteBuffer buffer) throws PacketSizeException {
+        int length = -1;
         String key = null;
         // 使用LinkedHashMap防止乱序
         final Map<String, Object> map = new LinkedHashMap<>();
-        final StringBuilder lengthBuilder = new StringBuilder();
-        while ((index = inputStream.read()) >= 0) {
-            indexChar = (char) index;
+        while (buffer.hasRemaining()) {
+            final char indexChar = (char) buffer.get();
             switch (indexChar) {
                 case SymbolConfig.BEncode.TYPE_E -> {
                     return map;
                 }
                 case SymbolConfig.BEncode.TYPE_I -> {
                     if(key != null) {
-                        map.put(key, BEncodeDecoder.readLong(inputStream));
+                        map.put(key, BEncodeDecoder.readLong(buffer));
                         key = null;
                     } else {
                         LOGGER.warn("B编码key为空跳过（I）");
@@ -342,7 +349,7 @@ public final class BEncodeDecoder {
                 }
                 case SymbolConfig.BEncode.TYPE_L -> {
                     if(key != null) {
-                        map.put(key, BEncodeDecoder.readList(inputStream));
+                        map.put(key, BEncodeDecoder.readList(buffer));
                         key = null;
                     } else {
                         LOGGER.warn("B编码key为空跳过（L）");
@@ -350,16 +357,17 @@ public final class BEncodeDecoder {
                 }
                 case SymbolConfig.BEncode.TYPE_D -> {
                     if(key != null) {
-                        map.put(key, BEncodeDecoder.readMap(inputStream));
+                        map.put(key, BEncodeDecoder.readMap(buffer));
                         key = null;
                     } else {
                         LOGGER.warn("B编码key为空跳过（D）");
                     }
                 }
-                case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> lengthBuilder.append(indexChar);
+                case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> length = BEncodeDecoder.readLength(length, indexChar);
                 case SymbolConfig.BEncode.SEPARATOR -> {
-                    if(lengthBuilder.length() > 0) {
-                        final byte[] bytes = BEncodeDecoder.readBytes(lengthBuilder, inputStream);
+                    if(length >= 0) {
+                        final byte[] bytes = BEncodeDecoder.readBytes(length, buffer);
+                        length = -1;
                         if (key == null) {
                             key = new String(bytes);
                         } else {
@@ -367,7 +375,7 @@ public final class BEncodeDecoder {
                             key = null;
                         }
                     } else {
-                        LOGGER.warn("B编码错误（长度）：{}", lengthBuilder);
+                        LOGGER.warn("B编码错误（长度）：{}", length);
                     }
                 }
                 default -> LOGGER.warn("B编码错误（未知类型）：{}", indexChar);
@@ -376,34 +384,40 @@ public final class BEncodeDecoder {
         return map;
     }
     
+    /**
+     * 累加字节数组长度
+     * 
+     * @param length    当前长度（没有长度：-1）
+     * @param indexChar 数字字符
+     * 
+     * @return 字节数组长度
+     */
+    private static final int readLength(int length, char indexChar) {
+        final long value = Math.max(length, 0) * 10L + (indexChar - '0');
+        if(value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("B编码错误（长度）：" + value);
+        }
+        return (int) value;
+    }
+    
     /**
      * 读取符合长度的字节数组
      * 
-     * @param lengthBuilder 字节数组长度
-     * @param inputStream   数据
+     * @param length 字节数组长度
+     * @param buffer 数据
      * 
      * @return 字节数组
      * 
      * @throws PacketSizeException 网络包大小异常
      */
-    private static final byte[] readBytes(StringBuilder lengthBuilder, ByteArrayInputStream inputStream) throws PacketSizeException {
-        final String number = lengthBuilder.toString();
-        if(!StringUtils.isNumeric(number)) {
-            throw new IllegalArgumentException("B编码错误（数值）：" + number);
-        }
-        final int length = Integer.parseInt(number);
+    private static final byte[] readBytes(int length, ByteBuffer buffer) throws PacketSizeException {
         PacketSizeException.verify(length);
-        // 循环使用设置归零
-        lengthBuilder.setLength(0);
         final byte[] bytes = new byte[length];
-        try {
-            final int readLength = inputStream.read(bytes);
-            if(readLength != length) {
-                LOGGER.warn("B编码错误（读取长度和实际长度不符）：{} - {}", length, readLength);
-            }
-        } catch (IOException e) {
-            LOGGER.error("B编码读取异常", e);
+        final int readLength = Math.min(length, buffer.remaining());
+        if(readLength != length) {
+            LOGGER.warn("B编码错误（读取长度和实际长度不符）：{} - {}", length, readLength);
         }
+        buffer.get(bytes, 0, readLength);
         return bytes;
     }
     
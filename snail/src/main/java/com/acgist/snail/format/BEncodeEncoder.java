@@ -1,7 +1,6 @@
 package com.acgist.snail.format;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -15,6 +14,7 @@ import com.acgist.snail.logger.LoggerFactory;
 /**
  * B编码编码器
  * 支持数据类型：Number、String、byte[]、Map、List
+ * 直接写入缓冲：默认使用自动扩容缓冲，也可以写入指定缓冲（缓冲池申请）。
  * 
  * @author acgist
  */
@@ -34,13 +34,36 @@ public final class BEncodeEncoder {
      * 数据类型
      */
     private BEncodeDecoder.Type type;
+    /**
+     * 默认缓冲长度：{@value}
+     */
+    private static final int DEFAULT_BUFFER_LENGTH = 256;
+    
     /**
      * 输出数据
      */
-    private final ByteArrayOutputStream outputStream;
+    private ByteBuffer buffer;
+    /**
+     * 开始位置
+     */
+    private final int begin;
+    /**
+     * 是否自动扩容
+     */
+    private final boolean expand;
+    /**
+     * 数值缓冲
+     */
+    private final byte[] numberBytes = new byte[20];
     
-    private BEncodeEncoder() {
-        this.outputStream = new ByteArrayOutputStream();
+    /**
+     * @param buffer 输出数据
+     * @param expand 是否自动扩容
+     */
+    private BEncodeEncoder(ByteBuffer buffer, boolean expand) {
+        this.buffer = buffer;
+        this.begin  = buffer.position();
+        this.expand = expand;
     }
     
     /**
@@ -49,7 +72,19 @@ public final class BEncodeEncoder {
      * @return {@link BEncodeEncoder}
      */
     public static final BEncodeEncoder newInstance() {
-        return new BEncodeEncoder();
+        return new BEncodeEncoder(ByteBuffer.allocate(DEFAULT_BUFFER_LENGTH), true);
+    }
+    
+    /**
+     * 新建B编码编码器
+     * 数据直接写入指定缓冲：不会扩容（缓冲不足抛出异常）
+     * 
+     * @param buffer 输出数据
+     * 
+     * @return {@link BEncodeEncoder}
+     */
+    public static final BEncodeEncoder newInstance(ByteBuffer buffer) {
+        return new BEncodeEncoder(buffer, false);
     }
 
     /**
@@ -155,12 +190,9 @@ public final class BEncodeEncoder {
      * @return {@link BEncodeEncoder}
      */
     public BEncodeEncoder write(byte[] bytes) {
-        try {
-            if(bytes != null) {
-                this.outputStream.write(bytes);
-            }
-        } catch (IOException e) {
-            LOGGER.error("B编码输出异常", e);
+        if(bytes != null) {
+            this.ensure(bytes.length);
+            this.buffer.put(bytes);
         }
         return this;
     }
@@ -171,7 +203,23 @@ public final class BEncodeEncoder {
      * @param value 数据
      */
     private void write(char value) {
-        this.outputStream.write(value);
+        this.ensure(1);
+        this.buffer.put((byte) value);
+    }
+    
+    /**
+     * 确认缓冲剩余长度：自动扩容
+     * 
+     * @param length 写入长度
+     */
+    private void ensure(int length) {
+        if(this.buffer.remaining() >= length || !this.expand) {
+            return;
+        }
+        final int capacity = Math.max(this.buffer.capacity() << 1, this.buffer.position() + length);
+        final ByteBuffer buffer = ByteBuffer.allocate(capacity);
+        buffer.put(this.buffer.flip());
+        this.buffer = buffer;
     }
     
     /**
@@ -241,17 +289,50 @@ public final class BEncodeEncoder {
      */
     private void writeNumber(Number number) {
         this.write(SymbolConfig.BEncode.TYPE_I);
-        this.write(number.toString().getBytes());
+        if(
+            number instanceof Long    ||
+            number instanceof Integer ||
+            number instanceof Short   ||
+            number instanceof Byte
+        ) {
+            this.writeLong(number.longValue());
+        } else {
+            this.write(number.toString().getBytes());
+        }
         this.write(SymbolConfig.BEncode.TYPE_E);
     }
     
+    /**
+     * 写入数值字符：不用新建字符串
+     * 
+     * @param value 数值
+     */
+    private void writeLong(long value) {
+        if(value == Long.MIN_VALUE) {
+            this.write(String.valueOf(value).getBytes());
+            return;
+        }
+        if(value < 0) {
+            this.write('-');
+            value = -value;
+        }
+        int index = this.numberBytes.length;
+        do {
+            this.numberBytes[--index] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while(value > 0);
+        final int length = this.numberBytes.length - index;
+        this.ensure(length);
+        this.buffer.put(this.numberBytes, index, length);
+    }
+    
     /**
      * 写入B编码字节数组
      * 
      * @param bytes 数据
      */
     private void writeBytes(byte[] bytes) {
-        this.write(String.valueOf(bytes.length).getBytes());
+        this.writeLong(bytes.length);
         this.write(SymbolConfig.BEncode.SEPARATOR);
         this.write(bytes);
     }
@@ -260,7 +341,16 @@ public final class BEncodeEncoder {
      * @return 字节数组
      */
     public byte[] bytes() {
-        return this.outputStream.toByteArray();
+        final byte[] bytes = new byte[this.length()];
+        this.buffer.get(this.begin, bytes);
+        return bytes;
+    }
+    
+    /**
+     * @return 写入长度
+     */
+    public int length() {
+        return this.buffer.position() - this.begin;
     }
 
     /**
@@ -306,6 +396,20 @@ public final class BEncodeEncoder {
         return newInstance().writeMap(map).bytes();
     }
     
+    /**
+     * Map写入指定缓冲
+     * 
+     * @param map    Map
+     * @param buffer 输出数据
+     * 
+     * @return 写入长度
+     * 
+     * @see #newInstance(ByteBuffer)
+     */
+    public static final int encodeMap(Map<?, ?> map, ByteBuffer buffer) {
+        return newInstance(buffer).writeMap(map).length();
+    }
+    
     /**
      * Map转为B编码字符串
      * 
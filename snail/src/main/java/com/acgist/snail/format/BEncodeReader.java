@@ -0,0 +1,319 @@
+package com.acgist.snail.format;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import com.acgist.snail.config.SymbolConfig;
+import com.acgist.snail.net.PacketSizeException;
+
+/**
+ * B编码读取器
+ * 游标方式逐个读取B编码数据：不会新建Map和List，字节数组使用原始数据视图。
+ * 只需读取部分字段的消息（DHT、扩展协议）使用读取器，需要完整数据使用{@link BEncodeDecoder}。
+ * 
+ * @author acgist
+ */
+public final class BEncodeReader {
+
+    /**
+     * 数据标记
+     * 
+     * @author acgist
+     */
+    public enum Token {
+
+        /**
+         * Map开始
+         */
+        MAP,
+        /**
+         * List开始
+         */
+        LIST,
+        /**
+         * Map或者List结束
+         */
+        END,
+        /**
+         * 数值
+         */
+        NUMBER,
+        /**
+         * 字节数组
+         */
+        BYTES,
+        /**
+         * 没有数据
+         */
+        NONE;
+
+    }
+
+    /**
+     * 原始数据
+     */
+    private final ByteBuffer buffer;
+    /**
+     * 当前标记
+     */
+    private Token token;
+    /**
+     * 当前数值
+     */
+    private long number;
+    /**
+     * 当前字节数组开始位置
+     */
+    private int bytesPosition;
+    /**
+     * 当前字节数组长度
+     */
+    private int bytesLength;
+
+    /**
+     * @param buffer 数据
+     */
+    private BEncodeReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.token  = Token.NONE;
+    }
+
+    /**
+     * 新建B编码读取器
+     * 读取剩余数据：不会修改原始数据位置
+     * 
+     * @param buffer 数据
+     * 
+     * @return {@link BEncodeReader}
+     */
+    public static final BEncodeReader newInstance(ByteBuffer buffer) {
+        Objects.requireNonNull(buffer, "B编码内容错误");
+        return new BEncodeReader(buffer.slice());
+    }
+
+    /**
+     * 新建B编码读取器
+     * 
+     * @param bytes 数据
+     * 
+     * @return {@link BEncodeReader}
+     */
+    public static final BEncodeReader newInstance(byte[] bytes) {
+        Objects.requireNonNull(bytes, "B编码内容错误");
+        return new BEncodeReader(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * 读取下一个标记
+     * 
+     * @return 标记
+     * 
+     * @throws PacketSizeException 网络包大小异常
+     */
+    public Token next() throws PacketSizeException {
+        if(!this.buffer.hasRemaining()) {
+            this.token = Token.NONE;
+            return this.token;
+        }
+        final char indexChar = (char) this.buffer.get();
+        switch (indexChar) {
+            case SymbolConfig.BEncode.TYPE_D -> this.token = Token.MAP;
+            case SymbolConfig.BEncode.TYPE_L -> this.token = Token.LIST;
+            case SymbolConfig.BEncode.TYPE_E -> this.token = Token.END;
+            case SymbolConfig.BEncode.TYPE_I -> this.readNumber();
+            case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> this.readBytes(indexChar - '0');
+            default -> throw new IllegalArgumentException("B编码错误（未知类型）：" + indexChar);
+        }
+        return this.token;
+    }
+
+    /**
+     * 读取数值
+     * 
+     * @throws PacketSizeException 网络包大小异常
+     */
+    private void readNumber() throws PacketSizeException {
+        long value = 0L;
+        int length = 0;
+        boolean negative = false;
+        while(this.buffer.hasRemaining()) {
+            final char indexChar = (char) this.buffer.get();
+            if(indexChar == SymbolConfig.BEncode.TYPE_E) {
+                if(length == 0) {
+                    break;
+                }
+                this.number = value;
+                this.token  = Token.NUMBER;
+                return;
+            } else if(indexChar >= '0' && indexChar <= '9') {
+                // 负数按照负数累加：可以读取最小值
+                try {
+                    value = Math.addExact(Math.multiplyExact(value, 10L), negative ? '0' - indexChar : indexChar - '0');
+                } catch (ArithmeticException e) {
+                    throw new PacketSizeException("B编码错误（数值溢出）", e);
+                }
+                length++;
+            } else if(indexChar == '-' && length == 0 && !negative) {
+                negative = true;
+            } else {
+                break;
+            }
+        }
+        throw new IllegalArgumentException("B编码错误（数值）");
+    }
+
+    /**
+     * 读取字节数组位置
+     * 
+     * @param length 长度第一个数字
+     * 
+     * @throws PacketSizeException 网络包大小异常
+     */
+    private void readBytes(int length) throws PacketSizeException {
+        long value = length;
+        while(this.buffer.hasRemaining()) {
+            final char indexChar = (char) this.buffer.get();
+            if(indexChar == SymbolConfig.BEncode.SEPARATOR) {
+                PacketSizeException.verify((int) Math.min(value, Integer.MAX_VALUE));
+                if(value > this.buffer.remaining()) {
+                    throw new IllegalArgumentException("B编码错误（读取长度和实际长度不符）：" + value);
+                }
+                this.bytesPosition = this.buffer.position();
+                this.bytesLength   = (int) value;
+                this.buffer.position(this.bytesPosition + this.bytesLength);
+                this.token = Token.BYTES;
+                return;
+            } else if(indexChar >= '0' && indexChar <= '9' && value <= Integer.MAX_VALUE) {
+                value = value * 10 + (indexChar - '0');
+            } else {
+                break;
+            }
+        }
+        throw new IllegalArgumentException("B编码错误（长度）");
+    }
+
+    /**
+     * 跳过当前数据
+     * 当前标记是Map或者List跳过直到对应结束标记
+     * 
+     * @throws PacketSizeException 网络包大小异常
+     */
+    public void skip() throws PacketSizeException {
+        if(this.token != Token.MAP && this.token != Token.LIST) {
+            return;
+        }
+        int depth = 1;
+        while(depth > 0) {
+            switch (this.next()) {
+                case MAP, LIST -> depth++;
+                case END       -> depth--;
+                case NONE      -> throw new IllegalArgumentException("B编码错误（没有结束）");
+                default        -> {
+                }
+            }
+        }
+    }
+
+    /**
+     * 查找Map中的键
+     * 当前标记必须是Map开始标记（或者上次查找成功跳过值以后继续查找）
+     * 查找成功：读取值的标记
+     * 查找失败：读取到Map结束标记
+     * 
+     * @param key 键
+     * 
+     * @return 是否查找成功
+     * 
+     * @throws PacketSizeException 网络包大小异常
+     */
+    public boolean seek(String key) throws PacketSizeException {
+        final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        while(this.next() == Token.BYTES) {
+            final boolean match = this.equalsBytes(bytes);
+            this.next();
+            if(match) {
+                return true;
+            }
+            this.skip();
+        }
+        return false;
+    }
+
+    /**
+     * 判断当前字节数组是否相等
+     * 
+     * @param bytes 字节数组
+     * 
+     * @return 是否相等
+     */
+    public boolean equalsBytes(byte[] bytes) {
+        if(this.token != Token.BYTES || this.bytesLength != bytes.length) {
+            return false;
+        }
+        for (int index = 0; index < bytes.length; index++) {
+            if(this.buffer.get(this.bytesPosition + index) != bytes[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 当前标记
+     */
+    public Token token() {
+        return this.token;
+    }
+
+    /**
+     * @return 当前数值
+     */
+    public long getLong() {
+        if(this.token != Token.NUMBER) {
+            throw new IllegalStateException("B编码当前数据不是数值：" + this.token);
+        }
+        return this.number;
+    }
+
+    /**
+     * @return 当前字节数组长度
+     */
+    public int getLength() {
+        if(this.token != Token.BYTES) {
+            throw new IllegalStateException("B编码当前数据不是字节数组：" + this.token);
+        }
+        return this.bytesLength;
+    }
+
+    /**
+     * @return 当前字节数组（复制数据）
+     */
+    public byte[] getBytes() {
+        final byte[] bytes = new byte[this.getLength()];
+        this.buffer.get(this.bytesPosition, bytes);
+        return bytes;
+    }
+
+    /**
+     * @return 当前字节数组（原始数据视图：不用复制数据）
+     */
+    public ByteBuffer getBuffer() {
+        return this.buffer.slice(this.bytesPosition, this.getLength());
+    }
+
+    /**
+     * @return 当前字符串
+     */
+    public String getString() {
+        return new String(this.getBytes());
+    }
+
+    /**
+     * @return 当前读取位置（相对开始位置）
+     */
+    public int position() {
+        return this.buffer.position();
+    }
+
+}
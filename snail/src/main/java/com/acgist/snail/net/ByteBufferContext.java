@@ -0,0 +1,187 @@
+package com.acgist.snail.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.IContext;
+
+/**
+ * 直接内存缓冲池上下文
+ * 按照大小分级缓存直接内存：优先使用线程缓存，然后使用共享缓存，最后申请新的直接内存。
+ * 使用完成必须调用{@link #release(ByteBuffer)}释放，释放以后不能继续使用。
+ * 超过最大分级的大小不会缓存。
+ * 共享缓存使用数组队列：不同线程申请释放不用新建节点
+ * 
+ * @author acgist
+ */
+public final class ByteBufferContext implements IContext {
+
+    private static final ByteBufferContext INSTANCE = new ByteBufferContext();
+
+    public static final ByteBufferContext getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 最小分级大小：{@value}
+     */
+    private static final int MIN_CLASS_LENGTH = SystemConfig.UDP_BUFFER_LENGTH;
+    /**
+     * 分级数量：{@value}
+     * 2KB、4KB、8KB、16KB、32KB、64KB
+     */
+    private static final int CLASS_SIZE = 6;
+    /**
+     * 最大分级大小：{@value}
+     */
+    private static final int MAX_CLASS_LENGTH = MIN_CLASS_LENGTH << (CLASS_SIZE - 1);
+    /**
+     * 线程缓存数量（每个分级）：{@value}
+     */
+    private static final int LOCAL_CACHE_SIZE = 16;
+    /**
+     * 共享缓存数量（每个分级）：{@value}
+     */
+    private static final int SHARED_CACHE_SIZE = 256;
+
+    /**
+     * 线程缓存
+     */
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> localCaches;
+    /**
+     * 共享缓存
+     */
+    private final Queue<ByteBuffer>[] sharedCaches;
+    /**
+     * 命中次数
+     */
+    private final LongAdder hit;
+    /**
+     * 没有命中次数
+     */
+    private final LongAdder miss;
+    /**
+     * 没有释放数量
+     * 只统计缓冲池分级申请的直接内存：超过最大分级和不是缓冲池申请的直接内存不会统计
+     */
+    private final LongAdder outstanding;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ByteBufferContext() {
+        this.localCaches = ThreadLocal.withInitial(() -> {
+            final ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[CLASS_SIZE];
+            for (int index = 0; index < CLASS_SIZE; index++) {
+                caches[index] = new ArrayDeque<>(LOCAL_CACHE_SIZE);
+            }
+            return caches;
+        });
+        this.sharedCaches = new Queue[CLASS_SIZE];
+        for (int index = 0; index < CLASS_SIZE; index++) {
+            this.sharedCaches[index] = new ArrayBlockingQueue<>(SHARED_CACHE_SIZE);
+        }
+        this.hit         = new LongAdder();
+        this.miss        = new LongAdder();
+        this.outstanding = new LongAdder();
+    }
+
+    /**
+     * 申请直接内存
+     * 
+     * @param length 最小长度
+     * 
+     * @return 直接内存（容量等于分级大小）
+     */
+    public ByteBuffer allocate(int length) {
+        final int index = this.index(length);
+        if(index < 0) {
+            this.miss.increment();
+            return ByteBuffer.allocateDirect(length);
+        }
+        this.outstanding.increment();
+        ByteBuffer buffer = this.localCaches.get()[index].pollLast();
+        if(buffer == null) {
+            buffer = this.sharedCaches[index].poll();
+        }
+        if(buffer == null) {
+            this.miss.increment();
+            return ByteBuffer.allocateDirect(MIN_CLASS_LENGTH << index);
+        }
+        this.hit.increment();
+        return buffer;
+    }
+
+    /**
+     * 释放直接内存
+     * 
+     * @param buffer 直接内存
+     */
+    public void release(ByteBuffer buffer) {
+        if(buffer == null) {
+            return;
+        }
+        final int capacity = buffer.capacity();
+        final int index = this.index(capacity);
+        if(
+            index < 0                                ||
+            !buffer.isDirect()                       ||
+            buffer.isReadOnly()                      ||
+            capacity != (MIN_CLASS_LENGTH << index)
+        ) {
+            // 不是缓冲池申请的直接内存
+            return;
+        }
+        this.outstanding.decrement();
+        buffer.clear();
+        final ArrayDeque<ByteBuffer> localCache = this.localCaches.get()[index];
+        if(localCache.size() < LOCAL_CACHE_SIZE) {
+            localCache.offerLast(buffer);
+            return;
+        }
+        // 共享缓存已满：交给垃圾回收
+        this.sharedCaches[index].offer(buffer);
+    }
+
+    /**
+     * 获取分级索引
+     * 
+     * @param length 长度
+     * 
+     * @return 分级索引（超过最大分级：-1）
+     */
+    private int index(int length) {
+        if(length > MAX_CLASS_LENGTH) {
+            return -1;
+        }
+        if(length <= MIN_CLASS_LENGTH) {
+            return 0;
+        }
+        // 向上取整
+        return Integer.SIZE - Integer.numberOfLeadingZeros((length - 1) / MIN_CLASS_LENGTH);
+    }
+
+    /**
+     * @return 命中次数
+     */
+    public long hit() {
+        return this.hit.sum();
+    }
+
+    /**
+     * @return 没有命中次数
+     */
+    public long miss() {
+        return this.miss.sum();
+    }
+
+    /**
+     * @return 没有释放数量（缓冲池分级申请）
+     */
+    public long outstanding() {
+        return this.outstanding.sum();
+    }
+
+}
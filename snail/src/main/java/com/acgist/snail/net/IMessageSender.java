@@ -73,6 +73,39 @@ public interface IMessageSender {
      * @throws NetException 网络异常
      */
     void send(ByteBuffer buffer, int timeout) throws NetException;
+    
+    /**
+     * 消息发送
+     * 默认合并消息发送
+     * 
+     * @param buffers 消息内容
+     * @param timeout 超时时间（秒）
+     * 
+     * @throws NetException 网络异常
+     */
+    default void send(ByteBuffer[] buffers, int timeout) throws NetException {
+        this.send(IMessageSender.merge(buffers), timeout);
+    }
+    
+    /**
+     * 合并消息
+     * 
+     * @param buffers 消息内容
+     * 
+     * @return 消息内容
+     */
+    static ByteBuffer merge(ByteBuffer[] buffers) {
+        int capacity = 0;
+        for (ByteBuffer buffer : buffers) {
+            capacity += buffer.remaining();
+        }
+        final ByteBuffer message = ByteBuffer.allocate(capacity);
+        for (ByteBuffer buffer : buffers) {
+            message.put(buffer);
+        }
+        message.flip();
+        return message;
+    }
 
     /**
      * 数据验证
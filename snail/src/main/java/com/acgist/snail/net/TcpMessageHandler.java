@@ -5,24 +5,89 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.SystemThreadContext;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.utils.IoUtils;
 
 /**
  * TCP消息代理
+ * 发送消息放入连接发送队列：小消息合并，多个消息聚集写入，异步写入完成以后写入下一批消息。
  * 
  * @author acgist
  */
 public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocketChannel> implements CompletionHandler<Integer, ByteBuffer> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TcpMessageHandler.class);
+    
+    /**
+     * 单次聚集写入最大消息数量：{@value}
+     */
+    private static final int MAX_GATHERING_SIZE = 64;
+    /**
+     * 单次聚集写入最大长度：{@value}
+     */
+    private static final int MAX_GATHERING_LENGTH = 256 * SystemConfig.ONE_KB;
+    /**
+     * 合并消息最大长度：{@value}
+     * 小于等于这个长度的消息复制到合并缓冲
+     */
+    private static final int MAX_COMBINE_LENGTH = 512;
+    /**
+     * 合并缓冲长度：{@value}
+     */
+    private static final int COMBINE_BUFFER_LENGTH = 4 * SystemConfig.ONE_KB;
+    /**
+     * 发送队列最大长度（高水位）：{@value}
+     * 超过以后发送线程阻塞等待
+     */
+    private static final long MAX_QUEUE_LENGTH = 4L * SystemConfig.ONE_MB;
+    /**
+     * 发送队列等待时间（毫秒）：{@value}
+     */
+    private static final long QUEUE_TIMEOUT = SystemConfig.DOWNLOAD_TIMEOUT * 1000L;
+    
+    /**
+     * 发送队列
+     * 使用队列作为发送锁
+     */
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    /**
+     * 合并缓冲：发送完成释放
+     */
+    private final Set<ByteBuffer> combineBuffers = Collections.newSetFromMap(new IdentityHashMap<>());
+    /**
+     * 当前合并缓冲（写模式）
+     */
+    private ByteBuffer combineBuffer;
+    /**
+     * 是否正在写入
+     */
+    private boolean writing = false;
+    /**
+     * 是否关闭通道
+     */
+    private boolean closeChannel = false;
+    /**
+     * 放入队列长度
+     */
+    private long offerLength = 0L;
+    /**
+     * 写入完成长度
+     */
+    private long writeLength = 0L;
+    /**
+     * 写入回调
+     */
+    private final CompletionHandler<Long, ByteBuffer[]> writeHandler = new WriteHandler();
 
     @Override
     public void handle(AsynchronousSocketChannel channel) {
@@ -30,34 +95,260 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
         this.loopMessage();
     }
     
+    /**
+     * 放入发送队列异步发送：不用等待发送完成
+     * 超时时间：等待消息发送完成（连接消息）
+     */
     @Override
     public void send(ByteBuffer buffer, int timeout) throws NetException {
+        this.await(this.offer(buffer), timeout);
+    }
+
+    /**
+     * 聚集写入：多个消息一次发送不用合并
+     */
+    @Override
+    public void send(ByteBuffer[] buffers, int timeout) throws NetException {
+        this.await(this.offer(buffers), timeout);
+    }
+    
+    /**
+     * 消息放入发送队列
+     * 
+     * @param buffer 消息
+     * 
+     * @return 发送完成长度（发送队列位置）
+     * 
+     * @throws NetException 网络异常
+     * 
+     * @see #offer(ByteBuffer[])
+     */
+    protected long offer(ByteBuffer buffer) throws NetException {
         this.check(buffer);
-        // 阻塞线程（等待发送完成）：防止多线程同时写导致WritePendingException
-        synchronized (this.channel) {
-            try {
-                final int size;
-                final Future<Integer> future = this.channel.write(buffer);
-                // 超时时间：超时异常导致数据没有发送完成但释放了锁从而引起一连串的WritePendingException
-                if(timeout <= SystemConfig.NONE_TIMEOUT) {
-                    // 没有超时：除了连接消息（首条消息）以外所有消息都不使用超时时间
-                    size = future.get();
+        return this.offer(new ByteBuffer[] { buffer });
+    }
+    
+    /**
+     * 消息放入发送队列
+     * 同一次放入的消息连续发送，小消息复制到合并缓冲，其他消息放入以后不能修改。
+     * 队列超过高水位时阻塞等待写入。
+     * 
+     * @param buffers 消息
+     * 
+     * @return 发送完成长度（发送队列位置）
+     * 
+     * @throws NetException 网络异常
+     */
+    protected long offer(ByteBuffer[] buffers) throws NetException {
+        if(!this.available()) {
+            throw new NetException("消息发送失败：通道不可用");
+        }
+        long length = 0L;
+        for (ByteBuffer buffer : buffers) {
+            length += buffer.remaining();
+        }
+        final long position;
+        synchronized (this.queue) {
+            this.awaitQueue();
+            for (ByteBuffer buffer : buffers) {
+                final int remaining = buffer.remaining();
+                if(remaining <= 0) {
+                    continue;
+                }
+                if(remaining <= MAX_COMBINE_LENGTH) {
+                    this.combine(buffer);
                 } else {
-                    // 超时时间：连接消息（首条消息）使用超时时间
-                    size = future.get(timeout, TimeUnit.SECONDS);
+                    this.seal();
+                    this.queue.offer(buffer);
+                }
+            }
+            this.offerLength += length;
+            position = this.offerLength;
+        }
+        this.flush();
+        return position;
+    }
+    
+    /**
+     * 等待发送队列低于高水位
+     * 
+     * @throws NetException 网络异常
+     */
+    private void awaitQueue() throws NetException {
+        final long deadline = System.currentTimeMillis() + QUEUE_TIMEOUT;
+        while(this.offerLength - this.writeLength > MAX_QUEUE_LENGTH) {
+            if(!this.available()) {
+                throw new NetException("消息发送失败：通道不可用");
+            }
+            final long wait = deadline - System.currentTimeMillis();
+            if(wait <= 0L) {
+                throw new NetException("消息发送失败：发送队列已满");
+            }
+            this.waitQueue(wait);
+        }
+    }
+    
+    /**
+     * 等待消息发送完成
+     * 
+     * @param position 发送完成长度（发送队列位置）
+     * @param timeout  超时时间（秒）
+     * 
+     * @throws NetException 网络异常
+     */
+    protected void await(long position, int timeout) throws NetException {
+        if(timeout <= SystemConfig.NONE_TIMEOUT) {
+            // 没有超时：除了连接消息（首条消息）以外所有消息都不用等待
+            return;
+        }
+        final long deadline = System.currentTimeMillis() + timeout * 1000L;
+        synchronized (this.queue) {
+            while(this.writeLength < position) {
+                if(this.closeChannel) {
+                    throw new NetException("消息发送失败：通道已经关闭");
                 }
-                if(size <= 0) {
-                    LOGGER.warn("TCP消息发送失败：{}-{}", this.channel, size);
+                final long wait = deadline - System.currentTimeMillis();
+                if(wait <= 0L) {
+                    throw new NetException("消息发送超时：" + timeout);
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new NetException(e);
-            } catch (TimeoutException | ExecutionException e) {
-                throw new NetException(e);
+                this.waitQueue(wait);
             }
         }
     }
-
+    
+    /**
+     * 等待发送队列通知
+     * 
+     * @param wait 等待时间（毫秒）
+     * 
+     * @throws NetException 网络异常
+     */
+    private void waitQueue(long wait) throws NetException {
+        try {
+            this.queue.wait(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NetException(e);
+        }
+    }
+    
+    /**
+     * 复制消息到合并缓冲
+     * 
+     * @param buffer 消息
+     */
+    private void combine(ByteBuffer buffer) {
+        if(this.combineBuffer != null && this.combineBuffer.remaining() < buffer.remaining()) {
+            this.seal();
+        }
+        if(this.combineBuffer == null) {
+            this.combineBuffer = ByteBufferContext.getInstance().allocate(COMBINE_BUFFER_LENGTH);
+            this.combineBuffers.add(this.combineBuffer);
+        }
+        this.combineBuffer.put(buffer);
+    }
+    
+    /**
+     * 当前合并缓冲放入发送队列
+     */
+    private void seal() {
+        if(this.combineBuffer != null) {
+            this.combineBuffer.flip();
+            this.queue.offer(this.combineBuffer);
+            this.combineBuffer = null;
+        }
+    }
+    
+    /**
+     * 写入发送队列消息
+     * 没有正在写入时聚集写入队列消息：写入期间放入的消息等待下次一起写入
+     */
+    private void flush() {
+        final ByteBuffer[] buffers;
+        synchronized (this.queue) {
+            if(this.writing || this.closeChannel) {
+                return;
+            }
+            this.seal();
+            if(this.queue.isEmpty()) {
+                if(this.close) {
+                    // 延迟关闭：消息已经全部发送
+                    this.closeChannel();
+                }
+                return;
+            }
+            int size = 0;
+            long length = 0L;
+            final ByteBuffer[] array = new ByteBuffer[Math.min(MAX_GATHERING_SIZE, this.queue.size())];
+            while(size < array.length && (size == 0 || length + this.queue.peek().remaining() <= MAX_GATHERING_LENGTH)) {
+                final ByteBuffer buffer = this.queue.poll();
+                length += buffer.remaining();
+                array[size++] = buffer;
+            }
+            buffers = size == array.length ? array : Arrays.copyOf(array, size);
+            this.writing = true;
+        }
+        this.write(buffers, 0);
+    }
+    
+    /**
+     * 聚集写入
+     * 
+     * @param buffers 消息
+     * @param offset  开始位置
+     */
+    private void write(ByteBuffer[] buffers, int offset) {
+        try {
+            this.channel.write(buffers, offset, buffers.length - offset, SystemConfig.NONE_TIMEOUT, TimeUnit.SECONDS, buffers, this.writeHandler);
+        } catch (Exception e) {
+            this.writeHandler.failed(e, buffers);
+        }
+    }
+    
+    /**
+     * 释放合并缓冲
+     * 
+     * @param buffers 消息
+     */
+    private void release(ByteBuffer[] buffers) {
+        synchronized (this.queue) {
+            for (ByteBuffer buffer : buffers) {
+                if(this.combineBuffers.remove(buffer)) {
+                    ByteBufferContext.getInstance().release(buffer);
+                }
+            }
+        }
+    }
+    
+    /**
+     * 关闭通道释放发送队列
+     * 调用者必须持有发送锁
+     */
+    private void closeChannel() {
+        if(this.closeChannel) {
+            return;
+        }
+        LOGGER.debug("TCP通道关闭：{}", this.channel);
+        this.closeChannel = true;
+        this.seal();
+        // 正在写入的合并缓冲由写入回调释放
+        this.queue.stream()
+            .filter(this.combineBuffers::remove)
+            .forEach(ByteBufferContext.getInstance()::release);
+        this.queue.clear();
+        this.queue.notifyAll();
+        IoUtils.close(this.channel);
+    }
+    
+    /**
+     * @return 发送队列等待长度
+     */
+    public long queueLength() {
+        synchronized (this.queue) {
+            return this.offerLength - this.writeLength;
+        }
+    }
+    
     @Override
     public InetSocketAddress remoteSocketAddress() {
         try {
@@ -75,7 +366,19 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
         }
         LOGGER.debug("TCP连接关闭：{}", this.channel);
         this.close = true;
-        IoUtils.close(this.channel);
+        synchronized (this.queue) {
+            this.queue.notifyAll();
+            if(this.writing) {
+                // 等待发送队列消息写入完成：超时强制关闭
+                SystemThreadContext.scheduled(SystemConfig.CONNECT_TIMEOUT, TimeUnit.SECONDS, () -> {
+                    synchronized (this.queue) {
+                        this.closeChannel();
+                    }
+                });
+                return;
+            }
+        }
+        this.flush();
     }
     
     @Override
@@ -91,12 +394,15 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
         } else {
             this.receive(buffer);
         }
+        // 消息处理器同步处理消息：处理完成直接释放
+        ByteBufferContext.getInstance().release(buffer);
         this.loopMessage();
     }
     
     @Override
     public void failed(Throwable throwable, ByteBuffer buffer) {
         LOGGER.error("TCP消息处理异常：{}", this.channel, throwable);
+        ByteBufferContext.getInstance().release(buffer);
         this.close();
     }
     
@@ -121,11 +427,61 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
      */
     private void loopMessage() {
         if(this.available()) {
-            final ByteBuffer buffer = ByteBuffer.allocateDirect(SystemConfig.TCP_BUFFER_LENGTH);
+            final ByteBuffer buffer = ByteBufferContext.getInstance().allocate(SystemConfig.TCP_BUFFER_LENGTH);
             this.channel.read(buffer, buffer, this);
         } else {
             LOGGER.debug("TCP消息代理退出消息轮询");
         }
     }
 
+    /**
+     * 写入回调
+     * 部分写入继续写入剩余消息，全部写入完成写入发送队列下一批消息。
+     * 
+     * @author acgist
+     */
+    private final class WriteHandler implements CompletionHandler<Long, ByteBuffer[]> {
+        
+        @Override
+        public void completed(Long result, ByteBuffer[] buffers) {
+            if(result == null || result < 0L) {
+                this.failed(new NetException("TCP消息发送失败：" + result), buffers);
+                return;
+            }
+            synchronized (TcpMessageHandler.this.queue) {
+                TcpMessageHandler.this.writeLength += result;
+                TcpMessageHandler.this.queue.notifyAll();
+            }
+            int offset = 0;
+            while(offset < buffers.length && !buffers[offset].hasRemaining()) {
+                offset++;
+            }
+            if(offset < buffers.length) {
+                TcpMessageHandler.this.write(buffers, offset);
+                return;
+            }
+            TcpMessageHandler.this.release(buffers);
+            synchronized (TcpMessageHandler.this.queue) {
+                TcpMessageHandler.this.writing = false;
+            }
+            TcpMessageHandler.this.flush();
+        }
+        
+        @Override
+        public void failed(Throwable throwable, ByteBuffer[] buffers) {
+            if(TcpMessageHandler.this.close) {
+                LOGGER.debug("TCP消息发送异常：{}", TcpMessageHandler.this.channel, throwable);
+            } else {
+                LOGGER.error("TCP消息发送异常：{}", TcpMessageHandler.this.channel, throwable);
+            }
+            TcpMessageHandler.this.close = true;
+            TcpMessageHandler.this.release(buffers);
+            synchronized (TcpMessageHandler.this.queue) {
+                TcpMessageHandler.this.writing = false;
+                TcpMessageHandler.this.closeChannel();
+            }
+        }
+        
+    }
+
 }
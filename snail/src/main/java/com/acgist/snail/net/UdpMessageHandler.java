@@ -1,6 +1,5 @@
 package com.acgist.snail.net;
 
-import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
@@ -59,6 +58,7 @@ public abstract class UdpMessageHandler extends MessageHandler<DatagramChannel>
     
     /**
      * 发送消息
+     * 消息添加到发送队列异步发送
      * 
      * @param buffer        消息
      * @param socketAddress 地址
@@ -67,14 +67,13 @@ public abstract class UdpMessageHandler extends MessageHandler<DatagramChannel>
      */
     protected final void send(ByteBuffer buffer, SocketAddress socketAddress) throws NetException {
         this.check(buffer);
-        try {
-            // UDP不用加锁
-            final int size = this.channel.send(buffer, socketAddress);
-            if(size <= 0) {
-                LOGGER.warn("UDP消息发送失败：{}-{}", socketAddress, size);
-            }
-        } catch (IOException e) {
-            throw new NetException(e);
+        if(socketAddress instanceof InetSocketAddress inetSocketAddress && inetSocketAddress.isUnresolved()) {
+            throw new NetException("UDP消息发送失败（地址没有解析）：" + socketAddress);
+        }
+        // 发送上下文统一控制速率批量发送：复制消息不用等待发送完成
+        if(!UdpSendContext.getInstance().send(this.channel, buffer, socketAddress) && LOGGER.isDebugEnabled()) {
+            // 丢弃数量已经统计：队列已满时不用每个消息输出警告日志
+            LOGGER.debug("UDP消息发送失败（队列已满）：{}", socketAddress);
         }
     }
     
@@ -0,0 +1,583 @@
+package com.acgist.snail.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.IContext;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.utils.BeanUtils;
+import com.acgist.snail.utils.IoUtils;
+
+/**
+ * UDP发送上下文
+ * 所有UDP消息（DHT、UTP、Tracker等等）统一发送：平滑突发流量，防止路由丢包。
+ * 每个地址一个发送队列，轮询地址发送：单个地址大量消息不会阻塞其他地址消息。
+ * 令牌桶控制发送速率，一个Selector线程批量发送，通道缓冲区已满等待通道可写。
+ * 添加消息时复制消息（直接内存缓冲池）：调用方添加以后可以直接释放消息
+ * 
+ * @author acgist
+ */
+public final class UdpSendContext implements IContext {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UdpSendContext.class);
+
+    private static final UdpSendContext INSTANCE = new UdpSendContext(SystemConfig.getUdpPacingRate());
+
+    public static final UdpSendContext getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 每批最大发送数量：{@value}
+     */
+    private static final int BATCH_SIZE = 64;
+    /**
+     * 最大排队数量：{@value}
+     */
+    private static final int QUEUE_CAPACITY = 8192;
+    /**
+     * 单个地址最大排队数量：{@value}
+     * 大于UTP窗口数据包数量
+     */
+    private static final int DESTINATION_CAPACITY = 1024;
+    /**
+     * 地址队列缓存数量：{@value}
+     */
+    private static final int DESTINATION_CACHE_SIZE = 1024;
+    /**
+     * 一秒（纳秒）：{@value}
+     */
+    private static final long ONE_SECOND = 1_000_000_000L;
+    /**
+     * 突发时长（毫秒）：{@value}
+     * 令牌桶容量 = 发送速率 * 突发时长
+     */
+    private static final long BURST_TIME = 10L;
+    /**
+     * 最小令牌桶容量（字节）：{@value}
+     * 保证可以连续发送多个最大UDP消息
+     */
+    private static final long MIN_BURST = 16L * SystemConfig.UDP_BUFFER_LENGTH;
+    /**
+     * 没有消息等待时间（毫秒）：{@value}
+     */
+    private static final long IDLE_TIMEOUT = 1000L;
+    /**
+     * 通道缓冲区已满等待时间（毫秒）：{@value}
+     */
+    private static final long BLOCK_TIMEOUT = 10L;
+
+    /**
+     * 是否可用
+     */
+    private volatile boolean available;
+    /**
+     * 发送线程是否等待消息
+     * 
+     * @see #poll(boolean)
+     */
+    private boolean waiting;
+    /**
+     * 发送速率（B/s）（0：不限速）
+     */
+    private final long rate;
+    /**
+     * 令牌桶容量（字节 * 一秒纳秒）
+     */
+    private final long burst;
+    /**
+     * 令牌数量（字节 * 一秒纳秒）：防止计算精度损失
+     * 发送消息先扣除令牌：可以是负数
+     * 只有发送线程使用
+     */
+    private long tokens;
+    /**
+     * 令牌更新时间（纳秒）
+     * 只有发送线程使用
+     */
+    private long tokensTimestamp;
+    /**
+     * 排队数量
+     */
+    private volatile int size;
+    /**
+     * 最大排队数量
+     */
+    private volatile int maxSize;
+    /**
+     * 地址队列
+     */
+    private final Map<SocketAddress, Destination> destinations;
+    /**
+     * 等待发送地址队列（轮询）
+     */
+    private final ArrayDeque<Destination> readyDestinations;
+    /**
+     * 地址队列缓存
+     */
+    private final ArrayDeque<Destination> destinationCache;
+    /**
+     * 消息缓存
+     */
+    private final ArrayDeque<Datagram> datagramCache;
+    /**
+     * 批量发送消息
+     * 只有发送线程使用
+     */
+    private final Datagram[] batch;
+    /**
+     * 发送数量
+     */
+    private final LongAdder count;
+    /**
+     * 发送字节
+     */
+    private final LongAdder bytes;
+    /**
+     * 丢弃数量：队列已满、发送异常
+     */
+    private final LongAdder drop;
+    /**
+     * 通道缓冲区已满次数
+     */
+    private final LongAdder block;
+    /**
+     * Selector：等待消息、控制速率、等待通道可写
+     */
+    private final Selector selector;
+    /**
+     * 发送线程池
+     */
+    private final ExecutorService executor;
+
+    /**
+     * @param rate 发送速率（KB/s）（0：不限速）
+     */
+    UdpSendContext(int rate) {
+        this.available         = true;
+        this.waiting           = false;
+        this.rate              = rate * (long) SystemConfig.ONE_KB;
+        this.burst             = Math.max(MIN_BURST, this.rate * BURST_TIME / 1000) * ONE_SECOND;
+        this.tokens            = this.burst;
+        this.tokensTimestamp   = System.nanoTime();
+        this.destinations      = new HashMap<>();
+        this.readyDestinations = new ArrayDeque<>();
+        this.destinationCache  = new ArrayDeque<>();
+        this.datagramCache     = new ArrayDeque<>();
+        this.batch             = new Datagram[BATCH_SIZE];
+        this.count             = new LongAdder();
+        this.bytes             = new LongAdder();
+        this.drop              = new LongAdder();
+        this.block             = new LongAdder();
+        this.selector          = this.buildSelector();
+        this.executor          = SystemThreadContext.newExecutor(1, 1, 1, 60L, SystemThreadContext.SNAIL_THREAD_UDP_SENDER);
+        this.executor.submit(this::loopSend);
+        LOGGER.debug("启动UDP发送上下文：{}", this.rate);
+    }
+
+    /**
+     * UDP消息
+     */
+    private static final class Datagram {
+
+        /**
+         * 通道
+         */
+        private DatagramChannel channel;
+        /**
+         * 地址
+         */
+        private SocketAddress socketAddress;
+        /**
+         * 消息（直接内存缓冲池）
+         */
+        private ByteBuffer buffer;
+
+    }
+
+    /**
+     * 地址发送队列
+     */
+    private static final class Destination {
+
+        /**
+         * 地址
+         */
+        private SocketAddress socketAddress;
+        /**
+         * 消息队列
+         */
+        private final ArrayDeque<Datagram> datagrams = new ArrayDeque<>();
+
+    }
+
+    /**
+     * 添加发送消息
+     * 复制消息：消息位置设置为消息结束位置
+     * 
+     * @param channel       通道
+     * @param buffer        消息
+     * @param socketAddress 地址
+     * 
+     * @return 是否成功（队列已满：失败）
+     */
+    public boolean send(DatagramChannel channel, ByteBuffer buffer, SocketAddress socketAddress) {
+        if(!this.available) {
+            this.drop.increment();
+            return false;
+        }
+        final ByteBuffer copy = ByteBufferContext.getInstance().allocate(buffer.remaining());
+        copy.put(buffer).flip();
+        boolean wakeup = false;
+        boolean success;
+        synchronized (this) {
+            Destination destination = this.destinations.get(socketAddress);
+            success = this.size < QUEUE_CAPACITY && (destination == null || destination.datagrams.size() < DESTINATION_CAPACITY);
+            if(success) {
+                if(destination == null) {
+                    destination = this.newDestination(socketAddress);
+                    this.readyDestinations.offerLast(destination);
+                }
+                destination.datagrams.offerLast(this.newDatagram(channel, copy, socketAddress));
+                this.size++;
+                if(this.size > this.maxSize) {
+                    this.maxSize = this.size;
+                }
+                if(this.waiting) {
+                    // 只唤醒一次
+                    this.waiting = false;
+                    wakeup = true;
+                }
+            }
+        }
+        if(!success) {
+            this.drop.increment();
+            ByteBufferContext.getInstance().release(copy);
+            return false;
+        }
+        if(wakeup) {
+            this.selector.wakeup();
+        }
+        return true;
+    }
+
+    /**
+     * 发送消息轮询
+     */
+    private void loopSend() {
+        while(this.available) {
+            try {
+                this.refreshTokens();
+                final int size = this.poll(false);
+                if(size > 0) {
+                    this.sendBatch(size, true);
+                } else {
+                    this.await();
+                }
+            } catch (Exception e) {
+                LOGGER.error("UDP发送消息异常", e);
+            }
+        }
+        // 关闭：不限速发送剩余消息
+        int size;
+        while((size = this.poll(true)) > 0) {
+            this.sendBatch(size, false);
+        }
+        IoUtils.close(this.selector);
+        LOGGER.debug("UDP发送上下文退出消息轮询");
+    }
+
+    /**
+     * 更新令牌数量
+     */
+    private void refreshTokens() {
+        if(this.rate <= 0L) {
+            return;
+        }
+        final long timestamp = System.nanoTime();
+        // 防止溢出
+        final long elapsed = Math.min(timestamp - this.tokensTimestamp, ONE_SECOND);
+        this.tokensTimestamp = timestamp;
+        this.tokens = Math.min(this.burst, this.tokens + elapsed * this.rate);
+    }
+
+    /**
+     * 轮询地址取出批量发送消息
+     * 
+     * @param force 是否忽略发送速率
+     * 
+     * @return 消息数量
+     */
+    private synchronized int poll(boolean force) {
+        this.waiting = false;
+        int size = 0;
+        while(size < BATCH_SIZE && (force || this.rate <= 0L || this.tokens > 0L)) {
+            final Destination destination = this.readyDestinations.pollFirst();
+            if(destination == null) {
+                break;
+            }
+            final Datagram datagram = destination.datagrams.pollFirst();
+            if(destination.datagrams.isEmpty()) {
+                this.destinations.remove(destination.socketAddress);
+                this.recycle(destination);
+            } else {
+                this.readyDestinations.offerLast(destination);
+            }
+            this.tokens -= datagram.buffer.remaining() * ONE_SECOND;
+            this.batch[size++] = datagram;
+        }
+        this.size -= size;
+        if(this.size == 0) {
+            this.waiting = true;
+        }
+        return size;
+    }
+
+    /**
+     * 批量发送消息
+     * 
+     * @param size    消息数量
+     * @param requeue 通道缓冲区已满是否重新排队（否：丢弃）
+     */
+    private void sendBatch(int size, boolean requeue) {
+        int index = 0;
+        DatagramChannel blockChannel = null;
+        for (; index < size; index++) {
+            final Datagram datagram = this.batch[index];
+            final int length = datagram.buffer.remaining();
+            int sendSize;
+            try {
+                sendSize = datagram.channel.send(datagram.buffer, datagram.socketAddress);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.debug("UDP发送消息异常：{}", datagram.socketAddress, e);
+                sendSize = -1;
+            }
+            if(sendSize == 0 && requeue) {
+                blockChannel = datagram.channel;
+                break;
+            }
+            if(sendSize > 0) {
+                this.count.increment();
+                this.bytes.add(sendSize);
+            } else {
+                // 丢弃数量已经统计：不用每个消息输出警告日志
+                if(LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("UDP消息发送失败：{}-{}", datagram.socketAddress, length);
+                }
+                this.drop.increment();
+            }
+            ByteBufferContext.getInstance().release(datagram.buffer);
+        }
+        synchronized (this) {
+            for (int sendIndex = 0; sendIndex < index; sendIndex++) {
+                this.recycle(this.batch[sendIndex]);
+                this.batch[sendIndex] = null;
+            }
+            // 倒序放回队首：保证消息顺序
+            for (int blockIndex = size - 1; blockIndex >= index; blockIndex--) {
+                final Datagram datagram = this.batch[blockIndex];
+                Destination destination = this.destinations.get(datagram.socketAddress);
+                if(destination == null) {
+                    destination = this.newDestination(datagram.socketAddress);
+                    this.readyDestinations.offerFirst(destination);
+                }
+                destination.datagrams.offerFirst(datagram);
+                this.tokens += datagram.buffer.remaining() * ONE_SECOND;
+                this.batch[blockIndex] = null;
+                this.size++;
+            }
+        }
+        if(blockChannel != null) {
+            this.block.increment();
+            this.awaitWritable(blockChannel);
+        }
+    }
+
+    /**
+     * 等待消息或者令牌
+     * 
+     * @throws IOException IO异常
+     */
+    private void await() throws IOException {
+        final long timeout;
+        if(this.rate > 0L && this.tokens <= 0L) {
+            // 等待令牌：向上取整
+            timeout = Math.max(1L, TimeUnit.NANOSECONDS.toMillis((-this.tokens / this.rate) + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+        } else {
+            timeout = IDLE_TIMEOUT;
+        }
+        this.selector.select(timeout);
+        this.selector.selectedKeys().clear();
+    }
+
+    /**
+     * 等待通道可写
+     * 
+     * @param channel 通道
+     */
+    private void awaitWritable(DatagramChannel channel) {
+        try {
+            SelectionKey selectionKey = channel.keyFor(this.selector);
+            if(selectionKey == null) {
+                selectionKey = channel.register(this.selector, SelectionKey.OP_WRITE);
+            } else {
+                selectionKey.interestOps(SelectionKey.OP_WRITE);
+            }
+            this.selector.select(BLOCK_TIMEOUT);
+            this.selector.selectedKeys().clear();
+            selectionKey.interestOps(0);
+        } catch (ClosedChannelException | CancelledKeyException e) {
+            // 通道关闭：再次发送失败丢弃消息
+            LOGGER.debug("UDP通道已经关闭", e);
+        } catch (IOException e) {
+            LOGGER.error("UDP等待通道可写异常", e);
+        }
+    }
+
+    /**
+     * @param socketAddress 地址
+     * 
+     * @return 地址队列
+     */
+    private Destination newDestination(SocketAddress socketAddress) {
+        Destination destination = this.destinationCache.pollLast();
+        if(destination == null) {
+            destination = new Destination();
+        }
+        destination.socketAddress = socketAddress;
+        this.destinations.put(socketAddress, destination);
+        return destination;
+    }
+
+    /**
+     * @param destination 地址队列
+     */
+    private void recycle(Destination destination) {
+        destination.socketAddress = null;
+        if(this.destinationCache.size() < DESTINATION_CACHE_SIZE) {
+            this.destinationCache.offerLast(destination);
+        }
+    }
+
+    /**
+     * @param channel       通道
+     * @param buffer        消息
+     * @param socketAddress 地址
+     * 
+     * @return 消息
+     */
+    private Datagram newDatagram(DatagramChannel channel, ByteBuffer buffer, SocketAddress socketAddress) {
+        Datagram datagram = this.datagramCache.pollLast();
+        if(datagram == null) {
+            datagram = new Datagram();
+        }
+        datagram.channel       = channel;
+        datagram.buffer        = buffer;
+        datagram.socketAddress = socketAddress;
+        return datagram;
+    }
+
+    /**
+     * @param datagram 消息
+     */
+    private void recycle(Datagram datagram) {
+        datagram.channel       = null;
+        datagram.buffer        = null;
+        datagram.socketAddress = null;
+        if(this.datagramCache.size() < QUEUE_CAPACITY) {
+            this.datagramCache.offerLast(datagram);
+        }
+    }
+
+    /**
+     * @return Selector
+     */
+    private Selector buildSelector() {
+        try {
+            return Selector.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("打开UDP发送Selector失败", e);
+        }
+    }
+
+    /**
+     * @return 排队数量
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return 最大排队数量
+     */
+    public int maxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * @return 排队地址数量
+     */
+    public synchronized int destinationSize() {
+        return this.destinations.size();
+    }
+
+    /**
+     * @return 发送数量
+     */
+    public long count() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return 发送字节
+     */
+    public long bytes() {
+        return this.bytes.sum();
+    }
+
+    /**
+     * @return 丢弃数量
+     */
+    public long drop() {
+        return this.drop.sum();
+    }
+
+    /**
+     * @return 通道缓冲区已满次数
+     */
+    public long block() {
+        return this.block.sum();
+    }
+
+    /**
+     * 关闭UDP发送上下文
+     * 剩余消息不限速发送
+     */
+    public void shutdown() {
+        LOGGER.debug("关闭UDP发送上下文");
+        this.available = false;
+        this.selector.wakeup();
+        SystemThreadContext.shutdown(this.executor);
+    }
+
+    @Override
+    public String toString() {
+        return BeanUtils.toString(this, this.size, this.maxSize, this.count(), this.bytes(), this.drop(), this.block());
+    }
+
+}
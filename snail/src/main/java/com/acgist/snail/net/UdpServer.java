@@ -209,11 +209,18 @@ public abstract class UdpServer<T extends UdpAcceptHandler> extends Server<Datag
                 // 移除已经取出来的信息
                 iterator.remove();
                 if (selectionKey.isValid() && selectionKey.isReadable()) {
-                    final ByteBuffer buffer = ByteBuffer.allocateDirect(SystemConfig.UDP_BUFFER_LENGTH);
-                    // 服务端多例：selectionKey.channel()
-                    // 服务端单例：客户端通道=服务端通道
-                    final InetSocketAddress socketAddress = (InetSocketAddress) this.channel.receive(buffer);
-                    this.handler.receive(buffer, socketAddress);
+                    final ByteBuffer buffer = ByteBufferContext.getInstance().allocate(SystemConfig.UDP_BUFFER_LENGTH);
+                    try {
+                        // 服务端多例：selectionKey.channel()
+                        // 服务端单例：客户端通道=服务端通道
+                        final InetSocketAddress socketAddress = (InetSocketAddress) this.channel.receive(buffer);
+                        if(socketAddress != null) {
+                            this.handler.receive(buffer, socketAddress);
+                        }
+                    } finally {
+                        // 消息处理器同步处理消息：处理完成直接释放
+                        ByteBufferContext.getInstance().release(buffer);
+                    }
                 }
             }
         }
@@ -233,6 +240,7 @@ public abstract class UdpServer<T extends UdpAcceptHandler> extends Server<Datag
      */
     public static final void shutdown() {
         LOGGER.debug("关闭UDP Server线程池");
+        UdpSendContext.getInstance().shutdown();
         SystemThreadContext.shutdown(EXECUTOR);
     }
 
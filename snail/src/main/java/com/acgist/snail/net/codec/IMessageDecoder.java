@@ -6,6 +6,7 @@ import com.acgist.snail.net.NetException;
 
 /**
  * 消息解码器接口
+ * 消息只在解码方法执行期间有效（接收消息使用缓冲池直接内存：方法返回以后被释放），需要保留消息时必须复制。
  * 
  * @param <I> 输入消息类型
  * 
@@ -0,0 +1,120 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 原子位图
+ * 固定索引范围：每个索引一个标记位，设置和清除不用加锁。
+ * 
+ * @author acgist
+ */
+public final class AtomicBitSet {
+
+    /**
+     * 开始索引（包含）
+     */
+    private final int beginIndex;
+    /**
+     * 结束索引（包含）
+     */
+    private final int endIndex;
+    /**
+     * 位图数据
+     */
+    private final AtomicLongArray words;
+
+    /**
+     * @param beginIndex 开始索引（包含）
+     * @param endIndex   结束索引（包含）
+     */
+    private AtomicBitSet(int beginIndex, int endIndex) {
+        this.beginIndex = beginIndex;
+        this.endIndex = endIndex;
+        this.words = new AtomicLongArray(((endIndex - beginIndex) >> 6) + 1);
+    }
+
+    /**
+     * 新建原子位图
+     * 
+     * @param beginIndex 开始索引（包含）
+     * @param endIndex   结束索引（包含）
+     * 
+     * @return {@link AtomicBitSet}
+     */
+    public static final AtomicBitSet newInstance(int beginIndex, int endIndex) {
+        return new AtomicBitSet(beginIndex, endIndex);
+    }
+
+    /**
+     * 判断是否标记
+     * 
+     * @param index 索引
+     * 
+     * @return 是否标记（超过范围：false）
+     */
+    public boolean get(int index) {
+        if(index < this.beginIndex || index > this.endIndex) {
+            return false;
+        }
+        final int offset = index - this.beginIndex;
+        return (this.words.get(offset >> 6) & (1L << offset)) != 0L;
+    }
+
+    /**
+     * 标记
+     * 
+     * @param index 索引
+     * 
+     * @return 是否标记成功（已经标记或者超过范围：false）
+     */
+    public boolean set(int index) {
+        if(index < this.beginIndex || index > this.endIndex) {
+            return false;
+        }
+        final int offset = index - this.beginIndex;
+        final int wordIndex = offset >> 6;
+        final long mask = 1L << offset;
+        long word;
+        do {
+            word = this.words.get(wordIndex);
+            if((word & mask) != 0L) {
+                return false;
+            }
+        } while(!this.words.compareAndSet(wordIndex, word, word | mask));
+        return true;
+    }
+
+    /**
+     * 清除标记
+     * 
+     * @param index 索引
+     */
+    public void clear(int index) {
+        if(index < this.beginIndex || index > this.endIndex) {
+            return;
+        }
+        final int offset = index - this.beginIndex;
+        final int wordIndex = offset >> 6;
+        final long mask = 1L << offset;
+        long word;
+        do {
+            word = this.words.get(wordIndex);
+            if((word & mask) == 0L) {
+                return;
+            }
+        } while(!this.words.compareAndSet(wordIndex, word, word & ~mask));
+    }
+
+    /**
+     * 清除所有标记
+     */
+    public void clear() {
+        final int length = this.words.length();
+        for (int index = 0; index < length; index++) {
+            if(this.words.get(index) != 0L) {
+                this.words.set(index, 0L);
+            }
+        }
+    }
+
+}
@@ -34,4 +34,17 @@ public interface IEncryptMessageSender extends IMessageSender, IPeerConnect {
      */
     void sendEncrypt(ByteBuffer buffer, int timeout) throws NetException;
     
+    /**
+     * 消息加密发送
+     * 默认合并消息加密发送
+     * 
+     * @param buffers 消息内容
+     * @param timeout 超时时间（秒）
+     * 
+     * @throws NetException 网络异常
+     */
+    default void sendEncrypt(ByteBuffer[] buffers, int timeout) throws NetException {
+        this.sendEncrypt(IMessageSender.merge(buffers), timeout);
+    }
+    
 }
@@ -0,0 +1,68 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 文件存储接口
+ * 使用绝对偏移读写数据：读写操作不会修改共享偏移，多个线程可以同时读写。
+ *
+ * @author acgist
+ */
+public interface ITorrentStorage extends AutoCloseable {
+
+    /**
+     * 读取数据
+     * 读取直到缓冲区填满或者到达文件末尾
+     *
+     * @param buffer   缓冲区
+     * @param position 文件偏移
+     *
+     * @return 读取数据大小
+     *
+     * @throws IOException IO异常
+     */
+    int read(ByteBuffer buffer, long position) throws IOException;
+
+    /**
+     * 写入数据
+     * 写入缓冲区所有剩余数据
+     *
+     * @param buffer   缓冲区
+     * @param position 文件偏移
+     *
+     * @throws IOException IO异常
+     */
+    void write(ByteBuffer buffer, long position) throws IOException;
+
+    /**
+     * 写入数据
+     * 连续写入多个缓冲区数据
+     *
+     * @param buffers  缓冲区
+     * @param position 文件偏移
+     *
+     * @throws IOException IO异常
+     */
+    default void write(ByteBuffer[] buffers, long position) throws IOException {
+        long offset = position;
+        for (ByteBuffer buffer : buffers) {
+            final int length = buffer.remaining();
+            this.write(buffer, offset);
+            offset += length;
+        }
+    }
+
+    /**
+     * 获取文件大小
+     *
+     * @return 文件大小
+     *
+     * @throws IOException IO异常
+     */
+    long size() throws IOException;
+
+    @Override
+    void close();
+
+}
@@ -0,0 +1,131 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acgist.snail.config.DownloadConfig;
+import com.acgist.snail.context.IContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * Piece缓存上下文
+ * 所有文件流组共享缓存大小：缓存大小 = 磁盘缓存（单个） * 下载数量
+ * 缓存超过限制时刷出缓存最大的文件流组
+ * 
+ * @author acgist
+ */
+public final class TorrentCacheContext implements IContext {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentCacheContext.class);
+
+    private static final TorrentCacheContext INSTANCE = new TorrentCacheContext();
+
+    public static final TorrentCacheContext getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 缓存大小
+     */
+    private final AtomicLong cacheSize;
+    /**
+     * 是否正在刷出缓存
+     */
+    private final AtomicBoolean flushing;
+    /**
+     * 文件流组
+     */
+    private final Set<TorrentStreamGroup> groups;
+
+    private TorrentCacheContext() {
+        this.cacheSize = new AtomicLong(0);
+        this.flushing = new AtomicBoolean(false);
+        this.groups = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * 注册文件流组
+     * 
+     * @param group 文件流组
+     */
+    public void register(TorrentStreamGroup group) {
+        this.groups.add(group);
+    }
+
+    /**
+     * 删除文件流组
+     * 
+     * @param group 文件流组
+     */
+    public void unregister(TorrentStreamGroup group) {
+        this.groups.remove(group);
+    }
+
+    /**
+     * 修改缓存大小
+     * 
+     * @param size 修改大小（缓存：正数；刷出：负数）
+     */
+    public void cache(long size) {
+        this.cacheSize.addAndGet(size);
+    }
+
+    /**
+     * 获取缓存大小
+     * 
+     * @return 缓存大小
+     */
+    public long cacheSize() {
+        return this.cacheSize.get();
+    }
+
+    /**
+     * 获取缓存限制大小
+     * 
+     * @return 缓存限制大小
+     */
+    public long limitSize() {
+        return (long) DownloadConfig.getMemoryBufferByte() * Math.max(1, DownloadConfig.getSize());
+    }
+
+    /**
+     * 判断缓存是否超过限制
+     * 
+     * @return 是否超过限制
+     */
+    public boolean overflow() {
+        return this.cacheSize.get() > this.limitSize();
+    }
+
+    /**
+     * 缓存超过限制刷出缓存
+     * 依次刷出缓存最大的文件流组直到没有超过限制
+     * 其他线程正在刷出缓存时直接返回：不用等待
+     */
+    public void flush() {
+        if(!this.overflow() || !this.flushing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            while(this.overflow()) {
+                TorrentStreamGroup flushGroup = null;
+                for (TorrentStreamGroup group : this.groups) {
+                    if(flushGroup == null || group.cacheSize() > flushGroup.cacheSize()) {
+                        flushGroup = group;
+                    }
+                }
+                if(flushGroup == null || flushGroup.cacheSize() <= 0L) {
+                    break;
+                }
+                LOGGER.debug("缓冲区被占满：{}-{}", this.cacheSize.get(), flushGroup.cacheSize());
+                flushGroup.flush();
+            }
+        } finally {
+            this.flushing.set(false);
+        }
+    }
+
+}
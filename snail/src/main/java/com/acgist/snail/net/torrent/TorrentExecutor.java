@@ -0,0 +1,204 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * BT任务执行器
+ * 任务进入执行器队列，同时执行数量不能超过限制：防止单个BT任务占用所有线程
+ * 普通任务直接提交线程池，阻塞任务（网络连接、信号量）才会补偿线程
+ * 
+ * @author acgist
+ * 
+ * @see TorrentRuntime
+ */
+public final class TorrentExecutor implements Executor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentExecutor.class);
+    
+    /**
+     * 同时执行任务数量：{@value}
+     */
+    private static final int MAX_RUNNING_SIZE = 8;
+    
+    /**
+     * BT运行时
+     */
+    private final TorrentRuntime runtime;
+    /**
+     * 等待任务
+     */
+    private final Queue<Task> tasks;
+    /**
+     * 执行中的任务数量
+     */
+    private final AtomicInteger running;
+    /**
+     * 执行任务数量
+     */
+    private final LongAdder taskSize;
+    /**
+     * 累计排队时间（纳秒）
+     */
+    private final LongAdder queueLatency;
+    /**
+     * 是否关闭
+     */
+    private volatile boolean shutdown;
+    
+    /**
+     * @param runtime BT运行时
+     */
+    TorrentExecutor(TorrentRuntime runtime) {
+        this.runtime      = runtime;
+        this.tasks        = new ConcurrentLinkedQueue<>();
+        this.running      = new AtomicInteger(0);
+        this.taskSize     = new LongAdder();
+        this.queueLatency = new LongAdder();
+        this.shutdown     = false;
+    }
+    
+    /**
+     * 执行任务
+     * 任务不能阻塞
+     * 
+     * @param runnable 任务
+     */
+    @Override
+    public void execute(Runnable runnable) {
+        this.execute(runnable, false);
+    }
+    
+    /**
+     * 执行任务
+     * 任务可以阻塞（网络连接、信号量）
+     * 
+     * @param runnable 任务
+     */
+    public void executeBlocking(Runnable runnable) {
+        this.execute(runnable, true);
+    }
+    
+    /**
+     * 执行任务
+     * 
+     * @param runnable 任务
+     * @param blocking 是否阻塞
+     */
+    private void execute(Runnable runnable, boolean blocking) {
+        if(this.shutdown) {
+            LOGGER.debug("执行器已经关闭：{}", runnable);
+            return;
+        }
+        this.tasks.offer(new Task(runnable, blocking, System.nanoTime()));
+        this.dispatch();
+    }
+    
+    /**
+     * 调度任务
+     */
+    private void dispatch() {
+        while(!this.tasks.isEmpty()) {
+            final int current = this.running.get();
+            if(current >= MAX_RUNNING_SIZE) {
+                // 执行完成以后继续调度
+                return;
+            }
+            if(!this.running.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            final Task task = this.tasks.poll();
+            if(task == null) {
+                this.running.decrementAndGet();
+                continue;
+            }
+            if(task.blocking()) {
+                this.runtime.executeBlocking(() -> this.execute(task));
+            } else {
+                this.runtime.execute(() -> this.execute(task));
+            }
+        }
+    }
+    
+    /**
+     * 执行任务
+     * 
+     * @param task 任务
+     */
+    private void execute(Task task) {
+        try {
+            final long latency = System.nanoTime() - task.time();
+            this.taskSize.increment();
+            this.queueLatency.add(latency);
+            this.runtime.queueLatency(latency);
+            if(!this.shutdown) {
+                task.runnable().run();
+            }
+        } catch (Exception e) {
+            LOGGER.error("BT任务执行异常", e);
+        } finally {
+            this.running.decrementAndGet();
+            this.dispatch();
+        }
+    }
+    
+    /**
+     * 关闭执行器
+     * 删除等待任务：执行中的任务继续执行
+     */
+    public void shutdown() {
+        this.shutdown = true;
+        this.tasks.clear();
+    }
+    
+    /**
+     * @return 是否关闭
+     */
+    public boolean isShutdown() {
+        return this.shutdown;
+    }
+    
+    /**
+     * @return 等待任务数量
+     */
+    public int queueSize() {
+        return this.tasks.size();
+    }
+    
+    /**
+     * @return 平均排队时间（毫秒）
+     */
+    public long queueLatency() {
+        final long taskSize = this.taskSize.sum();
+        return taskSize == 0L ? 0L : TimeUnit.NANOSECONDS.toMillis(this.queueLatency.sum() / taskSize);
+    }
+    
+    /**
+     * 任务
+     * 
+     * @author acgist
+     */
+    private static final record Task(
+        /**
+         * 任务
+         */
+        Runnable runnable,
+        /**
+         * 是否阻塞
+         */
+        boolean blocking,
+        /**
+         * 添加时间（纳秒）
+         */
+        long time
+    ) {
+    }
+    
+}
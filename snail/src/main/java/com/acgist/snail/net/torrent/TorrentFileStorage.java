@@ -0,0 +1,166 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import com.acgist.snail.config.DownloadConfig;
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.net.DownloadException;
+import com.acgist.snail.utils.BeanUtils;
+import com.acgist.snail.utils.FileUtils;
+import com.acgist.snail.utils.IoUtils;
+
+/**
+ * 文件存储（FileChannel）
+ * 使用FileChannel绝对偏移读写：不用同步文件指针
+ *
+ * @author acgist
+ */
+public final class TorrentFileStorage implements ITorrentStorage {
+
+    /**
+     * 预先分配写入零值缓冲大小：{@value}
+     */
+    private static final int ALLOCATE_BUFFER_LENGTH = SystemConfig.ONE_MB;
+
+    /**
+     * 文件路径
+     */
+    private final String filePath;
+    /**
+     * 文件通道
+     */
+    private final FileChannel channel;
+
+    /**
+     * @param filePath 文件路径
+     * @param channel  文件通道
+     */
+    private TorrentFileStorage(String filePath, FileChannel channel) {
+        this.filePath = filePath;
+        this.channel = channel;
+    }
+
+    /**
+     * 新建文件存储
+     *
+     * @param filePath 文件路径
+     *
+     * @return {@link TorrentFileStorage}
+     *
+     * @throws DownloadException 下载异常
+     */
+    public static final TorrentFileStorage newInstance(String filePath) throws DownloadException {
+        FileUtils.buildParentFolder(filePath);
+        try {
+            final FileChannel channel = FileChannel.open(
+                Paths.get(filePath),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+            );
+            return new TorrentFileStorage(filePath, channel);
+        } catch (IOException e) {
+            throw new DownloadException("新建文件存储失败：" + filePath, e);
+        }
+    }
+
+    /**
+     * 分配文件空间
+     * 只会分配文件没有写入部分：已有数据不会修改
+     *
+     * @param size 文件大小
+     * @param mode 文件分配模式
+     *
+     * @throws IOException IO异常
+     */
+    public void allocate(long size, DownloadConfig.AllocateMode mode) throws IOException {
+        final long oldSize = this.channel.size();
+        if(oldSize >= size) {
+            return;
+        }
+        switch (mode) {
+            case SPARSE -> this.channel.write(ByteBuffer.allocate(1), size - 1);
+            case PREALLOCATE -> {
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(ALLOCATE_BUFFER_LENGTH);
+                long position = oldSize;
+                while(position < size) {
+                    buffer.clear().limit((int) Math.min(ALLOCATE_BUFFER_LENGTH, size - position));
+                    position += this.channel.write(buffer, position);
+                }
+            }
+            default -> {
+                // 按需增长
+            }
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, long position) throws IOException {
+        int size = 0;
+        int length;
+        while(buffer.hasRemaining()) {
+            length = this.channel.read(buffer, position + size);
+            if(length < 0) {
+                // 文件末尾
+                break;
+            }
+            size += length;
+        }
+        return size;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while(buffer.hasRemaining()) {
+            offset += this.channel.write(buffer, offset);
+        }
+    }
+
+    /**
+     * 聚集写入：减少系统调用
+     * 使用文件通道偏移：写入操作需要同步
+     */
+    @Override
+    public void write(ByteBuffer[] buffers, long position) throws IOException {
+        long size = 0L;
+        for (ByteBuffer buffer : buffers) {
+            size += buffer.remaining();
+        }
+        synchronized (this.channel) {
+            this.channel.position(position);
+            while(size > 0L) {
+                size -= this.channel.write(buffers);
+            }
+        }
+    }
+
+    @Override
+    public long size() throws IOException {
+        return this.channel.size();
+    }
+
+    /**
+     * 获取文件通道
+     *
+     * @return 文件通道
+     */
+    public FileChannel channel() {
+        return this.channel;
+    }
+
+    @Override
+    public void close() {
+        IoUtils.close(this.channel);
+    }
+
+    @Override
+    public String toString() {
+        return BeanUtils.toString(this, this.filePath);
+    }
+
+}
@@ -0,0 +1,232 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.utils.BeanUtils;
+
+/**
+ * 文件存储（MappedByteBuffer）
+ * 文件下载完成后使用只读内存映射读取数据：按照窗口映射文件（单个映射不能超过2GB）
+ * 写入数据直接写入文件通道
+ * 读取数据从映射复制到缓冲区：映射不会交给调用方，关闭时直接释放映射（Windows释放文件锁）。
+ * 不能释放映射时等待垃圾回收释放，关闭以后读取数据使用文件通道。
+ * 
+ * @author acgist
+ */
+public final class TorrentMappedStorage implements ITorrentStorage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentMappedStorage.class);
+    
+    /**
+     * 映射窗口大小：{@value}
+     */
+    public static final int WINDOW_SIZE = 1024 * SystemConfig.ONE_MB;
+    /**
+     * 释放映射工具：sun.misc.Unsafe
+     * 不能释放映射：null
+     */
+    private static final Object UNSAFE;
+    /**
+     * 释放映射方法：sun.misc.Unsafe#invokeCleaner
+     * 不能释放映射：null
+     */
+    private static final Method INVOKE_CLEANER;
+    
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            final Class<?> clazz = Class.forName("sun.misc.Unsafe");
+            final Field field = clazz.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = clazz.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception e) {
+            LOGGER.warn("不能释放内存映射：等待垃圾回收释放", e);
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /**
+     * 文件大小
+     */
+    private final long fileSize;
+    /**
+     * 映射窗口
+     * 使用时映射
+     */
+    private final AtomicReferenceArray<MappedByteBuffer> windows;
+    /**
+     * 是否关闭
+     */
+    private boolean closed;
+    /**
+     * 读锁：读取映射
+     */
+    private final ReentrantReadWriteLock.ReadLock readLock;
+    /**
+     * 写锁：释放映射
+     */
+    private final ReentrantReadWriteLock.WriteLock writeLock;
+    /**
+     * 文件存储
+     */
+    private final TorrentFileStorage fileStorage;
+
+    /**
+     * @param fileSize    文件大小
+     * @param fileStorage 文件存储
+     */
+    private TorrentMappedStorage(long fileSize, TorrentFileStorage fileStorage) {
+        this.fileSize = fileSize;
+        this.windows = new AtomicReferenceArray<>((int) ((fileSize + WINDOW_SIZE - 1) / WINDOW_SIZE));
+        this.closed = false;
+        final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+        this.readLock = readWriteLock.readLock();
+        this.writeLock = readWriteLock.writeLock();
+        this.fileStorage = fileStorage;
+    }
+
+    /**
+     * 新建文件存储
+     * 文件为空或者文件大小小于映射大小返回：null
+     * 
+     * @param fileSize    文件大小
+     * @param fileStorage 文件存储
+     * 
+     * @return {@link TorrentMappedStorage}
+     * 
+     * @throws IOException IO异常
+     */
+    public static final TorrentMappedStorage newInstance(long fileSize, TorrentFileStorage fileStorage) throws IOException {
+        if(fileSize <= 0L || fileStorage.size() < fileSize) {
+            return null;
+        }
+        return new TorrentMappedStorage(fileSize, fileStorage);
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, long position) throws IOException {
+        this.readLock.lock();
+        try {
+            if(this.closed) {
+                // 已经关闭：使用文件通道读取
+                return this.fileStorage.read(buffer, position);
+            }
+            int size = 0;
+            long offset = position;
+            while(buffer.hasRemaining() && offset < this.fileSize) {
+                final MappedByteBuffer window = this.window((int) (offset / WINDOW_SIZE));
+                final int windowPos = (int) (offset % WINDOW_SIZE);
+                final int length = Math.min(buffer.remaining(), window.capacity() - windowPos);
+                buffer.put(window.slice(windowPos, length));
+                size   += length;
+                offset += length;
+            }
+            return size;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, long position) throws IOException {
+        this.fileStorage.write(buffer, position);
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, long position) throws IOException {
+        this.fileStorage.write(buffers, position);
+    }
+
+    @Override
+    public long size() throws IOException {
+        return this.fileStorage.size();
+    }
+
+    /**
+     * 获取映射窗口
+     * 持有读锁调用
+     * 
+     * @param index 窗口索引
+     * 
+     * @return 映射窗口
+     * 
+     * @throws IOException IO异常
+     */
+    private MappedByteBuffer window(int index) throws IOException {
+        MappedByteBuffer window = this.windows.get(index);
+        if(window != null) {
+            return window;
+        }
+        synchronized (this.windows) {
+            window = this.windows.get(index);
+            if(window == null) {
+                final long position = (long) index * WINDOW_SIZE;
+                final long size = Math.min(WINDOW_SIZE, this.fileSize - position);
+                window = this.fileStorage.channel().map(MapMode.READ_ONLY, position, size);
+                this.windows.set(index, window);
+            }
+            return window;
+        }
+    }
+
+    /**
+     * 释放映射窗口
+     * 等待正在读取数据完成以后释放映射，不会关闭文件存储。
+     */
+    @Override
+    public void close() {
+        this.writeLock.lock();
+        try {
+            if(this.closed) {
+                return;
+            }
+            this.closed = true;
+            for (int index = 0; index < this.windows.length(); index++) {
+                final MappedByteBuffer window = this.windows.getAndSet(index, null);
+                if(window != null) {
+                    unmap(window);
+                }
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * 释放映射
+     * 不能释放映射等待垃圾回收释放
+     * 
+     * @param window 映射窗口
+     */
+    private static final void unmap(MappedByteBuffer window) {
+        if(INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, window);
+        } catch (Exception e) {
+            LOGGER.warn("释放内存映射异常", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return BeanUtils.toString(this, this.fileStorage, this.fileSize);
+    }
+
+}
@@ -1,6 +1,9 @@
 package com.acgist.snail.net.torrent;
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.BitSet;
 
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.utils.BeanUtils;
@@ -10,7 +13,10 @@ import com.acgist.snail.utils.DigestUtils;
  * Piece下载信息
  * Piece一般大小设置为512KB、256KB、1MB，目前已知最大16MB。
  * BT任务基于文件下载，当某个Piece处于两个文件交接处时会被分为两次下载。
+ * Piece数据从缓冲池申请：所有引用释放以后归还缓冲池
+ * 需要校验的Piece写入数据时按照顺序计算Hash：乱序数据等待前面数据写入以后计算
  * 
+ * @see TorrentPieceContext
  * @author acgist
  */
 public final class TorrentPiece {
@@ -42,8 +48,7 @@ public final class TorrentPiece {
     private final int length;
     /**
      * 数据
-     * 
-     * TODO：使用直接内存文件读写使用NIO优化（没太大必要毕竟下载最重要的问题是网络IO）
+     * 注意：数据长度可能大于Piece数据长度
      */
     private final byte[] data;
     /**
@@ -62,6 +67,31 @@ public final class TorrentPiece {
      * Piece数据内偏移
      */
     private int position;
+    /**
+     * 引用数量
+     */
+    private int reference;
+    /**
+     * SHA-1算法工具（不用校验：null）
+     */
+    private final MessageDigest digest;
+    /**
+     * 已经写入Slice位图
+     */
+    private final BitSet digestSlices;
+    /**
+     * 已经计算Hash数据长度
+     */
+    private int digestPosition;
+    /**
+     * 增量计算Hash是否有效
+     * 数据没有按照Slice对齐或者重复写入已经计算的数据：校验时重新计算
+     */
+    private boolean digestAvailable;
+    /**
+     * 增量计算Hash结果
+     */
+    private byte[] digestHash;
     
     /**
      * @param pieceLength Piece大小
@@ -70,8 +100,9 @@ public final class TorrentPiece {
      * @param end Piece结束偏移
      * @param hash 校验数据
      * @param verify 是否校验
+     * @param data 数据
      */
-    private TorrentPiece(long pieceLength, int index, int begin, int end, byte[] hash, boolean verify) {
+    private TorrentPiece(long pieceLength, int index, int begin, int end, byte[] hash, boolean verify, byte[] data) {
         this.pieceLength = pieceLength;
         this.index = index;
         this.begin = begin;
@@ -79,9 +110,20 @@ public final class TorrentPiece {
         this.hash = hash;
         this.verify = verify;
         this.length = end - begin;
-        this.data = new byte[this.length];
+        this.data = data;
         this.size = 0;
         this.position = 0;
+        this.reference = 1;
+        if(verify) {
+            this.digest = DigestUtils.sha1();
+            this.digestSlices = new BitSet();
+            this.digestAvailable = true;
+        } else {
+            this.digest = null;
+            this.digestSlices = null;
+            this.digestAvailable = false;
+        }
+        this.digestPosition = 0;
     }
 
     /**
@@ -94,10 +136,14 @@ public final class TorrentPiece {
      * @param hash        校验数据
      * @param verify      是否校验
      * 
-     * @return Piece下载信息
+     * @return Piece下载信息（缓冲池超过限制返回null）
      */
     public static final TorrentPiece newInstance(long pieceLength, int index, int begin, int end, byte[] hash, boolean verify) {
-        return new TorrentPiece(pieceLength, index, begin, end, hash, verify);
+        final byte[] data = TorrentPieceContext.getInstance().borrow(end - begin);
+        if(data == null) {
+            return null;
+        }
+        return new TorrentPiece(pieceLength, index, begin, end, hash, verify, data);
     }
     
     /**
@@ -195,20 +241,72 @@ public final class TorrentPiece {
      * @return 是否下载完成
      */
     public boolean write(final int begin, final byte[] bytes) {
+        return this.write(begin, ByteBuffer.wrap(bytes));
+    }
+    
+    /**
+     * 写入Slice数据
+     * 直接从消息复制到Piece数据：读取全部剩余数据
+     * 数据超出Piece范围直接丢弃
+     * 
+     * @param begin  Piece内开始偏移
+     * @param buffer Slice数据
+     * 
+     * @return 是否下载完成
+     */
+    public boolean write(final int begin, final ByteBuffer buffer) {
         synchronized (this) {
-            System.arraycopy(bytes, 0, this.data, begin - this.begin, bytes.length);
-            this.size += bytes.length;
+            if(this.reference <= 0) {
+                // 已经释放：忽略延迟到达数据
+                return false;
+            }
+            final int offset = begin - this.begin;
+            final int length = buffer.remaining();
+            if(offset < 0 || offset > this.length - length) {
+                // 超出Piece范围：防止写入缓冲池多余空间
+                return false;
+            }
+            buffer.get(this.data, offset, length);
+            this.size += length;
+            this.digest(offset, length);
             return this.completed();
         }
     }
     
+    /**
+     * 增量计算Hash
+     * 
+     * @param offset 数据偏移
+     * @param length 数据长度
+     */
+    private void digest(final int offset, final int length) {
+        if(!this.digestAvailable) {
+            return;
+        }
+        if(
+            offset < this.digestPosition ||
+            offset % SLICE_LENGTH != 0   ||
+            length != Math.min(SLICE_LENGTH, this.length - offset)
+        ) {
+            // 重复写入或者没有对齐：校验时重新计算
+            this.digestAvailable = false;
+            return;
+        }
+        this.digestSlices.set(offset / SLICE_LENGTH);
+        while(this.digestPosition < this.length && this.digestSlices.get(this.digestPosition / SLICE_LENGTH)) {
+            final int sliceLength = Math.min(SLICE_LENGTH, this.length - this.digestPosition);
+            this.digest.update(this.data, this.digestPosition, sliceLength);
+            this.digestPosition += sliceLength;
+        }
+    }
+    
     /**
      * 读取Slice数据
      * 
      * @param begin Piece内开始偏移
      * @param size  长度
      * 
-     * @return Slice数据
+     * @return Slice数据（已经释放返回null）
      */
     public byte[] read(final int begin, final int size) {
         if(begin >= this.end) {
@@ -225,13 +323,18 @@ public final class TorrentPiece {
         }
         // 当前数据结束偏移
         int endPos = end - this.begin;
-        if (endPos > this.data.length) {
-            endPos = this.data.length;
+        if (endPos > this.length) {
+            endPos = this.length;
         }
         // 读取数据真实长度
         final int length = endPos - beginPos;
         final byte[] bytes = new byte[length];
-        System.arraycopy(this.data, beginPos, bytes, 0, length);
+        synchronized (this) {
+            if(this.reference <= 0) {
+                return null;
+            }
+            System.arraycopy(this.data, beginPos, bytes, 0, length);
+        }
         return bytes;
     }
     
@@ -242,7 +345,17 @@ public final class TorrentPiece {
      */
     public boolean verify() {
         if(this.verify) {
-            return Arrays.equals(DigestUtils.sha1(this.data), this.hash);
+            synchronized (this) {
+                if(this.digestAvailable && this.digestPosition == this.length) {
+                    if(this.digestHash == null) {
+                        this.digestHash = this.digest.digest();
+                    }
+                    return Arrays.equals(this.digestHash, this.hash);
+                }
+                final MessageDigest digest = DigestUtils.sha1();
+                digest.update(this.data, 0, this.length);
+                return Arrays.equals(digest.digest(), this.hash);
+            }
         }
         return true;
     }
@@ -259,6 +372,37 @@ public final class TorrentPiece {
         return this.completed() && this.verify();
     }
     
+    /**
+     * 添加引用
+     * 
+     * @return 是否成功（已经释放：失败）
+     */
+    public boolean retain() {
+        synchronized (this) {
+            if(this.reference <= 0) {
+                return false;
+            }
+            this.reference++;
+            return true;
+        }
+    }
+    
+    /**
+     * 释放引用
+     * 所有引用释放以后归还缓冲池
+     */
+    public void release() {
+        synchronized (this) {
+            if(this.reference <= 0) {
+                return;
+            }
+            if(--this.reference > 0) {
+                return;
+            }
+        }
+        TorrentPieceContext.getInstance().release(this.data);
+    }
+    
     /**
      * 获取Piece索引
      * 
@@ -297,6 +441,7 @@ public final class TorrentPiece {
 
     /**
      * 获取数据
+     * 注意：数据长度可能大于Piece数据长度
      * 
      * @return 数据
      */
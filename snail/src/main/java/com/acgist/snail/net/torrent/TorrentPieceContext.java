@@ -0,0 +1,173 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.ArrayDeque;
+
+import com.acgist.snail.config.DownloadConfig;
+import com.acgist.snail.context.IContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * Piece缓冲池上下文
+ * Piece数据按照大小分级（2的幂）复用，所有任务共享缓冲池。
+ * 缓冲池大小（使用中 + 空闲）不能超过：Piece缓冲（全部） + 缓存限制大小
+ * 超过限制时优先释放其他分级空闲数据，然后刷出缓存，依然超过限制申请失败。
+ * 
+ * @author acgist
+ * 
+ * @see DownloadConfig#getPieceBufferByte()
+ * @see TorrentCacheContext#limitSize()
+ */
+public final class TorrentPieceContext implements IContext {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentPieceContext.class);
+
+    private static final TorrentPieceContext INSTANCE = new TorrentPieceContext();
+
+    public static final TorrentPieceContext getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 最小分级大小：{@value}
+     */
+    private static final int MIN_CLASS_LENGTH = TorrentPiece.SLICE_LENGTH;
+    /**
+     * 分级数量：{@value}
+     * 16KB～64MB
+     */
+    private static final int CLASS_SIZE = 13;
+
+    /**
+     * 空闲数据
+     */
+    private final ArrayDeque<byte[]>[] frees;
+    /**
+     * 空闲大小
+     */
+    private long freeSize;
+    /**
+     * 使用大小
+     */
+    private long usedSize;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private TorrentPieceContext() {
+        this.frees = new ArrayDeque[CLASS_SIZE];
+        for (int index = 0; index < CLASS_SIZE; index++) {
+            this.frees[index] = new ArrayDeque<>();
+        }
+        this.freeSize = 0L;
+        this.usedSize = 0L;
+    }
+
+    /**
+     * 申请Piece数据
+     * 超过限制刷出缓存以后重试一次
+     * 
+     * @param length 数据长度
+     * 
+     * @return Piece数据（长度大于等于数据长度）；超过限制返回null；
+     */
+    public byte[] borrow(int length) {
+        byte[] bytes = this.tryBorrow(length);
+        if(bytes == null) {
+            // 已经写入缓存的Piece刷出以后释放
+            TorrentCacheContext.getInstance().flush();
+            bytes = this.tryBorrow(length);
+        }
+        if(bytes == null) {
+            LOGGER.debug("Piece缓冲超过限制：{}-{}-{}", length, this.usedSize(), this.limitSize());
+        }
+        return bytes;
+    }
+
+    /**
+     * 申请Piece数据
+     * 
+     * @param length 数据长度
+     * 
+     * @return Piece数据
+     */
+    private synchronized byte[] tryBorrow(int length) {
+        final int index = this.index(length);
+        final int capacity = index < 0 ? length : MIN_CLASS_LENGTH << index;
+        if(index >= 0) {
+            final byte[] bytes = this.frees[index].pollLast();
+            if(bytes != null) {
+                this.freeSize -= capacity;
+                this.usedSize += capacity;
+                return bytes;
+            }
+        }
+        final long limitSize = this.limitSize();
+        // 释放其他分级空闲数据
+        for (int evict = CLASS_SIZE - 1; evict >= 0 && this.usedSize + this.freeSize + capacity > limitSize; evict--) {
+            final ArrayDeque<byte[]> free = this.frees[evict];
+            while(!free.isEmpty() && this.usedSize + this.freeSize + capacity > limitSize) {
+                this.freeSize -= free.pollLast().length;
+            }
+        }
+        if(this.usedSize + this.freeSize + capacity > limitSize) {
+            return null;
+        }
+        this.usedSize += capacity;
+        return new byte[capacity];
+    }
+
+    /**
+     * 归还Piece数据
+     * 
+     * @param bytes Piece数据
+     */
+    public synchronized void release(byte[] bytes) {
+        if(bytes == null) {
+            return;
+        }
+        final int capacity = bytes.length;
+        this.usedSize -= capacity;
+        final int index = this.index(capacity);
+        if(index >= 0 && capacity == MIN_CLASS_LENGTH << index) {
+            this.frees[index].offerLast(bytes);
+            this.freeSize += capacity;
+        }
+    }
+
+    /**
+     * 获取分级索引
+     * 
+     * @param length 长度
+     * 
+     * @return 分级索引（超过最大分级：-1）
+     */
+    private int index(int length) {
+        if(length <= MIN_CLASS_LENGTH) {
+            return 0;
+        }
+        // 向上取整
+        final int index = Integer.SIZE - Integer.numberOfLeadingZeros((length - 1) / MIN_CLASS_LENGTH);
+        return index < CLASS_SIZE ? index : -1;
+    }
+
+    /**
+     * @return 使用大小
+     */
+    public synchronized long usedSize() {
+        return this.usedSize;
+    }
+
+    /**
+     * @return 空闲大小
+     */
+    public synchronized long freeSize() {
+        return this.freeSize;
+    }
+
+    /**
+     * @return 限制大小
+     */
+    public long limitSize() {
+        return DownloadConfig.getPieceBufferByte() + TorrentCacheContext.getInstance().limitSize();
+    }
+
+}
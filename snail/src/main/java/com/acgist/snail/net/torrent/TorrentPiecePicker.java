@@ -0,0 +1,159 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.BitSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Piece选择器
+ * 根据连接Peer的Piece位图（bitfield、have）统计Piece可用数量，优先选择最少可用的Piece（数量相同随机选择）。
+ * 使用原子标记位认领Piece：不用加锁
+ * 
+ * @author acgist
+ */
+public final class TorrentPiecePicker {
+
+    /**
+     * 认领失败重试次数：{@value}
+     */
+    private static final int MAX_CLAIM_RETRY = 4;
+
+    /**
+     * Piece可用数量
+     */
+    private final AtomicIntegerArray availability;
+
+    /**
+     * @param pieceSize Piece数量
+     */
+    private TorrentPiecePicker(int pieceSize) {
+        this.availability = new AtomicIntegerArray(pieceSize);
+    }
+
+    /**
+     * 新建Piece选择器
+     * 
+     * @param pieceSize Piece数量
+     * 
+     * @return {@link TorrentPiecePicker}
+     */
+    public static final TorrentPiecePicker newInstance(int pieceSize) {
+        return new TorrentPiecePicker(pieceSize);
+    }
+
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param index Piece索引
+     */
+    public void available(int index) {
+        if(index >= 0 && index < this.availability.length()) {
+            this.availability.incrementAndGet(index);
+        }
+    }
+
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param pieces Piece位图
+     */
+    public void available(BitSet pieces) {
+        for (int index = pieces.nextSetBit(0); index >= 0 && index < this.availability.length(); index = pieces.nextSetBit(index + 1)) {
+            this.availability.incrementAndGet(index);
+        }
+    }
+
+    /**
+     * 减少Piece可用数量
+     * 
+     * @param pieces Piece位图
+     */
+    public void unavailable(BitSet pieces) {
+        for (int index = pieces.nextSetBit(0); index >= 0 && index < this.availability.length(); index = pieces.nextSetBit(index + 1)) {
+            this.availability.getAndUpdate(index, value -> value > 0 ? value - 1 : 0);
+        }
+    }
+
+    /**
+     * 获取Piece可用数量
+     * 
+     * @param index Piece索引
+     * 
+     * @return Piece可用数量
+     */
+    public int availability(int index) {
+        if(index >= 0 && index < this.availability.length()) {
+            return this.availability.get(index);
+        }
+        return 0;
+    }
+
+    /**
+     * 选择并且认领Piece
+     * 
+     * @param pieces      可选Piece位图
+     * @param beginIndex  开始索引（包含）
+     * @param endIndex    结束索引（包含）
+     * @param claimPieces 认领Piece位图（下载中和已经下载）
+     * @param pausePieces 暂停Piece位图（忽略暂停：null）
+     * @param sequential  是否顺序选择（指定下载Piece索引）
+     * 
+     * @return Piece索引（没有可选Piece：-1）
+     */
+    public int pick(
+        BitSet pieces, int beginIndex, int endIndex,
+        AtomicBitSet claimPieces, AtomicBitSet pausePieces, boolean sequential
+    ) {
+        for (int retry = 0; retry < MAX_CLAIM_RETRY; retry++) {
+            final int index = this.select(pieces, beginIndex, endIndex, claimPieces, pausePieces, sequential);
+            if(index < 0) {
+                return index;
+            }
+            if(claimPieces.set(index)) {
+                return index;
+            }
+            // 其他线程已经认领：重新选择
+        }
+        return -1;
+    }
+
+    /**
+     * 选择Piece
+     * 
+     * @param pieces      可选Piece位图
+     * @param beginIndex  开始索引（包含）
+     * @param endIndex    结束索引（包含）
+     * @param claimPieces 认领Piece位图
+     * @param pausePieces 暂停Piece位图
+     * @param sequential  是否顺序选择
+     * 
+     * @return Piece索引（没有可选Piece：-1）
+     */
+    private int select(
+        BitSet pieces, int beginIndex, int endIndex,
+        AtomicBitSet claimPieces, AtomicBitSet pausePieces, boolean sequential
+    ) {
+        int pickIndex = -1;
+        int pickCount = 0;
+        int minAvailability = Integer.MAX_VALUE;
+        for (int index = pieces.nextSetBit(beginIndex); index >= 0 && index <= endIndex; index = pieces.nextSetBit(index + 1)) {
+            if(claimPieces.get(index) || (pausePieces != null && pausePieces.get(index))) {
+                continue;
+            }
+            if(sequential) {
+                return index;
+            }
+            final int availability = this.availability(index);
+            if(availability < minAvailability) {
+                pickIndex = index;
+                pickCount = 1;
+                minAvailability = availability;
+            } else if(availability == minAvailability && ThreadLocalRandom.current().nextInt(++pickCount) == 0) {
+                // 蓄水池抽样：数量相同随机选择
+                pickIndex = index;
+            }
+        }
+        return pickIndex;
+    }
+
+}
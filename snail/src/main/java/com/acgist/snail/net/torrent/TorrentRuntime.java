@@ -0,0 +1,263 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acgist.snail.context.IContext;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.context.TimerWheel;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * BT运行时上下文
+ * 所有BT任务共享一个工作窃取线程池和一个时间轮：线程数量和定时任务开销不受任务数量影响
+ * 每个BT任务使用{@link TorrentExecutor}提交任务：限制单个任务同时执行数量保证公平
+ * 
+ * @author acgist
+ */
+public final class TorrentRuntime implements IContext {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentRuntime.class);
+    
+    private static final TorrentRuntime INSTANCE = new TorrentRuntime();
+    
+    public static final TorrentRuntime getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 时间轮槽位时间（毫秒）：{@value}
+     */
+    private static final long TICK_DURATION = 100L;
+    /**
+     * 时间轮槽位数量：{@value}
+     */
+    private static final int WHEEL_SIZE = 512;
+    /**
+     * 最大补偿线程数量：{@value}
+     */
+    private static final int MAX_SPARE_SIZE = 16;
+    /**
+     * 线程空闲时间（秒）：{@value}
+     */
+    private static final long KEEP_ALIVE_TIME = 60L;
+    
+    /**
+     * 并行线程数量
+     */
+    private final int parallelism;
+    /**
+     * 工作窃取线程池
+     */
+    private final ForkJoinPool executor;
+    /**
+     * 时间轮
+     */
+    private final TimerWheel timerWheel;
+    /**
+     * 执行任务数量
+     */
+    private final LongAdder taskSize;
+    /**
+     * 累计排队时间（纳秒）
+     */
+    private final LongAdder queueLatency;
+    /**
+     * 最大排队时间（纳秒）
+     */
+    private final AtomicLong maxQueueLatency;
+    
+    private TorrentRuntime() {
+        this.parallelism     = SystemThreadContext.threadSize(4, 16);
+        this.executor        = SystemThreadContext.newWorkStealingPool(
+            this.parallelism,
+            this.parallelism + MAX_SPARE_SIZE,
+            KEEP_ALIVE_TIME,
+            SystemThreadContext.SNAIL_THREAD_BT
+        );
+        this.timerWheel      = TimerWheel.newInstance(TICK_DURATION, WHEEL_SIZE, SystemThreadContext.SNAIL_THREAD_BT_SCHEDULED);
+        this.taskSize        = new LongAdder();
+        this.queueLatency    = new LongAdder();
+        this.maxQueueLatency = new AtomicLong(0L);
+    }
+    
+    /**
+     * 新建BT任务执行器
+     * 
+     * @return BT任务执行器
+     */
+    public TorrentExecutor newExecutor() {
+        return new TorrentExecutor(this);
+    }
+    
+    /**
+     * 执行任务
+     * 任务不能阻塞
+     * 
+     * @param runnable 任务
+     */
+    public void execute(Runnable runnable) {
+        this.executor.execute(runnable);
+    }
+    
+    /**
+     * 执行任务
+     * 任务可以阻塞（网络连接、信号量、磁盘读写）：线程池补偿线程
+     * 
+     * @param runnable 任务
+     */
+    public void executeBlocking(Runnable runnable) {
+        this.executor.execute(() -> {
+            try {
+                ForkJoinPool.managedBlock(new Blocker(runnable));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.debug("执行任务中断", e);
+            }
+        });
+    }
+    
+    /**
+     * 定时执行任务（单次执行）
+     * 
+     * @param delay    延迟时间
+     * @param unit     时间单位
+     * @param executor 执行器
+     * @param runnable 任务
+     * 
+     * @return 定时任务
+     */
+    public TimerWheel.Timeout scheduled(long delay, TimeUnit unit, Executor executor, Runnable runnable) {
+        return this.timerWheel.scheduled(delay, unit, executor, runnable);
+    }
+    
+    /**
+     * 定时执行任务（重复执行）
+     * 固定周期：周期受到执行时间影响
+     * 
+     * @param delay    延迟时间
+     * @param period   周期时间
+     * @param unit     时间单位
+     * @param runnable 任务（不能阻塞）
+     * 
+     * @return 定时任务
+     */
+    public TimerWheel.Timeout scheduledAtFixedDelay(long delay, long period, TimeUnit unit, Runnable runnable) {
+        return this.timerWheel.scheduledAtFixedDelay(delay, period, unit, this.executor, runnable);
+    }
+    
+    /**
+     * 定时执行任务（重复执行）
+     * 固定周期：周期受到执行时间影响
+     * 
+     * @param delay    延迟时间
+     * @param period   周期时间
+     * @param unit     时间单位
+     * @param executor 执行器
+     * @param runnable 任务
+     * 
+     * @return 定时任务
+     */
+    public TimerWheel.Timeout scheduledAtFixedDelay(long delay, long period, TimeUnit unit, Executor executor, Runnable runnable) {
+        return this.timerWheel.scheduledAtFixedDelay(delay, period, unit, executor, runnable);
+    }
+    
+    /**
+     * 记录排队时间
+     * 
+     * @param latency 排队时间（纳秒）
+     */
+    void queueLatency(long latency) {
+        this.taskSize.increment();
+        this.queueLatency.add(latency);
+        this.maxQueueLatency.accumulateAndGet(latency, Math::max);
+    }
+    
+    /**
+     * @return 执行任务数量
+     */
+    public long taskSize() {
+        return this.taskSize.sum();
+    }
+    
+    /**
+     * @return 平均排队时间（毫秒）
+     */
+    public long queueLatency() {
+        final long taskSize = this.taskSize.sum();
+        return taskSize == 0L ? 0L : TimeUnit.NANOSECONDS.toMillis(this.queueLatency.sum() / taskSize);
+    }
+    
+    /**
+     * @return 最大排队时间（毫秒）
+     */
+    public long maxQueueLatency() {
+        return TimeUnit.NANOSECONDS.toMillis(this.maxQueueLatency.get());
+    }
+    
+    /**
+     * @return 并行线程数量
+     */
+    public int parallelism() {
+        return this.parallelism;
+    }
+    
+    /**
+     * @return 线程数量
+     */
+    public int poolSize() {
+        return this.executor.getPoolSize();
+    }
+    
+    /**
+     * @return 定时任务数量
+     */
+    public int timerSize() {
+        return this.timerWheel.size();
+    }
+    
+    /**
+     * 阻塞任务
+     * 
+     * @author acgist
+     */
+    private static final class Blocker implements ForkJoinPool.ManagedBlocker {
+        
+        /**
+         * 任务
+         */
+        private final Runnable runnable;
+        /**
+         * 是否完成
+         */
+        private boolean done;
+        
+        /**
+         * @param runnable 任务
+         */
+        private Blocker(Runnable runnable) {
+            this.runnable = runnable;
+        }
+        
+        @Override
+        public boolean block() {
+            try {
+                this.runnable.run();
+            } finally {
+                this.done = true;
+            }
+            return true;
+        }
+        
+        @Override
+        public boolean isReleasable() {
+            return this.done;
+        }
+        
+    }
+    
+}
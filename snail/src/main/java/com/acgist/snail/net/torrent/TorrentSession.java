@@ -1,19 +1,17 @@
 package com.acgist.snail.net.torrent;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.BitSet;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import com.acgist.snail.config.PeerConfig.Action;
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.context.IStatisticsSession;
 import com.acgist.snail.context.ITaskSession;
-import com.acgist.snail.context.ScheduledException;
 import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.context.TimerWheel;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.DownloadException;
@@ -99,38 +97,43 @@ public final class TorrentSession implements IMultifileCompletedChecker {
      */
     private TrackerLauncherGroup trackerLauncherGroup;
     /**
-     * 线程池
-     * 使用缓存线程池：防止过多下载时出现卡死现象
+     * 执行器
+     * 所有任务共享运行时线程池
+     * 
+     * @see TorrentRuntime
      */
-    private ExecutorService executor;
+    private TorrentExecutor executor;
     /**
-     * 定时线程池
+     * 定时执行器
+     * 所有任务共享运行时时间轮
+     * 
+     * @see TorrentRuntime
      */
-    private ScheduledExecutorService executorScheduled;
+    private TorrentExecutor executorScheduled;
     /**
      * PEX定时器
      */
-    private ScheduledFuture<?> pexScheduled;
+    private TimerWheel.Timeout pexScheduled;
     /**
      * HAVE定时器
      */
-    private ScheduledFuture<?> haveScheduled;
+    private TimerWheel.Timeout haveScheduled;
     /**
      * DHT定时器
      */
-    private ScheduledFuture<?> dhtLauncherScheduled;
+    private TimerWheel.Timeout dhtLauncherScheduled;
     /**
      * PeerUploaderGroup定时器
      */
-    private ScheduledFuture<?> peerUploaderGroupScheduled;
+    private TimerWheel.Timeout peerUploaderGroupScheduled;
     /**
      * PeerDownloaderGroup定时器
      */
-    private ScheduledFuture<?> peerDownloaderGroupScheduled;
+    private TimerWheel.Timeout peerDownloaderGroupScheduled;
     /**
      * TrackerLauncherGroup定时器
      */
-    private ScheduledFuture<?> trackerLauncherGroupScheduled;
+    private TimerWheel.Timeout trackerLauncherGroupScheduled;
     
     /**
      * @param infoHash InfoHash
@@ -297,15 +300,14 @@ public final class TorrentSession implements IMultifileCompletedChecker {
      * 加载线程池
      */
     private void loadExecutor() {
-        this.executor = SystemThreadContext.newCacheExecutor(0, 60L, SystemThreadContext.SNAIL_THREAD_BT);
+        this.executor = TorrentRuntime.getInstance().newExecutor();
     }
 
     /**
      * 加载定时线程池
      */
     private void loadExecutorScheduled() {
-        final int poolSize = SystemThreadContext.threadSize(2, 4);
-        this.executorScheduled = SystemThreadContext.newScheduledExecutor(poolSize, SystemThreadContext.SNAIL_THREAD_BT_SCHEDULED);
+        this.executorScheduled = TorrentRuntime.getInstance().newExecutor();
     }
     
     /**
@@ -332,7 +334,7 @@ public final class TorrentSession implements IMultifileCompletedChecker {
     private void loadPeerDownloaderGroupScheduled() {
         // 任务加载完成立即执行
         final int peerOptimizeInterval = SystemConfig.getPeerOptimizeInterval();
-        this.peerDownloaderGroupScheduled = this.scheduledAtFixedDelay(
+        this.peerDownloaderGroupScheduled = this.scheduledAtFixedDelayBlocking(
             0L,
             peerOptimizeInterval,
             TimeUnit.SECONDS,
@@ -381,7 +383,7 @@ public final class TorrentSession implements IMultifileCompletedChecker {
     private void loadTrackerLauncherGroupScheduled() {
         // 任务加载完成立即执行
         final int trackerInterval = SystemConfig.getTrackerInterval();
-        this.trackerLauncherGroupScheduled = this.scheduledAtFixedDelay(
+        this.trackerLauncherGroupScheduled = this.scheduledAtFixedDelayBlocking(
             0L,
             trackerInterval,
             TimeUnit.SECONDS,
@@ -450,12 +452,38 @@ public final class TorrentSession implements IMultifileCompletedChecker {
      * @param runnable 任务
      */
     public void submit(Runnable runnable) {
-        this.executor.submit(runnable);
+        this.executor.execute(runnable);
+    }
+    
+    /**
+     * 异步执行
+     * 任务可以阻塞（网络连接、信号量）
+     * 
+     * @param runnable 任务
+     */
+    public void submitBlocking(Runnable runnable) {
+        this.executor.executeBlocking(runnable);
+    }
+    
+    /**
+     * 定时任务（重复执行）
+     * 固定周期（周期受到执行时间影响）
+     * 
+     * @param delay    延迟时间
+     * @param period   周期时间
+     * @param unit     时间单位
+     * @param runnable 任务
+     * 
+     * @return 定时任务
+     */
+    public TimerWheel.Timeout scheduledAtFixedDelay(long delay, long period, TimeUnit unit, Runnable runnable) {
+        return TorrentRuntime.getInstance().scheduledAtFixedDelay(delay, period, unit, this.executorScheduled, runnable);
     }
     
     /**
      * 定时任务（重复执行）
      * 固定周期（周期受到执行时间影响）
+     * 任务可以阻塞（网络连接、信号量）
      * 
      * @param delay    延迟时间
      * @param period   周期时间
@@ -464,10 +492,8 @@ public final class TorrentSession implements IMultifileCompletedChecker {
      * 
      * @return 定时任务
      */
-    public ScheduledFuture<?> scheduledAtFixedDelay(long delay, long period, TimeUnit unit, Runnable runnable) {
-        ScheduledException.verify(delay);
-        ScheduledException.verify(period);
-        return this.executorScheduled.scheduleWithFixedDelay(runnable, delay, period, unit);
+    public TimerWheel.Timeout scheduledAtFixedDelayBlocking(long delay, long period, TimeUnit unit, Runnable runnable) {
+        return TorrentRuntime.getInstance().scheduledAtFixedDelay(delay, period, unit, this.executorScheduled::executeBlocking, runnable);
     }
     
     /**
@@ -528,18 +554,20 @@ public final class TorrentSession implements IMultifileCompletedChecker {
         if(this.completed()) {
             PeerContext.getInstance().uploadOnly(this.infoHashHex());
         }
-        SystemThreadContext.shutdownNow(this.haveScheduled);
-        SystemThreadContext.shutdownNow(this.pexScheduled);
-        SystemThreadContext.shutdownNow(this.peerDownloaderGroupScheduled);
+        SystemThreadContext.shutdown(this.haveScheduled);
+        SystemThreadContext.shutdown(this.pexScheduled);
+        SystemThreadContext.shutdown(this.peerDownloaderGroupScheduled);
         if(this.peerDownloaderGroup != null) {
             this.peerDownloaderGroup.release();
         }
-        SystemThreadContext.shutdownNow(this.dhtLauncherScheduled);
-        SystemThreadContext.shutdownNow(this.trackerLauncherGroupScheduled);
+        SystemThreadContext.shutdown(this.dhtLauncherScheduled);
+        SystemThreadContext.shutdown(this.trackerLauncherGroupScheduled);
         if(this.trackerLauncherGroup != null) {
             this.trackerLauncherGroup.release();
         }
-        SystemThreadContext.shutdownNow(this.executor);
+        if(this.executor != null) {
+            this.executor.shutdown();
+        }
         if(this.torrentStreamGroup != null) {
             this.torrentStreamGroup.flush();
         }
@@ -552,14 +580,16 @@ public final class TorrentSession implements IMultifileCompletedChecker {
         this.useable = false;
         this.uploadable = false;
         LOGGER.debug("Torrent释放资源（上传）");
-        SystemThreadContext.shutdownNow(this.peerUploaderGroupScheduled);
+        SystemThreadContext.shutdown(this.peerUploaderGroupScheduled);
         if(this.peerUploaderGroup != null) {
             this.peerUploaderGroup.release();
         }
         if(this.torrentStreamGroup != null) {
             this.torrentStreamGroup.release();
         }
-        SystemThreadContext.shutdownNow(this.executorScheduled);
+        if(this.executorScheduled != null) {
+            this.executorScheduled.shutdown();
+        }
     }
 
     /**
@@ -825,6 +855,48 @@ public final class TorrentSession implements IMultifileCompletedChecker {
         this.torrentStreamGroup.piecePos(index);
     }
     
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param index Piece索引
+     * 
+     * @see TorrentStreamGroup#available(int)
+     */
+    public void available(int index) {
+        final TorrentStreamGroup torrentStreamGroup = this.torrentStreamGroup;
+        if(torrentStreamGroup != null) {
+            torrentStreamGroup.available(index);
+        }
+    }
+    
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param pieces Piece位图
+     * 
+     * @see TorrentStreamGroup#available(BitSet)
+     */
+    public void available(BitSet pieces) {
+        final TorrentStreamGroup torrentStreamGroup = this.torrentStreamGroup;
+        if(torrentStreamGroup != null) {
+            torrentStreamGroup.available(pieces);
+        }
+    }
+    
+    /**
+     * 减少Piece可用数量
+     * 
+     * @param pieces Piece位图
+     * 
+     * @see TorrentStreamGroup#unavailable(BitSet)
+     */
+    public void unavailable(BitSet pieces) {
+        final TorrentStreamGroup torrentStreamGroup = this.torrentStreamGroup;
+        if(torrentStreamGroup != null) {
+            torrentStreamGroup.unavailable(pieces);
+        }
+    }
+    
     /**
      * 挑选下载Piece
      * 
@@ -852,7 +924,7 @@ public final class TorrentSession implements IMultifileCompletedChecker {
      * 
      * @see TorrentStreamGroup#read(int, int, int)
      */
-    public byte[] read(int index, int begin, int length) throws NetException {
+    public ByteBuffer read(int index, int begin, int length) throws NetException {
         return this.torrentStreamGroup.read(index, begin, length);
     }
 
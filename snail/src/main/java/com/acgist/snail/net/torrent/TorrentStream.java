@@ -1,23 +1,27 @@
 package com.acgist.snail.net.torrent;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+import com.acgist.snail.config.DownloadConfig;
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.DownloadException;
 import com.acgist.snail.utils.BeanUtils;
+import com.acgist.snail.utils.ByteUtils;
 import com.acgist.snail.utils.DigestUtils;
-import com.acgist.snail.utils.FileUtils;
 import com.acgist.snail.utils.IoUtils;
 import com.acgist.snail.utils.StringUtils;
 
@@ -29,11 +33,6 @@ import com.acgist.snail.utils.StringUtils;
 public final class TorrentStream {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(TorrentStream.class);
-    
-    /**
-     * 文件流模式：{@value}
-     */
-    private static final String STREAM_MODE = "rw";
 
     /**
      * 文件是否选择下载
@@ -82,24 +81,42 @@ public final class TorrentStream {
     private final BitSet pieces;
     /**
      * 暂停Piece位图
-     * 上次下载失败Piece：选择Piece需要排除（选择成功清除）
+     * 上次下载失败Piece：选择Piece需要排除（选择完成清除）
      */
-    private final BitSet pausePieces;
+    private final AtomicBitSet pausePieces;
     /**
-     * 正在下载Piece位图
-     * 选择Piece需要排除
+     * 认领Piece位图
+     * 正在下载和已经下载Piece：选择Piece需要排除
      */
-    private final BitSet downloadPieces;
+    private final AtomicBitSet claimPieces;
     /**
-     * Piece缓存队列
+     * Piece缓存
+     * Piece索引=Piece
+     * 缓存中的Piece都是没有写入文件的脏数据：写入文件以后移除
      */
-    private final BlockingQueue<TorrentPiece> cachePieces;
+    private final Map<Integer, TorrentPiece> cachePieces;
     /**
-     * 文件流
+     * 文件存储
+     * 使用绝对偏移读写：读写文件不用持有文件流锁
+     * 下载完成切换为只读内存映射存储
      * 
-     * TODO：使用NIO（FileChannel或者MappedByteBuffer）结合TorrentPiece优化读写性能（没太大必要毕竟下载最重要的问题是网络IO）
+     * @see #fileStorage
+     * @see #mappedStorage
+     */
+    private volatile ITorrentStorage storage;
+    /**
+     * 文件存储（FileChannel）
+     */
+    private final TorrentFileStorage fileStorage;
+    /**
+     * 文件存储（MappedByteBuffer）
+     * 只读模式
+     */
+    private TorrentMappedStorage mappedStorage;
+    /**
+     * 刷出锁
      */
-    private final RandomAccessFile fileStream;
+    private final Object flushLock;
     /**
      * 文件流组
      */
@@ -134,13 +151,16 @@ public final class TorrentStream {
         }
         this.fileDownloadSize = new AtomicLong(0);
         this.pieces = new BitSet();
-        this.pausePieces = new BitSet();
-        this.downloadPieces = new BitSet();
-        this.cachePieces = new LinkedBlockingQueue<>();
-        this.fileStream = this.buildFileStream();
+        this.pausePieces = AtomicBitSet.newInstance(this.fileBeginPieceIndex, this.fileEndPieceIndex);
+        this.claimPieces = AtomicBitSet.newInstance(this.fileBeginPieceIndex, this.fileEndPieceIndex);
+        this.cachePieces = new ConcurrentHashMap<>();
+        this.fileStorage = this.buildStorage();
+        this.storage = this.fileStorage;
+        this.flushLock = new Object();
         this.torrentStreamGroup = torrentStreamGroup;
         this.buildPieces(completed);
         this.buildFileDownloadSize();
+        this.buildStorageMode();
         if(LOGGER.isDebugEnabled()) {
             final int downloadPieceSize = this.pieces.cardinality();
             LOGGER.debug("""
@@ -187,18 +207,31 @@ public final class TorrentStream {
     }
     
     /**
-     * 新建文件流
+     * 新建文件存储
      * 
-     * @return 文件流
+     * @return 文件存储
      * 
      * @throws DownloadException 下载异常
      */
-    private RandomAccessFile buildFileStream() throws DownloadException {
-        FileUtils.buildParentFolder(this.filePath);
+    private TorrentFileStorage buildStorage() throws DownloadException {
+        return TorrentFileStorage.newInstance(this.filePath);
+    }
+    
+    /**
+     * 分配文件空间
+     * 下载完成文件不用分配，分配失败使用按需增长。
+     * 
+     * @see DownloadConfig#getAllocateMode()
+     */
+    void allocate() {
+        if(this.completed()) {
+            return;
+        }
+        final DownloadConfig.AllocateMode mode = DownloadConfig.getAllocateMode();
         try {
-            return new RandomAccessFile(this.filePath, STREAM_MODE);
-        } catch (FileNotFoundException e) {
-            throw new DownloadException("新建文件流失败：" + this.filePath, e);
+            this.fileStorage.allocate(this.fileSize, mode);
+        } catch (IOException e) {
+            LOGGER.error("分配文件空间异常：{}-{}", this.filePath, mode, e);
         }
     }
     
@@ -248,12 +281,16 @@ public final class TorrentStream {
     /**
      * 挑选下载Piece
      * 优先使用Peer推荐Piece位图
+     * 没有指定下载Piece索引：优先选择最少可用Piece（最少优先）
+     * 指定下载Piece索引：从指定索引开始顺序选择
      * 
      * @param piecePos      指定下载Piece索引
      * @param peerPieces    Peer已经下载Piece位图
      * @param suggestPieces Peer推荐Piece位图
      * 
      * @return 下载Piece
+     * 
+     * @see TorrentPiecePicker
      */
     public TorrentPiece pick(int piecePos, final BitSet peerPieces, final BitSet suggestPieces) {
         if(piecePos > this.fileEndPieceIndex) {
@@ -268,65 +305,20 @@ public final class TorrentStream {
             // 文件已经下载完成
             return null;
         }
-        synchronized (this) {
-            final BitSet pickPieces = this.pickPieces(peerPieces, suggestPieces);
-            final int indexPos = Math.max(piecePos, this.fileBeginPieceIndex);
-            final int index = pickPieces.nextSetBit(indexPos);
-            // 没有匹配Piece或者超过文件范围
-            if(index < 0 || index > this.fileEndPieceIndex) {
-                LOGGER.debug("选择Piece（没有匹配）：{}-{}-{}-{}", index, piecePos, this.fileBeginPieceIndex, this.fileEndPieceIndex);
-                return null;
-            }
-            LOGGER.debug("选择Piece（选中）：{}-{}", index, this.downloadPieces);
-            this.downloadPieces.set(index);
-            // 是否验证：第一块和最后一块不用校验
-            boolean verify = true;
-            // Piece开始内偏移
-            int begin = 0;
-            if(index == this.fileBeginPieceIndex) {
-                verify = false;
-                begin = this.firstPiecePos();
-            }
-            // Piece结束内偏移
-            int end = (int) this.pieceLength;
-            if(index == this.fileEndPieceIndex) {
-                verify = false;
-                end = this.lastPiecePos();
-            }
-            // 快速循环挑选Piece：新建Piece数据消耗性能
-            final byte[] hash = this.torrentStreamGroup.pieceHash(index);
-            return TorrentPiece.newInstance(this.pieceLength, index, begin, end, hash, verify);
-        }
-    }
-
-    /**
-     * 挑选下载Piece位图
-     * 挑选条件：没有下载完成、不是暂停中的Piece、不是下载中的Piece
-     * 挑选完成清除暂停Piece
-     * 如果挑选不到数据（任务接近完成）：重复挑选下载中的Piece
-     * 如果挑选不到数据（任务正常下载）：可以挑选暂停中的Piece
-     * 
-     * @param peerPieces    Peer已经下载Piece位图
-     * @param suggestPieces Peer推荐Piece位图
-     * 
-     * @return 下载Piece位图
-     */
-    private BitSet pickPieces(final BitSet peerPieces, final BitSet suggestPieces) {
-        final BitSet pickPieces = new BitSet();
+        final int indexPos = Math.max(piecePos, this.fileBeginPieceIndex);
+        final boolean sequential = piecePos > 0;
+        final TorrentPiecePicker picker = this.torrentStreamGroup.picker();
+        int index = -1;
+        // 是否认领成功：重复选择下载中的Piece没有认领
+        boolean claim = true;
         if(!suggestPieces.isEmpty()) {
             // 优先使用Peer推荐Piece位图
-            pickPieces.or(suggestPieces);
-            pickPieces.andNot(this.pieces);
-            pickPieces.andNot(this.pausePieces);
-            pickPieces.andNot(this.downloadPieces);
-        }
-        if(pickPieces.isEmpty()) {
-            pickPieces.or(peerPieces);
-            pickPieces.andNot(this.pieces);
-            pickPieces.andNot(this.pausePieces);
-            pickPieces.andNot(this.downloadPieces);
-        }
-        if(pickPieces.isEmpty()) {
+            index = picker.pick(suggestPieces, indexPos, this.fileEndPieceIndex, this.claimPieces, this.pausePieces, sequential);
+        }
+        if(index < 0) {
+            index = picker.pick(peerPieces, indexPos, this.fileEndPieceIndex, this.claimPieces, this.pausePieces, sequential);
+        }
+        if(index < 0) {
             // 没有数据判断剩余Piece数量
             final int remainingPieceSize = this.torrentStreamGroup.remainingPieceSize();
             if(remainingPieceSize == 0) {
@@ -334,21 +326,68 @@ public final class TorrentStream {
             } else if(remainingPieceSize <= SystemConfig.getPieceRepeatSize()) {
                 // 任务接近完成：重复挑选下载中的Piece
                 LOGGER.debug("选择Piece：任务接近完成");
-                pickPieces.or(peerPieces);
-                pickPieces.andNot(this.pieces);
+                index = this.pickRepeat(indexPos, peerPieces);
+                claim = false;
             } else {
                 // 任务正常下载：可以挑选暂停中的Piece
                 LOGGER.debug("选择Piece：任务正常下载");
-                pickPieces.or(peerPieces);
-                pickPieces.andNot(this.pieces);
-                pickPieces.andNot(this.downloadPieces);
+                index = picker.pick(peerPieces, indexPos, this.fileEndPieceIndex, this.claimPieces, null, sequential);
             }
-            if(pickPieces.isEmpty()) {
-                LOGGER.debug("选择Piece：没有可用Piece");
+        }
+        // 挑选完成清除暂停Piece：和设置暂停Piece使用相同的锁
+        synchronized (this) {
+            this.pausePieces.clear();
+        }
+        if(index < 0) {
+            LOGGER.debug("选择Piece（没有匹配）：{}-{}-{}", piecePos, this.fileBeginPieceIndex, this.fileEndPieceIndex);
+            return null;
+        }
+        // 是否验证：第一块和最后一块不用校验
+        boolean verify = true;
+        // Piece开始内偏移
+        int begin = 0;
+        if(index == this.fileBeginPieceIndex) {
+            verify = false;
+            begin = this.firstPiecePos();
+        }
+        // Piece结束内偏移
+        int end = (int) this.pieceLength;
+        if(index == this.fileEndPieceIndex) {
+            verify = false;
+            end = this.lastPiecePos();
+        }
+        final byte[] hash = this.torrentStreamGroup.pieceHash(index);
+        final TorrentPiece piece = TorrentPiece.newInstance(this.pieceLength, index, begin, end, hash, verify);
+        if(piece == null) {
+            LOGGER.debug("选择Piece（缓冲池超过限制）：{}", index);
+            if(claim) {
+                this.claimPieces.clear(index);
             }
+            return null;
         }
-        this.pausePieces.clear();
-        return pickPieces;
+        LOGGER.debug("选择Piece（选中）：{}-{}", index, picker.availability(index));
+        return piece;
+    }
+
+    /**
+     * 重复挑选下载中的Piece
+     * 挑选条件：没有下载完成
+     * 
+     * @param indexPos   开始索引
+     * @param peerPieces Peer已经下载Piece位图
+     * 
+     * @return Piece索引（没有可用Piece：-1）
+     */
+    private int pickRepeat(final int indexPos, final BitSet peerPieces) {
+        synchronized (this) {
+            for (int index = peerPieces.nextSetBit(indexPos); index >= 0 && index <= this.fileEndPieceIndex; index = peerPieces.nextSetBit(index + 1)) {
+                if(!this.pieces.get(index)) {
+                    return index;
+                }
+            }
+        }
+        LOGGER.debug("选择Piece：没有可用Piece");
+        return -1;
     }
     
     /**
@@ -364,6 +403,7 @@ public final class TorrentStream {
             // 文件不含当前Piece
             return false;
         }
+        final boolean completed;
         synchronized (this) {
             final int index = piece.getIndex();
             if(this.hasPiece(index)) {
@@ -372,22 +412,24 @@ public final class TorrentStream {
                 // 此处不能返回成功：防止计算文件已经下载大小错误
                 return false;
             }
-            // 加入缓存队列
-            if(this.cachePieces.offer(piece)) {
-                LOGGER.debug("保存Piece成功：{}", index);
-                this.done(index);
-                this.buildFileDownloadSize();
-                // 下载完成数据刷出
-                if(this.completed()) {
-                    this.flush();
-                    // 可以将文件流变为读取模式
-                }
-                return true;
-            } else {
-                LOGGER.warn("保存Piece失败：{}", index);
+            // 加入缓存：刷出以后释放引用
+            if(!piece.retain()) {
+                LOGGER.debug("Piece已经释放（忽略）：{}", index);
                 return false;
             }
+            this.cachePieces.put(index, piece);
+            this.torrentStreamGroup.cache(this.flushBuffer(piece).remaining());
+            LOGGER.debug("保存Piece成功：{}", index);
+            this.done(index);
+            this.buildFileDownloadSize();
+            completed = this.completed();
+        }
+        // 下载完成数据刷出：不用持有文件流锁
+        if(completed) {
+            this.flush();
+            this.buildStorageMode();
         }
+        return true;
     }
     
     /**
@@ -422,6 +464,7 @@ public final class TorrentStream {
     
     /**
      * 读取Piece
+     * 文件流锁只用于判断Piece状态：读取文件数据不用加锁
      * 
      * @param index  Piece索引
      * @param length 数据大小
@@ -432,15 +475,40 @@ public final class TorrentStream {
      * @see #read(int, int, int, boolean)
      */
     public byte[] read(int index, int length, int pos) {
+        final ByteBuffer buffer = this.readBuffer(index, length, pos);
+        if(buffer == null) {
+            return null;
+        }
+        return ByteUtils.remainingToBytes(buffer);
+    }
+    
+    /**
+     * 读取Piece
+     * 文件流锁只用于判断Piece状态：读取文件数据不用加锁
+     * 只读模式从内存映射复制数据：映射不会交给调用方，关闭时可以直接释放映射。
+     * 
+     * @param index  Piece索引
+     * @param length 数据大小
+     * @param pos    数据偏移
+     * 
+     * @return Piece数据
+     * 
+     * @see #read(int, int, int, boolean)
+     */
+    public ByteBuffer readBuffer(int index, int length, int pos) {
         synchronized (this) {
-            return this.read(index, length, pos, false);
+            if(!this.hasPiece(index)) {
+                return null;
+            }
         }
+        return this.read(index, length, pos, true);
     }
     
     /**
      * 读取Piece
      * 如果选择Piece不在文件范围内返回：null
      * 如果读取数据只有部分符合文件范围：返回符合部分数据
+     * 刷出缓存时先写入文件再移除缓存：没有缓存数据时文件数据已经写入
      * 
      * @param index          Piece索引
      * @param length         数据大小
@@ -449,7 +517,7 @@ public final class TorrentStream {
      * 
      * @return Piece数据
      */
-    private byte[] read(int index, int length, int pos, boolean ignoreHasPiece) {
+    private ByteBuffer read(int index, int length, int pos, boolean ignoreHasPiece) {
         // 判断Piece数据是否已经下载
         if(!ignoreHasPiece && !this.hasPiece(index)) {
             return null;
@@ -457,7 +525,11 @@ public final class TorrentStream {
         // 读取缓存数据
         final TorrentPiece cachePiece = this.cachePiece(index);
         if(cachePiece != null) {
-            return cachePiece.read(pos, length);
+            final byte[] bytes = cachePiece.read(pos, length);
+            if(bytes != null) {
+                return ByteBuffer.wrap(bytes);
+            }
+            // 缓存已经刷出释放：读取文件数据
         }
         // 读取文件数据
         // 文件偏移
@@ -484,11 +556,9 @@ public final class TorrentStream {
             length = (int) (length - (endPos - this.fileEndPos));
         }
         try {
-            final byte[] bytes = new byte[length];
-            // 注意线程安全
-            this.fileStream.seek(seek);
-            this.fileStream.read(bytes);
-            return bytes;
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            this.storage.read(buffer, seek);
+            return buffer.clear();
         } catch (IOException e) {
             LOGGER.error("读取Piece异常：{}-{}-{}-{}", index, seek, length, pos, e);
         }
@@ -511,7 +581,7 @@ public final class TorrentStream {
      */
     private void done(int index) {
         this.pieces.set(index);
-        this.downloadPieces.clear(index);
+        this.claimPieces.set(index);
         this.torrentStreamGroup.done(index);
     }
 
@@ -526,8 +596,11 @@ public final class TorrentStream {
             return;
         }
         synchronized (this) {
-            this.pausePieces.set(piece.getIndex());
-            this.downloadPieces.clear(piece.getIndex());
+            final int index = piece.getIndex();
+            this.pausePieces.set(index);
+            if(!this.pieces.get(index)) {
+                this.claimPieces.clear(index);
+            }
         }
     }
     
@@ -547,14 +620,48 @@ public final class TorrentStream {
      */
     public void release() {
         this.flush();
-        IoUtils.close(this.fileStream);
+        synchronized (this) {
+            this.storage = this.fileStorage;
+            IoUtils.close(this.mappedStorage);
+            this.mappedStorage = null;
+        }
+        this.fileStorage.close();
+    }
+    
+    /**
+     * 设置存储模式
+     * 下载完成：只读内存映射存储
+     * 没有完成：文件存储
+     */
+    private void buildStorageMode() {
+        synchronized (this) {
+            if(this.completed()) {
+                if(this.mappedStorage != null) {
+                    return;
+                }
+                try {
+                    this.mappedStorage = TorrentMappedStorage.newInstance(this.fileSize, this.fileStorage);
+                } catch (IOException e) {
+                    LOGGER.error("文件流切换只读模式异常：{}", this.filePath, e);
+                }
+                if(this.mappedStorage != null) {
+                    LOGGER.debug("文件流切换只读模式：{}", this.filePath);
+                    this.storage = this.mappedStorage;
+                }
+            } else if(this.mappedStorage != null) {
+                LOGGER.debug("文件流切换读写模式：{}", this.filePath);
+                this.storage = this.fileStorage;
+                IoUtils.close(this.mappedStorage);
+                this.mappedStorage = null;
+            }
+        }
     }
 
     /**
      * 校验Piece数据
      * 
      * @param index  Piece索引
-     * @param digest SHA-1算法工具
+     * @param digest SHA-1算法工具（第一块和最后一块不用校验Hash可以为空）
      * 
      * @return 是否校验成功
      */
@@ -575,18 +682,34 @@ public final class TorrentStream {
             length = (int) this.pieceLength;
             verify = true;
         }
-        final byte[] bytes = this.read(index, length, pos, true);
-        if(bytes == null) {
+        final ByteBuffer buffer = this.read(index, length, pos, true);
+        if(buffer == null) {
             // 没有数据
             return false;
         } else if(verify) {
             // 校验Hash
-            final byte[] hash = digest.digest(bytes);
+            digest.update(buffer);
+            final byte[] hash = digest.digest();
             final byte[] verifyHash = this.torrentStreamGroup.pieceHash(index);
             return Arrays.equals(hash, verifyHash);
         } else {
             // 验证是否有数据：第一块和最后一块
-            return this.hasData(bytes);
+            return this.hasData(buffer);
+        }
+    }
+    
+    /**
+     * 校验文件
+     * 
+     * @return 是否成功
+     * 
+     * @throws IOException IO异常
+     * 
+     * @see #verify(TorrentStreamVerifier)
+     */
+    public boolean verify() throws IOException {
+        try (final TorrentStreamVerifier verifier = TorrentStreamVerifier.newInstance(this.verifyPieceSize(), this.pieceLength)) {
+            return this.verify(verifier);
         }
     }
     
@@ -594,32 +717,57 @@ public final class TorrentStream {
      * 校验文件
      * 使用种子数据校验文件
      * 重新设置文件下载信息
+     * 读取数据和计算Hash不用加锁：只有修改Piece状态加锁，校验文件不会阻塞上传下载。
+     * 
+     * @param verifier 文件校验
      * 
      * @return 是否成功
      * 
      * @throws IOException IO异常
      */
-    public boolean verify() throws IOException {
-        int verifyFailCount = 0;
-        final boolean empty = this.fileStream.length() == 0;
-        synchronized (this) {
-            final MessageDigest digest = DigestUtils.sha1();
-            for (int index = this.fileBeginPieceIndex; index <= this.fileEndPieceIndex; index++) {
-                if(empty) {
-                    verifyFailCount++;
-                    this.verifyFail(index);
-                    continue;
-                }
-                if(this.verify(index, digest)) {
-                    this.done(index);
-                } else {
-                    verifyFailCount++;
-                    this.verifyFail(index);
+    public boolean verify(TorrentStreamVerifier verifier) throws IOException {
+        final AtomicInteger verifyFailCount = new AtomicInteger(0);
+        final boolean empty = this.storage.size() == 0;
+        for (int index = this.fileBeginPieceIndex; index <= this.fileEndPieceIndex; index++) {
+            final int pieceIndex = index;
+            final Consumer<Boolean> callback = verify -> {
+                synchronized (this) {
+                    if(verify) {
+                        this.done(pieceIndex);
+                    } else {
+                        verifyFailCount.incrementAndGet();
+                        this.verifyFail(pieceIndex);
+                    }
                 }
+            };
+            if(empty) {
+                verifier.done(callback, false);
+            } else if(index == this.fileBeginPieceIndex || index == this.fileEndPieceIndex) {
+                // 第一块和最后一块：验证是否有数据
+                verifier.done(callback, this.verify(index, null));
+            } else {
+                verifier.submit(
+                    () -> this.read(pieceIndex, (int) this.pieceLength, 0, true),
+                    this.torrentStreamGroup.pieceHash(index),
+                    callback
+                );
             }
+        }
+        verifier.await();
+        synchronized (this) {
             this.buildFileDownloadSize();
         }
-        return verifyFailCount == 0;
+        this.buildStorageMode();
+        return verifyFailCount.get() == 0;
+    }
+    
+    /**
+     * 获取校验Piece数量
+     * 
+     * @return 校验Piece数量
+     */
+    int verifyPieceSize() {
+        return this.fileEndPieceIndex - this.fileBeginPieceIndex + 1;
     }
     
     /**
@@ -630,32 +778,72 @@ public final class TorrentStream {
     private void verifyFail(int index) {
         LOGGER.debug("Piece校验失败：{}", index);
         this.pieces.clear(index);
+        this.claimPieces.clear(index);
         this.torrentStreamGroup.undone(index);
     }
     
     /**
      * 刷出缓存
+     * 先写入文件再移除缓存：防止读取线程读取到没有写入的数据
+     * 使用刷出锁：写入文件时不会阻塞读取和保存Piece
+     * 按照文件偏移排序：连续Piece合并写入
      */
     public void flush() {
-        synchronized (this) {
-            final var list = new ArrayList<TorrentPiece>();
-            this.cachePieces.drainTo(list);
-            list.forEach(this::flush);
+        synchronized (this.flushLock) {
+            if(this.cachePieces.isEmpty()) {
+                return;
+            }
+            final List<TorrentPiece> list = new ArrayList<>(this.cachePieces.values());
+            list.sort(Comparator.comparingInt(TorrentPiece::getIndex));
+            final List<TorrentPiece> flushList = new ArrayList<>();
+            long endPos = -1L;
+            for (TorrentPiece piece : list) {
+                if(piece.beginPos() != endPos && !flushList.isEmpty()) {
+                    this.flush(flushList);
+                    flushList.clear();
+                }
+                flushList.add(piece);
+                endPos = piece.endPos();
+            }
+            this.flush(flushList);
         }
     }
     
     /**
-     * 写出Piece
+     * 写出连续Piece
+     * 
+     * @param list 连续Piece
+     */
+    private void flush(List<TorrentPiece> list) {
+        final TorrentPiece first = list.get(0);
+        final long seek = Math.max(first.beginPos(), this.fileBeginPos) - this.fileBeginPos;
+        final ByteBuffer[] buffers = new ByteBuffer[list.size()];
+        for (int index = 0; index < buffers.length; index++) {
+            buffers[index] = this.flushBuffer(list.get(index));
+        }
+        LOGGER.debug("写出Piece：{}-{}", first.getIndex(), buffers.length);
+        try {
+            this.storage.write(buffers, seek);
+        } catch (IOException e) {
+            LOGGER.error("写出Piece异常：{}-{}-{}", first.getIndex(), buffers.length, seek, e);
+        }
+        for (TorrentPiece piece : list) {
+            this.cachePieces.remove(piece.getIndex());
+            this.torrentStreamGroup.cache(-this.flushBuffer(piece).remaining());
+            piece.release();
+        }
+    }
+    
+    /**
+     * 获取Piece属于当前文件的数据
      * 
      * @param piece Piece
+     * 
+     * @return Piece数据
      */
-    private void flush(TorrentPiece piece) {
-        final int index = piece.getIndex();
-        LOGGER.debug("写出Piece：{}", index);
+    private ByteBuffer flushBuffer(TorrentPiece piece) {
         // 数据偏移
         int offset = 0;
-        // 文件偏移
-        long seek = 0L;
         // 数据长度
         int length = piece.getLength();
         // 开始偏移
@@ -666,22 +854,12 @@ public final class TorrentStream {
             // Piece包含文件开始
             offset = (int) (this.fileBeginPos - beginPos);
             length = length - offset;
-        } else {
-            // 文件包含Piece开始
-            seek = beginPos - this.fileBeginPos;
         }
         if(endPos >= this.fileEndPos) {
             // Piece包含文件结束
             length = (int) (length - (endPos - this.fileEndPos));
         }
-        try {
-            final byte[] bytes = piece.getData();
-            // 注意线程安全
-            this.fileStream.seek(seek);
-            this.fileStream.write(bytes, offset, length);
-        } catch (IOException e) {
-            LOGGER.error("写出Piece异常：{}-{}-{}-{}", index, seek, offset, length, e);
-        }
+        return ByteBuffer.wrap(piece.getData(), offset, length);
     }
     
     /**
@@ -692,15 +870,7 @@ public final class TorrentStream {
      * @return Piece数据
      */
     private TorrentPiece cachePiece(int index) {
-        TorrentPiece torrentPiece;
-        final var iterator = this.cachePieces.iterator();
-        while(iterator.hasNext()) {
-            torrentPiece = iterator.next();
-            if(torrentPiece.getIndex() == index) {
-                return torrentPiece;
-            }
-        }
-        return null;
+        return this.cachePieces.get(index);
     }
     
     /**
@@ -812,12 +982,12 @@ public final class TorrentStream {
      * 
      * @return 是否含有
      */
-    private boolean hasData(byte[] bytes) {
-        if(bytes == null) {
+    private boolean hasData(ByteBuffer buffer) {
+        if(buffer == null) {
             return false;
         }
-        for (byte value : bytes) {
-            if(value != 0) {
+        for (int index = buffer.position(); index < buffer.limit(); index++) {
+            if(buffer.get(index) != 0) {
                 return true;
             }
         }
@@ -63,6 +63,8 @@ public final class TorrentStreamGroup {
     private final BitSet fullPieces;
     /**
      * 文件流中Piece缓存大小
+     * 
+     * @see TorrentCacheContext
      */
     private final AtomicLong fileBufferSize;
     /**
@@ -78,6 +80,10 @@ public final class TorrentStreamGroup {
      * BT任务信息
      */
     private final TorrentSession torrentSession;
+    /**
+     * 文件校验
+     */
+    private volatile TorrentStreamVerifier verifier;
     /**
      * 读写锁
      */
@@ -94,6 +100,10 @@ public final class TorrentStreamGroup {
      * @see #readWriteLock
      */
     private final Lock writeLock;
+    /**
+     * Piece选择器
+     */
+    private final TorrentPiecePicker picker;
 
     /**
      * @param torrentSession BT任务信息
@@ -112,6 +122,7 @@ public final class TorrentStreamGroup {
         this.readWriteLock = new ReentrantReadWriteLock();
         this.readLock = this.readWriteLock.readLock();
         this.writeLock = this.readWriteLock.writeLock();
+        this.picker = TorrentPiecePicker.newInstance(torrent.getInfo().pieceSize());
     }
     
     /**
@@ -126,6 +137,7 @@ public final class TorrentStreamGroup {
     public static final TorrentStreamGroup newInstance(String folder, List<TorrentFile> files, TorrentSession torrentSession) {
         final TorrentStreamGroup torrentStreamGroup = new TorrentStreamGroup(torrentSession);
         torrentStreamGroup.load(torrentSession.completed(), folder, files);
+        TorrentCacheContext.getInstance().register(torrentStreamGroup);
         return torrentStreamGroup;
     }
     
@@ -166,6 +178,8 @@ public final class TorrentStreamGroup {
         this.writeLock.lock();
         try {
             final long startTime = System.currentTimeMillis();
+            // 文件分配耗时
+            long allocateTime = 0L;
             // 开始加载下载文件
             long pos = 0;
             final long pieceLength = this.torrent.getInfo().getPieceLength();
@@ -182,6 +196,9 @@ public final class TorrentStreamGroup {
                             LOGGER.debug("文件选择下载（加载）：{}", filePath);
                             loadFileCount++;
                             final TorrentStream newStream = TorrentStream.newInstance(pieceLength, filePath, fileSize, pos, completed, this);
+                            final long allocateStartTime = System.currentTimeMillis();
+                            newStream.allocate();
+                            allocateTime += System.currentTimeMillis() - allocateStartTime;
                             this.streams.add(newStream);
                             newStream.buildSelectPieces(this.selectPieces);
                             newStream.install();
@@ -221,6 +238,9 @@ public final class TorrentStreamGroup {
             if(LOGGER.isDebugEnabled()) {
                 LOGGER.debug("任务加载耗时：{}-{}", this.torrentSession, (finishTime - startTime));
             }
+            if(allocateTime > 0L) {
+                LOGGER.info("文件分配耗时：{}-{}-{}", this.torrentSession, DownloadConfig.getAllocateMode(), allocateTime);
+            }
         } finally {
             this.writeLock.unlock();
         }
@@ -275,6 +295,48 @@ public final class TorrentStreamGroup {
         }
     }
     
+    /**
+     * 获取Piece选择器
+     * 
+     * @return Piece选择器
+     */
+    TorrentPiecePicker picker() {
+        return this.picker;
+    }
+    
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param index Piece索引
+     * 
+     * @see TorrentPiecePicker#available(int)
+     */
+    public void available(int index) {
+        this.picker.available(index);
+    }
+    
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param pieces Piece位图
+     * 
+     * @see TorrentPiecePicker#available(BitSet)
+     */
+    public void available(BitSet pieces) {
+        this.picker.available(pieces);
+    }
+    
+    /**
+     * 减少Piece可用数量
+     * 
+     * @param pieces Piece位图
+     * 
+     * @see TorrentPiecePicker#unavailable(BitSet)
+     */
+    public void unavailable(BitSet pieces) {
+        this.picker.unavailable(pieces);
+    }
+    
     /**
      * 挑选下载Piece
      * 
@@ -311,6 +373,8 @@ public final class TorrentStreamGroup {
     
     /**
      * 读取Piece数据
+     * 数据处于单个文件：直接返回文件流数据（不用合并）
+     * 数据跨越多个文件：合并返回
      * 
      * @param index  Piece索引
      * @param begin  Piece偏移
@@ -320,27 +384,36 @@ public final class TorrentStreamGroup {
      * 
      * @throws NetException 网络异常
      * 
-     * @see TorrentStream#read(int, int, int)
+     * @see TorrentStream#readBuffer(int, int, int)
      */
-    public byte[] read(final int index, final int begin, final int length) throws NetException {
+    public ByteBuffer read(final int index, final int begin, final int length) throws NetException {
         PacketSizeException.verify(length);
-        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        ByteBuffer buffer = null;
         this.readLock.lock();
         try {
-            // 如果跨越多个文件合并返回
             for (TorrentStream torrentStream : this.streams) {
-                final byte[] bytes = torrentStream.read(index, length, begin);
-                if(bytes != null) {
-                    buffer.put(bytes);
-                    if(buffer.position() >= length) {
-                        break;
+                final ByteBuffer slice = torrentStream.readBuffer(index, length, begin);
+                if(slice == null) {
+                    continue;
+                }
+                if(buffer == null) {
+                    if(slice.remaining() >= length) {
+                        return slice;
                     }
+                    buffer = ByteBuffer.allocate(length);
+                }
+                buffer.put(slice);
+                if(buffer.position() >= length) {
+                    break;
                 }
             }
         } finally {
             this.readLock.unlock();
         }
-        return buffer.array();
+        if(buffer == null) {
+            return ByteBuffer.allocate(length);
+        }
+        return buffer.clear();
     }
 
     /**
@@ -368,16 +441,8 @@ public final class TorrentStreamGroup {
         if(success) {
             // 发送have消息
             this.have(piece.getIndex());
-            // 修改缓存大小
-            final long oldValue = this.fileBufferSize.addAndGet(piece.getLength());
             // 判断是否刷出缓存
-            if(
-                oldValue > DownloadConfig.getMemoryBufferByte() &&
-                this.fileBufferSize.compareAndSet(oldValue, 0)
-            ) {
-                LOGGER.debug("缓冲区被占满：{}", this.torrentSession);
-                this.flush();
-            }
+            TorrentCacheContext.getInstance().flush();
         }
         if(LOGGER.isDebugEnabled()) {
             LOGGER.debug("""
@@ -390,6 +455,27 @@ public final class TorrentStreamGroup {
         return success;
     }
     
+    /**
+     * 修改缓存大小
+     * 
+     * @param size 修改大小（缓存：正数；刷出：负数）
+     * 
+     * @see TorrentCacheContext#cache(long)
+     */
+    void cache(long size) {
+        this.fileBufferSize.addAndGet(size);
+        TorrentCacheContext.getInstance().cache(size);
+    }
+    
+    /**
+     * 获取缓存大小
+     * 
+     * @return 缓存大小
+     */
+    public long cacheSize() {
+        return this.fileBufferSize.get();
+    }
+    
     /**
      * 判断Piece是否已经下载
      * 
@@ -536,17 +622,33 @@ public final class TorrentStreamGroup {
 
     /**
      * 校验文件
+     * 所有文件共享文件校验：并行计算Hash
+     * 
+     * @return 是否成功
      * 
      * @throws IOException IO异常
+     * 
+     * @see TorrentStream#verify(TorrentStreamVerifier)
      */
     public boolean verify() throws IOException {
         int verifyFailCount = 0;
         this.readLock.lock();
         try {
+            int pieceSize = 0;
             for (TorrentStream torrentStream : this.streams) {
-                if(torrentStream.selected() && !torrentStream.verify()) {
-                    verifyFailCount++;
+                if(torrentStream.selected()) {
+                    pieceSize += torrentStream.verifyPieceSize();
+                }
+            }
+            try (final TorrentStreamVerifier verifier = TorrentStreamVerifier.newInstance(pieceSize, this.torrent.getInfo().getPieceLength())) {
+                this.verifier = verifier;
+                for (TorrentStream torrentStream : this.streams) {
+                    if(torrentStream.selected() && !torrentStream.verify(verifier)) {
+                        verifyFailCount++;
+                    }
                 }
+            } finally {
+                this.verifier = null;
             }
             this.torrentSession.downloadSize(this.downloadSize());
         } finally {
@@ -555,6 +657,17 @@ public final class TorrentStreamGroup {
         return verifyFailCount == 0;
     }
     
+    /**
+     * 获取文件校验进度（百分比）
+     * 没有校验返回：-1
+     * 
+     * @return 文件校验进度
+     */
+    public int verifyProgress() {
+        final TorrentStreamVerifier verifier = this.verifier;
+        return verifier == null ? -1 : verifier.progress();
+    }
+    
     /**
      * 获取Piece校验数据（Hash）
      * 
@@ -636,6 +749,7 @@ public final class TorrentStreamGroup {
      */
     public void release() {
         LOGGER.debug("释放TorrentStreamGroup：{}", this.torrentSession);
+        TorrentCacheContext.getInstance().unregister(this);
         this.readLock.lock();
         try {
             for (TorrentStream torrentStream : this.streams) {
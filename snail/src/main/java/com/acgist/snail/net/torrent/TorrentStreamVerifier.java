@@ -0,0 +1,228 @@
+package com.acgist.snail.net.torrent;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.utils.DigestUtils;
+
+/**
+ * 文件校验
+ * 调用线程顺序读取Piece数据，并行线程池计算Hash：每个线程使用独立SHA-1算法工具。
+ * 所有文件校验共享一个并行线程池：不用每次校验新建和销毁线程
+ * 所有文件校验共享预读缓冲大小限制（按照字节计算）：防止读取速度超过计算速度或者同时校验多个任务占用大量内存
+ * Piece大小超过预读缓冲大小时只能预读一个Piece
+ * 
+ * @author acgist
+ */
+public final class TorrentStreamVerifier implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TorrentStreamVerifier.class);
+
+    /**
+     * 进度日志间隔（百分比）：{@value}
+     */
+    private static final int PROGRESS_STEP = 10;
+    /**
+     * 并行线程池
+     * 
+     * @see SystemConfig#getVerifyThreadSize()
+     */
+    private static final ForkJoinPool EXECUTOR = SystemThreadContext.newForkJoinPool(SystemConfig.getVerifyThreadSize(), SystemThreadContext.SNAIL_THREAD_BT_VERIFY);
+    /**
+     * SHA-1算法工具
+     */
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(DigestUtils::sha1);
+    /**
+     * 预读缓冲大小（KB）
+     * 
+     * @see SystemConfig#getVerifyBufferSize()
+     */
+    private static final int BUFFER_SIZE = SystemConfig.getVerifyBufferSize() * SystemConfig.ONE_KB;
+    /**
+     * 预读缓冲信号量（KB）
+     * 公平模式：防止大Piece一直等待
+     */
+    private static final Semaphore BUFFER = new Semaphore(BUFFER_SIZE, true);
+
+    /**
+     * 校验Piece数量
+     */
+    private final int pieceSize;
+    /**
+     * 单个Piece占用预读缓冲大小（KB）
+     */
+    private final int pieceBuffer;
+    /**
+     * 没有完成校验任务数量
+     */
+    private int pending;
+    /**
+     * 已经校验Piece数量
+     */
+    private final AtomicInteger verifySize;
+
+    /**
+     * @param pieceSize   校验Piece数量
+     * @param pieceLength Piece大小
+     */
+    private TorrentStreamVerifier(int pieceSize, long pieceLength) {
+        this.pieceSize = pieceSize;
+        this.pieceBuffer = (int) Math.min(BUFFER_SIZE, Math.max(1L, (pieceLength + SystemConfig.ONE_KB - 1) / SystemConfig.ONE_KB));
+        this.pending = 0;
+        this.verifySize = new AtomicInteger(0);
+    }
+
+    /**
+     * 新建文件校验
+     * 
+     * @param pieceSize   校验Piece数量
+     * @param pieceLength Piece大小
+     * 
+     * @return {@link TorrentStreamVerifier}
+     */
+    public static final TorrentStreamVerifier newInstance(int pieceSize, long pieceLength) {
+        return new TorrentStreamVerifier(pieceSize, pieceLength);
+    }
+
+    /**
+     * 提交校验任务
+     * 调用线程读取数据：预读缓冲达到限制时阻塞
+     * 
+     * @param reader   读取数据
+     * @param hash     校验数据
+     * @param callback 校验结果
+     */
+    public void submit(Supplier<ByteBuffer> reader, byte[] hash, Consumer<Boolean> callback) {
+        this.acquire();
+        final ByteBuffer buffer;
+        try {
+            buffer = reader.get();
+        } catch (Exception e) {
+            LOGGER.error("文件校验读取数据异常", e);
+            this.release();
+            this.done(callback, false);
+            return;
+        }
+        if(buffer == null) {
+            this.release();
+            this.done(callback, false);
+            return;
+        }
+        EXECUTOR.execute(() -> {
+            boolean verify = false;
+            try {
+                final MessageDigest digest = DIGEST.get();
+                digest.reset();
+                digest.update(buffer);
+                verify = Arrays.equals(digest.digest(), hash);
+            } catch (Exception e) {
+                LOGGER.error("文件校验计算Hash异常", e);
+            }
+            try {
+                this.done(callback, verify);
+            } finally {
+                // 设置结果以后释放：等待完成时所有结果已经设置
+                this.release();
+            }
+        });
+    }
+
+    /**
+     * 申请预读缓冲
+     */
+    private void acquire() {
+        BUFFER.acquireUninterruptibly(this.pieceBuffer);
+        synchronized (this) {
+            this.pending++;
+        }
+    }
+
+    /**
+     * 释放预读缓冲
+     */
+    private void release() {
+        BUFFER.release(this.pieceBuffer);
+        synchronized (this) {
+            if(--this.pending <= 0) {
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 设置校验结果
+     * 没有计算Hash的Piece（第一块和最后一块）也要设置：统计校验进度
+     * 
+     * @param callback 校验结果
+     * @param verify   是否校验成功
+     */
+    public void done(Consumer<Boolean> callback, boolean verify) {
+        try {
+            callback.accept(verify);
+        } catch (Exception e) {
+            LOGGER.error("文件校验设置结果异常", e);
+        }
+        final int verifySize = this.verifySize.incrementAndGet();
+        if(LOGGER.isDebugEnabled() && this.pieceSize > 0) {
+            final int step = Math.max(1, this.pieceSize * PROGRESS_STEP / 100);
+            if(verifySize % step == 0 || verifySize == this.pieceSize) {
+                LOGGER.debug("文件校验进度：{}-{}-{}", verifySize, this.pieceSize, this.progress());
+            }
+        }
+    }
+
+    /**
+     * 等待所有校验任务完成
+     */
+    public void await() {
+        boolean interrupted = false;
+        synchronized (this) {
+            while(this.pending > 0) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return 可用预读缓冲大小（KB）
+     */
+    public static final int availableBuffer() {
+        return BUFFER.availablePermits();
+    }
+
+    /**
+     * 获取校验进度（百分比）
+     * 
+     * @return 校验进度
+     */
+    public int progress() {
+        if(this.pieceSize <= 0) {
+            return 100;
+        }
+        return Math.min(100, this.verifySize.get() * 100 / this.pieceSize);
+    }
+
+    @Override
+    public void close() {
+        // 共享线程池不用关闭
+        this.await();
+    }
+
+}
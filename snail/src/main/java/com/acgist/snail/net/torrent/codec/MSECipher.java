@@ -1,25 +1,20 @@
 package com.acgist.snail.net.torrent.codec;
 
 import java.nio.ByteBuffer;
-import java.security.InvalidKeyException;
+import java.nio.ByteOrder;
 import java.security.Key;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.SecretKeySpec;
 
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.torrent.InfoHash;
-import com.acgist.snail.utils.ByteUtils;
 import com.acgist.snail.utils.DigestUtils;
 
 /**
  * MSE加解密套件（ARC4）
  * 协议链接：https://baike.baidu.com/item/RC4/3454548
+ * 直接在缓冲数据上异或密钥流：不用复制数据（支持堆内存和直接内存）
  * 
  * @author acgist
  */
@@ -30,13 +25,9 @@ public final class MSECipher {
      */
     private static final String ARC4_ALGO = "ARCFOUR";
     /**
-     * 加密算法：{@value}
-     * NoPadding：没有填充
-     * ZeroPadding：填充零
-     * PKCS5Padding：填充对齐（块大小固定为8的PKCS7Padding）
-     * PKCS7Padding：填充对齐（块大小不固定）
+     * 丢弃密钥流长度：{@value}
      */
-    private static final String ARC4_ALGO_TRANSFORMATION = ARC4_ALGO + "/ECB/NoPadding";
+    private static final int DROP_LENGTH = 1024;
     /**
      * 请求客户端Key：{@value}
      */
@@ -49,23 +40,19 @@ public final class MSECipher {
     /**
      * 加密套件
      */
-    private final Cipher encryptCipher;
+    private final ARC4 encryptCipher;
     /**
      * 解密套件
      */
-    private final Cipher decryptCipher;
+    private final ARC4 decryptCipher;
     
     /**
      * @param encryptKey 加密Key
      * @param decryptKey 解密Key
-     * 
-     * @throws InvalidKeyException      密钥异常
-     * @throws NoSuchPaddingException   填充异常
-     * @throws NoSuchAlgorithmException 算法异常
      */
-    private MSECipher(Key encryptKey, Key decryptKey) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException {
-        this.encryptCipher = this.buildCipher(Cipher.ENCRYPT_MODE, ARC4_ALGO_TRANSFORMATION, encryptKey);
-        this.decryptCipher = this.buildCipher(Cipher.DECRYPT_MODE, ARC4_ALGO_TRANSFORMATION, decryptKey);
+    private MSECipher(Key encryptKey, Key decryptKey) {
+        this.encryptCipher = new ARC4(encryptKey.getEncoded());
+        this.decryptCipher = new ARC4(decryptKey.getEncoded());
     }
     
     /**
@@ -81,11 +68,7 @@ public final class MSECipher {
     public static final MSECipher newSender(byte[] secret, InfoHash infoHash) throws NetException {
         final Key sendKey = MSECipher.buildSendKey(secret, infoHash.getInfoHash());
         final Key recvKey = MSECipher.buildRecvKey(secret, infoHash.getInfoHash());
-        try {
-            return new MSECipher(sendKey, recvKey);
-        } catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException e) {
-            throw new NetException("新建加密套件失败", e);
-        }
+        return new MSECipher(sendKey, recvKey);
     }
     
     /**
@@ -101,33 +84,18 @@ public final class MSECipher {
     public static final MSECipher newRecver(byte[] secret, InfoHash infoHash) throws NetException {
         final Key sendKey = MSECipher.buildSendKey(secret, infoHash.getInfoHash());
         final Key recvKey = MSECipher.buildRecvKey(secret, infoHash.getInfoHash());
-        try {
-            return new MSECipher(recvKey, sendKey);
-        } catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException e) {
-            throw new NetException("新建加密套件失败", e);
-        }
+        return new MSECipher(recvKey, sendKey);
     }
 
     /**
      * 数据加密
      * 
      * @param buffer 数据
+     * 
+     * @see #crypt(ARC4, ByteBuffer)
      */
     public void encrypt(ByteBuffer buffer) {
-        boolean flip = true;
-        if(buffer.position() != 0) {
-            flip = false;
-            buffer.flip();
-        }
-        final byte[] value = ByteUtils.remainingToBytes(buffer);
-        byte[] encryptValue;
-        synchronized (this.encryptCipher) {
-            encryptValue = this.encryptCipher.update(value);
-        }
-        buffer.clear().put(encryptValue);
-        if(flip) {
-            buffer.flip();
-        }
+        MSECipher.crypt(this.encryptCipher, buffer);
     }
     
     /**
@@ -140,35 +108,20 @@ public final class MSECipher {
      * @throws NetException 网络异常
      */
     public byte[] encrypt(byte[] bytes) throws NetException {
-        try {
-            synchronized (this.encryptCipher) {
-                return this.encryptCipher.doFinal(bytes);
-            }
-        } catch (IllegalBlockSizeException | BadPaddingException e) {
-            throw new NetException("数据加密异常", e);
-        }
+        final byte[] value = bytes.clone();
+        this.encryptCipher.crypt(value, 0, value.length);
+        return value;
     }
     
     /**
      * 数据解密
      * 
      * @param buffer 数据
+     * 
+     * @see #crypt(ARC4, ByteBuffer)
      */
     public void decrypt(ByteBuffer buffer) {
-        boolean flip = true;
-        if(buffer.position() != 0) {
-            flip = false;
-            buffer.flip();
-        }
-        final byte[] value = ByteUtils.remainingToBytes(buffer);
-        byte[] decryptValue;
-        synchronized (this.decryptCipher) {
-            decryptValue = this.decryptCipher.update(value);
-        }
-        buffer.clear().put(decryptValue);
-        if(flip) {
-            buffer.flip();
-        }
+        MSECipher.crypt(this.decryptCipher, buffer);
     }
     
     /**
@@ -181,12 +134,27 @@ public final class MSECipher {
      * @throws NetException 网络异常
      */
     public byte[] decrypt(byte[] bytes) throws NetException {
-        try {
-            synchronized (this.decryptCipher) {
-                return this.decryptCipher.doFinal(bytes);
-            }
-        } catch (IllegalBlockSizeException | BadPaddingException e) {
-            throw new NetException("数据解密异常", e);
+        final byte[] value = bytes.clone();
+        this.decryptCipher.crypt(value, 0, value.length);
+        return value;
+    }
+    
+    /**
+     * 加解密数据
+     * 写模式（position != 0）：处理[0, position)
+     * 读模式（position == 0）：处理[0, limit)
+     * 处理完成以后保持原来的读写模式
+     * 
+     * @param cipher 加解密套件
+     * @param buffer 数据
+     */
+    private static final void crypt(ARC4 cipher, ByteBuffer buffer) {
+        final int position = buffer.position();
+        final int length   = position == 0 ? buffer.limit() : position;
+        cipher.crypt(buffer, length);
+        if(position != 0) {
+            // 兼容：写模式处理完成以后限制设置容量
+            buffer.limit(buffer.capacity());
         }
     }
     
@@ -232,24 +200,126 @@ public final class MSECipher {
     }
 
     /**
-     * 新建Cipher
-     * 
-     * @param mode           模式
-     * @param transformation 算法
-     * @param key            Key
-     * 
-     * @return 加解密套件
+     * ARC4密钥流
+     * 状态使用int数组：读取不用处理符号
      * 
-     * @throws InvalidKeyException      密钥异常
-     * @throws NoSuchPaddingException   填充异常
-     * @throws NoSuchAlgorithmException 算法异常
+     * @author acgist
      */
-    private Cipher buildCipher(int mode, String transformation, Key key) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException {
-        final Cipher cipher = Cipher.getInstance(transformation);
-        cipher.init(mode, key);
-        // 丢弃1024字节
-        cipher.update(new byte[1024]);
-        return cipher;
+    private static final class ARC4 {
+
+        /**
+         * 状态
+         */
+        private final int[] state;
+        /**
+         * 索引I
+         */
+        private int i;
+        /**
+         * 索引J
+         */
+        private int j;
+
+        /**
+         * @param key Key
+         */
+        private ARC4(byte[] key) {
+            this.state = new int[256];
+            for (int index = 0; index < 256; index++) {
+                this.state[index] = index;
+            }
+            int j = 0;
+            for (int index = 0; index < 256; index++) {
+                final int value = this.state[index];
+                j = (j + value + key[index % key.length]) & 0xFF;
+                this.state[index] = this.state[j];
+                this.state[j] = value;
+            }
+            // 丢弃1024字节
+            this.skip(DROP_LENGTH);
+        }
+
+        /**
+         * 丢弃密钥流
+         * 
+         * @param length 长度
+         */
+        private void skip(int length) {
+            for (int index = 0; index < length; index++) {
+                this.next();
+            }
+        }
+        
+        /**
+         * @return 下一个密钥流字节
+         */
+        private int next() {
+            final int[] state = this.state;
+            final int i = (this.i + 1) & 0xFF;
+            final int x = state[i];
+            final int j = (this.j + x) & 0xFF;
+            final int y = state[j];
+            state[i] = y;
+            state[j] = x;
+            this.i = i;
+            this.j = j;
+            return state[(x + y) & 0xFF];
+        }
+
+        /**
+         * 加解密数据
+         * 
+         * @param bytes  数据
+         * @param offset 开始位置
+         * @param length 长度
+         */
+        private synchronized void crypt(byte[] bytes, int offset, int length) {
+            final int[] state = this.state;
+            int i = this.i;
+            int j = this.j;
+            final int end = offset + length;
+            for (int index = offset; index < end; index++) {
+                i = (i + 1) & 0xFF;
+                final int x = state[i];
+                j = (j + x) & 0xFF;
+                final int y = state[j];
+                state[i] = y;
+                state[j] = x;
+                bytes[index] ^= state[(x + y) & 0xFF];
+            }
+            this.i = i;
+            this.j = j;
+        }
+        
+        /**
+         * 加解密数据：[0, length)
+         * 
+         * @param buffer 数据
+         * @param length 长度
+         */
+        private synchronized void crypt(ByteBuffer buffer, int length) {
+            if(buffer.hasArray()) {
+                this.crypt(buffer.array(), buffer.arrayOffset(), length);
+                return;
+            }
+            // 直接内存：每次处理八个字节
+            final boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+            int index = 0;
+            for (; index + Long.BYTES <= length; index += Long.BYTES) {
+                long key = 0L;
+                for (int jndex = 0; jndex < Long.BYTES; jndex++) {
+                    key = (key << 8) | this.next();
+                }
+                if(!bigEndian) {
+                    key = Long.reverseBytes(key);
+                }
+                buffer.putLong(index, buffer.getLong(index) ^ key);
+            }
+            for (; index < length; index++) {
+                buffer.put(index, (byte) (buffer.get(index) ^ this.next()));
+            }
+        }
+        
     }
 
 }
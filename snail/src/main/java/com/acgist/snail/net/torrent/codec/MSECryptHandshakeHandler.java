@@ -139,9 +139,10 @@ public final class MSECryptHandshakeHandler {
      */
     private MSECipher cipher;
     /**
-     * VC加密套件
+     * 加密VC
+     * 新建加密套件时计算：接收确认加密协议可能多次进入，解密会继续消耗密钥流。
      */
-    private MSECipher cipherVC;
+    private byte[] vcMatch;
     /**
      * 密钥对
      */
@@ -211,6 +212,16 @@ public final class MSECryptHandshakeHandler {
         return this.completed;
     }
     
+    /**
+     * 判断是否使用明文
+     * 握手完成并且没有加密
+     * 
+     * @return 是否使用明文
+     */
+    public boolean plaintextCompleted() {
+        return this.completed && !this.crypt;
+    }
+    
     /**
      * 发送握手消息
      */
@@ -427,7 +438,8 @@ public final class MSECryptHandshakeHandler {
         final byte[] dhSecretBytes = NumberUtils.encodeBigInteger(this.dhSecret, CryptConfig.PUBLIC_KEY_LENGTH);
         final InfoHash infoHash    = torrentSession.infoHash();
         this.cipher        = MSECipher.newSender(dhSecretBytes, infoHash);
-        this.cipherVC      = MSECipher.newSender(dhSecretBytes, infoHash);
+        // 相同数据发送方加密和接收方解密结果是一样的
+        this.vcMatch       = MSECipher.newSender(dhSecretBytes, infoHash).decrypt(CryptConfig.VC);
         ByteBuffer message = ByteBuffer.allocate(40);
         final MessageDigest digest = DigestUtils.sha1();
 //      HASH('req1', S)
@@ -587,9 +599,7 @@ public final class MSECryptHandshakeHandler {
      */
     private void receiveConfirm() throws NetException {
         LOGGER.debug("加密握手（接收确认加密协议）步骤：{}", this.step);
-        // 相同数据发送方加密和接收方解密结果是一样的
-        final byte[] vcMatch = this.cipherVC.decrypt(CryptConfig.VC);
-        if(!this.match(vcMatch)) {
+        if(!this.match(this.vcMatch)) {
             return;
         }
         if(this.buffer.position() < CONFIRM_MIN_LENGTH) {
@@ -771,7 +781,7 @@ public final class MSECryptHandshakeHandler {
         this.keyPair        = null;
         this.strategy       = null;
         this.dhSecret       = null;
-        this.cipherVC       = null;
+        this.vcMatch        = null;
         this.msePaddingSync = null;
         this.unlockHandshake();
     }
@@ -53,6 +53,18 @@ public final class PeerCryptMessageCodec extends MessageCodec<ByteBuffer, ByteBu
         return buffer;
     }
     
+    /**
+     * 判断是否使用明文
+     * 使用明文的消息不用编码可以直接发送
+     * 
+     * @return 是否使用明文
+     * 
+     * @see MSECryptHandshakeHandler#plaintextCompleted()
+     */
+    public boolean plaintext() {
+        return this.mseCryptHandshakeHandler.plaintextCompleted();
+    }
+    
     @Override
     public void doDecode(ByteBuffer buffer, InetSocketAddress address) throws NetException {
         if(this.mseCryptHandshakeHandler.available()) {
@@ -6,20 +6,34 @@ import java.nio.ByteBuffer;
 import com.acgist.snail.config.PeerConfig;
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.PacketSizeException;
+import com.acgist.snail.net.codec.IMessageDecoder;
 import com.acgist.snail.net.codec.MessageCodec;
+import com.acgist.snail.net.torrent.TorrentPiece;
 import com.acgist.snail.net.torrent.peer.PeerSubMessageHandler;
 
 /**
  * Peer消息处理器：拆包
+ * 完整消息直接在接收缓冲中处理（限制读取范围）不用复制，跨越多次接收的消息复制到累积缓冲。
+ * 注意：消息处理器同步处理消息，处理完成以后不能继续使用消息。
  * 
  * @author acgist
  */
 public final class PeerUnpackMessageCodec extends MessageCodec<ByteBuffer, ByteBuffer> {
 
     /**
-     * 消息缓存
+     * 复用累积缓冲最大长度：{@value}
+     * 超过这个长度的消息处理完成直接释放
+     */
+    private static final int MAX_CACHE_LENGTH = 2 * TorrentPiece.SLICE_LENGTH;
+    
+    /**
+     * 累积缓冲：没有接收完成的消息
      */
     private ByteBuffer buffer;
+    /**
+     * 复用累积缓冲
+     */
+    private ByteBuffer cache;
     /**
      * 消息长度
      */
@@ -33,76 +47,113 @@ public final class PeerUnpackMessageCodec extends MessageCodec<ByteBuffer, ByteB
      * @param peerSubMessageHandler Peer消息代理
      */
     public PeerUnpackMessageCodec(PeerSubMessageHandler peerSubMessageHandler) {
-        super(peerSubMessageHandler);
+        this(peerSubMessageHandler, peerSubMessageHandler);
+    }
+    
+    /**
+     * @param messageDecoder        下一个消息处理器
+     * @param peerSubMessageHandler Peer消息代理（握手状态和心跳）
+     */
+    PeerUnpackMessageCodec(IMessageDecoder<ByteBuffer> messageDecoder, PeerSubMessageHandler peerSubMessageHandler) {
+        super(messageDecoder);
         this.lengthStick           = ByteBuffer.allocate(Integer.BYTES);
         this.peerSubMessageHandler = peerSubMessageHandler;
     }
     
     @Override
     public void doDecode(ByteBuffer buffer, InetSocketAddress address) throws NetException {
-        // 消息数据长度
-        int length = 0;
-        while(true) {
-            if(this.buffer == null) {
-                if(this.peerSubMessageHandler.handshakeRecv()) {
+        while(buffer.hasRemaining()) {
+            if(this.buffer != null) {
+                // 上次消息没有读取完成
+                if(!this.accumulate(buffer, address)) {
+                    break;
+                }
+                continue;
+            }
+            // 消息数据长度
+            final int length;
+            if(this.peerSubMessageHandler.handshakeRecv()) {
+                if(this.lengthStick.position() == 0 && buffer.remaining() >= Integer.BYTES) {
+                    length = buffer.getInt();
+                } else {
                     while(this.lengthStick.hasRemaining() && buffer.hasRemaining()) {
                         this.lengthStick.put(buffer.get());
                     }
                     if(this.lengthStick.hasRemaining()) {
                         // 消息长度缺失跳出
                         break;
-                    } else {
-                        this.lengthStick.flip();
-                        length = this.lengthStick.getInt();
-                        this.lengthStick.compact();
-                    }
-                } else {
-                    // 握手消息长度
-                    length = PeerConfig.HANDSHAKE_LENGTH;
-                }
-                // 心跳消息
-                if(length <= 0) {
-                    this.peerSubMessageHandler.keepAlive();
-                    if(buffer.hasRemaining()) {
-                        // 还有消息：继续处理
-                        continue;
-                    } else {
-                        // 没有消息：跳出循环
-                        break;
                     }
+                    this.lengthStick.flip();
+                    length = this.lengthStick.getInt();
+                    this.lengthStick.clear();
                 }
-                PacketSizeException.verify(length);
-                this.buffer = ByteBuffer.allocate(length);
             } else {
-                // 上次消息没有读取完成：计算剩余消息数据长度
-                length = this.buffer.capacity() - this.buffer.position();
+                // 握手消息长度
+                length = PeerConfig.HANDSHAKE_LENGTH;
+            }
+            // 心跳消息
+            if(length <= 0) {
+                this.peerSubMessageHandler.keepAlive();
+                continue;
             }
-            final int remaining = buffer.remaining();
-            if(remaining > length) {
-                // 包含一条完整消息：继续读取、清空缓存
-                final byte[] bytes = new byte[length];
-                buffer.get(bytes);
-                this.buffer.put(bytes);
-                this.buffer.flip();
-                this.doNext(this.buffer, address);
-                this.buffer = null;
-            } else if(remaining == length) {
-                // 刚好一条完整消息：跳出循环、清空缓存
-                final byte[] bytes = new byte[length];
-                buffer.get(bytes);
-                this.buffer.put(bytes);
-                this.buffer.flip();
-                this.doNext(this.buffer, address);
-                this.buffer = null;
-                break;
-            } else if(remaining < length) {
-                // 不是一条完整消息：跳出循环、保留缓存
-                final byte[] bytes = new byte[remaining];
-                buffer.get(bytes);
-                this.buffer.put(bytes);
-                break;
+            PacketSizeException.verify(length);
+            if(buffer.remaining() >= length) {
+                // 包含完整消息：直接处理
+                final int limit    = buffer.limit();
+                final int position = buffer.position() + length;
+                buffer.limit(position);
+                try {
+                    this.doNext(buffer, address);
+                } finally {
+                    buffer.limit(limit).position(position);
+                }
+            } else {
+                // 不是完整消息：复制到累积缓冲
+                this.buffer = this.allocate(length);
+                this.accumulate(buffer, address);
             }
         }
     }
+    
+    /**
+     * 复制数据到累积缓冲
+     * 
+     * @param buffer  消息
+     * @param address 地址
+     * 
+     * @return 是否读取完成
+     * 
+     * @throws NetException 网络异常
+     */
+    private boolean accumulate(ByteBuffer buffer, InetSocketAddress address) throws NetException {
+        final int length = Math.min(this.buffer.remaining(), buffer.remaining());
+        this.buffer.put(this.buffer.position(), buffer, buffer.position(), length);
+        this.buffer.position(this.buffer.position() + length);
+        buffer.position(buffer.position() + length);
+        if(this.buffer.hasRemaining()) {
+            return false;
+        }
+        final ByteBuffer message = this.buffer.flip();
+        this.buffer = null;
+        this.doNext(message, address);
+        return true;
+    }
+    
+    /**
+     * 申请累积缓冲
+     * 
+     * @param length 消息长度
+     * 
+     * @return 累积缓冲
+     */
+    private ByteBuffer allocate(int length) {
+        if(length > MAX_CACHE_LENGTH) {
+            return ByteBuffer.allocate(length);
+        }
+        if(this.cache == null) {
+            this.cache = ByteBuffer.allocate(MAX_CACHE_LENGTH);
+        }
+        return this.cache.clear().limit(length);
+    }
 
 }
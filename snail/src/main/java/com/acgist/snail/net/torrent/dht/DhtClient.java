@@ -95,6 +95,15 @@ public final class DhtClient extends UdpClient<DhtMessageHandler> {
         this.handler.getPeers(infoHash);
     }
     
+    /**
+     * 发送请求
+     * 
+     * @param request 请求
+     */
+    public void request(DhtRequest request) {
+        this.handler.request(request);
+    }
+    
     /**
      * 声明Peer
      * 
@@ -1,22 +1,23 @@
 package com.acgist.snail.net.torrent.dht;
 
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
-import com.acgist.snail.config.DhtConfig;
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.context.IContext;
-import com.acgist.snail.context.SystemThreadContext;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.torrent.TorrentRuntime;
 import com.acgist.snail.utils.NumberUtils;
 
 /**
  * DHT上下文
+ * 消息ID是两个字节：请求按照消息ID直接放入数组，匹配响应不用遍历和加锁。
+ * 请求超时使用时间轮处理：添加和取消时间复杂度O(1)
  * 
  * TODO：nodeconext合并
  * 
@@ -43,6 +44,11 @@ public final class DhtContext implements IContext {
         "0123456789"                 +
         "abcdefghijklmnopqrstuvwxyz" +
         "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    /**
+     * 消息ID数量：{@value}
+     */
+    private static final int REQUEST_ID_SIZE = 1 << Short.SIZE;
+    
     /**
      * Token
      */
@@ -50,21 +56,32 @@ public final class DhtContext implements IContext {
     /**
      * 消息ID
      */
-    private short requestId = Short.MIN_VALUE;
+    private final AtomicInteger requestId;
     /**
      * DHT请求列表
+     * 索引：消息ID
+     */
+    private final AtomicReferenceArray<DhtRequest> requests;
+    /**
+     * 等待响应请求数量
+     */
+    private final LongAdder outstanding;
+    /**
+     * 收到响应请求数量
      */
-    private final List<DhtRequest> requests;
+    private final LongAdder answered;
+    /**
+     * 超时请求数量
+     */
+    private final LongAdder timeout;
     
     private DhtContext() {
-        this.token    = this.buildToken();
-        this.requests = new LinkedList<>();
-        SystemThreadContext.scheduledAtFixedDelay(
-            DhtConfig.DHT_REQUEST_TIMEOUT_INTERVAL,
-            DhtConfig.DHT_REQUEST_TIMEOUT_INTERVAL,
-            TimeUnit.MINUTES,
-            this::timeout
-        );
+        this.token       = this.buildToken();
+        this.requestId   = new AtomicInteger(Short.MIN_VALUE);
+        this.requests    = new AtomicReferenceArray<>(REQUEST_ID_SIZE);
+        this.outstanding = new LongAdder();
+        this.answered    = new LongAdder();
+        this.timeout     = new LongAdder();
     }
     
     /**
@@ -95,9 +112,7 @@ public final class DhtContext implements IContext {
      * @return 消息ID
      */
     public byte[] buildRequestId() {
-        synchronized (this) {
-            return NumberUtils.shortToBytes(this.requestId++);
-        }
+        return NumberUtils.shortToBytes((short) this.requestId.getAndIncrement());
     }
     
     /**
@@ -109,13 +124,24 @@ public final class DhtContext implements IContext {
         if (request == null) {
             return;
         }
-        synchronized (this.requests) {
-            // 删除旧的请求
-            final DhtRequest oldRequest = this.remove(request.getT());
-            if (oldRequest != null) {
-                LOGGER.debug("删除没有收到响应的DHT请求：{}", oldRequest);
-            }
-            this.requests.add(request);
+        final int index = DhtContext.index(request.getT());
+        if(index < 0) {
+            LOGGER.warn("放入DHT请求失败（消息ID）：{}", request);
+            return;
+        }
+        this.outstanding.increment();
+        request.setTimeout(TorrentRuntime.getInstance().scheduled(
+            SystemConfig.RECEIVE_TIMEOUT_MILLIS,
+            TimeUnit.MILLISECONDS,
+            TorrentRuntime.getInstance()::execute,
+            () -> this.timeout(index, request)
+        ));
+        // 删除旧的请求
+        final DhtRequest oldRequest = this.requests.getAndSet(index, request);
+        if (oldRequest != null) {
+            LOGGER.debug("删除没有收到响应的DHT请求：{}", oldRequest);
+            this.outstanding.decrement();
+            oldRequest.cancelTimeout();
         }
     }
     
@@ -132,12 +158,16 @@ public final class DhtContext implements IContext {
         }
         // 设置节点可用状态
         NodeContext.getInstance().available(response.getNodeId());
-        DhtRequest request;
-        synchronized (this.requests) {
-            // 删除请求
-            request = this.remove(response.getT());
+        final int index = DhtContext.index(response.getT());
+        if(index < 0) {
+            return null;
         }
+        // 删除请求
+        final DhtRequest request = this.requests.getAndSet(index, null);
         if (request != null) {
+            this.outstanding.decrement();
+            this.answered.increment();
+            request.cancelTimeout();
             // 设置响应
             request.setResponse(response);
         }
@@ -146,48 +176,55 @@ public final class DhtContext implements IContext {
     
     /**
      * 处理DHT超时请求
+     * 
+     * @param index   消息ID索引
+     * @param request 请求
      */
-    private void timeout() {
-        final long timeout   = SystemConfig.RECEIVE_TIMEOUT_MILLIS;
-        final long timestamp = System.currentTimeMillis();
-        synchronized (this.requests) {
-            final int oldSize = this.requests.size();
-            DhtRequest request;
-            final Iterator<DhtRequest> iterator = this.requests.iterator();
-            while(iterator.hasNext()) {
-                request = iterator.next();
-                if(timestamp - request.getTimestamp() > timeout) {
-                    iterator.remove();
-                }
+    private void timeout(int index, DhtRequest request) {
+        if(this.requests.compareAndSet(index, request, null)) {
+            LOGGER.debug("DHT请求超时：{}", request);
+            this.outstanding.decrement();
+            this.timeout.increment();
+            final DhtLookup lookup = request.getLookup();
+            if(lookup != null) {
+                lookup.response(request, null, List.of());
             }
-            final int newSize = this.requests.size();
-            LOGGER.debug("""
-                处理DHT超时请求
-                处理之前请求数量：{}
-                处理之后请求数量：{}
-                """, oldSize, newSize);
         }
     }
     
     /**
-     * 删除并返回删除的请求
-     * 注意线程安全
+     * @return 等待响应请求数量
+     */
+    public long outstanding() {
+        return this.outstanding.sum();
+    }
+    
+    /**
+     * @return 收到响应请求数量
+     */
+    public long answered() {
+        return this.answered.sum();
+    }
+    
+    /**
+     * @return 超时请求数量
+     */
+    public long timeout() {
+        return this.timeout.sum();
+    }
+    
+    /**
+     * 计算消息ID索引
      * 
      * @param id 消息ID
      * 
-     * @return 请求
-     */
-    private DhtRequest remove(byte[] id) {
-        DhtRequest request;
-        final Iterator<DhtRequest> iterator = this.requests.iterator();
-        while(iterator.hasNext()) {
-            request = iterator.next();
-            if(Arrays.equals(id, request.getT())) {
-                iterator.remove();
-                return request;
-            }
+     * @return 消息ID索引（消息ID错误：-1）
+     */
+    private static final int index(byte[] id) {
+        if(id == null || id.length != Short.BYTES) {
+            return -1;
         }
-        return null;
+        return ((id[0] & 0xFF) << Byte.SIZE) | (id[1] & 0xFF);
     }
 
 }
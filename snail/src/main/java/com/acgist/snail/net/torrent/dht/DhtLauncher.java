@@ -3,7 +3,6 @@ package com.acgist.snail.net.torrent.dht;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
@@ -30,6 +29,10 @@ public final class DhtLauncher implements Runnable {
      * 支持DHT协议的Peer客户端节点
      */
     private final List<InetSocketAddress> peerNodes;
+    /**
+     * 迭代查找
+     */
+    private DhtLookup lookup;
     
     /**
      * @param torrentSession BT任务信息
@@ -59,12 +62,11 @@ public final class DhtLauncher implements Runnable {
             this.peerNodes.clear();
         }
         try {
-            final List<InetSocketAddress> list = this.pick();
             if(CollectionUtils.isNotEmpty(nodes)) {
                 this.joinNodes(nodes);
-                list.addAll(nodes);
+                this.findPeers(nodes);
             }
-            this.findPeers(list);
+            this.lookup();
         } catch (Exception e) {
             LOGGER.error("执行DHT定时任务异常", e);
         }
@@ -85,15 +87,15 @@ public final class DhtLauncher implements Runnable {
     }
     
     /**
-     * 挑选DHT节点
-     * 
-     * @return DHT节点
+     * 迭代查找Peer
+     * 上次查找没有结束不用重新查找
      */
-    private List<InetSocketAddress> pick() {
-        return NodeContext.getInstance().findNode(this.infoHash.getInfoHash()).stream()
-            .filter(NodeSession::markVerify)
-            .map(node -> NetUtils.buildSocketAddress(node.getHost(), node.getPort()))
-            .collect(Collectors.toList());
+    private void lookup() {
+        if(this.lookup != null && !this.lookup.isDone()) {
+            LOGGER.debug("DHT迭代查找没有结束");
+            return;
+        }
+        this.lookup = DhtLookup.getPeers(this.infoHash.getInfoHash()).lookup();
     }
 
     /**
@@ -109,15 +111,11 @@ public final class DhtLauncher implements Runnable {
     }
     
     /**
-     * 使用DHT节点查询Peer
+     * 使用Peer客户端节点查询Peer
      * 
-     * @param list DHT节点
+     * @param list Peer客户端节点
      */
     private void findPeers(List<InetSocketAddress> list) {
-        if(CollectionUtils.isEmpty(list)) {
-            LOGGER.debug("DHT定时任务没有节点可用");
-            return;
-        }
         final byte[] infoHashValue = this.infoHash.getInfoHash();
         for (final InetSocketAddress socketAddress : list) {
             DhtClient.newInstance(socketAddress).getPeers(infoHashValue);
@@ -0,0 +1,427 @@
+package com.acgist.snail.net.torrent.dht;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.acgist.snail.config.DhtConfig;
+import com.acgist.snail.config.DhtConfig.QType;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.context.TimerWheel;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.torrent.TorrentRuntime;
+import com.acgist.snail.net.torrent.dht.request.FindNodeRequest;
+import com.acgist.snail.net.torrent.dht.request.GetPeersRequest;
+
+/**
+ * DHT迭代查找
+ * 候选节点按照和目标的异或距离排序，同时最多向alpha个最近的未查询节点发送请求，响应返回的节点加入候选节点继续查找。
+ * 距离最近的K个节点全部响应、没有候选节点或者超过查找时间结束查找。
+ * 查找Peer：响应的Peer直接加入Peer上下文，不用等待查找结束。
+ * 
+ * @author acgist
+ */
+public final class DhtLookup {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DhtLookup.class);
+
+    /**
+     * 检查周期（毫秒）：{@value}
+     */
+    private static final long CHECK_INTERVAL = 200L;
+    /**
+     * 候选节点最大数量：{@value}
+     */
+    private static final int MAX_CANDIDATE_SIZE = DhtConfig.BUCKET_NODE_SIZE * 8;
+
+    /**
+     * 候选节点状态
+     * 
+     * @author acgist
+     */
+    private enum Status {
+
+        /**
+         * 没有查询
+         */
+        NONE,
+        /**
+         * 正在查询
+         */
+        QUERY,
+        /**
+         * 收到响应
+         */
+        RESPONSE,
+        /**
+         * 查询失败
+         */
+        FAIL;
+
+    }
+
+    /**
+     * 请求类型
+     * 
+     * @see QType#FIND_NODE
+     * @see QType#GET_PEERS
+     */
+    private final QType type;
+    /**
+     * 查找目标：NodeId或者InfoHash
+     */
+    private final byte[] target;
+    /**
+     * 并发请求数量
+     */
+    private final int alpha;
+    /**
+     * 结束时间
+     */
+    private final long deadline;
+    /**
+     * 开始时间
+     */
+    private final long beginTime;
+    /**
+     * 候选节点
+     * 按照和目标的异或距离排序
+     */
+    private final TreeSet<Candidate> candidates;
+    /**
+     * 正在查询节点
+     */
+    private final List<Candidate> queries;
+    /**
+     * 请求数量
+     */
+    private int requestSize;
+    /**
+     * 是否结束
+     */
+    private volatile boolean done;
+    /**
+     * 检查定时任务
+     * 持有锁访问
+     */
+    private TimerWheel.Timeout timeout;
+
+    /**
+     * @param type   请求类型
+     * @param target 查找目标
+     * @param alpha  并发请求数量
+     */
+    private DhtLookup(QType type, byte[] target, int alpha) {
+        this.type       = type;
+        this.target     = target;
+        this.alpha      = alpha;
+        this.beginTime  = System.currentTimeMillis();
+        this.deadline   = this.beginTime + TimeUnit.SECONDS.toMillis(DhtConfig.LOOKUP_TIMEOUT);
+        this.candidates = new TreeSet<>((source, other) -> NodeContext.compareDistance(target, source.node.getId(), other.node.getId()));
+        this.queries    = new ArrayList<>(alpha);
+    }
+
+    /**
+     * 新建查找节点迭代查找
+     * 
+     * @param target NodeId
+     * 
+     * @return {@link DhtLookup}
+     */
+    public static final DhtLookup findNode(byte[] target) {
+        return new DhtLookup(QType.FIND_NODE, target, DhtConfig.LOOKUP_ALPHA);
+    }
+
+    /**
+     * 新建查找Peer迭代查找
+     * 
+     * @param infoHash InfoHash
+     * 
+     * @return {@link DhtLookup}
+     */
+    public static final DhtLookup getPeers(byte[] infoHash) {
+        return getPeers(infoHash, DhtConfig.LOOKUP_ALPHA);
+    }
+
+    /**
+     * 新建查找Peer迭代查找
+     * 
+     * @param infoHash InfoHash
+     * @param alpha    并发请求数量
+     * 
+     * @return {@link DhtLookup}
+     */
+    public static final DhtLookup getPeers(byte[] infoHash, int alpha) {
+        return new DhtLookup(QType.GET_PEERS, infoHash, Math.max(1, alpha));
+    }
+
+    /**
+     * 开始查找
+     * 使用系统节点作为初始候选节点
+     * 
+     * @return {@link DhtLookup}
+     */
+    public DhtLookup lookup() {
+        return this.lookup(NodeContext.getInstance().findNode(this.target));
+    }
+
+    /**
+     * 开始查找
+     * 
+     * @param nodes 初始候选节点
+     * 
+     * @return {@link DhtLookup}
+     */
+    public DhtLookup lookup(List<NodeSession> nodes) {
+        LOGGER.debug("开始DHT迭代查找：{} - {}", this.type, nodes.size());
+        synchronized (this) {
+            nodes.forEach(this::offer);
+            this.query();
+            // 持有锁设置定时任务：结束查找时可以取消
+            if(!this.done) {
+                this.timeout = TorrentRuntime.getInstance().scheduledAtFixedDelay(
+                    CHECK_INTERVAL,
+                    CHECK_INTERVAL,
+                    TimeUnit.MILLISECONDS,
+                    this::check
+                );
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 处理响应
+     * 
+     * @param request  请求
+     * @param response 响应（失败响应：null）
+     * @param nodes    响应节点列表
+     */
+    public void response(DhtRequest request, DhtResponse response, List<NodeSession> nodes) {
+        synchronized (this) {
+            if(this.done) {
+                return;
+            }
+            final Candidate candidate = this.remove(request);
+            if(candidate == null) {
+                return;
+            }
+            candidate.status = response == null ? Status.FAIL : Status.RESPONSE;
+            nodes.forEach(this::offer);
+            this.query();
+        }
+    }
+
+    /**
+     * 定时检查：请求超时、查找超时
+     */
+    private void check() {
+        synchronized (this) {
+            if(this.done) {
+                return;
+            }
+            final long timestamp = System.currentTimeMillis();
+            if(timestamp > this.deadline) {
+                LOGGER.debug("DHT迭代查找超时");
+                this.finish();
+                return;
+            }
+            this.queries.removeIf(candidate -> {
+                if(timestamp - candidate.timestamp > DhtConfig.LOOKUP_REQUEST_TIMEOUT) {
+                    candidate.status = Status.FAIL;
+                    return true;
+                }
+                return false;
+            });
+            this.query();
+        }
+    }
+
+    /**
+     * 添加候选节点
+     * 
+     * @param node 节点
+     */
+    private void offer(NodeSession node) {
+        if(node == null || Arrays.equals(NodeContext.getInstance().getNodeId(), node.getId())) {
+            return;
+        }
+        if(this.candidates.add(new Candidate(node)) && this.candidates.size() > MAX_CANDIDATE_SIZE) {
+            // 删除距离最远节点：正在查询节点依然可以处理响应
+            this.candidates.pollLast();
+        }
+    }
+
+    /**
+     * 发送请求
+     * 向距离最近的没有查询节点发送请求直到达到并发数量，然后判断是否结束查找。
+     */
+    private void query() {
+        for (Candidate candidate : this.candidates) {
+            if(this.queries.size() >= this.alpha) {
+                break;
+            }
+            if(candidate.status == Status.NONE) {
+                this.request(candidate);
+            }
+        }
+        if(this.complete()) {
+            this.finish();
+        }
+    }
+
+    /**
+     * 发送请求
+     * 
+     * @param candidate 候选节点
+     */
+    private void request(Candidate candidate) {
+        final DhtRequest request = switch (this.type) {
+            case FIND_NODE -> FindNodeRequest.newRequest(this.target);
+            default        -> GetPeersRequest.newRequest(this.target);
+        };
+        request.setLookup(this);
+        candidate.status    = Status.QUERY;
+        candidate.request   = request;
+        candidate.timestamp = System.currentTimeMillis();
+        candidate.node.markVerify();
+        this.queries.add(candidate);
+        this.requestSize++;
+        try {
+            DhtClient.newInstance(candidate.node.getHost(), candidate.node.getPort()).request(request);
+        } catch (Exception e) {
+            LOGGER.error("DHT迭代查找发送请求异常：{}", candidate.node, e);
+            this.queries.remove(candidate);
+            candidate.status = Status.FAIL;
+        }
+    }
+
+    /**
+     * 删除正在查询节点
+     * 
+     * @param request 请求
+     * 
+     * @return 候选节点
+     */
+    private Candidate remove(DhtRequest request) {
+        for (int index = 0; index < this.queries.size(); index++) {
+            final Candidate candidate = this.queries.get(index);
+            if(candidate.request == request) {
+                return this.queries.remove(index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 判断是否完成
+     * 距离最近的K个可用节点全部响应或者没有可以查询节点
+     * 
+     * @return 是否完成
+     */
+    private boolean complete() {
+        int size = 0;
+        for (Candidate candidate : this.candidates) {
+            switch (candidate.status) {
+                case FAIL     -> {
+                }
+                case RESPONSE -> {
+                    if(++size >= DhtConfig.BUCKET_NODE_SIZE) {
+                        return true;
+                    }
+                }
+                default       -> {
+                    return false;
+                }
+            }
+        }
+        return this.queries.isEmpty();
+    }
+
+    /**
+     * 结束查找
+     */
+    private void finish() {
+        this.done = true;
+        this.queries.clear();
+        if(this.timeout != null) {
+            SystemThreadContext.shutdown(this.timeout);
+        }
+        if(LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                "结束DHT迭代查找：{} - {} - {} - {}",
+                this.type,
+                this.requestSize,
+                this.candidates.stream().filter(candidate -> candidate.status == Status.RESPONSE).count(),
+                System.currentTimeMillis() - this.beginTime
+            );
+        }
+    }
+
+    /**
+     * @return 是否结束
+     */
+    public boolean isDone() {
+        return this.done;
+    }
+
+    /**
+     * @return 请求数量
+     */
+    public int getRequestSize() {
+        synchronized (this) {
+            return this.requestSize;
+        }
+    }
+
+    /**
+     * @return 响应节点列表（按照异或距离从近到远排序）
+     */
+    public List<NodeSession> nodes() {
+        synchronized (this) {
+            return this.candidates.stream()
+                .filter(candidate -> candidate.status == Status.RESPONSE)
+                .limit(DhtConfig.BUCKET_NODE_SIZE)
+                .map(candidate -> candidate.node)
+                .toList();
+        }
+    }
+
+    /**
+     * 候选节点
+     * 
+     * @author acgist
+     */
+    private static final class Candidate {
+
+        /**
+         * 节点
+         */
+        private final NodeSession node;
+        /**
+         * 状态
+         */
+        private Status status;
+        /**
+         * 请求
+         */
+        private DhtRequest request;
+        /**
+         * 请求时间
+         */
+        private long timestamp;
+
+        /**
+         * @param node 节点
+         */
+        private Candidate(NodeSession node) {
+            this.node   = node;
+            this.status = Status.NONE;
+        }
+
+    }
+
+}
@@ -1,11 +1,14 @@
 package com.acgist.snail.net.torrent.dht;
 
 import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 import com.acgist.snail.config.DhtConfig;
+import com.acgist.snail.format.BEncodeEncoder;
 import com.acgist.snail.utils.BeanUtils;
 import com.acgist.snail.utils.MapUtils;
 import com.acgist.snail.utils.NetUtils;
@@ -13,7 +16,7 @@ import com.acgist.snail.utils.NetUtils;
 /**
  * DHT消息
  * DHT请求、DHT响应
- *
+ * 
  * @author acgist
  */
 public abstract class DhtMessage {
@@ -167,12 +170,34 @@ public abstract class DhtMessage {
      */
     public abstract void put(String key, Object value);
     
+    /**
+     * 将消息转为Map
+     * 
+     * @return Map
+     */
+    protected abstract Map<String, Object> toMap();
+    
     /**
      * 将消息转为B编码的字节数组
      * 
      * @return B编码的字节数组
      */
-    public abstract byte[] toBytes();
+    public final byte[] toBytes() {
+        return BEncodeEncoder.encodeMap(this.toMap());
+    }
+    
+    /**
+     * 将消息B编码写入缓冲
+     * 
+     * @param buffer 缓冲
+     * 
+     * @return 写入长度
+     * 
+     * @throws BufferOverflowException 缓冲长度不足
+     */
+    public final int write(ByteBuffer buffer) {
+        return BEncodeEncoder.encodeMap(this.toMap(), buffer);
+    }
     
     @Override
     public int hashCode() {
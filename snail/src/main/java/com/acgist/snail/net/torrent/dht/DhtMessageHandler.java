@@ -1,15 +1,19 @@
 package com.acgist.snail.net.torrent.dht;
 
 import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.function.Predicate;
 
 import com.acgist.snail.config.DhtConfig;
 import com.acgist.snail.config.DhtConfig.ErrorCode;
 import com.acgist.snail.config.DhtConfig.QType;
+import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.format.BEncodeDecoder;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.ByteBufferContext;
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.UdpMessageHandler;
 import com.acgist.snail.net.torrent.TorrentContext;
@@ -122,6 +126,7 @@ public final class DhtMessageHandler extends UdpMessageHandler {
         }
         if(!RESPONSE_SUCCESS.test(response)) {
             LOGGER.warn("处理DHT响应失败（失败响应）：{}", response);
+            this.lookup(request, null, List.of());
             return;
         }
         LOGGER.debug("处理DHT响应：{}", type);
@@ -204,7 +209,8 @@ public final class DhtMessageHandler extends UdpMessageHandler {
      * @param response 响应
      */
     private void findNode(DhtRequest request, DhtResponse response) {
-        FindNodeResponse.newInstance(response).getNodes();
+        final List<NodeSession> nodes = FindNodeResponse.newInstance(response).getNodes();
+        this.lookup(request, response, nodes);
     }
 
     /**
@@ -243,9 +249,13 @@ public final class DhtMessageHandler extends UdpMessageHandler {
         if(getPeersResponse.hasPeers()) {
             getPeersResponse.getPeers(infoHashHex);
         }
+        final List<NodeSession> nodes;
         if(getPeersResponse.hasNodes()) {
-            getPeersResponse.getNodes();
+            nodes = getPeersResponse.getNodes();
+        } else {
+            nodes = List.of();
         }
+        this.lookup(request, response, nodes);
         final byte[] token = getPeersResponse.getToken();
         if(token != null) {
             final TorrentSession torrentSession = TorrentContext.getInstance().torrentSession(infoHashHex);
@@ -299,6 +309,29 @@ public final class DhtMessageHandler extends UdpMessageHandler {
         LOGGER.debug("处理DHT响应：AnnouncePeer");
     }
 
+    /**
+     * 通知迭代查找
+     * 
+     * @param request  请求
+     * @param response 响应（失败响应：null）
+     * @param nodes    响应节点列表
+     */
+    private void lookup(DhtRequest request, DhtResponse response, List<NodeSession> nodes) {
+        final DhtLookup lookup = request.getLookup();
+        if(lookup != null) {
+            lookup.response(request, response, nodes);
+        }
+    }
+    
+    /**
+     * 发送请求
+     * 
+     * @param request 请求
+     */
+    public void request(DhtRequest request) {
+        this.pushRequest(request, this.socketAddress);
+    }
+    
     /**
      * 发送DHT请求
      * 
@@ -313,12 +346,36 @@ public final class DhtMessageHandler extends UdpMessageHandler {
     
     /**
      * 发送DHT消息
+     * 直接编码写入缓存直接内存：超过UDP缓冲长度使用字节数组
      * 
      * @param message       消息
      * @param socketAddress 地址
      */
     private void pushMessage(DhtMessage message, InetSocketAddress socketAddress) {
-        final ByteBuffer buffer = ByteBuffer.wrap(message.toBytes());
+        final ByteBufferContext context = ByteBufferContext.getInstance();
+        final ByteBuffer buffer = context.allocate(SystemConfig.UDP_BUFFER_LENGTH);
+        try {
+            buffer.clear();
+            message.write(buffer);
+            buffer.flip();
+            this.send(buffer, socketAddress);
+        } catch (BufferOverflowException e) {
+            LOGGER.debug("DHT消息超过UDP缓冲长度：{}", message);
+            this.pushMessage(ByteBuffer.wrap(message.toBytes()), socketAddress);
+        } catch (NetException e) {
+            LOGGER.error("DHT消息发送异常", e);
+        } finally {
+            context.release(buffer);
+        }
+    }
+    
+    /**
+     * 发送DHT消息
+     * 
+     * @param buffer        消息
+     * @param socketAddress 地址
+     */
+    private void pushMessage(ByteBuffer buffer, InetSocketAddress socketAddress) {
         try {
             this.send(buffer, socketAddress);
         } catch (NetException e) {
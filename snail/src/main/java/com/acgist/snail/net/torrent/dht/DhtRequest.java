@@ -10,8 +10,8 @@ import java.util.stream.Collectors;
 import com.acgist.snail.config.DhtConfig;
 import com.acgist.snail.config.DhtConfig.QType;
 import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.TimerWheel;
 import com.acgist.snail.format.BEncodeDecoder;
-import com.acgist.snail.format.BEncodeEncoder;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.utils.BeanUtils;
@@ -47,6 +47,15 @@ public class DhtRequest extends DhtMessage {
      * 响应
      */
     private DhtResponse response;
+    /**
+     * 迭代查找
+     * 迭代查找发送的请求：收到响应通知迭代查找
+     */
+    private DhtLookup lookup;
+    /**
+     * 超时任务
+     */
+    private volatile TimerWheel.Timeout timeout;
     
     /**
      * 新建请求
@@ -125,6 +134,41 @@ public class DhtRequest extends DhtMessage {
         this.response = response;
     }
 
+    /**
+     * 设置超时任务
+     * 
+     * @param timeout 超时任务
+     */
+    public void setTimeout(TimerWheel.Timeout timeout) {
+        this.timeout = timeout;
+    }
+    
+    /**
+     * 取消超时任务
+     */
+    public void cancelTimeout() {
+        final TimerWheel.Timeout timeout = this.timeout;
+        if(timeout != null) {
+            timeout.cancel();
+        }
+    }
+    
+    /**
+     * @return 迭代查找
+     */
+    public DhtLookup getLookup() {
+        return this.lookup;
+    }
+    
+    /**
+     * 设置迭代查找
+     * 
+     * @param lookup 迭代查找
+     */
+    public void setLookup(DhtLookup lookup) {
+        this.lookup = lookup;
+    }
+
     /**
      * @return 是否已经获取响应
      */
@@ -143,13 +187,13 @@ public class DhtRequest extends DhtMessage {
     }
     
     @Override
-    public final byte[] toBytes() {
+    protected final Map<String, Object> toMap() {
         final Map<String, Object> request = new LinkedHashMap<>();
         request.put(DhtConfig.KEY_T, this.t);
         request.put(DhtConfig.KEY_Y, this.y);
         request.put(DhtConfig.KEY_Q, this.q.getValue());
         request.put(DhtConfig.KEY_A, this.a);
-        return BEncodeEncoder.encodeMap(request);
+        return request;
     }
     
     /**
@@ -2,16 +2,19 @@ package com.acgist.snail.net.torrent.dht;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.zip.CRC32C;
 
 import com.acgist.snail.config.DhtConfig;
 import com.acgist.snail.config.SymbolConfig;
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.context.IContext;
+import com.acgist.snail.context.SystemThreadContext;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.utils.ArrayUtils;
@@ -29,6 +32,9 @@ import com.acgist.snail.utils.StringUtils;
  * BT协议使用DHT网络
  * eMule协议使用KAD网络
  * 
+ * 节点使用K桶路由表保存：按照节点ID和本机NodeId异或距离的公共前缀长度分桶，只有包含本机NodeId的K桶可以分裂。
+ * K桶已满时新的节点放入替换缓存，K桶验证节点失效以后使用替换缓存节点补充。
+ * 
  * @author acgist
  */
 public final class NodeContext implements IContext {
@@ -45,6 +51,14 @@ public final class NodeContext implements IContext {
      * Node查找时返回的列表长度：{@value}
      */
     private static final int MAX_NODE_SIZE = 8;
+    /**
+     * K桶最大数量：{@value}
+     */
+    private static final int MAX_BUCKET_SIZE = DhtConfig.NODE_ID_LENGTH * Byte.SIZE;
+    /**
+     * 刷新K桶每次发送请求节点数量：{@value}
+     */
+    private static final int REFRESH_NODE_SIZE = 3;
     /**
      * IPv4 MASK
      */
@@ -59,17 +73,24 @@ public final class NodeContext implements IContext {
      */
     private final byte[] nodeId;
     /**
-     * 节点列表
-     * 不要使用LinkedList：大量使用索引操作所以LinkedList性能很差
-     * 如果节点数量太多，建议使用分片查找算法，或者按照节点开始字母实现跳表。
+     * K桶列表
+     * 索引：节点ID和本机NodeId的公共前缀长度
+     * 最后一个K桶保存公共前缀长度大于等于索引的节点
      */
-    private final List<NodeSession> nodes;
+    private final List<NodeBucket> buckets;
     
     private NodeContext() {
         // 随机生成NodeId：拿到外网IP后再重新生成
-        this.nodeId = ArrayUtils.random(DhtConfig.NODE_ID_LENGTH);
-        this.nodes  = new ArrayList<>();
+        this.nodeId  = ArrayUtils.random(DhtConfig.NODE_ID_LENGTH);
+        this.buckets = new ArrayList<>();
+        this.buckets.add(new NodeBucket());
         this.register();
+        SystemThreadContext.scheduledAtFixedDelay(
+            DhtConfig.DHT_BUCKET_REFRESH_INTERVAL,
+            DhtConfig.DHT_BUCKET_REFRESH_INTERVAL,
+            TimeUnit.MINUTES,
+            this::refresh
+        );
     }
     
     /**
@@ -108,14 +129,20 @@ public final class NodeContext implements IContext {
         ipBytes[0] |= r << 5;
         crc32c.update(ipBytes, 0, length);
         // 设置IP的循环冗余校验码
-        final int crc  = (int) crc32c.getValue();
-        this.nodeId[0] = (byte) (crc >> 24);
-        this.nodeId[1] = (byte) (crc >> 16);
-        this.nodeId[2] = (byte) ((crc >> 8 & 0xF8) | (random.nextInt() & 0x07));
+        final int crc       = (int) crc32c.getValue();
+        final byte[] nodeId = new byte[DhtConfig.NODE_ID_LENGTH];
+        nodeId[0] = (byte) (crc >> 24);
+        nodeId[1] = (byte) (crc >> 16);
+        nodeId[2] = (byte) ((crc >> 8 & 0xF8) | (random.nextInt() & 0x07));
         // 随机填充3-18位置数据
-        System.arraycopy(ArrayUtils.random(16), 0, this.nodeId, 3, 16);
+        System.arraycopy(ArrayUtils.random(16), 0, nodeId, 3, 16);
         // 设置随机种子
-        this.nodeId[19] = rand;
+        nodeId[19] = rand;
+        // NodeId改变：同一个锁里面设置NodeId和重新分桶，防止其他线程使用新的NodeId查找旧的K桶。
+        synchronized (this.buckets) {
+            System.arraycopy(nodeId, 0, this.nodeId, 0, nodeId.length);
+            this.rebuild();
+        }
         return this.nodeId;
     }
     
@@ -141,50 +168,41 @@ public final class NodeContext implements IContext {
     }
     
     /**
-     * @return 所有节点拷贝
+     * @return 所有节点拷贝（按照节点ID排序）
      */
     public List<NodeSession> nodes() {
-        synchronized (this.nodes) {
-            return new ArrayList<>(this.nodes);
+        final List<NodeSession> list = new ArrayList<>();
+        synchronized (this.buckets) {
+            for (NodeBucket bucket : this.buckets) {
+                list.addAll(bucket.nodes);
+            }
         }
+        list.sort(null);
+        return list;
     }
 
     /**
-     * 整理节点长度
-     * 超过最大保存数量：删除验证节点和多余节点
+     * 整理节点
+     * 删除验证节点：使用替换缓存节点补充
      * 
      * @return 所有节点拷贝
      * 
      * @see #nodes()
      */
     public List<NodeSession> resize() {
-        synchronized (this.nodes) {
-            final int oldSize = this.nodes.size();
-            if(oldSize < DhtConfig.MAX_NODE_SIZE) {
-                return this.nodes();
-            }
-            NodeSession session;
-            final Random random = NumberUtils.random();
-            final Iterator<NodeSession> iterator = this.nodes.iterator();
-            while(iterator.hasNext()) {
-                session = iterator.next();
-                final boolean remove = switch (session.getStatus()) {
-                // 随机均匀剔除
-                case UNUSE  -> random.nextInt(oldSize) >= DhtConfig.MAX_NODE_SIZE;
-                // 验证状态剔除
-                case VERIFY -> true;
-                // 可用状态保存
-                default     -> false;
-                };
-                if(remove) {
-                    iterator.remove();
-                }
+        int oldSize = 0;
+        int newSize = 0;
+        synchronized (this.buckets) {
+            for (NodeBucket bucket : this.buckets) {
+                oldSize += bucket.nodes.size();
+                bucket.evict();
+                newSize += bucket.nodes.size();
             }
-            if(LOGGER.isDebugEnabled()) {
-                LOGGER.debug("整理节点长度：{} - {}", oldSize, this.nodes.size());
-            }
-            return this.nodes();
         }
+        if(LOGGER.isDebugEnabled()) {
+            LOGGER.debug("整理节点：{} - {}", oldSize, newSize);
+        }
+        return this.nodes();
     }
     
     /**
@@ -200,7 +218,7 @@ public final class NodeContext implements IContext {
         final DhtClient client = DhtClient.newInstance(host, port);
         final NodeSession nodeSession = client.ping();
         if(nodeSession != null) {
-            nodeSession.setStatus(NodeSession.Status.AVAILABLE);
+            this.available(nodeSession.getId());
         }
         return nodeSession;
     }
@@ -208,6 +226,7 @@ public final class NodeContext implements IContext {
     /**
      * 添加DHT节点
      * 不用验证节点状态
+     * K桶已满并且不能分裂：放入替换缓存
      * 
      * @param nodeId 节点ID
      * @param host   地址
@@ -220,21 +239,41 @@ public final class NodeContext implements IContext {
             LOGGER.warn("添加Node失败：{} - {} - {}", nodeId, host, port);
             return null;
         }
-        synchronized (this.nodes) {
-            final int[] nodeIndex = this.close(nodeId);
-            final int index       = nodeIndex[0];
-            final int signum      = nodeIndex[1];
-            if(signum == 0) {
-                return this.nodes.get(index);
+        if(Arrays.equals(this.nodeId, nodeId)) {
+            // 本机节点不用保存
+            return NodeSession.newInstance(nodeId, host, port);
+        }
+        synchronized (this.buckets) {
+            final NodeSession oldSession = this.buckets.get(this.bucketIndex(nodeId)).select(nodeId);
+            if(oldSession != null) {
+                return oldSession;
             }
             final NodeSession nodeSession = NodeSession.newInstance(nodeId, host, port);
             LOGGER.debug("添加Node：{}", nodeSession);
-            // 添加指定节点位置
-            this.nodes.add(index, nodeSession);
+            this.put(nodeSession);
             return nodeSession;
         }
     }
     
+    /**
+     * 放入节点
+     * K桶已满：分裂包含本机NodeId的K桶或者放入替换缓存
+     * 
+     * @param nodeSession 节点
+     */
+    private void put(NodeSession nodeSession) {
+        while(true) {
+            final int index = this.bucketIndex(nodeSession.getId());
+            final NodeBucket bucket = this.buckets.get(index);
+            if(bucket.full() && index == this.buckets.size() - 1 && this.buckets.size() < MAX_BUCKET_SIZE) {
+                this.split();
+            } else {
+                bucket.add(nodeSession);
+                return;
+            }
+        }
+    }
+    
     /**
      * 查找节点列表
      * 
@@ -248,127 +287,358 @@ public final class NodeContext implements IContext {
     
     /**
      * 查找节点列表
+     * 按照异或距离从近到远排序
+     * 
+     * 目标所在K桶节点距离最近，然后是所有后面K桶节点（异或距离最高位相同），最后是前面K桶节点（越往前距离越远）。
      * 
      * @param target InfoHash或者NodeId
      * 
      * @return 节点列表
      */
     public List<NodeSession> findNode(byte[] target) {
-        List<NodeSession> closeNodes;
-        synchronized (this.nodes) {
-            final int nodeSize = this.nodes.size();
-            if(nodeSize <= MAX_NODE_SIZE) {
-                closeNodes = this.nodes.stream()
-                    .filter(NodeSession::useable)
-                    .collect(Collectors.toList());
-            } else {
-                closeNodes = new ArrayList<>();
-                final int[] nodeIndex = this.close(target);
-                final int index       = nodeIndex[0];
-                int size     = 0;
-                // 查找位置大于当前节点
-                int leftPos  = 1;
-                int rightPos = 0;
-                NodeSession leftNode;
-                NodeSession rightNode;
-                while(
-                    // 指定数量结果
-                    size < MAX_NODE_SIZE &&
-                    // 轮询整个列表
-                    leftPos + rightPos < nodeSize
-                ) {
-                    leftNode = this.select(index - leftPos, nodeSize);
-                    if(leftNode.useable()) {
-                        size++;
-                        // 前面添加防止乱序
-                        closeNodes.add(0, leftNode);
-                    }
-                    leftPos++;
-                    rightNode = this.select(index + rightPos, nodeSize);
-                    if(rightNode.useable()) {
-                        size++;
-                        closeNodes.add(rightNode);
-                    }
-                    rightPos++;
+        final List<NodeSession> closeNodes = new ArrayList<>();
+        synchronized (this.buckets) {
+            final int size  = this.buckets.size();
+            final int index = this.bucketIndex(target);
+            this.buckets.get(index).useable(closeNodes);
+            if(closeNodes.size() < MAX_NODE_SIZE) {
+                for (int jndex = index + 1; jndex < size; jndex++) {
+                    this.buckets.get(jndex).useable(closeNodes);
                 }
             }
+            for (int jndex = index - 1; jndex >= 0 && closeNodes.size() < MAX_NODE_SIZE; jndex--) {
+                this.buckets.get(jndex).useable(closeNodes);
+            }
         }
-        return closeNodes;
+        closeNodes.sort(NodeContext.distanceComparator(target));
+        return closeNodes.size() > MAX_NODE_SIZE ? new ArrayList<>(closeNodes.subList(0, MAX_NODE_SIZE)) : closeNodes;
     }
 
     /**
      * 标记节点为可用状态
+     * 节点移到K桶尾部（最近使用）
      * 
      * @param nodeId 节点ID
      */
     public void available(byte[] nodeId) {
-        synchronized (this.nodes) {
-            final NodeSession node = this.select(nodeId);
-            if(node != null) {
-                node.setStatus(NodeSession.Status.AVAILABLE);
+        if(nodeId == null || nodeId.length != DhtConfig.NODE_ID_LENGTH) {
+            return;
+        }
+        synchronized (this.buckets) {
+            this.buckets.get(this.bucketIndex(nodeId)).available(nodeId);
+        }
+    }
+    
+    /**
+     * 刷新K桶
+     * 超过刷新周期没有更新的K桶：随机生成K桶范围内的目标，向最近的节点发送查找节点请求。
+     */
+    private void refresh() {
+        final long timeout = TimeUnit.MINUTES.toMillis(DhtConfig.DHT_BUCKET_REFRESH_INTERVAL);
+        final long timestamp = System.currentTimeMillis();
+        final List<byte[]> targets = new ArrayList<>();
+        synchronized (this.buckets) {
+            for (int index = 0; index < this.buckets.size(); index++) {
+                final NodeBucket bucket = this.buckets.get(index);
+                if(timestamp - bucket.updateTime > timeout) {
+                    bucket.updateTime = timestamp;
+                    targets.add(this.randomId(index));
+                }
             }
         }
+        LOGGER.debug("刷新K桶：{}", targets.size());
+        this.resize();
+        for (byte[] target : targets) {
+            this.findNode(target).stream()
+                .filter(NodeSession::markVerify)
+                .limit(REFRESH_NODE_SIZE)
+                .forEach(node -> DhtClient.newInstance(node.getHost(), node.getPort()).findNode(target));
+        }
     }
-
+    
     /**
-     * 选择节点
+     * 分裂最后一个K桶
+     * 公共前缀长度大于最后K桶索引的节点移到新的K桶
+     */
+    private void split() {
+        final int index = this.buckets.size() - 1;
+        final NodeBucket bucket = this.buckets.get(index);
+        final NodeBucket newBucket = new NodeBucket();
+        this.buckets.add(newBucket);
+        bucket.transfer(newBucket, session -> this.prefix(session.getId()) > index);
+        LOGGER.debug("K桶分裂：{}", this.buckets.size());
+    }
+    
+    /**
+     * 重新分桶
+     */
+    private void rebuild() {
+        synchronized (this.buckets) {
+            final List<NodeSession> nodes  = new ArrayList<>();
+            final List<NodeSession> caches = new ArrayList<>();
+            for (NodeBucket bucket : this.buckets) {
+                nodes.addAll(bucket.nodes);
+                caches.addAll(bucket.caches);
+            }
+            this.buckets.clear();
+            this.buckets.add(new NodeBucket());
+            nodes.forEach(this::put);
+            caches.forEach(this::put);
+        }
+    }
+    
+    /**
+     * 计算K桶索引
      * 
-     * @param index    节点索引
-     * @param nodeSize 节点数量
+     * @param nodeId 节点ID
      * 
-     * @return 节点
+     * @return K桶索引
      */
-    private NodeSession select(int index, int nodeSize) {
-        if(index < 0) {
-            index = index + nodeSize;
-        } else if(index >= nodeSize) {
-            index = index - nodeSize;
-        }
-        return this.nodes.get(index);
+    private int bucketIndex(byte[] nodeId) {
+        return Math.min(this.prefix(nodeId), this.buckets.size() - 1);
     }
     
     /**
-     * 选择节点
+     * 计算节点ID和本机NodeId的公共前缀长度
      * 
      * @param nodeId 节点ID
      * 
-     * @return 节点
+     * @return 公共前缀长度
      */
-    private NodeSession select(byte[] nodeId) {
-        for (NodeSession nodeSession : this.nodes) {
-            if(Arrays.equals(nodeId, nodeSession.getId())) {
-                return nodeSession;
+    private int prefix(byte[] nodeId) {
+        for (int index = 0; index < DhtConfig.NODE_ID_LENGTH; index++) {
+            final int xor = (this.nodeId[index] ^ nodeId[index]) & 0xFF;
+            if(xor != 0) {
+                return index * Byte.SIZE + Integer.numberOfLeadingZeros(xor) - (Integer.SIZE - Byte.SIZE);
             }
         }
-        return null;
+        return MAX_BUCKET_SIZE;
     }
     
     /**
-     * 查找最近节点信息
+     * 随机生成K桶范围内的节点ID
      * 
-     * 节点标记
-     * 正数=节点索引ID小于返回节点ID
-     * 0=节点索引ID等于返回节点ID
-     * 负数=节点索引ID大于返回节点ID
+     * @param index K桶索引
      * 
-     * @param nodeId 节点ID
+     * @return 节点ID
+     */
+    private byte[] randomId(int index) {
+        final byte[] id = ArrayUtils.random(DhtConfig.NODE_ID_LENGTH);
+        // 复制公共前缀
+        for (int bit = 0; bit < index; bit++) {
+            final int mask = 0x80 >>> (bit % Byte.SIZE);
+            id[bit / Byte.SIZE] = (byte) ((id[bit / Byte.SIZE] & ~mask) | (this.nodeId[bit / Byte.SIZE] & mask));
+        }
+        if(index < this.buckets.size() - 1) {
+            // 前缀之后第一位不同
+            final int mask = 0x80 >>> (index % Byte.SIZE);
+            id[index / Byte.SIZE] = (byte) ((id[index / Byte.SIZE] & ~mask) | (~this.nodeId[index / Byte.SIZE] & mask));
+        }
+        return id;
+    }
+    
+    /**
+     * 异或距离比较器
+     * 
+     * @param target 目标
+     * 
+     * @return 比较器
+     */
+    public static final Comparator<NodeSession> distanceComparator(byte[] target) {
+        return (source, other) -> NodeContext.compareDistance(target, source.getId(), other.getId());
+    }
+    
+    /**
+     * 比较异或距离
+     * 
+     * @param target 目标
+     * @param source 原始节点ID
+     * @param other  比较节点ID
      * 
-     * @return [ 节点索引, 节点标记 ]
+     * @return 原始节点距离-比较节点距离的符号
      */
-    private int[] close(byte[] nodeId) {
-        int index  = 0;
-        int signum = 1;
-        NodeSession nodeSession;
-        for (int jndex = 0; jndex < this.nodes.size(); jndex++) {
-            nodeSession = this.nodes.get(jndex);
-            signum      = Arrays.compareUnsigned(nodeId, nodeSession.getId());
-            if(signum > 0) {
-                index = jndex + 1;
+    public static final int compareDistance(byte[] target, byte[] source, byte[] other) {
+        for (int index = 0; index < target.length; index++) {
+            final int sourceDistance = (source[index] ^ target[index]) & 0xFF;
+            final int otherDistance  = (other[index] ^ target[index]) & 0xFF;
+            if(sourceDistance != otherDistance) {
+                return sourceDistance < otherDistance ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * K桶
+     * 节点列表按照最近使用排序：头部最久没有使用，尾部最近使用
+     * 
+     * @author acgist
+     */
+    private static final class NodeBucket {
+        
+        /**
+         * 节点列表
+         */
+        private final List<NodeSession> nodes;
+        /**
+         * 替换缓存
+         * K桶已满时保存新的节点：头部最早添加，尾部最新添加
+         */
+        private final List<NodeSession> caches;
+        /**
+         * 最后更新时间
+         */
+        private long updateTime;
+        
+        private NodeBucket() {
+            this.nodes      = new ArrayList<>(DhtConfig.BUCKET_NODE_SIZE);
+            this.caches     = new ArrayList<>(DhtConfig.BUCKET_NODE_SIZE);
+            this.updateTime = System.currentTimeMillis();
+        }
+        
+        /**
+         * @return 是否已满
+         */
+        private boolean full() {
+            return this.nodes.size() >= DhtConfig.BUCKET_NODE_SIZE;
+        }
+        
+        /**
+         * 选择节点（包含替换缓存）
+         * 
+         * @param nodeId 节点ID
+         * 
+         * @return 节点
+         */
+        private NodeSession select(byte[] nodeId) {
+            final NodeSession session = NodeBucket.select(this.nodes, nodeId);
+            return session == null ? NodeBucket.select(this.caches, nodeId) : session;
+        }
+        
+        /**
+         * 选择节点
+         * 
+         * @param list   节点列表
+         * @param nodeId 节点ID
+         * 
+         * @return 节点
+         */
+        private static NodeSession select(List<NodeSession> list, byte[] nodeId) {
+            for (NodeSession session : list) {
+                if(Arrays.equals(nodeId, session.getId())) {
+                    return session;
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * 添加节点
+         * K桶已满：放入替换缓存（替换缓存已满删除最早添加节点）
+         * 
+         * @param session 节点
+         */
+        private void add(NodeSession session) {
+            if(this.full()) {
+                if(this.caches.size() >= DhtConfig.BUCKET_NODE_SIZE) {
+                    this.caches.remove(0);
+                }
+                this.caches.add(session);
+            } else {
+                this.nodes.add(session);
+                this.updateTime = System.currentTimeMillis();
+            }
+        }
+        
+        /**
+         * 标记节点为可用状态
+         * 
+         * @param nodeId 节点ID
+         */
+        private void available(byte[] nodeId) {
+            NodeSession session = NodeBucket.select(this.nodes, nodeId);
+            if(session != null) {
+                this.nodes.remove(session);
+                this.nodes.add(session);
+                this.updateTime = System.currentTimeMillis();
             } else {
-                break;
+                session = NodeBucket.select(this.caches, nodeId);
+                if(session == null) {
+                    return;
+                }
+                this.caches.remove(session);
+                this.caches.add(session);
+            }
+            session.setStatus(NodeSession.Status.AVAILABLE);
+        }
+        
+        /**
+         * 添加可用节点
+         * 
+         * @param list 节点列表
+         */
+        private void useable(List<NodeSession> list) {
+            for (NodeSession session : this.nodes) {
+                if(session.useable()) {
+                    list.add(session);
+                }
+            }
+        }
+        
+        /**
+         * 删除验证节点：使用替换缓存节点补充
+         */
+        private void evict() {
+            final Iterator<NodeSession> iterator = this.nodes.iterator();
+            while(iterator.hasNext()) {
+                if(!iterator.next().useable()) {
+                    iterator.remove();
+                }
+            }
+            this.caches.removeIf(session -> !session.useable());
+            this.promote();
+        }
+        
+        /**
+         * 使用替换缓存节点补充（优先最新添加）
+         */
+        private void promote() {
+            while(!this.full() && !this.caches.isEmpty()) {
+                this.nodes.add(this.caches.remove(this.caches.size() - 1));
+            }
+        }
+        
+        /**
+         * 转移节点
+         * 
+         * @param bucket    目标K桶
+         * @param predicate 转移条件
+         */
+        private void transfer(NodeBucket bucket, Predicate<NodeSession> predicate) {
+            NodeBucket.transfer(this.nodes, bucket.nodes, predicate);
+            NodeBucket.transfer(this.caches, bucket.caches, predicate);
+            this.promote();
+            bucket.promote();
+        }
+        
+        /**
+         * 转移节点
+         * 
+         * @param source    原始节点列表
+         * @param target    目标节点列表
+         * @param predicate 转移条件
+         */
+        private static void transfer(List<NodeSession> source, List<NodeSession> target, Predicate<NodeSession> predicate) {
+            final Iterator<NodeSession> iterator = source.iterator();
+            while(iterator.hasNext()) {
+                final NodeSession session = iterator.next();
+                if(predicate.test(session)) {
+                    iterator.remove();
+                    target.add(session);
+                }
             }
         }
-        return new int[] {index, signum};
+        
     }
     
 }
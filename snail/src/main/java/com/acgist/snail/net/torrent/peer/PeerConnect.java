@@ -1,5 +1,10 @@
 package com.acgist.snail.net.torrent.peer;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -23,21 +28,9 @@ public abstract class PeerConnect implements IPeerConnect {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(PeerConnect.class);
 
-    /**
-     * SLICE请求数量：{@value}
-     * 注意：过大会导致UTP信号量阻塞
-     */
-    private static final int SLICE_REQUEST_SIZE = 2;
-    /**
-     * SLICE最大请求数量：{@value}
-     */
-    private static final int SLICE_REQUEST_MAX_SIZE = 4;
-    /**
-     * SLICE请求等待时间（毫秒）：{@value}
-     */
-    private static final long SLICE_TIMEOUT = 10L * SystemConfig.ONE_SECOND_MILLIS;
     /**
      * PICEC完成等待时间（毫秒）：{@value}
+     * 超过时间没有响应：放弃所有下载中的Piece
      */
     private static final long COMPLETED_TIMEOUT = 30L * SystemConfig.ONE_SECOND_MILLIS;
     /**
@@ -54,25 +47,33 @@ public abstract class PeerConnect implements IPeerConnect {
      */
     private volatile boolean downloading = false;
     /**
-     * 当前下载Piece信息
+     * 最后响应时间
      */
-    private TorrentPiece downloadPiece;
+    private volatile long responseTime;
     /**
-     * SLICE锁
-     * 
-     * @see #SLICE_TIMEOUT
-     * @see #SLICE_REQUEST_SIZE
-     * @see #SLICE_REQUEST_MAX_SIZE
+     * 释放等待结束时间
+     * 只有请求事件使用
+     */
+    private long releaseTime;
+    /**
+     * 下载中的Piece
+     * 只有请求事件使用：请求深度超过单个Piece时同时下载多个Piece
      */
-    private final AtomicInteger sliceLock;
+    private final List<TorrentPiece> downloadPieces;
     /**
-     * 完成锁
+     * 请求队列
+     */
+    private final PeerRequestQueue requestQueue;
+    /**
+     * 请求事件数量
+     * 合并请求事件：同一个Peer同时只有一个线程处理请求
      * 
-     * @see #COMPLETED_TIMEOUT
+     * @see PeerRequestContext
      */
-    private final AtomicBoolean completedLock;
+    private final AtomicInteger requestEvent;
     /**
      * 释放锁
+     * 下载中：true
      * 
      * @see #RELEASE_TIMEOUT
      */
@@ -104,8 +105,9 @@ public abstract class PeerConnect implements IPeerConnect {
      * @param peerSubMessageHandler Peer消息代理
      */
     protected PeerConnect(PeerSession peerSession, TorrentSession torrentSession, PeerSubMessageHandler peerSubMessageHandler) {
-        this.sliceLock             = new AtomicInteger(0);
-        this.completedLock         = new AtomicBoolean(false);
+        this.downloadPieces        = new ArrayList<>();
+        this.requestQueue          = new PeerRequestQueue();
+        this.requestEvent          = new AtomicInteger(0);
         this.releaseLock           = new AtomicBoolean(false);
         this.peerSession           = peerSession;
         this.statisticsSession     = peerSession.getStatistics();
@@ -240,16 +242,20 @@ public abstract class PeerConnect implements IPeerConnect {
 
     /**
      * 开始下载
+     * 已经开始下载：触发请求事件（解除阻塞、快速允许）
      */
     public void download() {
         if(!this.downloading) {
             synchronized (this) {
                 if(!this.downloading) {
+                    LOGGER.debug("开始请求下载：{}", this.peerSession);
                     this.downloading = true;
-                    this.torrentSession.submit(this::requests);
+                    this.releaseLock.set(true);
+                    PeerRequestContext.getInstance().register(this);
                 }
             }
         }
+        this.requestEvent();
     }
     
     /**
@@ -257,29 +263,59 @@ public abstract class PeerConnect implements IPeerConnect {
      * 
      * @param index Piece索引
      * @param begin Piece偏移
-     * @param bytes Piece数据
+     * @param buffer Piece数据（读取全部剩余数据）
      */
-    public final void piece(int index, int begin, byte[] bytes) {
-        if(bytes == null || this.downloadPiece == null) {
+    public final void piece(int index, int begin, ByteBuffer buffer) {
+        if(buffer == null) {
             return;
         }
-        final int downloadIndex = this.downloadPiece.getIndex();
-        if(index != downloadIndex) {
-            LOGGER.debug("下载Piece索引和当前Piece索引不符：{}-{}", index, downloadIndex);
+        // 只接收已经发送请求并且长度一致的数据：防止重复数据和错误数据
+        final TorrentPiece piece = this.requestQueue.response(index, begin, buffer.remaining());
+        if(piece == null) {
+            LOGGER.debug("Piece数据没有请求或者长度错误：{}-{}-{}", index, begin, buffer.remaining());
+            this.requestEvent();
             return;
         }
-        // 释放slice锁
-        this.unlockSlice();
-        final boolean completed = this.downloadPiece.write(begin, bytes);
-        // 下载完成：释放完成锁
-        if(completed) {
-            this.unlockCompleted();
+        this.responseTime = System.currentTimeMillis();
+        piece.write(begin, buffer);
+        this.requestEvent();
+    }
+    
+    /**
+     * 拒绝请求
+     * 
+     * @param index Piece索引
+     * @param begin Piece偏移
+     */
+    public final void reject(int index, int begin) {
+        this.requestQueue.reject(index, begin);
+        this.requestEvent();
+    }
+    
+    /**
+     * Peer阻塞
+     * 支持Fast扩展的Peer会拒绝所有没有快速允许的请求，不支持Fast扩展的Peer直接丢弃所有请求。
+     */
+    public final void choke() {
+        if(!this.peerSession.supportFastExtensionProtocol()) {
+            this.requestQueue.choke();
         }
+        this.requestEvent();
+    }
+    
+    /**
+     * 定时事件：检查超时、释放
+     * 
+     * @see PeerRequestContext
+     */
+    final void tick() {
+        this.requestEvent();
     }
 
     /**
      * 释放资源
      * 释放下载、阻塞Peer、关闭Peer连接
+     * 下载中的Piece由请求事件释放
      */
     public void release() {
         this.available = false;
@@ -291,190 +327,290 @@ public abstract class PeerConnect implements IPeerConnect {
     }
     
     /**
-     * 请求下载
+     * 触发请求事件
+     * 没有线程处理请求事件：提交请求线程池
+     */
+    private void requestEvent() {
+        if(this.downloading && this.requestEvent.getAndIncrement() == 0) {
+            PeerRequestContext.getInstance().submit(this::requests);
+        }
+    }
+    
+    /**
+     * 处理请求事件
+     * 处理期间触发的事件合并处理
      */
     private void requests() {
-        LOGGER.debug("开始请求下载：{}", this.peerSession);
-        boolean success = true;
-        while(success) {
-            try {
-                success = this.request();
-            } catch (Exception e) {
-                LOGGER.error("Peer请求异常", e);
+        int events = this.requestEvent.get();
+        do {
+            if(this.downloading) {
+                try {
+                    this.request();
+                } catch (Exception e) {
+                    LOGGER.error("Peer请求异常", e);
+                }
             }
-        }
-        this.completedLock.set(true);
-        this.releaseDownload();
-        this.torrentSession.checkCompletedAndUnlock();
-        // 验证最后选择Piece是否下载完成
-        if(this.downloadPiece != null && !this.downloadPiece.completedAndVerify()) {
-            LOGGER.debug("Piece最后失败：{}", this.downloadPiece);
-            this.torrentSession.undone(this.downloadPiece);
-            this.peerSubMessageHandler.cancel(this.downloadPiece.getIndex(), this.downloadPiece.getBegin(), this.downloadPiece.getLength());
-        }
-        LOGGER.debug("结束请求下载：{}", this.peerSession);
+            events = this.requestEvent.addAndGet(-events);
+        } while(events > 0);
     }
     
     /**
      * 请求数据
-     * 
-     * @return 是否可以继续下载
+     * 请求数量没有达到请求深度时继续请求，可以提前请求后面Piece数据。
      */
-    private boolean request() {
+    private void request() {
         if(!this.available()) {
-            return false;
+            this.finish(false);
+            return;
         }
         if(!this.torrentSession.downloadable()) {
             LOGGER.debug("释放Peer：任务不可下载");
-            return false;
+            this.finish(false);
+            return;
+        }
+        this.complete();
+        this.timeout();
+        // 阻塞：只能请求快速允许Piece
+        final BitSet allowedPieces = this.peerConnectSession.isPeerUnchoked() ? null : this.peerSession.allowedPieces();
+        final int depth = this.requestQueue.depth();
+        while(this.available() && this.requestQueue.size() < depth) {
+            if(!this.request(allowedPieces)) {
+                break;
+            }
         }
-        this.pick();
-        if(this.downloadPiece == null) {
+        if(this.downloadPieces.isEmpty()) {
             LOGGER.debug("释放Peer：没有匹配Piece下载");
             this.peerSubMessageHandler.notInterested();
-            return false;
+            this.finish(true);
         }
-        final int index = this.downloadPiece.getIndex();
-        while(this.available()) {
-            // 超过slice请求数量进入等待
-            if (this.sliceLock.get() >= SLICE_REQUEST_SIZE) {
-                this.lockSlice();
-            }
-            // 超过slice最大请求数量跳出循环
-            if (this.sliceLock.get() >= SLICE_REQUEST_MAX_SIZE) {
-                LOGGER.debug("超过slice最大请求数量跳出循环");
-                break;
-            }
-            this.sliceLock.incrementAndGet();
-            // 顺序不能调换：position、length
-            final int begin = this.downloadPiece.position();
-            final int length = this.downloadPiece.length();
-            this.peerSubMessageHandler.request(index, begin, length);
-            // 是否还有更多SLICE
-            if(!this.downloadPiece.hasMoreSlice()) {
-                break;
+    }
+    
+    /**
+     * 发送一个Slice请求
+     * 优先级：重试请求、下载中的Piece、选择新的Piece
+     * 
+     * @param allowedPieces 可以请求Piece位图（没有限制：null）
+     * 
+     * @return 是否发送请求
+     */
+    private boolean request(BitSet allowedPieces) {
+        final PeerRequest retry = this.requestQueue.retry(allowedPieces);
+        if(retry != null) {
+            this.request(retry.piece(), retry.begin(), retry.length(), retry.reject());
+            return true;
+        }
+        for (final TorrentPiece piece : this.downloadPieces) {
+            if(piece.hasMoreSlice() && (allowedPieces == null || allowedPieces.get(piece.getIndex()))) {
+                this.request(piece);
+                return true;
             }
         }
-        // 添加完成锁：请求发送完成必须进入完成等待（数据可能没有全部返回）
-        this.lockCompleted();
-        // 释放释放锁
-        this.unlockRelease();
+        final TorrentPiece piece = this.pick(allowedPieces);
+        if(piece == null) {
+            return false;
+        }
+        this.request(piece);
         return true;
     }
     
+    /**
+     * 发送Piece下一个Slice请求
+     * 
+     * @param piece Piece
+     */
+    private void request(TorrentPiece piece) {
+        // 顺序不能调换：position、length
+        final int begin = piece.position();
+        final int length = piece.length();
+        this.request(piece, begin, length, 0);
+    }
+    
+    /**
+     * 发送Slice请求
+     * 
+     * @param piece  Piece
+     * @param begin  Piece内偏移
+     * @param length 请求数据长度
+     * @param reject 拒绝次数
+     */
+    private void request(TorrentPiece piece, int begin, int length, int reject) {
+        // 先加入队列：防止响应早于加入队列
+        this.requestQueue.request(piece, begin, length, reject);
+        this.peerSubMessageHandler.request(piece.getIndex(), begin, length);
+    }
+    
     /**
      * 选择下载Piece
+     * 
+     * @param allowedPieces 快速允许Piece位图（没有阻塞：null）
+     * 
+     * @return Piece
      */
-    private void pick() {
-        if(this.downloadPiece == null) {
-            // 没有Piece
-        } else if(this.downloadPiece.completed()) {
-            if(this.downloadPiece.verify()) {
-                final boolean success = this.torrentSession.write(this.downloadPiece);
-                if(success) {
-                    // 统计下载有效数据
-                    this.statisticsSession.download(this.downloadPiece.getLength());
-                } else {
-                    LOGGER.debug("Piece保存失败：{}", this.downloadPiece);
-                    this.torrentSession.undone(this.downloadPiece);
-                }
-            } else {
-                // 设置下载错误Piece位图
-                this.peerSession.badPieces(this.downloadPiece.getIndex());
-                LOGGER.warn("Piece校验失败：{}", this.downloadPiece);
-                this.torrentSession.undone(this.downloadPiece);
-            }
-        } else {
-            LOGGER.debug("Piece下载失败：{}", this.downloadPiece);
-            this.torrentSession.undone(this.downloadPiece);
-        }
-        if(this.peerConnectSession.isPeerUnchoked()) {
+    private TorrentPiece pick(BitSet allowedPieces) {
+        final TorrentPiece piece;
+        if(allowedPieces == null) {
             LOGGER.debug("选择下载Piece：解除阻塞");
-            this.downloadPiece = this.torrentSession.pick(this.peerSession.availablePieces(), this.peerSession.suggestPieces());
+            piece = this.torrentSession.pick(this.peerSession.availablePieces(), this.peerSession.suggestPieces());
         } else {
             LOGGER.debug("选择下载Piece：快速允许");
-            this.downloadPiece = this.torrentSession.pick(this.peerSession.allowedPieces(), this.peerSession.allowedPieces());
+            piece = this.torrentSession.pick(allowedPieces, allowedPieces);
+        }
+        LOGGER.debug("选择下载Piece：{}", piece);
+        if(piece == null) {
+            return null;
         }
-        LOGGER.debug("选择下载Piece：{}", this.downloadPiece);
-        this.sliceLock.set(0);
-        this.completedLock.set(false);
+        for (final TorrentPiece downloadPiece : this.downloadPieces) {
+            if(downloadPiece.getIndex() == piece.getIndex() && downloadPiece.getBegin() == piece.getBegin()) {
+                // 任务接近完成重复选择下载中的Piece：没有认领直接释放
+                piece.release();
+                return null;
+            }
+        }
+        if(this.downloadPieces.isEmpty()) {
+            this.responseTime = System.currentTimeMillis();
+        }
+        this.downloadPieces.add(piece);
+        return piece;
     }
     
     /**
-     * PeerConnect释放下载
+     * 处理下载完成和拒绝失败的Piece
      */
-    protected final void releaseDownload() {
-        if(this.downloading) {
-            LOGGER.debug("PeerConnect释放下载：{}", this.peerSession);
-            this.downloading = false;
-            // 没有完成：等待下载完成
-            if(!this.completedLock.get()) {
-                this.lockRelease();
+    private void complete() {
+        for (final TorrentPiece piece : this.requestQueue.failPieces()) {
+            LOGGER.debug("Piece请求拒绝：{}", piece);
+            this.undone(piece);
+        }
+        final Iterator<TorrentPiece> iterator = this.downloadPieces.iterator();
+        while(iterator.hasNext()) {
+            final TorrentPiece piece = iterator.next();
+            if(piece.completed()) {
+                iterator.remove();
+                this.save(piece);
             }
         }
     }
     
     /**
-     * 添加slice锁
-     */
-    private void lockSlice() {
-        synchronized (this.sliceLock) {
-            try {
-                this.sliceLock.wait(SLICE_TIMEOUT);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                LOGGER.debug("线程等待异常", e);
+     * 保存下载完成的Piece
+     * 
+     * @param piece Piece
+     */
+    private void save(TorrentPiece piece) {
+        if(piece.verify()) {
+            final boolean success = this.torrentSession.write(piece);
+            if(success) {
+                // 统计下载有效数据
+                this.statisticsSession.download(piece.getLength());
+            } else {
+                LOGGER.debug("Piece保存失败：{}", piece);
+                this.torrentSession.undone(piece);
             }
+        } else {
+            // 设置下载错误Piece位图
+            this.peerSession.badPieces(piece.getIndex());
+            LOGGER.warn("Piece校验失败：{}", piece);
+            this.torrentSession.undone(piece);
         }
+        // 保存成功文件流已经添加引用
+        piece.release();
     }
     
     /**
-     * 释放slice锁
+     * 放弃下载的Piece
+     * 取消已经发送请求、设置下载失败、归还Piece缓冲
+     * 
+     * @param piece Piece
      */
-    private void unlockSlice() {
-        if (this.sliceLock.decrementAndGet() <= 0) {
-            synchronized (this.sliceLock) {
-                this.sliceLock.notifyAll();
-            }
+    private void undone(TorrentPiece piece) {
+        if(!this.downloadPieces.remove(piece)) {
+            return;
         }
+        LOGGER.debug("Piece下载失败：{}", piece);
+        for (final PeerRequest request : this.requestQueue.remove(piece)) {
+            this.peerSubMessageHandler.cancel(request.index(), request.begin(), request.length());
+        }
+        this.torrentSession.undone(piece);
+        piece.release();
     }
     
     /**
-     * 添加完成锁
+     * 下载超时：放弃所有下载中的Piece
      */
-    private void lockCompleted() {
-        if(!this.completedLock.get()) {
-            synchronized (this.completedLock) {
-                if(!this.completedLock.get()) {
-                    try {
-                        this.completedLock.wait(COMPLETED_TIMEOUT);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        LOGGER.debug("线程等待异常", e);
-                    }
-                }
+    private void timeout() {
+        if(
+            !this.downloadPieces.isEmpty() &&
+            System.currentTimeMillis() - this.responseTime > COMPLETED_TIMEOUT
+        ) {
+            LOGGER.debug("Piece下载超时：{}", this.peerSession);
+            this.undonePieces();
+        }
+    }
+    
+    /**
+     * 放弃所有下载中的Piece
+     */
+    private void undonePieces() {
+        while(!this.downloadPieces.isEmpty()) {
+            this.undone(this.downloadPieces.get(0));
+        }
+    }
+    
+    /**
+     * 结束下载
+     * 等待已经发送请求响应（没有超时继续等待请求事件），然后保存完成Piece，放弃没有完成Piece。
+     * 
+     * @param force 是否不用等待
+     */
+    private void finish(boolean force) {
+        if(
+            !force                                    &&
+            !this.downloadPieces.isEmpty()            &&
+            this.requestQueue.size() > 0              &&
+            this.peerSubMessageHandler.available()
+        ) {
+            final long now = System.currentTimeMillis();
+            if(this.releaseTime <= 0L) {
+                this.releaseTime = now + RELEASE_TIMEOUT;
+            }
+            if(now < this.releaseTime) {
+                this.complete();
+                return;
             }
         }
+        try {
+            this.complete();
+            this.undonePieces();
+        } finally {
+            this.requestQueue.clear();
+            this.releaseTime = 0L;
+            this.downloading = false;
+            PeerRequestContext.getInstance().unregister(this);
+            this.unlockRelease();
+        }
+        this.torrentSession.checkCompletedAndUnlock();
+        LOGGER.debug("结束请求下载：{}", this.peerSession);
     }
     
     /**
-     * 释放完成锁
+     * PeerConnect释放下载
+     * 触发请求事件并且等待下载结束
      */
-    private void unlockCompleted() {
-        synchronized (this.completedLock) {
-            this.completedLock.set(true);
-            this.completedLock.notifyAll();
+    protected final void releaseDownload() {
+        if(this.downloading) {
+            LOGGER.debug("PeerConnect释放下载：{}", this.peerSession);
+            this.requestEvent();
+            this.lockRelease();
         }
     }
-
+    
     /**
      * 添加释放锁
      */
     private void lockRelease() {
-        if(!this.releaseLock.get()) {
+        if(this.releaseLock.get()) {
             synchronized (this.releaseLock) {
-                if(!this.releaseLock.get()) {
-                    this.releaseLock.set(true);
+                if(this.releaseLock.get()) {
                     try {
                         this.releaseLock.wait(RELEASE_TIMEOUT);
                     } catch (InterruptedException e) {
@@ -490,12 +626,9 @@ public abstract class PeerConnect implements IPeerConnect {
      * 释放释放锁
      */
     private void unlockRelease() {
-        if(this.releaseLock.get()) {
-            synchronized (this.releaseLock) {
-                if(this.releaseLock.get()) {
-                    this.releaseLock.notifyAll();
-                }
-            }
+        synchronized (this.releaseLock) {
+            this.releaseLock.set(false);
+            this.releaseLock.notifyAll();
         }
     }
     
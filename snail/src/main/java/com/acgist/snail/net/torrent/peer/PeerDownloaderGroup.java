@@ -145,7 +145,7 @@ public final class PeerDownloaderGroup {
                 LOGGER.debug("不能继续新建PeerDownloader：退出循环");
                 break;
             }
-            this.torrentSession.submit(() -> {
+            this.torrentSession.submitBlocking(() -> {
                 boolean success = true;
                 try {
                     success = this.buildPeerDownloader();
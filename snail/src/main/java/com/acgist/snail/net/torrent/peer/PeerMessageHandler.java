@@ -2,6 +2,7 @@ package com.acgist.snail.net.torrent.peer;
 
 import java.nio.ByteBuffer;
 
+import com.acgist.snail.net.IMessageSender;
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.TcpMessageHandler;
 import com.acgist.snail.net.codec.IMessageEncoder;
@@ -21,6 +22,10 @@ public final class PeerMessageHandler extends TcpMessageHandler implements IEncr
      * 消息编码器
      */
     private final IMessageEncoder<ByteBuffer> messageEncoder;
+    /**
+     * Peer消息处理器：加密、解密
+     */
+    private final PeerCryptMessageCodec peerCryptMessageCodec;
     /**
      * Peer消息代理
      */
@@ -44,6 +49,7 @@ public final class PeerMessageHandler extends TcpMessageHandler implements IEncr
         final var peerCryptMessageCodec = new PeerCryptMessageCodec(peerUnpackMessageCodec, peerSubMessageHandler);
         this.messageDecoder = peerCryptMessageCodec;
         this.messageEncoder = peerCryptMessageCodec;
+        this.peerCryptMessageCodec = peerCryptMessageCodec;
         this.peerSubMessageHandler = peerSubMessageHandler;
     }
     
@@ -52,10 +58,36 @@ public final class PeerMessageHandler extends TcpMessageHandler implements IEncr
         return this.peerSubMessageHandler.useless();
     }
     
+    /**
+     * 加密和放入发送队列必须原子操作：保证加密顺序和发送顺序一致
+     */
     @Override
     public void sendEncrypt(ByteBuffer buffer, int timeout) throws NetException {
-        this.messageEncoder.encode(buffer);
-        this.send(buffer, timeout);
+        final long position;
+        synchronized (this.peerCryptMessageCodec) {
+            this.messageEncoder.encode(buffer);
+            position = this.offer(buffer);
+        }
+        this.await(position, timeout);
+    }
+    
+    /**
+     * 明文：聚集写入直接发送（不用合并消息）
+     * 加密：合并消息加密发送
+     */
+    @Override
+    public void sendEncrypt(ByteBuffer[] buffers, int timeout) throws NetException {
+        if(this.peerCryptMessageCodec.plaintext()) {
+            this.send(buffers, timeout);
+        } else {
+            this.sendEncrypt(IMessageSender.merge(buffers), timeout);
+        }
+    }
+    
+    @Override
+    public void close() {
+        super.close();
+        this.peerSubMessageHandler.releaseAvailable();
     }
     
     @Override
@@ -0,0 +1,54 @@
+package com.acgist.snail.net.torrent.peer;
+
+import com.acgist.snail.net.torrent.TorrentPiece;
+
+/**
+ * Slice请求
+ * 
+ * @author acgist
+ */
+public final record PeerRequest(
+    /**
+     * Piece
+     */
+    TorrentPiece piece,
+    /**
+     * Piece内偏移
+     */
+    int begin,
+    /**
+     * 请求数据长度
+     */
+    int length,
+    /**
+     * 拒绝次数
+     */
+    int reject,
+    /**
+     * 发送时间
+     */
+    long time
+) {
+
+    /**
+     * 新建Slice请求
+     * 
+     * @param piece  Piece
+     * @param begin  Piece内偏移
+     * @param length 请求数据长度
+     * @param reject 拒绝次数
+     * 
+     * @return {@link PeerRequest}
+     */
+    public static final PeerRequest newInstance(TorrentPiece piece, int begin, int length, int reject) {
+        return new PeerRequest(piece, begin, length, reject, System.currentTimeMillis());
+    }
+    
+    /**
+     * @return Piece索引
+     */
+    public int index() {
+        return this.piece.getIndex();
+    }
+    
+}
@@ -0,0 +1,93 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.acgist.snail.context.IContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.torrent.TorrentRuntime;
+
+/**
+ * Peer请求上下文
+ * 所有Peer下载共享运行时线程池：下载事件（响应、拒绝、阻塞、解除阻塞、释放、定时）触发请求，没有事件不会占用线程。
+ * 线程数量和Peer数量无关
+ * 请求事件会阻塞（Piece校验、保存Piece、发送请求）：使用阻塞任务提交，防止占满运行时线程池影响定时任务和DHT查询。
+ * 
+ * @see TorrentRuntime
+ * 
+ * @author acgist
+ */
+public final class PeerRequestContext implements IContext {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PeerRequestContext.class);
+    
+    private static final PeerRequestContext INSTANCE = new PeerRequestContext();
+    
+    public static final PeerRequestContext getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 定时事件周期（秒）：{@value}
+     */
+    private static final long TICK_INTERVAL = 1L;
+    
+    /**
+     * 下载中的Peer
+     */
+    private final Set<PeerConnect> peerConnects;
+    
+    private PeerRequestContext() {
+        this.peerConnects = ConcurrentHashMap.newKeySet();
+        TorrentRuntime.getInstance().scheduledAtFixedDelay(TICK_INTERVAL, TICK_INTERVAL, TimeUnit.SECONDS, this::tick);
+    }
+    
+    /**
+     * 注册Peer下载
+     * 
+     * @param peerConnect Peer连接
+     */
+    public void register(PeerConnect peerConnect) {
+        this.peerConnects.add(peerConnect);
+    }
+    
+    /**
+     * 删除Peer下载
+     * 
+     * @param peerConnect Peer连接
+     */
+    public void unregister(PeerConnect peerConnect) {
+        this.peerConnects.remove(peerConnect);
+    }
+    
+    /**
+     * 执行请求
+     * 请求可以阻塞
+     * 
+     * @param runnable 请求
+     */
+    public void submit(Runnable runnable) {
+        TorrentRuntime.getInstance().executeBlocking(runnable);
+    }
+    
+    /**
+     * 定时事件：检查超时、释放
+     */
+    private void tick() {
+        try {
+            this.peerConnects.forEach(PeerConnect::tick);
+        } catch (Exception e) {
+            LOGGER.error("Peer请求定时事件异常", e);
+        }
+    }
+    
+    /**
+     * @return 下载中的Peer数量
+     */
+    public int size() {
+        return this.peerConnects.size();
+    }
+    
+}
@@ -0,0 +1,281 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.net.torrent.TorrentPiece;
+
+/**
+ * Peer请求队列
+ * 记录已经发送没有响应的Slice请求，请求深度根据下载速度和往返时间（带宽时延积）计算。
+ * 被拒绝或者被阻塞丢弃的请求放入重试队列，拒绝次数过多的Piece标记失败。
+ * 
+ * @author acgist
+ */
+public final class PeerRequestQueue {
+
+    /**
+     * 最小请求数量：{@value}
+     */
+    public static final int MIN_REQUEST_SIZE = 4;
+    /**
+     * 最大请求数量：{@value}
+     */
+    public static final int MAX_REQUEST_SIZE = 128;
+    /**
+     * 最大拒绝次数：{@value}
+     */
+    private static final int MAX_REJECT_TIMES = 2;
+    /**
+     * 速度统计时间（毫秒）：{@value}
+     */
+    private static final long RATE_INTERVAL = SystemConfig.ONE_SECOND_MILLIS;
+    /**
+     * 最小往返时间（毫秒）：{@value}
+     */
+    private static final long MIN_RTT = 10L;
+
+    /**
+     * 已经发送请求
+     * 请求标识：Piece索引 + Piece内偏移
+     */
+    private final Map<Long, PeerRequest> requests;
+    /**
+     * 重试请求
+     */
+    private final Deque<PeerRequest> retries;
+    /**
+     * 失败Piece
+     */
+    private final List<TorrentPiece> failPieces;
+    /**
+     * 往返时间（毫秒）
+     * 最小响应时间：排队时间不会计入
+     */
+    private long rtt;
+    /**
+     * 下载速度（B/S）
+     */
+    private long rate;
+    /**
+     * 速度统计大小
+     */
+    private long rateSize;
+    /**
+     * 速度统计开始时间
+     */
+    private long rateTime;
+
+    public PeerRequestQueue() {
+        this.requests   = new LinkedHashMap<>();
+        this.retries    = new ArrayDeque<>();
+        this.failPieces = new ArrayList<>();
+    }
+
+    /**
+     * 请求深度
+     * 带宽时延积两倍：请求数量限制速度时可以继续增长
+     * 
+     * @return 请求深度
+     */
+    public synchronized int depth() {
+        if(this.rate <= 0L || this.rtt <= 0L) {
+            return MIN_REQUEST_SIZE;
+        }
+        final long bdp = (this.rate * this.rtt / SystemConfig.ONE_SECOND_MILLIS + TorrentPiece.SLICE_LENGTH - 1) / TorrentPiece.SLICE_LENGTH;
+        return (int) Math.min(MAX_REQUEST_SIZE, 2 * bdp + MIN_REQUEST_SIZE);
+    }
+
+    /**
+     * 添加请求
+     * 
+     * @param piece  Piece
+     * @param begin  Piece内偏移
+     * @param length 请求数据长度
+     * @param reject 拒绝次数
+     */
+    public synchronized void request(TorrentPiece piece, int begin, int length, int reject) {
+        final PeerRequest request = PeerRequest.newInstance(piece, begin, length, reject);
+        if(this.requests.isEmpty()) {
+            // 空闲以后重新统计速度
+            this.rateSize = 0L;
+            this.rateTime = request.time();
+        }
+        this.requests.put(this.key(piece.getIndex(), begin), request);
+    }
+
+    /**
+     * 响应请求
+     * 数据长度和请求长度不一致：丢弃数据，请求按照拒绝处理。
+     * 
+     * @param index  Piece索引
+     * @param begin  Piece内偏移
+     * @param length 数据长度
+     * 
+     * @return Piece（没有请求或者长度错误：null）
+     */
+    public synchronized TorrentPiece response(int index, int begin, int length) {
+        final PeerRequest request = this.requests.remove(this.key(index, begin));
+        if(request == null) {
+            return null;
+        }
+        if(request.length() != length) {
+            this.reject(request);
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        final long rtt = Math.max(MIN_RTT, now - request.time());
+        if(this.rtt <= 0L || rtt < this.rtt) {
+            this.rtt = rtt;
+        }
+        this.rateSize += length;
+        final long interval = now - this.rateTime;
+        if(interval >= RATE_INTERVAL) {
+            final long rate = this.rateSize * SystemConfig.ONE_SECOND_MILLIS / interval;
+            this.rate     = this.rate <= 0L ? rate : (this.rate * 3 + rate) >> 2;
+            this.rateSize = 0L;
+            this.rateTime = now;
+        }
+        return request.piece();
+    }
+
+    /**
+     * 拒绝请求
+     * 
+     * @param index Piece索引
+     * @param begin Piece内偏移
+     */
+    public synchronized void reject(int index, int begin) {
+        final PeerRequest request = this.requests.remove(this.key(index, begin));
+        if(request == null) {
+            return;
+        }
+        this.reject(request);
+    }
+    
+    /**
+     * 拒绝请求
+     * 拒绝次数过多标记Piece失败，否则放入重试队列。
+     * 
+     * @param request 请求
+     */
+    private void reject(PeerRequest request) {
+        if(request.reject() >= MAX_REJECT_TIMES) {
+            if(!this.failPieces.contains(request.piece())) {
+                this.failPieces.add(request.piece());
+            }
+        } else {
+            this.retries.offerLast(new PeerRequest(request.piece(), request.begin(), request.length(), request.reject() + 1, request.time()));
+        }
+    }
+
+    /**
+     * 阻塞
+     * 没有Fast扩展的Peer阻塞以后丢弃所有请求：全部放入重试队列
+     */
+    public synchronized void choke() {
+        this.retries.addAll(this.requests.values());
+        this.requests.clear();
+    }
+
+    /**
+     * 获取重试请求
+     * 
+     * @param pieces 可以请求Piece位图（没有限制：null）
+     * 
+     * @return 重试请求
+     */
+    public synchronized PeerRequest retry(BitSet pieces) {
+        final Iterator<PeerRequest> iterator = this.retries.iterator();
+        while(iterator.hasNext()) {
+            final PeerRequest request = iterator.next();
+            if(pieces == null || pieces.get(request.index())) {
+                iterator.remove();
+                return request;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 删除Piece所有请求
+     * 
+     * @param piece Piece
+     * 
+     * @return 已经发送请求
+     */
+    public synchronized List<PeerRequest> remove(TorrentPiece piece) {
+        final List<PeerRequest> list = new ArrayList<>();
+        final Iterator<PeerRequest> iterator = this.requests.values().iterator();
+        while(iterator.hasNext()) {
+            final PeerRequest request = iterator.next();
+            if(request.piece() == piece) {
+                iterator.remove();
+                list.add(request);
+            }
+        }
+        this.retries.removeIf(request -> request.piece() == piece);
+        this.failPieces.remove(piece);
+        return list;
+    }
+
+    /**
+     * @return 失败Piece
+     */
+    public synchronized List<TorrentPiece> failPieces() {
+        if(this.failPieces.isEmpty()) {
+            return List.of();
+        }
+        final List<TorrentPiece> list = new ArrayList<>(this.failPieces);
+        this.failPieces.clear();
+        return list;
+    }
+
+    /**
+     * @return 已经发送请求数量
+     */
+    public synchronized int size() {
+        return this.requests.size();
+    }
+
+    /**
+     * @return 往返时间（毫秒）
+     */
+    public synchronized long rtt() {
+        return this.rtt;
+    }
+
+    /**
+     * @return 下载速度（B/S）
+     */
+    public synchronized long rate() {
+        return this.rate;
+    }
+
+    /**
+     * 清空请求
+     */
+    public synchronized void clear() {
+        this.requests.clear();
+        this.retries.clear();
+        this.failPieces.clear();
+    }
+
+    /**
+     * @param index Piece索引
+     * @param begin Piece内偏移
+     * 
+     * @return 请求标识
+     */
+    private long key(int index, int begin) {
+        return ((long) index << 32) | (begin & 0xFFFFFFFFL);
+    }
+
+}
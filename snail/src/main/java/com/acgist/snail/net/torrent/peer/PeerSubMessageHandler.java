@@ -44,6 +44,11 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
      * 检查是否使用最大次数：{@value}
      */
     private static final int MAX_USELESS_CHECK = 3;
+    /**
+     * Piece消息头部长度：{@value}
+     * 长度（4）+ 类型（1）+ 索引（4）+ 偏移（4）
+     */
+    private static final int PIECE_HEADER_LENGTH = 13;
     
     /**
      * 检查是否使用次数
@@ -96,6 +101,18 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
      * DHT扩展消息代理
      */
     private DhtExtensionMessageHandler dhtExtensionMessageHandler;
+    /**
+     * 当前连接统计Piece可用位图
+     * 连接关闭减少Piece可用数量
+     * 
+     * @see TorrentSession#available(BitSet)
+     */
+    private final BitSet availablePieces = new BitSet();
+    /**
+     * 是否释放Piece可用数量
+     * 释放以后（连接关闭）忽略Piece可用数量更新
+     */
+    private boolean availableReleased = false;
     
     /**
      * 服务端
@@ -422,7 +439,10 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         LOGGER.debug("处理阻塞消息");
         this.peerConnectSession.peerChoked();
         // 不用释放资源：系统自动优化剔除
-//        this.peerConnect.release();
+        if(this.peerConnect != null) {
+            // 重新请求被丢弃的请求
+            this.peerConnect.choke();
+        }
     }
     
     /**
@@ -568,6 +588,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         final int index = buffer.getInt();
         LOGGER.debug("处理have消息：{}", index);
         this.peerSession.piece(index);
+        this.available(index);
         if(!this.torrentSession.hasPiece(index)) {
             this.interested();
         }
@@ -603,6 +624,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         LOGGER.debug("处理haveAll消息");
         final BitSet allPieces = this.torrentSession.allPieces();
         this.peerSession.pieces(allPieces);
+        this.available(allPieces);
         this.torrentSession.fullPieces();
         if(!this.torrentSession.completed()) {
             this.interested();
@@ -712,6 +734,9 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         final int begin = buffer.getInt();
         final int length = buffer.getInt();
         LOGGER.debug("处理rejectRequest消息：{}-{}-{}", index, begin, length);
+        if(this.peerConnect != null) {
+            this.peerConnect.reject(index, begin);
+        }
     }
     
     /**
@@ -830,6 +855,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         // Peer已经下载Piece位图
         final BitSet pieces = BitfieldUtils.toBitSet(bytes);
         this.peerSession.pieces(pieces);
+        this.available(pieces);
         this.torrentSession.fullPieces(pieces);
         // 客户端没有下载Piece位图
         final BitSet notHave = new BitSet();
@@ -865,7 +891,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
             LOGGER.debug("发送request消息：任务不可下载");
             return;
         }
-        if(this.peerConnectSession.isPeerChoked()) {
+        if(this.peerConnectSession.isPeerChoked() && !this.peerSession.allowedPieces().get(index)) {
             LOGGER.debug("发送request消息：阻塞");
             return;
         }
@@ -923,20 +949,28 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
      * 
      * @param index Piece索引
      * @param begin Piece内偏移
-     * @param bytes Piece请求数据
+     * @param block Piece请求数据
      */
-    private void piece(int index, int begin, byte[] bytes) {
+    private void piece(int index, int begin, ByteBuffer block) {
         if(!this.torrentSession.uploadable()) {
             LOGGER.debug("发送piece消息：任务不可上传");
             return;
         }
         LOGGER.debug("发送piece消息：{}-{}", index, begin);
-        this.peerConnect.uploadMark(bytes.length);
-        final ByteBuffer buffer = ByteBuffer.allocate(8 + bytes.length);
-        buffer.putInt(index);
-        buffer.putInt(begin);
-        buffer.put(bytes);
-        this.pushMessage(PeerConfig.Type.PIECE, buffer.array());
+        final int length = block.remaining();
+        this.peerConnect.uploadMark(length);
+        // 消息头部和数据分开发送：不用复制数据
+        final ByteBuffer header = ByteBuffer.allocate(PIECE_HEADER_LENGTH);
+        header.putInt(PIECE_HEADER_LENGTH - 4 + length);
+        header.put(PeerConfig.Type.PIECE.getId());
+        header.putInt(index);
+        header.putInt(begin);
+        header.flip();
+        try {
+            this.messageEncryptSender.sendEncrypt(new ByteBuffer[] { header, block }, SystemConfig.NONE_TIMEOUT);
+        } catch (NetException e) {
+            LOGGER.error("发送piece消息异常：{}", this.peerSession, e);
+        }
     }
 
     /**
@@ -952,10 +986,10 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
         final int index = buffer.getInt();
         final int begin = buffer.getInt();
         LOGGER.debug("处理piece消息：{}-{}", index, begin);
-        final byte[] bytes = ByteUtils.remainingToBytes(buffer);
         if(this.peerConnect != null) {
-            this.peerConnect.downloadMark(bytes.length);
-            this.peerConnect.piece(index, begin, bytes);
+            // 数据直接复制到Piece
+            this.peerConnect.downloadMark(buffer.remaining());
+            this.peerConnect.piece(index, begin, buffer);
         }
     }
 
@@ -1144,6 +1178,56 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
      */
     public void close() {
         this.messageEncryptSender.close();
+        this.releaseAvailable();
+    }
+    
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param index Piece索引
+     */
+    private void available(int index) {
+        synchronized (this.availablePieces) {
+            if(this.availableReleased || this.availablePieces.get(index)) {
+                return;
+            }
+            this.availablePieces.set(index);
+            // 持有锁更新：防止释放以后增加
+            this.torrentSession.available(index);
+        }
+    }
+    
+    /**
+     * 增加Piece可用数量
+     * 
+     * @param pieces Piece位图
+     */
+    private void available(BitSet pieces) {
+        final BitSet newPieces = new BitSet();
+        newPieces.or(pieces);
+        synchronized (this.availablePieces) {
+            if(this.availableReleased) {
+                return;
+            }
+            newPieces.andNot(this.availablePieces);
+            this.availablePieces.or(newPieces);
+            // 持有锁更新：防止释放以后增加
+            this.torrentSession.available(newPieces);
+        }
+    }
+    
+    /**
+     * 释放当前连接统计Piece可用数量
+     * 连接关闭调用：重复调用忽略，释放以后收到的have、bitfield消息不会增加Piece可用数量。
+     */
+    public void releaseAvailable() {
+        synchronized (this.availablePieces) {
+            this.availableReleased = true;
+            if(!this.availablePieces.isEmpty() && this.torrentSession != null) {
+                this.torrentSession.unavailable(this.availablePieces);
+            }
+            this.availablePieces.clear();
+        }
     }
     
     /**
@@ -153,6 +153,9 @@ public final class UtpContext implements IContext, IChannelHandler<DatagramChann
                 LOGGER.error("处理超时UTP消息异常", e);
             }
         }
+        if(LOGGER.isDebugEnabled()) {
+            UtpRequestQueue.getInstance().shards().forEach(shard -> LOGGER.debug("UTP请求分片统计：{}", shard));
+        }
     }
 
     /**
@@ -160,6 +163,7 @@ public final class UtpContext implements IContext, IChannelHandler<DatagramChann
      */
     public void close() {
         UtpRequestQueue.getInstance().shutdown();
+        UtpPacer.getInstance().shutdown();
     }
 
 }
@@ -0,0 +1,280 @@
+package com.acgist.snail.net.torrent.utp;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.config.UtpConfig;
+
+/**
+ * UTP拥塞控制（LEDBAT）
+ * 协议链接：https://datatracker.ietf.org/doc/html/rfc6817
+ * 延迟样本：对端收到数据的时间 - 本端发送数据的时间（响应消息时间差），两端时钟偏差固定不变，计算排队延迟时抵消。
+ * 基础延迟：最近十分钟每分钟最小延迟样本的最小值
+ * 当前延迟：最近几个延迟样本的最小值
+ * 排队延迟：当前延迟 - 基础延迟
+ * 排队延迟小于目标延迟增大窗口，大于目标延迟减小窗口，窗口单位：字节。
+ * 慢启动：每个响应窗口增加响应字节数，排队延迟接近目标延迟、丢包或者达到慢启动阈值结束慢启动。
+ * 延迟样本使用无符号整数时间戳计算，时间戳溢出以后依然可以使用差值比较大小。
+ * 
+ * @author acgist
+ */
+public final class UtpLedbat {
+
+    /**
+     * 基础延迟历史数量：{@value}
+     */
+    private static final int BASE_HISTORY = 10;
+    /**
+     * 基础延迟历史周期（微秒）：{@value}
+     */
+    private static final long BASE_HISTORY_INTERVAL = 60L * SystemConfig.DATE_SCALE * SystemConfig.DATE_SCALE;
+    /**
+     * 当前延迟样本数量：{@value}
+     */
+    private static final int CURRENT_HISTORY = 4;
+    /**
+     * 每个RTT窗口最大增长字节数：{@value}
+     */
+    private static final int MAX_CWND_INCREASE = 3000;
+    /**
+     * 最小窗口（字节）：{@value}
+     */
+    public static final int MIN_CWND = 2 * UtpConfig.PACKET_MAX_LENGTH;
+    /**
+     * 初始窗口（字节）：{@value}
+     */
+    private static final int INIT_CWND = 4 * UtpConfig.PACKET_MAX_LENGTH;
+    /**
+     * 最大窗口（字节）：{@value}
+     */
+    private static final int MAX_CWND = UtpConfig.WND_SIZE;
+
+    /**
+     * 目标延迟（微秒）
+     */
+    private final int targetDelay;
+    /**
+     * 拥塞窗口（字节）
+     */
+    private int cwnd;
+    /**
+     * 慢启动阈值（字节）
+     */
+    private int ssthresh;
+    /**
+     * 是否慢启动
+     */
+    private boolean slowStart;
+    /**
+     * 基础延迟历史
+     */
+    private final int[] baseDelays;
+    /**
+     * 基础延迟历史索引
+     */
+    private int baseIndex;
+    /**
+     * 基础延迟历史开始时间（微秒）
+     */
+    private long baseTimestamp;
+    /**
+     * 当前延迟样本
+     */
+    private final int[] currentDelays;
+    /**
+     * 当前延迟样本索引
+     */
+    private int currentIndex;
+    /**
+     * 当前延迟样本数量
+     */
+    private int currentSize;
+    /**
+     * 最后丢包减小窗口时间（微秒）
+     */
+    private long lossTimestamp;
+
+    /**
+     * @param targetDelay 目标延迟（微秒）
+     */
+    private UtpLedbat(int targetDelay) {
+        this.targetDelay   = targetDelay;
+        this.cwnd          = INIT_CWND;
+        this.ssthresh      = MAX_CWND;
+        this.slowStart     = true;
+        this.baseDelays    = new int[BASE_HISTORY];
+        this.currentDelays = new int[CURRENT_HISTORY];
+    }
+
+    /**
+     * 新建拥塞控制
+     * 
+     * @return {@link UtpLedbat}
+     * 
+     * @see SystemConfig#getUtpTargetDelay()
+     */
+    public static final UtpLedbat newInstance() {
+        return newInstance(SystemConfig.getUtpTargetDelay() * SystemConfig.DATE_SCALE);
+    }
+
+    /**
+     * 新建拥塞控制
+     * 
+     * @param targetDelay 目标延迟（微秒）
+     * 
+     * @return {@link UtpLedbat}
+     */
+    public static final UtpLedbat newInstance(int targetDelay) {
+        return new UtpLedbat(Math.max(SystemConfig.DATE_SCALE, targetDelay));
+    }
+
+    /**
+     * 添加延迟样本
+     * 
+     * @param delay     延迟样本（微秒）
+     * @param timestamp 当前时间（微秒）
+     */
+    public void delay(int delay, long timestamp) {
+        if(this.currentSize == 0) {
+            for (int index = 0; index < BASE_HISTORY; index++) {
+                this.baseDelays[index] = delay;
+            }
+            this.baseTimestamp = timestamp;
+        } else if(timestamp - this.baseTimestamp >= BASE_HISTORY_INTERVAL) {
+            // 下一分钟
+            this.baseIndex = (this.baseIndex + 1) % BASE_HISTORY;
+            this.baseDelays[this.baseIndex] = delay;
+            this.baseTimestamp = timestamp;
+        } else if(delay - this.baseDelays[this.baseIndex] < 0) {
+            this.baseDelays[this.baseIndex] = delay;
+        }
+        this.currentDelays[this.currentIndex] = delay;
+        this.currentIndex = (this.currentIndex + 1) % CURRENT_HISTORY;
+        if(this.currentSize < CURRENT_HISTORY) {
+            this.currentSize++;
+        }
+    }
+
+    /**
+     * 处理响应
+     * 窗口调整：MAX_CWND_INCREASE * 偏离目标比例 * 响应字节数 / 窗口大小
+     * 发送中的字节数加上每个RTT最大增长字节数小于窗口（应用没有数据发送）时不能增大窗口
+     * 
+     * @param bytes  响应字节数
+     * @param flight 发送中的字节数（包含响应字节数）
+     */
+    public void ack(int bytes, int flight) {
+        if(bytes <= 0) {
+            return;
+        }
+        final long queuingDelay = this.queuingDelay();
+        // 减小窗口速度不能超过增大窗口速度
+        final double offTarget = Math.max(-1.0D, (double) (this.targetDelay - queuingDelay) / this.targetDelay);
+        final double gain = MAX_CWND_INCREASE * offTarget * bytes / Math.max(this.cwnd, bytes);
+        if(gain > 0 && flight + MAX_CWND_INCREASE < this.cwnd) {
+            return;
+        }
+        int cwnd = (int) (this.cwnd + gain);
+        if(this.slowStart) {
+            final int slowStartCwnd = this.cwnd + bytes;
+            if(slowStartCwnd > this.ssthresh || queuingDelay * 10 > this.targetDelay * 9L) {
+                this.slowStart = false;
+                this.ssthresh  = this.cwnd;
+            } else {
+                cwnd = Math.max(cwnd, slowStartCwnd);
+            }
+        }
+        this.cwnd = Math.max(MIN_CWND, Math.min(MAX_CWND, cwnd));
+    }
+
+    /**
+     * 丢包：窗口减半
+     * 每个RTT最多减小一次
+     * 
+     * @param timestamp 当前时间（微秒）
+     * @param rtt       往返时间（微秒）
+     */
+    public void loss(long timestamp, int rtt) {
+        if(timestamp - this.lossTimestamp < rtt) {
+            return;
+        }
+        this.lossTimestamp = timestamp;
+        this.ssthresh      = Math.max(MIN_CWND, this.cwnd / 2);
+        this.slowStart     = false;
+        this.cwnd          = this.ssthresh;
+    }
+
+    /**
+     * 超时：窗口重置为最小窗口，重新慢启动。
+     */
+    public void timeout() {
+        this.ssthresh  = Math.max(MIN_CWND, this.cwnd / 2);
+        this.slowStart = true;
+        this.cwnd      = MIN_CWND;
+    }
+
+    /**
+     * 计算发送间隔
+     * 按照窗口大小在一个RTT内均匀发送数据
+     * 
+     * @param bytes 发送字节数
+     * @param rtt   往返时间（微秒）
+     * 
+     * @return 发送间隔（微秒）
+     */
+    public long pacing(int bytes, int rtt) {
+        if(rtt <= 0) {
+            return 0L;
+        }
+        return (long) bytes * rtt / this.cwnd;
+    }
+
+    /**
+     * @return 基础延迟（微秒）
+     */
+    public int baseDelay() {
+        int min = this.baseDelays[0];
+        for (int index = 1; index < BASE_HISTORY; index++) {
+            if(this.baseDelays[index] - min < 0) {
+                min = this.baseDelays[index];
+            }
+        }
+        return min;
+    }
+
+    /**
+     * @return 当前延迟（微秒）
+     */
+    public int currentDelay() {
+        int min = this.currentDelays[0];
+        for (int index = 1; index < this.currentSize; index++) {
+            if(this.currentDelays[index] - min < 0) {
+                min = this.currentDelays[index];
+            }
+        }
+        return min;
+    }
+
+    /**
+     * @return 排队延迟（微秒）
+     */
+    public long queuingDelay() {
+        if(this.currentSize == 0) {
+            return 0L;
+        }
+        return Math.max(0, this.currentDelay() - this.baseDelay());
+    }
+
+    /**
+     * @return 目标延迟（微秒）
+     */
+    public int targetDelay() {
+        return this.targetDelay;
+    }
+
+    /**
+     * @return 拥塞窗口（字节）
+     */
+    public int cwnd() {
+        return this.cwnd;
+    }
+
+}
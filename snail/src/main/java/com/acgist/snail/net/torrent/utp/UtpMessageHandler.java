@@ -1,6 +1,5 @@
 package com.acgist.snail.net.torrent.utp;
 
-import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.List;
@@ -11,6 +10,7 @@ import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.config.UtpConfig;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.ByteBufferContext;
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.UdpMessageHandler;
 import com.acgist.snail.net.codec.IMessageEncoder;
@@ -41,6 +41,18 @@ import com.acgist.snail.utils.DateUtils;
  * | seq_nr                        | ack_nr                        |
  * +---------------+---------------+---------------+---------------+
  * 
+ * 扩展消息格式（extension：第一个扩展类型）
+ * 
+ * 0               8               16
+ * +---------------+---------------+---------------+---------------+
+ * | extension     | len           | bitmask
+ * +---------------+---------------+---------------+---------------+
+ * |                     ...                       |
+ * +---------------+---------------+---------------+
+ * 
+ * extension：下一个扩展类型（0：没有扩展）
+ * len：扩展数据长度
+ * 
  * @author acgist
  */
 public final class UtpMessageHandler extends UdpMessageHandler implements IEncryptMessageSender {
@@ -76,10 +88,25 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
      * 接收窗口
      */
     private final UtpWindow recvWindow;
+    /**
+     * 本端时间差（微秒）
+     * 最后收到消息的时间 - 最后收到消息的时间戳
+     * 发送数据消息时告诉对端单向延迟样本
+     */
+    private volatile int timestampDifference;
+    /**
+     * 选择确认缓存
+     * 只在接收消息线程发送响应消息时使用
+     */
+    private final byte[] sack;
     /**
      * 收到ack消息重复次数
      */
     private final AtomicInteger ackLossTimes;
+    /**
+     * 等待发送节奏控制的数据消息数量
+     */
+    private final AtomicInteger pacingSize;
     /**
      * 连接锁
      */
@@ -128,10 +155,6 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
         this.messageEncoder = peerCryptMessageCodec;
         this.peerSubMessageHandler = peerSubMessageHandler;
         this.utpContext = UtpContext.getInstance();
-        this.sendWindow = UtpWindow.newSendInstance();
-        this.recvWindow = UtpWindow.newRecvInstance(this.messageDecoder);
-        this.ackLossTimes = new AtomicInteger(0);
-        this.connectLock = new AtomicBoolean(false);
         if(server) {
             this.sendId = connectionId;
             this.recvId = (short) (this.sendId + 1);
@@ -140,6 +163,13 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
             this.sendId = (short) (this.recvId + 1);
         }
         this.key = this.utpContext.buildKey(this.recvId, this.socketAddress);
+        this.sendWindow = UtpWindow.newSendInstance();
+        // 连接固定请求分片
+        this.recvWindow = UtpWindow.newRecvInstance(this.key, this.messageDecoder);
+        this.sack = new byte[UtpConfig.SACK_MAX_LENGTH];
+        this.ackLossTimes = new AtomicInteger(0);
+        this.pacingSize = new AtomicInteger(0);
+        this.connectLock = new AtomicBoolean(false);
         this.utpContext.put(this);
     }
     
@@ -181,19 +211,32 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
         final short seqnr = buffer.getShort();
         // 响应编号
         final short acknr = buffer.getShort();
+        if(timestamp != 0) {
+            this.timestampDifference = DateUtils.timestampUs() - timestamp;
+        }
         // 扩展消息
-        if(extension != 0 && buffer.remaining() >= UtpConfig.EXTENSION_MIN_LENGTH) {
-            final short extLength = buffer.getShort();
-            if(extLength <= 0 || buffer.remaining() < extLength) {
+        ByteBuffer sack = null;
+        byte extType = extension;
+        while(extType != UtpConfig.EXTENSION) {
+            if(buffer.remaining() < UtpConfig.EXTENSION_MIN_LENGTH) {
+                throw new NetException("处理UTP消息错误（扩展）：" + extType);
+            }
+            final byte nextExtType = buffer.get();
+            final int extLength = Byte.toUnsignedInt(buffer.get());
+            if(buffer.remaining() < extLength) {
                 throw new NetException("处理UTP消息错误（扩展长度）：" + extLength);
             }
-            final byte[] extData = new byte[extLength];
-            buffer.get(extData);
+            if(extType == UtpConfig.EXTENSION_SACK) {
+                // 选择确认：不用复制数据
+                sack = buffer.slice(buffer.position(), extLength);
+            }
+            buffer.position(buffer.position() + extLength);
+            extType = nextExtType;
         }
         // 注意顺序（性能）：按照消息数量排序
         switch (type) {
             case DATA -> this.data(timestamp, seqnr, acknr, buffer);
-            case STATE -> this.state(timestamp, seqnr, acknr, wndSize);
+            case STATE -> this.state(timestamp, timestampDifference, seqnr, acknr, wndSize, sack);
             case FIN -> this.fin(timestamp, seqnr, acknr);
             case RESET -> this.reset(timestamp, seqnr, acknr);
             case SYN -> this.syn(timestamp, seqnr, acknr);
@@ -237,6 +280,7 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 
     /**
      * UDP拆包
+     * 数据直接复制到窗口数据：不用新建数组
      * 
      * @param buffer 消息
      * 
@@ -244,19 +288,39 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
      */
     private void sendPacket(ByteBuffer buffer) throws NetException {
         this.check(buffer);
-        byte[] bytes;
-        int remaining;
-        while((remaining = buffer.remaining()) > 0) {
-            // UDP拆包
-            if(remaining > UtpConfig.PACKET_MAX_LENGTH) {
-                bytes = new byte[UtpConfig.PACKET_MAX_LENGTH];
-            } else {
-                bytes = new byte[remaining];
+        try {
+            while(buffer.hasRemaining()) {
+                this.pacing(this.sendWindow.build(buffer));
             }
-            buffer.get(bytes);
-            final UtpWindowData windowData = this.sendWindow.build(bytes);
+        } catch (NetException e) {
+            // 消息可能已经发送部分数据：关闭连接
+            this.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * 发送数据消息
+     * 没有到达计划发送时间或者还有数据消息等待发送节奏控制：交给发送节奏控制发送（保证顺序），不能阻塞调用线程。
+     * 
+     * @param windowData 数据消息
+     * 
+     * @see UtpPacer
+     */
+    private void pacing(UtpWindowData windowData) {
+        final long pacingTimestamp = windowData.getPacingTimestamp();
+        if(this.pacingSize.get() == 0 && pacingTimestamp - System.nanoTime() <= 0L) {
             this.data(windowData);
+            return;
         }
+        this.pacingSize.incrementAndGet();
+        UtpPacer.getInstance().pacing(pacingTimestamp, () -> {
+            try {
+                this.data(windowData);
+            } finally {
+                this.pacingSize.decrementAndGet();
+            }
+        });
     }
     
     /**
@@ -317,11 +381,11 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
             this.close();
             return;
         }
-        LOGGER.debug("处理数据消息：{}-{}", seqnr, acknr);
+        if(LOGGER.isDebugEnabled()) {
+            LOGGER.debug("处理数据消息：{}-{}", seqnr, acknr);
+        }
         try {
             this.recvWindow.receive(timestamp, seqnr, buffer);
-        } catch (IOException e) {
-            throw new NetException(e);
         } finally {
             // 响应消息响应编号：最后一次接收请求编号
             this.state(timestamp, this.recvWindow.seqnr());
@@ -330,33 +394,46 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
     
     /**
      * 发送数据消息
+     * 重传数据可能已经响应回收：加锁防止发送复用数据
      * 
      * @param windowData 数据消息
      */
     private void data(UtpWindowData windowData) {
-        LOGGER.debug("发送数据消息：{}", windowData);
-        final int now = windowData.updateGetTimestamp();
-        final ByteBuffer buffer = this.buildMessage(UtpConfig.Type.DATA, windowData.getLength() + UtpConfig.HEADER_LENGTH);
-        buffer.putShort(this.sendId);
-        buffer.putInt(now);
-        buffer.putInt(now - this.recvWindow.timestamp());
-        buffer.putInt(this.recvWindow.wndSize());
-        buffer.putShort(windowData.getSeqnr());
-        buffer.putShort(this.recvWindow.seqnr());
-        buffer.put(windowData.getData());
+        if(LOGGER.isDebugEnabled()) {
+            LOGGER.debug("发送数据消息：{}", windowData);
+        }
+        final int wndSize = this.recvWindow.wndSize();
+        final ByteBuffer buffer = this.buildMessage(UtpConfig.Type.DATA, UtpConfig.PACKET_MAX_LENGTH + UtpConfig.HEADER_LENGTH);
+        synchronized (windowData) {
+            if(!windowData.isAvailable()) {
+                ByteBufferContext.getInstance().release(buffer);
+                return;
+            }
+            buffer.putShort(this.sendId);
+            buffer.putInt(windowData.updateGetTimestamp());
+            buffer.putInt(this.timestampDifference);
+            buffer.putInt(wndSize);
+            buffer.putShort(windowData.getSeqnr());
+            buffer.putShort(this.recvWindow.seqnr());
+            windowData.write(buffer);
+        }
         this.pushMessage(buffer);
     }
 
     /**
      * 处理响应消息
      * 
-     * @param timestamp 时间戳
-     * @param seqnr     请求编号
-     * @param acknr     响应编号
-     * @param wndSize   窗口大小
-     */
-    private void state(int timestamp, short seqnr, short acknr, int wndSize) {
-        LOGGER.debug("处理响应消息：{}-{}", seqnr, acknr);
+     * @param timestamp           时间戳
+     * @param timestampDifference 时间差：对端计算的单向延迟样本
+     * @param seqnr               请求编号
+     * @param acknr               响应编号
+     * @param wndSize             窗口大小
+     * @param sack                选择确认
+     */
+    private void state(int timestamp, int timestampDifference, short seqnr, short acknr, int wndSize, ByteBuffer sack) {
+        if(LOGGER.isDebugEnabled()) {
+            LOGGER.debug("处理响应消息：{}-{}", seqnr, acknr);
+        }
         if(!this.connect) {
             // 没有连接
             this.connect = this.available();
@@ -367,39 +444,53 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
             this.unlockConnect();
         }
         // 是否丢包
-        final boolean loss = this.sendWindow.ack(acknr, wndSize);
+        final boolean loss = this.sendWindow.ack(acknr, wndSize, timestampDifference, sack);
+        final int ackLossTimes;
         if(loss) {
-            // 快速重传：多次返回已处理的数据编号视为丢包
-            if(this.ackLossTimes.incrementAndGet() > UtpConfig.FAST_ACK_RETRY_TIMES) {
-                // 重新发送最后一个未确认数据包
-                final var packet = this.sendWindow.lastUnack();
-                if(packet != null) {
-                    LOGGER.debug("快速重传：{}-{}", acknr, packet);
-                    this.data(packet);
-                }
-            }
+            ackLossTimes = this.ackLossTimes.incrementAndGet();
         } else {
+            ackLossTimes = 0;
             this.ackLossTimes.set(0);
         }
+        // 快速重传：只重传丢失的数据包
+        final List<UtpWindowData> packets = this.sendWindow.fastRetransmit(acknr, sack, ackLossTimes);
+        for (final UtpWindowData packet : packets) {
+            LOGGER.debug("快速重传：{}-{}", acknr, packet);
+            this.data(packet);
+        }
     }
     
     /**
      * 发送响应消息
      * 响应消息不用增加seqnr
+     * 接收窗口存在乱序数据包时添加选择确认
      * 
      * @param timestamp 时间戳
      * @param acknr     响应编号
      */
     private void state(int timestamp, short acknr) {
-        LOGGER.debug("发送响应消息：{}", acknr);
+        if(LOGGER.isDebugEnabled()) {
+            LOGGER.debug("发送响应消息：{}", acknr);
+        }
         final int now = DateUtils.timestampUs();
-        final ByteBuffer buffer = this.buildMessage(UtpConfig.Type.STATE, UtpConfig.HEADER_LENGTH);
+        final int sackLength = acknr == this.recvWindow.seqnr() ? this.recvWindow.sack(this.sack) : 0;
+        final ByteBuffer buffer;
+        if(sackLength == 0) {
+            buffer = this.buildMessage(UtpConfig.Type.STATE, UtpConfig.EXTENSION, UtpConfig.HEADER_LENGTH);
+        } else {
+            buffer = this.buildMessage(UtpConfig.Type.STATE, UtpConfig.EXTENSION_SACK, UtpConfig.HEADER_LENGTH + UtpConfig.EXTENSION_MIN_LENGTH + sackLength);
+        }
         buffer.putShort(this.sendId);
         buffer.putInt(now);
         buffer.putInt(now - timestamp);
         buffer.putInt(this.recvWindow.wndSize());
         buffer.putShort(this.sendWindow.seqnr());
         buffer.putShort(acknr);
+        if(sackLength != 0) {
+            buffer.put(UtpConfig.EXTENSION);
+            buffer.put((byte) sackLength);
+            buffer.put(this.sack, 0, sackLength);
+        }
         this.pushMessage(buffer);
     }
 
@@ -487,7 +578,13 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
      */
     private void syn() {
         LOGGER.debug("发送握手消息：{}", this.socketAddress);
-        final UtpWindowData windowData = this.sendWindow.build();
+        final UtpWindowData windowData;
+        try {
+            windowData = this.sendWindow.build();
+        } catch (NetException e) {
+            LOGGER.error("发送握手消息异常：{}", this.socketAddress, e);
+            return;
+        }
         final ByteBuffer buffer = this.buildMessage(UtpConfig.Type.SYN, UtpConfig.HEADER_LENGTH);
         buffer.putShort(this.recvId);
         buffer.putInt(windowData.updateGetTimestamp());
@@ -507,9 +604,23 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
      * @return 消息
      */
     private ByteBuffer buildMessage(UtpConfig.Type type, int size) {
-        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        return this.buildMessage(type, UtpConfig.EXTENSION, size);
+    }
+    
+    /**
+     * 新建消息
+     * 消息使用直接内存缓冲池：发送完成释放
+     * 
+     * @param type      消息类型
+     * @param extension 第一个扩展类型
+     * @param size      消息长度
+     * 
+     * @return 消息
+     */
+    private ByteBuffer buildMessage(UtpConfig.Type type, byte extension, int size) {
+        final ByteBuffer buffer = ByteBufferContext.getInstance().allocate(size);
         buffer.put(type.getTypeVersion());
-        buffer.put(UtpConfig.EXTENSION);
+        buffer.put(extension);
         return buffer;
     }
     
@@ -523,6 +634,8 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
             this.send(buffer, this.remoteSocketAddress());
         } catch (NetException e) {
             LOGGER.error("发送UTP消息异常", e);
+        } finally {
+            ByteBufferContext.getInstance().release(buffer);
         }
     }
     
@@ -570,6 +683,7 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
         super.close();
         this.connect = false;
         this.utpContext.remove(this);
+        this.peerSubMessageHandler.releaseAvailable();
     }
 
     /**
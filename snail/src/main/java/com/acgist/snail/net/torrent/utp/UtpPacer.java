@@ -0,0 +1,199 @@
+package com.acgist.snail.net.torrent.utp;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * UTP发送节奏控制
+ * 发送窗口计算发送时间，没有到达发送时间的数据消息交给发送节奏控制线程按照时间顺序发送：调用线程（请求分片线程）不用等待。
+ * 相同发送时间按照添加顺序发送：相同连接数据消息不会乱序
+ * 
+ * @author acgist
+ * 
+ * @see UtpWindow
+ */
+public final class UtpPacer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UtpPacer.class);
+
+    private static final UtpPacer INSTANCE = new UtpPacer();
+
+    public static final UtpPacer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 没有任务等待时间（毫秒）：{@value}
+     * 防止丢失唤醒信号
+     */
+    private static final long PARK_TIMEOUT = 100L;
+
+    /**
+     * 是否可用
+     */
+    private volatile boolean available;
+    /**
+     * 任务序号
+     */
+    private long sequence;
+    /**
+     * 任务队列：按照发送时间排序
+     */
+    private final PriorityQueue<Task> tasks;
+    /**
+     * 发送节奏控制线程
+     */
+    private volatile Thread consumer;
+    /**
+     * 发送节奏控制线程池
+     */
+    private final ExecutorService executor;
+
+    private UtpPacer() {
+        this.available = true;
+        this.sequence  = 0L;
+        this.tasks     = new PriorityQueue<>();
+        this.executor  = SystemThreadContext.newExecutor(1, 1, 1, 60L, SystemThreadContext.SNAIL_THREAD_UTP_PACER);
+        this.executor.submit(this::loopPacing);
+        LOGGER.debug("启动UTP发送节奏控制");
+    }
+
+    /**
+     * 任务
+     * 
+     * @author acgist
+     */
+    private static final record Task(
+        /**
+         * 发送时间（纳秒）
+         */
+        long timestamp,
+        /**
+         * 任务序号
+         */
+        long sequence,
+        /**
+         * 任务
+         */
+        Runnable runnable
+    ) implements Comparable<Task> {
+
+        @Override
+        public int compareTo(Task task) {
+            final long diff = this.timestamp - task.timestamp;
+            if(diff != 0L) {
+                return diff < 0L ? -1 : 1;
+            }
+            return Long.compare(this.sequence, task.sequence);
+        }
+
+    }
+
+    /**
+     * 添加任务
+     * 任务不能阻塞
+     * 
+     * @param timestamp 发送时间（纳秒）：{@link System#nanoTime()}
+     * @param runnable  任务
+     */
+    public void pacing(long timestamp, Runnable runnable) {
+        final boolean wakeup;
+        synchronized (this) {
+            final Task task = new Task(timestamp, this.sequence++, runnable);
+            this.tasks.offer(task);
+            // 最早发送任务改变：重新计算等待时间
+            wakeup = this.tasks.peek() == task;
+        }
+        if(wakeup) {
+            final Thread thread = this.consumer;
+            if(thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * 发送节奏控制轮询
+     */
+    private void loopPacing() {
+        this.consumer = Thread.currentThread();
+        while(this.available) {
+            final Task task;
+            final long timeout;
+            synchronized (this) {
+                final Task head = this.tasks.peek();
+                if(head == null) {
+                    task    = null;
+                    timeout = TimeUnit.MILLISECONDS.toNanos(PARK_TIMEOUT);
+                } else if(head.timestamp - System.nanoTime() <= 0L) {
+                    task    = this.tasks.poll();
+                    timeout = 0L;
+                } else {
+                    task    = null;
+                    timeout = head.timestamp - System.nanoTime();
+                }
+            }
+            if(task != null) {
+                this.execute(task);
+            } else if(timeout > 0L) {
+                LockSupport.parkNanos(this, timeout);
+            }
+            if(Thread.currentThread().isInterrupted()) {
+                LOGGER.debug("UTP发送节奏控制线程中断");
+                break;
+            }
+        }
+        // 关闭：立即执行剩余任务
+        Task task;
+        while((task = this.poll()) != null) {
+            this.execute(task);
+        }
+    }
+
+    /**
+     * @return 任务
+     */
+    private synchronized Task poll() {
+        return this.tasks.poll();
+    }
+
+    /**
+     * 执行任务
+     * 
+     * @param task 任务
+     */
+    private void execute(Task task) {
+        try {
+            task.runnable.run();
+        } catch (Exception e) {
+            LOGGER.error("UTP发送节奏控制任务异常", e);
+        }
+    }
+
+    /**
+     * @return 等待任务数量
+     */
+    public synchronized int size() {
+        return this.tasks.size();
+    }
+
+    /**
+     * 关闭UTP发送节奏控制
+     */
+    public void shutdown() {
+        LOGGER.debug("关闭UTP发送节奏控制");
+        this.available = false;
+        final Thread thread = this.consumer;
+        if(thread != null) {
+            LockSupport.unpark(thread);
+        }
+        SystemThreadContext.shutdown(this.executor);
+    }
+
+}
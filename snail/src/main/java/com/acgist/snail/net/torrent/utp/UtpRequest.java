@@ -7,19 +7,13 @@ import com.acgist.snail.net.codec.IMessageDecoder;
 
 /**
  * UTP请求
+ * 接收窗口直接使用窗口数据作为请求
  * 
  * @author acgist
+ * 
+ * @see UtpWindowData
  */
-public final record UtpRequest(
-    /**
-     * 请求数据
-     */
-    ByteBuffer buffer,
-    /**
-     * 消息处理器
-     */
-    IMessageDecoder<ByteBuffer> messageDecoder
-) {
+public interface UtpRequest {
 
     /**
      * 新建UTP请求
@@ -29,17 +23,15 @@ public final record UtpRequest(
      * 
      * @return {@link UtpRequest}
      */
-    public static final UtpRequest newInstance(ByteBuffer buffer, IMessageDecoder<ByteBuffer> messageDecoder) {
-        return new UtpRequest(buffer, messageDecoder);
+    static UtpRequest newInstance(ByteBuffer buffer, IMessageDecoder<ByteBuffer> messageDecoder) {
+        return () -> messageDecoder.decode(buffer);
     }
-    
+
     /**
      * 处理请求
      * 
      * @throws NetException 网络异常
      */
-    public void execute() throws NetException {
-        this.messageDecoder.decode(this.buffer);
-    }
-    
+    void execute() throws NetException;
+
 }
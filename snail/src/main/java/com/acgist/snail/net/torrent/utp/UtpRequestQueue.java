@@ -2,10 +2,7 @@ package com.acgist.snail.net.torrent.utp;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import com.acgist.snail.context.SystemThreadContext;
 import com.acgist.snail.logger.Logger;
@@ -13,9 +10,12 @@ import com.acgist.snail.logger.LoggerFactory;
 
 /**
  * UTP请求队列
- * 请求队列用来异步处理UTP请求，每个接收窗口对应一个请求队列，每个请求队列可以处理多个接收窗口。
+ * 请求队列用来异步处理UTP请求，每个连接根据连接Key固定对应一个请求分片，每个请求分片可以处理多个连接。
+ * 每个请求分片使用一个线程按照顺序处理：相同连接请求不会乱序，不用连接锁。
  * 
  * @author acgist
+ * 
+ * @see UtpRequestShard
  */
 public final class UtpRequestQueue {
     
@@ -28,76 +28,76 @@ public final class UtpRequestQueue {
     }
     
     /**
-     * 是否可用
+     * 请求分片容量（2的幂）：{@value}
      */
-    private boolean available;
+    private static final int QUEUE_CAPACITY = 4096;
+    
     /**
-     * 队列长度
+     * 分片数量
      * 注意：如果使用静态常量引用外部常量容易出现异常
      */
     private final int queueSize;
     /**
-     * 请求队列索引
-     */
-    private final AtomicInteger queueIndex;
-    /**
-     * 请求队列处理线程池
-     * 
-     * @see #QUEUE_SIZE
+     * 请求分片处理线程池
      */
     private final ExecutorService executor;
     /**
-     * 请求队列集合
-     * 
-     * @see #QUEUE_SIZE
+     * 请求分片集合
      */
-    private final List<BlockingQueue<UtpRequest>> queues;
+    private final List<UtpRequestShard> shards;
     
     private UtpRequestQueue() {
         this.queueSize = SystemThreadContext.DEFAULT_THREAD_SIZE;
-        this.available = true;
-        this.queueIndex = new AtomicInteger(0);
-        this.queues = new ArrayList<>(this.queueSize);
         this.executor = SystemThreadContext.newExecutor(this.queueSize, this.queueSize, 10000, 60L, SystemThreadContext.SNAIL_THREAD_UTP_QUEUE);
-        this.buildQueues();
+        this.shards = this.buildShards();
         LOGGER.debug("启动UTP请求队列：{}", this.queueSize);
     }
     
     /**
-     * @return 请求队列
+     * 根据连接Key选择请求分片
+     * 
+     * @param key 连接Key
+     * 
+     * @return 请求分片
+     */
+    public UtpRequestShard queue(String key) {
+        return this.queue(key.hashCode());
+    }
+    
+    /**
+     * 根据哈希值选择请求分片
+     * 
+     * @param hash 哈希值
+     * 
+     * @return 请求分片
      */
-    public BlockingQueue<UtpRequest> queue() {
-        final int index = this.queueIndex.getAndIncrement() % this.queueSize;
-        return this.queues.get(Math.abs(index));
+    public UtpRequestShard queue(int hash) {
+        // 高位参与计算：防止低位相同集中到相同分片
+        return this.shards.get(Math.floorMod(hash ^ (hash >>> 16), this.queueSize));
     }
     
     /**
-     * 新建请求队列
+     * 请求分片统计：队列长度、处理数量、排队时间
+     * 
+     * @return 请求分片集合
      */
-    private void buildQueues() {
-        for (int index = 0; index < this.queueSize; index++) {
-            final var queue = new LinkedBlockingQueue<UtpRequest>();
-            this.executor.submit(() -> this.queueExecute(queue));
-            this.queues.add(queue);
-        }
+    public List<UtpRequestShard> shards() {
+        return this.shards;
     }
-
+    
     /**
-     * 处理请求队列
+     * 新建请求分片
      * 
-     * @param queue 请求队列
+     * @return 请求分片集合
      */
-    private void queueExecute(BlockingQueue<UtpRequest> queue) {
-        while(this.available) {
-            try {
-                queue.take().execute();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                LOGGER.debug("UTP处理请求异常", e);
-            } catch (Exception e) {
-                LOGGER.error("UTP处理请求异常", e);
-            }
+    private List<UtpRequestShard> buildShards() {
+        final List<UtpRequestShard> list = new ArrayList<>(this.queueSize);
+        for (int index = 0; index < this.queueSize; index++) {
+            final UtpRequestShard shard = new UtpRequestShard(index, QUEUE_CAPACITY);
+            this.executor.submit(shard::execute);
+            list.add(shard);
         }
+        return List.copyOf(list);
     }
     
     /**
@@ -105,7 +105,7 @@ public final class UtpRequestQueue {
      */
     public void shutdown() {
         LOGGER.debug("关闭UTP请求队列处理线程池");
-        this.available = false;
+        this.shards.forEach(UtpRequestShard::shutdown);
         SystemThreadContext.shutdown(this.executor);
     }
     
@@ -0,0 +1,305 @@
+package com.acgist.snail.net.torrent.utp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.utils.BeanUtils;
+
+/**
+ * UTP请求分片
+ * 有界多生产者单消费者环形队列：生产者使用CAS抢占位置，消费者线程批量处理请求。
+ * 槽位序号：等于位置表示可以写入，等于位置加一表示可以读取，读取以后设置为位置加上容量（下一圈可以写入）。
+ * 相同连接的请求固定添加到相同分片：同一个线程按照顺序处理，不用加锁。
+ * 
+ * @author acgist
+ */
+public final class UtpRequestShard {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UtpRequestShard.class);
+
+    /**
+     * 每批最大处理数量：{@value}
+     */
+    private static final int BATCH_SIZE = 64;
+    /**
+     * 没有请求等待时间（毫秒）：{@value}
+     * 防止丢失唤醒信号
+     */
+    private static final long PARK_TIMEOUT = 100L;
+
+    /**
+     * 分片索引
+     */
+    private final int index;
+    /**
+     * 队列容量（2的幂）
+     */
+    private final int capacity;
+    /**
+     * 索引掩码
+     */
+    private final int mask;
+    /**
+     * 请求
+     */
+    private final UtpRequest[] requests;
+    /**
+     * 添加时间（纳秒）
+     */
+    private final long[] timestamps;
+    /**
+     * 槽位序号
+     */
+    private final AtomicLongArray sequences;
+    /**
+     * 写入位置
+     */
+    private final AtomicLong tail;
+    /**
+     * 读取位置
+     * 只有消费者线程修改
+     */
+    private volatile long head;
+    /**
+     * 是否可用
+     */
+    private volatile boolean available;
+    /**
+     * 消费者线程是否等待
+     */
+    private volatile boolean waiting;
+    /**
+     * 消费者线程
+     */
+    private volatile Thread consumer;
+    /**
+     * 最大队列长度
+     */
+    private volatile long maxSize;
+    /**
+     * 处理数量
+     */
+    private volatile long count;
+    /**
+     * 累计排队时间（纳秒）
+     */
+    private volatile long latency;
+    /**
+     * 最大排队时间（纳秒）
+     */
+    private volatile long maxLatency;
+    /**
+     * 队列已满丢弃数量
+     */
+    private final LongAdder drop;
+
+    /**
+     * @param index    分片索引
+     * @param capacity 队列容量（2的幂）
+     */
+    UtpRequestShard(int index, int capacity) {
+        if(Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("队列容量必须是2的幂：" + capacity);
+        }
+        this.index      = index;
+        this.capacity   = capacity;
+        this.mask       = capacity - 1;
+        this.requests   = new UtpRequest[capacity];
+        this.timestamps = new long[capacity];
+        this.sequences  = new AtomicLongArray(capacity);
+        for (int slot = 0; slot < capacity; slot++) {
+            this.sequences.set(slot, slot);
+        }
+        this.tail      = new AtomicLong(0L);
+        this.head      = 0L;
+        this.available = true;
+        this.drop      = new LongAdder();
+    }
+
+    /**
+     * 添加请求
+     * 
+     * @param request 请求
+     * 
+     * @return 是否成功（队列已满：失败）
+     */
+    public boolean offer(UtpRequest request) {
+        final long timestamp = System.nanoTime();
+        long position = this.tail.get();
+        while(true) {
+            final int slot = (int) position & this.mask;
+            final long diff = this.sequences.get(slot) - position;
+            if(diff == 0L) {
+                if(this.tail.compareAndSet(position, position + 1)) {
+                    this.requests[slot]   = request;
+                    this.timestamps[slot] = timestamp;
+                    // 发布请求
+                    this.sequences.set(slot, position + 1);
+                    if(this.waiting) {
+                        LockSupport.unpark(this.consumer);
+                    }
+                    return true;
+                }
+                position = this.tail.get();
+            } else if(diff < 0L) {
+                // 上一圈没有读取
+                this.drop.increment();
+                return false;
+            } else {
+                // 其他生产者已经写入
+                position = this.tail.get();
+            }
+        }
+    }
+
+    /**
+     * 消费者线程处理请求
+     */
+    void execute() {
+        this.consumer = Thread.currentThread();
+        while(this.available) {
+            if(this.drain() > 0) {
+                continue;
+            }
+            this.await();
+            if(Thread.currentThread().isInterrupted()) {
+                LOGGER.debug("UTP请求分片线程中断：{}", this.index);
+                break;
+            }
+        }
+    }
+
+    /**
+     * 批量处理请求
+     * 统计数据每批更新一次
+     * 
+     * @return 处理数量
+     */
+    int drain() {
+        long head = this.head;
+        final long size = this.tail.get() - head;
+        if(size <= 0L) {
+            return 0;
+        }
+        if(size > this.maxSize) {
+            this.maxSize = size;
+        }
+        int count = 0;
+        long latency = 0L;
+        long maxLatency = this.maxLatency;
+        final long timestamp = System.nanoTime();
+        while(count < BATCH_SIZE) {
+            final int slot = (int) head & this.mask;
+            if(this.sequences.get(slot) != head + 1) {
+                // 生产者没有发布
+                break;
+            }
+            final UtpRequest request = this.requests[slot];
+            // 批量开始以后添加的请求排队时间按照零计算
+            final long requestLatency = Math.max(0L, timestamp - this.timestamps[slot]);
+            this.requests[slot] = null;
+            this.sequences.lazySet(slot, head + this.capacity);
+            head++;
+            count++;
+            latency += requestLatency;
+            if(requestLatency > maxLatency) {
+                maxLatency = requestLatency;
+            }
+            try {
+                request.execute();
+            } catch (Exception e) {
+                LOGGER.error("UTP处理请求异常", e);
+            }
+        }
+        this.head = head;
+        this.count += count;
+        this.latency += latency;
+        this.maxLatency = maxLatency;
+        return count;
+    }
+
+    /**
+     * 等待请求
+     * 设置等待标记以后再次检查队列：防止生产者没有看到等待标记
+     */
+    private void await() {
+        this.waiting = true;
+        final long head = this.head;
+        if(this.available && this.sequences.get((int) head & this.mask) != head + 1) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(PARK_TIMEOUT));
+        }
+        this.waiting = false;
+    }
+
+    /**
+     * 关闭分片
+     */
+    void shutdown() {
+        this.available = false;
+        final Thread thread = this.consumer;
+        if(thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * @return 分片索引
+     */
+    public int index() {
+        return this.index;
+    }
+
+    /**
+     * @return 队列长度
+     */
+    public long size() {
+        return Math.max(0L, this.tail.get() - this.head);
+    }
+
+    /**
+     * @return 最大队列长度
+     */
+    public long maxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * @return 处理数量
+     */
+    public long count() {
+        return this.count;
+    }
+
+    /**
+     * @return 队列已满丢弃数量
+     */
+    public long drop() {
+        return this.drop.sum();
+    }
+
+    /**
+     * @return 平均排队时间（纳秒）
+     */
+    public long averageLatency() {
+        final long count = this.count;
+        return count == 0L ? 0L : this.latency / count;
+    }
+
+    /**
+     * @return 最大排队时间（纳秒）
+     */
+    public long maxLatency() {
+        return this.maxLatency;
+    }
+
+    @Override
+    public String toString() {
+        return BeanUtils.toString(this, this.index, this.size(), this.maxSize, this.count, this.drop(), this.averageLatency(), this.maxLatency);
+    }
+
+}
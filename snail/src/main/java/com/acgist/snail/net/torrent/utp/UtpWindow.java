@@ -1,27 +1,30 @@
 package com.acgist.snail.net.torrent.utp;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.config.UtpConfig;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.codec.IMessageDecoder;
-import com.acgist.snail.utils.ByteUtils;
 import com.acgist.snail.utils.DateUtils;
 
 /**
  * UTP窗口
+ * 发送窗口使用LEDBAT拥塞控制：发送中的字节数不能超过拥塞窗口和对端窗口，按照拥塞窗口在一个RTT内均匀发送数据。
+ * 发送窗口只计算发送时间（{@link UtpWindowData#getPacingTimestamp()}），不会等待发送时间：调用线程可能是请求分片线程。
+ * 窗口数据使用环形缓冲区保存：请求编号按照缓冲区大小取模作为索引，请求编号溢出以后依然可以使用差值比较大小。
+ * 发送窗口：槽位没有响应等待发送窗口，等待超时发送失败（不能丢弃没有响应的数据）。
+ * 接收窗口：超过缓冲区大小直接丢弃（等待对端重传），请求队列已满保留数据不会响应。
+ * 
+ * @see UtpLedbat
+ * @see UtpPacer
  * 
  * @author acgist
  */
@@ -30,27 +33,27 @@ public final class UtpWindow {
     private static final Logger LOGGER = LoggerFactory.getLogger(UtpWindow.class);
 
     /**
-     * 最小窗口大小：{@value}
+     * 默认最大超时时间（微秒）：{@value}
      */
-    private static final int MIN_WND_SIZE = 16;
+    private static final int MAX_TIMEOUT = 500 * SystemConfig.DATE_SCALE;
     /**
-     * 最大窗口大小：{@value}
+     * 等待发送窗口超时时间（秒）：{@value}
+     * 防止长时间阻塞
      */
-    private static final int MAX_WND_SIZE = 64;
+    private static final int WND_TIMEOUT = 2;
     /**
-     * 默认最大超时时间（微秒）：{@value}
+     * 允许突发发送字节数：{@value}
      */
-    private static final int MAX_TIMEOUT = 500 * SystemConfig.DATE_SCALE;
+    private static final int PACING_BURST = 4 * UtpConfig.PACKET_MAX_LENGTH;
     /**
-     * 获取信号量超时时间（秒）：{@value}
-     * 防止长时间阻塞
+     * 环形缓冲区大小（必须是2的幂）：{@value}
      */
-    private static final int SEMAPHORE_TIMEOUT = 2;
-    
+    private static final int RING_SIZE = 1024;
     /**
-     * 当前窗口大小
+     * 环形缓冲区索引掩码：{@value}
      */
-    private volatile int wnd;
+    private static final int RING_MASK = RING_SIZE - 1;
+    
     /**
      * 往返时间
      */
@@ -74,6 +77,10 @@ public final class UtpWindow {
      * 固定值：1
      */
     private volatile short seqnr;
+    /**
+     * 发送端：最早没有响应的seqnr
+     */
+    private short unackSeqnr;
     /**
      * timestamp
      * 接收端：最后收到响应的时间
@@ -83,41 +90,63 @@ public final class UtpWindow {
     /**
      * 窗口大小
      * 接收端：发送端剩余大小
-     * 发送端：发送端缓存大小
+     * 发送端：发送中的字节数
      */
     private volatile int wndSize;
     /**
-     * 窗口数据
+     * 对端窗口大小
+     */
+    private volatile int remoteWndSize;
+    /**
+     * 是否正在丢包恢复
+     * 丢包恢复期间再次丢包不用减小拥塞窗口：每个窗口只减小一次
+     */
+    private boolean recovery;
+    /**
+     * 丢包恢复结束编号：发现丢包时最后发送的seqnr
+     */
+    private short recoverySeqnr;
+    /**
+     * 下次发送时间（微秒）
+     */
+    private long pacingTimestamp;
+    /**
+     * 窗口数据数量
+     */
+    private int size;
+    /**
+     * 窗口数据环形缓冲区
      * 接收端：未处理的数据
      * 发送端：未响应的数据
      * 数据可能是乱序的
      */
-    private final Map<Short, UtpWindowData> wndMap;
+    private final UtpWindowData[] ring;
     /**
-     * 窗口信号量
+     * 拥塞控制
+     * 接收窗口：null
      */
-    private final Semaphore semaphore;
+    private final UtpLedbat ledbat;
     /**
-     * 窗口请求队列
+     * 窗口请求分片
      */
-    private final BlockingQueue<UtpRequest> requests;
+    private final UtpRequestShard requests;
     /**
      * 窗口消息处理器
      */
     private final IMessageDecoder<ByteBuffer> messageDecoder;
     
     /**
-     * @see #UtpWindow(IMessageDecoder)
+     * @see #UtpWindow(String, IMessageDecoder)
      */
     private UtpWindow() {
-        this(null);
+        this(null, null);
     }
     
     /**
+     * @param key            连接Key
      * @param messageDecoder 消息处理器
      */
-    private UtpWindow(IMessageDecoder<ByteBuffer> messageDecoder) {
-        this.wnd       = MIN_WND_SIZE;
+    private UtpWindow(String key, IMessageDecoder<ByteBuffer> messageDecoder) {
         this.rtt       = 0;
         this.rttVar    = 0;
         this.timeout   = MAX_TIMEOUT;
@@ -125,18 +154,20 @@ public final class UtpWindow {
         this.seqnr     = 1;
         this.timestamp = 0;
         this.wndSize   = 0;
-        this.wndMap    = new LinkedHashMap<>();
+        this.unackSeqnr = this.seqnr;
+        this.ring      = new UtpWindowData[RING_SIZE];
         if(messageDecoder == null) {
             // 发送窗口对象
             this.requests       = null;
             this.messageDecoder = null;
-            this.semaphore      = new Semaphore(MIN_WND_SIZE);
+            this.ledbat         = UtpLedbat.newInstance();
         } else {
             // 接收窗口对象
-            // 相同窗口必须将消息发送到相同请求队列：防止消息出现乱序
-            this.requests       = UtpRequestQueue.getInstance().queue();
+            // 相同连接必须将消息发送到相同请求分片：防止消息出现乱序
+            final UtpRequestQueue requestQueue = UtpRequestQueue.getInstance();
+            this.requests       = key == null ? requestQueue.queue(System.identityHashCode(messageDecoder)) : requestQueue.queue(key);
             this.messageDecoder = messageDecoder;
-            this.semaphore      = null;
+            this.ledbat         = null;
         }
     }
     
@@ -151,13 +182,26 @@ public final class UtpWindow {
     
     /**
      * 新建接收窗口
+     * 没有连接Key根据消息处理器选择请求分片
      * 
      * @param messageDecoder 窗口消息处理器
      * 
      * @return {@link UtpWindow}
      */
     public static final UtpWindow newRecvInstance(IMessageDecoder<ByteBuffer> messageDecoder) {
-        return new UtpWindow(messageDecoder);
+        return new UtpWindow(null, messageDecoder);
+    }
+    
+    /**
+     * 新建接收窗口
+     * 
+     * @param key            连接Key：根据连接Key选择请求分片
+     * @param messageDecoder 窗口消息处理器
+     * 
+     * @return {@link UtpWindow}
+     */
+    public static final UtpWindow newRecvInstance(String key, IMessageDecoder<ByteBuffer> messageDecoder) {
+        return new UtpWindow(key, messageDecoder);
     }
     
     /**
@@ -167,8 +211,11 @@ public final class UtpWindow {
      * @param seqnr     请求编号
      */
     public void connect(final int timestamp, final short seqnr) {
-        this.seqnr = seqnr;
-        this.timestamp = timestamp;
+        synchronized (this) {
+            this.seqnr = seqnr;
+            this.unackSeqnr = seqnr;
+            this.timestamp = timestamp;
+        }
     }
 
     /**
@@ -185,28 +232,40 @@ public final class UtpWindow {
      * 
      * @return {@link UtpWindowData}
      * 
-     * @see #build(byte[])
+     * @throws NetException 网络异常
+     * 
+     * @see #build(ByteBuffer)
      */
-    public UtpWindowData build() {
+    public UtpWindowData build() throws NetException {
         return this.build(null);
     }
     
     /**
      * 发送数据
+     * 从数据当前位置最多读取{@link UtpConfig#PACKET_MAX_LENGTH}字节
+     * 计划发送时间保存到窗口数据：调用方根据计划发送时间发送
      * 
      * @param data 数据
      * 
      * @return {@link UtpWindowData}
+     * 
+     * @throws NetException 网络异常：等待发送窗口超时
      */
-    public UtpWindowData build(byte[] data) {
-        // 不能加锁
-        this.acquire();
+    public UtpWindowData build(ByteBuffer data) throws NetException {
         synchronized (this) {
+            final int length = data == null ? 0 : Math.min(data.remaining(), UtpConfig.PACKET_MAX_LENGTH);
+            this.acquire(length);
             // 最后发送时间
             this.timestamp = DateUtils.timestampUs();
-            final UtpWindowData windowData = this.storage(this.timestamp, this.seqnr, data);
+            final UtpWindowData oldWindowData = this.ring[this.seqnr & RING_MASK];
+            if(oldWindowData != null && oldWindowData.isAvailable()) {
+                // 等待发送窗口超时：槽位数据没有响应不能复用
+                throw new NetException("UTP发送窗口缓冲区已满：" + oldWindowData);
+            }
+            final UtpWindowData windowData = this.storage(this.timestamp, this.seqnr, data, length);
             // 新建完成递增
             this.seqnr++;
+            windowData.setPacingTimestamp(this.pacing(length));
             return windowData;
         }
     }
@@ -215,118 +274,349 @@ public final class UtpWindow {
      * @return 超时的数据包
      */
     public List<UtpWindowData> timeoutWindowData() {
+        return this.timeoutWindowData(DateUtils.timestampUs());
+    }
+    
+    /**
+     * @param timestamp 当前时间（微秒）
+     * 
+     * @return 超时的数据包
+     */
+    public List<UtpWindowData> timeoutWindowData(final int timestamp) {
         synchronized (this) {
             final int timeout = this.timeout;
-            final int timestamp = DateUtils.timestampUs();
-            return this.wndMap.values().stream()
-                .filter(windowData -> timestamp - windowData.getTimestamp() > timeout)
-                .collect(Collectors.toList());
+            List<UtpWindowData> list = Collections.emptyList();
+            UtpWindowData windowData;
+            for (short seqnr = this.unackSeqnr; seqnr != this.seqnr; seqnr++) {
+                windowData = this.get(seqnr);
+                if(windowData != null && timestamp - windowData.getTimestamp() > timeout) {
+                    list = this.add(list, windowData);
+                }
+            }
+            if(!list.isEmpty() && this.ledbat != null) {
+                this.ledbat.timeout();
+                LOGGER.debug("UTP拥塞窗口（超时）：{}", this.ledbat.cwnd());
+            }
+            return list;
         }
     }
     
     /**
      * 处理响应
-     * 删除已经响应数据、更新超时时间
      * 
      * @param acknr   响应编号：最后处理编号
      * @param wndSize 剩余窗口大小
      * 
      * @return 是否丢包
+     * 
+     * @see #ack(short, int, int, ByteBuffer)
      */
     public boolean ack(final short acknr, final int wndSize) {
+        return this.ack(acknr, wndSize, 0, null);
+    }
+    
+    /**
+     * 处理响应
+     * 删除已经响应数据（累计确认和选择确认）、更新超时时间、更新拥塞窗口
+     * 
+     * @param acknr   响应编号：最后处理编号
+     * @param wndSize 剩余窗口大小
+     * @param delay   延迟样本（微秒）：响应消息时间差（没有样本：0）
+     * @param sack    选择确认（没有选择确认：null）
+     * 
+     * @return 是否丢包：响应编号没有确认新的数据
+     */
+    public boolean ack(final short acknr, final int wndSize, final int delay, final ByteBuffer sack) {
         synchronized (this) {
-            this.wndSize = wndSize;
+            this.remoteWndSize = wndSize;
             // 响应编号已经处理说明可能丢包
             boolean loss = true;
-            Entry<Short, UtpWindowData> entry;
+            int ackBytes = 0;
+            final int flight = this.wndSize;
             final int timestamp = DateUtils.timestampUs();
-            final var iterator = this.wndMap.entrySet().iterator();
-            while(iterator.hasNext()) {
-                entry = iterator.next();
-                // 编号是否已经处理
-                final short diff = (short) (acknr - entry.getKey());
-                if(diff >= 0) {
+            // 累计确认
+            for (short seqnr = this.unackSeqnr; seqnr != this.seqnr && (short) (acknr - seqnr) >= 0; seqnr++) {
+                final int length = this.ackWindowData(seqnr, timestamp);
+                if(length >= 0) {
                     // 响应编号没有处理说明没有丢包
                     loss = false;
-                    this.timeout(timestamp - entry.getValue().getTimestamp());
-                    this.release();
-                    // 删除已经响应数据
-                    iterator.remove();
+                    ackBytes += length;
                 }
             }
-            if(!loss) {
-                // 没有丢包计算窗口
-                this.wndControl();
+            // 选择确认
+            if(sack != null) {
+                final int bits = sack.remaining() * Byte.SIZE;
+                for (int index = 0; index < bits; index++) {
+                    if(this.sack(sack, index)) {
+                        ackBytes += Math.max(0, this.ackWindowData((short) (acknr + 2 + index), timestamp));
+                    }
+                }
+            }
+            while(this.unackSeqnr != this.seqnr && this.get(this.unackSeqnr) == null) {
+                this.unackSeqnr++;
+            }
+            if(this.recovery && (short) (acknr - this.recoverySeqnr) >= 0) {
+                this.recovery = false;
+            }
+            if(delay != 0) {
+                this.ledbat.delay(delay, System.nanoTime() / SystemConfig.DATE_SCALE);
+            }
+            if(ackBytes > 0) {
+                this.ledbat.ack(ackBytes, flight);
+                if(LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("UTP拥塞窗口：{}-{}", this.ledbat.cwnd(), this.ledbat.queuingDelay());
+                }
             }
+            // 唤醒等待发送窗口线程
+            this.notifyAll();
             return loss;
         }
     }
     
+    /**
+     * 快速重传
+     * 选择确认：没有确认的数据包后面至少{@link UtpConfig#FAST_ACK_RETRY_TIMES}个数据包已经确认视为丢包
+     * 累计确认：重复响应次数达到{@link UtpConfig#FAST_ACK_RETRY_TIMES}视为响应编号下一个数据包丢包
+     * 数据包只会快速重传一次，再次丢失等待超时重传，发现丢包减小拥塞窗口（丢包恢复期间不会再次减小）。
+     * 
+     * @param acknr        响应编号：最后处理编号
+     * @param sack         选择确认（没有选择确认：null）
+     * @param ackLossTimes 重复响应次数
+     * 
+     * @return 需要重传的数据包
+     */
+    public List<UtpWindowData> fastRetransmit(final short acknr, final ByteBuffer sack, final int ackLossTimes) {
+        synchronized (this) {
+            List<UtpWindowData> list = Collections.emptyList();
+            if(sack != null) {
+                int sackSize = 0;
+                // 从后往前统计已经确认数据包数量：-1表示acknr + 1
+                for (int index = sack.remaining() * Byte.SIZE - 1; index >= -1; index--) {
+                    if(index >= 0 && this.sack(sack, index)) {
+                        sackSize++;
+                    } else if(sackSize >= UtpConfig.FAST_ACK_RETRY_TIMES) {
+                        list = this.fastRetransmit(list, (short) (acknr + 2 + index));
+                    }
+                }
+                // 按照编号顺序重传
+                Collections.reverse(list);
+            } else if(ackLossTimes >= UtpConfig.FAST_ACK_RETRY_TIMES) {
+                list = this.fastRetransmit(list, (short) (acknr + 1));
+            }
+            if(!list.isEmpty() && !this.recovery) {
+                this.recovery      = true;
+                this.recoverySeqnr = (short) (this.seqnr - 1);
+                this.ledbat.loss(System.nanoTime() / SystemConfig.DATE_SCALE, this.rtt);
+                LOGGER.debug("UTP拥塞窗口（丢包）：{}-{}", this.ledbat.cwnd(), list.size());
+            }
+            return list;
+        }
+    }
+    
+    /**
+     * 添加快速重传数据包
+     * 
+     * @param list  需要重传的数据包
+     * @param seqnr 请求编号
+     * 
+     * @return 需要重传的数据包
+     */
+    private List<UtpWindowData> fastRetransmit(final List<UtpWindowData> list, final short seqnr) {
+        final UtpWindowData windowData = this.get(seqnr);
+        if(windowData != null && windowData.getPushTimes() <= 1) {
+            return this.add(list, windowData);
+        }
+        return list;
+    }
+    
+    /**
+     * 添加数据包
+     * 没有数据包时不用新建集合
+     * 
+     * @param list       数据包集合
+     * @param windowData 数据包
+     * 
+     * @return 数据包集合
+     */
+    private List<UtpWindowData> add(List<UtpWindowData> list, final UtpWindowData windowData) {
+        if(list.isEmpty()) {
+            list = new ArrayList<>();
+        }
+        list.add(windowData);
+        return list;
+    }
+    
+    /**
+     * 判断选择确认是否确认数据包
+     * 
+     * @param sack  选择确认
+     * @param index 数据包索引：请求编号 - acknr - 2
+     * 
+     * @return 是否确认
+     */
+    private boolean sack(final ByteBuffer sack, final int index) {
+        if(index < 0 || index >= sack.remaining() * Byte.SIZE) {
+            return false;
+        }
+        return (sack.get(sack.position() + index / Byte.SIZE) >> (index % Byte.SIZE) & 0x01) == 0x01;
+    }
+    
+    /**
+     * 生成选择确认
+     * 接收窗口：已经收到的乱序数据包
+     * 
+     * @return 选择确认（没有乱序数据包：null）
+     * 
+     * @see #sack(byte[])
+     */
+    public byte[] sack() {
+        final byte[] sack = new byte[UtpConfig.SACK_MAX_LENGTH];
+        final int length = this.sack(sack);
+        return length == 0 ? null : Arrays.copyOf(sack, length);
+    }
+    
+    /**
+     * 生成选择确认
+     * 接收窗口：已经收到的乱序数据包
+     * 
+     * @param sack 选择确认（长度{@link UtpConfig#SACK_MAX_LENGTH}）
+     * 
+     * @return 选择确认长度（没有乱序数据包：0）
+     */
+    public int sack(final byte[] sack) {
+        synchronized (this) {
+            if(this.size == 0) {
+                return 0;
+            }
+            Arrays.fill(sack, (byte) 0);
+            int maxIndex = -1;
+            final int bits = sack.length * Byte.SIZE;
+            for (int index = 0; index < bits; index++) {
+                if(this.get((short) (this.seqnr + 2 + index)) != null) {
+                    sack[index / Byte.SIZE] |= 1 << (index % Byte.SIZE);
+                    maxIndex = index;
+                }
+            }
+            if(maxIndex < 0) {
+                return 0;
+            }
+            // 长度必须是4的倍数
+            return (maxIndex / Integer.SIZE + 1) * Integer.BYTES;
+        }
+    }
+    
     /**
      * 接收数据
+     * 按照顺序将窗口数据添加到请求队列：请求队列已满时保留数据（不会响应）
      * 
      * @param timestamp 时间戳
      * @param seqnr     请求编号
      * @param buffer    请求数据
-     * 
-     * @throws IOException IO异常
      */
-    public void receive(final int timestamp, final short seqnr, final ByteBuffer buffer) throws IOException {
+    public void receive(final int timestamp, final short seqnr, final ByteBuffer buffer) {
         synchronized (this) {
-            final short diff = (short) (this.seqnr - seqnr);
-            if(diff >= 0) {
+            final short diff = (short) (seqnr - this.seqnr);
+            if(diff <= 0) {
                 // seqnr已被处理
                 return;
             }
-            // 优先保存数据
-            this.storage(timestamp, seqnr, buffer);
+            if(diff > RING_SIZE) {
+                LOGGER.debug("接收窗口缓冲区已满：{}-{}", seqnr, this.seqnr);
+                return;
+            }
+            final int index = seqnr & RING_MASK;
+            final UtpWindowData windowData = this.ring[index];
+            if(windowData != null && windowData.isAvailable() && windowData.getSeqnr() != seqnr) {
+                // 槽位数据已经添加请求队列没有处理完成：新建窗口数据（处理完成交给垃圾回收）
+                LOGGER.debug("接收窗口槽位没有处理完成：{}-{}", seqnr, windowData);
+                this.ring[index] = null;
+            }
+            if(this.get(seqnr) == null) {
+                // 优先保存数据
+                this.storage(timestamp, seqnr, buffer, buffer.remaining());
+            }
             UtpWindowData nextWindowData;
-            short nextSeqnr = this.seqnr;
-            final var output = new ByteArrayOutputStream();
+            short nextSeqnr;
             while(true) {
                 // 下一个请求编号
-                nextSeqnr = (short) (nextSeqnr + 1);
-                nextWindowData = this.take(nextSeqnr);
+                nextSeqnr = (short) (this.seqnr + 1);
+                nextWindowData = this.get(nextSeqnr);
                 if(nextWindowData == null) {
                     break;
-                } else {
-                    this.seqnr = nextWindowData.getSeqnr();
-                    // 最后接收时间
-                    this.timestamp = nextWindowData.getTimestamp();
-                    output.write(nextWindowData.getData());
                 }
+                // 添加请求队列以后可能已经回收
+                final int length = nextWindowData.getLength();
+                final int nextTimestamp = nextWindowData.getTimestamp();
+                if(length == 0) {
+                    nextWindowData.recycle();
+                } else if(!this.requests.offer(nextWindowData)) {
+                    // 添加请求分片：异步处理请求
+                    LOGGER.warn("处理UTP数据消息失败：{}-{}", seqnr, this.seqnr);
+                    break;
+                }
+                this.seqnr = nextSeqnr;
+                // 最后接收时间
+                this.timestamp = nextTimestamp;
+                this.wndSize = this.wndSize - length;
+                this.size--;
             }
-            final byte[] bytes = output.toByteArray();
-            if(bytes.length == 0) {
-                return;
-            }
-            // 添加请求队列：异步处理请求
-            if(this.requests.offer(UtpRequest.newInstance(ByteBuffer.wrap(bytes), this.messageDecoder))) {
+            if(LOGGER.isDebugEnabled()) {
                 LOGGER.debug("处理UTP数据消息：{}-{}", seqnr, this.seqnr);
-            } else {
-                LOGGER.warn("处理UTP数据消息失败：{}-{}", seqnr, this.seqnr);
             }
         }
     }
     
     /**
-     * @return 最后一个未确认数据包
+     * 丢弃超时数据
+     * 
+     * @param seqnr 请求编号
      */
-    public UtpWindowData lastUnack() {
+    public void discard(short seqnr) {
         synchronized (this) {
-            return this.wndMap.get((short) (this.seqnr + 1));
+            final UtpWindowData windowData = this.take(seqnr);
+            if(windowData != null) {
+                windowData.recycle();
+            }
+            this.notifyAll();
         }
     }
     
     /**
-     * 丢弃超时数据
+     * 获取窗口数据
      * 
      * @param seqnr 请求编号
+     * 
+     * @return {@link UtpWindowData}
      */
-    public void discard(short seqnr) {
-        synchronized (this) {
-            this.take(seqnr);
+    private UtpWindowData get(short seqnr) {
+        final UtpWindowData windowData = this.ring[seqnr & RING_MASK];
+        if(windowData != null && windowData.isAvailable() && windowData.getSeqnr() == seqnr) {
+            return windowData;
+        }
+        return null;
+    }
+    
+    /**
+     * 响应窗口数据
+     * 重传数据不能计算往返时间
+     * 
+     * @param seqnr     请求编号
+     * @param timestamp 当前时间（微秒）
+     * 
+     * @return 数据长度（没有数据：-1）
+     */
+    private int ackWindowData(short seqnr, int timestamp) {
+        final UtpWindowData windowData = this.take(seqnr);
+        if(windowData == null) {
+            return -1;
+        }
+        if(windowData.getPushTimes() <= 1) {
+            this.timeout(timestamp - windowData.getTimestamp());
         }
+        final int length = windowData.getLength();
+        // 删除已经响应数据
+        windowData.recycle();
+        return length;
     }
     
     /**
@@ -337,41 +627,36 @@ public final class UtpWindow {
      * @return {@link UtpWindowData}
      */
     private UtpWindowData take(short seqnr) {
-        final UtpWindowData windowData = this.wndMap.remove(seqnr);
+        final UtpWindowData windowData = this.get(seqnr);
         if(windowData == null) {
             return windowData;
         }
         this.wndSize = this.wndSize - windowData.getLength();
+        this.size--;
         return windowData;
     }
     
     /**
      * 保存窗口数据
+     * 槽位没有窗口数据时新建窗口数据
      * 
      * @param timestamp 时间戳
      * @param seqnr     请求编号
      * @param buffer    请求数据
+     * @param length    数据长度
      * 
      * @return {@link UtpWindowData}
      */
-    private UtpWindowData storage(final int timestamp, final short seqnr, final ByteBuffer buffer) {
-        final byte[] bytes = ByteUtils.remainingToBytes(buffer);
-        return this.storage(timestamp, seqnr, bytes);
-    }
-    
-    /**
-     * 保存窗口数据
-     * 
-     * @param timestamp 时间戳
-     * @param seqnr     请求编号
-     * @param bytes     请求数据
-     * 
-     * @return {@link UtpWindowData}
-     */
-    private UtpWindowData storage(final int timestamp, final short seqnr, byte[] bytes) {
-        final UtpWindowData windowData = UtpWindowData.newInstance(seqnr, timestamp, bytes);
-        this.wndMap.put(seqnr, windowData);
-        this.wndSize = this.wndSize + windowData.getLength();
+    private UtpWindowData storage(final int timestamp, final short seqnr, final ByteBuffer buffer, final int length) {
+        final int index = seqnr & RING_MASK;
+        UtpWindowData windowData = this.ring[index];
+        if(windowData == null) {
+            windowData = this.messageDecoder == null ? UtpWindowData.newInstance() : UtpWindowData.newInstance(this.messageDecoder);
+            this.ring[index] = windowData;
+        }
+        windowData.storage(seqnr, timestamp, buffer, length);
+        this.wndSize = this.wndSize + length;
+        this.size++;
         return windowData;
     }
     
@@ -389,70 +674,91 @@ public final class UtpWindow {
         this.rtt = rtt;
         this.rttVar = rttVar;
         this.timeout = Math.max(rtt + rttVar * 4, MAX_TIMEOUT);
-        LOGGER.debug("UTP超时时间：{}", this.timeout);
+        if(LOGGER.isDebugEnabled()) {
+            LOGGER.debug("UTP超时时间：{}", this.timeout);
+        }
     }
     
     /**
-     * 流量控制和阻塞控制
-     * 超时时间等于默认超时时间：窗口大小 + 1
-     * 超时时间大于默认超时时间：窗口大小 / 2
-     */
-    private void wndControl() {
-        int wnd = this.wnd;
-        if(this.timeout <= MAX_TIMEOUT) {
-            if(wnd < MAX_WND_SIZE) {
-                wnd++;
-                this.release();
+     * 等待发送窗口
+     * 发送中的字节数加上发送数据超过发送窗口或者环形缓冲区槽位没有响应时等待响应，没有发送中的数据可以直接发送。
+     * 等待超时：发送窗口超过限制可以继续发送，环形缓冲区槽位没有响应发送失败。
+     * 
+     * @param length 发送数据长度
+     */
+    private void acquire(final int length) {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WND_TIMEOUT);
+        long remaining;
+        // 如果窗口已经关闭：不需要等待
+        while(!this.close && this.wndSize > 0 && (this.wndSize + length > this.wnd() || (short) (this.seqnr - this.unackSeqnr) >= RING_SIZE)) {
+            remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0) {
+                LOGGER.debug("等待发送窗口超时：{}-{}", this.wnd(), this.wndSize);
+                return;
             }
-        } else {
-            wnd = wnd / 2;
-            if(wnd < MIN_WND_SIZE) {
-                wnd = MIN_WND_SIZE;
+            try {
+                this.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.debug("等待发送窗口异常", e);
+                return;
             }
         }
-        this.wnd = wnd;
-        LOGGER.debug("UTP窗口大小：{}", this.wnd);
     }
     
     /**
-     * 获取信号量
+     * 计算计划发送时间
+     * 允许突发发送{@link #PACING_BURST}字节
+     * 
+     * @param length 发送数据长度
+     * 
+     * @return 计划发送时间（纳秒）：{@link System#nanoTime()}
+     */
+    private long pacing(final int length) {
+        final long nanoTime = System.nanoTime();
+        final long timestamp = nanoTime / SystemConfig.DATE_SCALE;
+        final long burst = this.ledbat.pacing(PACING_BURST, this.rtt);
+        this.pacingTimestamp = Math.max(this.pacingTimestamp, timestamp - burst) + this.ledbat.pacing(length, this.rtt);
+        return nanoTime + TimeUnit.MICROSECONDS.toNanos(this.pacingTimestamp - timestamp);
+    }
+    
+    /**
+     * @return 剩余发送窗口大小
      */
-    private void acquire() {
-        if(this.close) {
-            // 如果窗口已经关闭：不需要获取信号量
-            return;
-        }
-        try {
-            if(!this.semaphore.tryAcquire(SEMAPHORE_TIMEOUT, TimeUnit.SECONDS)) {
-                LOGGER.debug("获取信号量失败：{}-{}", this.wnd, this.wndSize);
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            LOGGER.debug("获取信号量异常", e);
+    public int available() {
+        synchronized (this) {
+            return Math.max(0, this.wnd() - this.wndSize);
         }
     }
     
     /**
-     * 释放信号量
+     * @return 发送窗口大小：拥塞窗口和对端窗口的最小值
      */
-    private void release() {
-        if(this.semaphore == null) {
-            return;
-        }
-        final int available = this.semaphore.availablePermits();
-        if(available < this.wnd) {
-            LOGGER.debug("信号量释放：{}", available);
-            this.semaphore.release();
-        }
+    private int wnd() {
+        final int cwnd = this.ledbat.cwnd();
+        final int remoteWndSize = this.remoteWndSize;
+        return remoteWndSize > 0 ? Math.min(cwnd, remoteWndSize) : cwnd;
     }
     
     /**
      * 关闭窗口
-     * 标记关闭、释放信号量
+     * 标记关闭、唤醒等待发送窗口线程
      */
     public void close() {
-        this.close = true;
-        this.release();
+        synchronized (this) {
+            this.close = true;
+            // 回收窗口数据：接收端已经添加请求队列的数据处理完成回收
+            for (final UtpWindowData windowData : this.ring) {
+                if(
+                    windowData != null &&
+                    windowData.isAvailable() &&
+                    (this.messageDecoder == null || (short) (windowData.getSeqnr() - this.seqnr) > 0)
+                ) {
+                    this.take(windowData.getSeqnr()).recycle();
+                }
+            }
+            this.notifyAll();
+        }
     }
     
     /**
@@ -1,29 +1,41 @@
 package com.acgist.snail.net.torrent.utp;
 
+import java.nio.ByteBuffer;
+
 import com.acgist.snail.config.UtpConfig;
+import com.acgist.snail.net.ByteBufferContext;
+import com.acgist.snail.net.NetException;
+import com.acgist.snail.net.codec.IMessageDecoder;
 import com.acgist.snail.utils.BeanUtils;
 import com.acgist.snail.utils.DateUtils;
 
 /**
  * UTP窗口数据
+ * 窗口数据对象属于窗口环形缓冲区的槽位，请求编号再次映射到相同槽位时复用对象。
+ * 负载数据使用直接内存缓冲池：发送窗口响应以后回收，接收窗口处理完成以后回收。
+ * 接收窗口数据直接作为请求添加到请求队列：处理请求不用新建对象
  * 
  * @author acgist
  */
-public final class UtpWindowData {
+public final class UtpWindowData implements UtpRequest {
 
     /**
      * 请求编号
      */
-    private final short seqnr;
+    private short seqnr;
     /**
      * 负载数据
-     * 握手消息没有负载数据
+     * 握手消息和已经回收：null
      */
-    private final byte[] data;
+    private ByteBuffer buffer;
     /**
      * 数据长度
      */
-    private final int length;
+    private int length;
+    /**
+     * 是否可用：保存数据以后可用，回收以后不可用。
+     */
+    private volatile boolean available;
     /**
      * 时间戳（微秒）
      */
@@ -32,72 +44,157 @@ public final class UtpWindowData {
      * 发送次数
      */
     private volatile byte pushTimes;
-    
     /**
+     * 计划发送时间（纳秒）：{@link System#nanoTime()}
+     * 发送窗口数据：发送节奏控制
+     */
+    private volatile long pacingTimestamp;
+    /**
+     * 窗口消息处理器
+     * 发送窗口数据：null
+     */
+    private final IMessageDecoder<ByteBuffer> messageDecoder;
+
+    /**
+     * @param messageDecoder 窗口消息处理器
+     */
+    private UtpWindowData(final IMessageDecoder<ByteBuffer> messageDecoder) {
+        this.available = false;
+        this.messageDecoder = messageDecoder;
+    }
+
+    /**
+     * 新建发送窗口数据
+     * 
+     * @return {@link UtpWindowData}
+     */
+    public static final UtpWindowData newInstance() {
+        return new UtpWindowData(null);
+    }
+
+    /**
+     * 新建接收窗口数据
+     * 
+     * @param messageDecoder 窗口消息处理器
+     * 
+     * @return {@link UtpWindowData}
+     */
+    public static final UtpWindowData newInstance(final IMessageDecoder<ByteBuffer> messageDecoder) {
+        return new UtpWindowData(messageDecoder);
+    }
+
+    /**
+     * 保存数据
+     * 从数据当前位置复制指定长度数据到负载数据
+     * 
      * @param seqnr     请求编号
      * @param timestamp 时间戳（微秒）
-     * @param data      负载数据
+     * @param data      数据
+     * @param length    数据长度
      */
-    private UtpWindowData(final short seqnr, final int timestamp, final byte[] data) {
+    public synchronized void storage(final short seqnr, final int timestamp, final ByteBuffer data, final int length) {
         this.seqnr = seqnr;
-        if(data == null) {
-            this.data = new byte[0];
-        } else {
-            this.data = data;
-        }
-        this.length = this.data.length;
+        this.length = length;
         this.timestamp = timestamp;
         this.pushTimes = 0;
+        if(length > 0) {
+            this.buffer = ByteBufferContext.getInstance().allocate(length);
+            this.buffer.put(0, data, data.position(), length);
+            data.position(data.position() + length);
+        }
+        this.available = true;
     }
-    
+
     /**
-     * 新建窗口数据
+     * 写入负载数据
+     * 不会修改负载数据位置：多个线程可以同时写入
      * 
-     * @param seqnr     请求编号
-     * @param timestamp 时间戳（微秒）
-     * @param data      负载数据
-     * 
-     * @return {@link UtpWindowData}
+     * @param buffer 消息
      */
-    public static final UtpWindowData newInstance(final short seqnr, final int timestamp, final byte[] data) {
-        return new UtpWindowData(seqnr, timestamp, data);
+    public void write(final ByteBuffer buffer) {
+        if(this.buffer == null) {
+            return;
+        }
+        buffer.put(buffer.position(), this.buffer, 0, this.length);
+        buffer.position(buffer.position() + this.length);
     }
 
     /**
-     * @return 请求编号
+     * 回收数据
+     * 释放负载数据
      */
-    public short getSeqnr() {
-        return this.seqnr;
+    public synchronized void recycle() {
+        if(!this.available) {
+            return;
+        }
+        this.available = false;
+        this.length = 0;
+        ByteBufferContext.getInstance().release(this.buffer);
+        this.buffer = null;
     }
-    
+
     /**
-     * @return 负载数据
+     * 处理接收数据
+     * 处理完成回收数据
      */
-    public byte[] getData() {
-        return this.data;
+    @Override
+    public void execute() throws NetException {
+        try {
+            this.messageDecoder.decode(this.buffer.limit(this.length).position(0));
+        } finally {
+            this.recycle();
+        }
     }
-    
+
+    /**
+     * @return 请求编号
+     */
+    public short getSeqnr() {
+        return this.seqnr;
+    }
+
     /**
      * @return 数据长度
      */
     public int getLength() {
         return this.length;
     }
-    
+
+    /**
+     * @return 是否可用
+     */
+    public boolean isAvailable() {
+        return this.available;
+    }
+
     /**
      * @return 时间戳（微秒）
      */
     public int getTimestamp() {
         return this.timestamp;
     }
-    
+
     /**
      * @return 发送次数
      */
     public byte getPushTimes() {
         return this.pushTimes;
     }
-    
+
+    /**
+     * @return 计划发送时间（纳秒）
+     */
+    public long getPacingTimestamp() {
+        return this.pacingTimestamp;
+    }
+
+    /**
+     * @param pacingTimestamp 计划发送时间（纳秒）
+     */
+    public void setPacingTimestamp(long pacingTimestamp) {
+        this.pacingTimestamp = pacingTimestamp;
+    }
+
     /**
      * 判断是否废弃
      * 
@@ -106,7 +203,7 @@ public final class UtpWindowData {
     public boolean discard() {
         return this.pushTimes > UtpConfig.MAX_PUSH_TIMES;
     }
-    
+
     /**
      * 更新数据并返回时间戳
      * 
@@ -117,7 +214,7 @@ public final class UtpWindowData {
         this.timestamp = DateUtils.timestampUs();
         return this.timestamp;
     }
-    
+
     @Override
     public String toString() {
         return BeanUtils.toString(this, this.seqnr, this.pushTimes);
@@ -50,5 +50,6 @@ open module com.acgist.snail {
     
     requires java.base;
     requires transitive java.xml;
+    requires jdk.unsupported;
 
 }
\ No newline at end of file
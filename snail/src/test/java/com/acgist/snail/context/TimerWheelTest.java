@@ -0,0 +1,62 @@
+package com.acgist.snail.context;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.ThreadUtils;
+
+class TimerWheelTest extends Performance {
+
+    @Test
+    void testScheduled() throws InterruptedException {
+        final TimerWheel timerWheel = TimerWheel.newInstance(10L, 64, "TimerWheel");
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long begin = System.currentTimeMillis();
+        timerWheel.scheduled(1, TimeUnit.SECONDS, Runnable::run, latch::countDown);
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        final long costed = System.currentTimeMillis() - begin;
+        this.log("定时任务执行时间：{}", costed);
+        assertTrue(costed >= 1000L);
+        timerWheel.shutdown();
+    }
+    
+    @Test
+    void testScheduledAtFixedDelay() {
+        final TimerWheel timerWheel = TimerWheel.newInstance(10L, 64, "TimerWheel");
+        final AtomicInteger count = new AtomicInteger(0);
+        final TimerWheel.Timeout timeout = timerWheel.scheduledAtFixedDelay(100, 100, TimeUnit.MILLISECONDS, Runnable::run, count::incrementAndGet);
+        ThreadUtils.sleep(1050);
+        timeout.cancel();
+        final int size = count.get();
+        this.log("定时任务执行次数：{}", size);
+        assertTrue(size >= 8 && size <= 10);
+        ThreadUtils.sleep(300);
+        assertEquals(size, count.get());
+        assertEquals(0, timerWheel.size());
+        timerWheel.shutdown();
+    }
+    
+    @Test
+    void testCosted() {
+        final TimerWheel timerWheel = TimerWheel.newInstance(100L, 512, "TimerWheel");
+        final int size = 100000;
+        final TimerWheel.Timeout[] timeouts = new TimerWheel.Timeout[size];
+        final AtomicInteger index = new AtomicInteger(0);
+        this.costed(size, () -> timeouts[index.get()] = timerWheel.scheduledAtFixedDelay(60 + index.getAndIncrement() % 600, 60, TimeUnit.SECONDS, Runnable::run, () -> {}));
+        ThreadUtils.sleep(500);
+        assertEquals(size, timerWheel.size());
+        index.set(0);
+        this.costed(size, () -> timeouts[index.getAndIncrement()].cancel());
+        ThreadUtils.sleep(500);
+        assertEquals(0, timerWheel.size());
+        timerWheel.shutdown();
+    }
+    
+}
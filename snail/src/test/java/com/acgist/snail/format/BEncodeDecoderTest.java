@@ -1,6 +1,7 @@
 package com.acgist.snail.format;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
@@ -33,6 +34,17 @@ class BEncodeDecoderTest extends Performance {
         assertEquals("xxxx", new String(bytes));
     }
     
+    @Test
+    void testLong() throws PacketSizeException {
+        final var list = BEncodeDecoder.newInstance("li9223372036854775807ei-9223372036854775808ei-0ee".getBytes()).nextList();
+        assertEquals(Long.MAX_VALUE, list.get(0));
+        assertEquals(Long.MIN_VALUE, list.get(1));
+        assertEquals(0L, list.get(2));
+        assertThrows(PacketSizeException.class, () -> BEncodeDecoder.newInstance("li9223372036854775808ee".getBytes()).nextList());
+        assertThrows(PacketSizeException.class, () -> BEncodeDecoder.newInstance("d1:ai-9223372036854775809ee".getBytes()).nextMap());
+        assertThrows(PacketSizeException.class, () -> BEncodeDecoder.newInstance("li99999999999999999999999ee".getBytes()).nextList());
+    }
+    
     @Test
     void testCosted() {
         final long costed = this.costed(100000, () -> {
@@ -0,0 +1,184 @@
+package com.acgist.snail.format;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.format.BEncodeReader.Token;
+import com.acgist.snail.net.PacketSizeException;
+import com.acgist.snail.utils.Performance;
+
+class BEncodeReaderTest extends Performance {
+
+    @Test
+    void testReader() throws PacketSizeException {
+        final BEncodeReader reader = BEncodeReader.newInstance("d1:ali1ei-2ee1:bd1:c1:de1:ti1024e1:y1:re".getBytes());
+        assertEquals(Token.MAP, reader.next());
+        assertTrue(reader.seek("t"));
+        assertEquals(Token.NUMBER, reader.token());
+        assertEquals(1024L, reader.getLong());
+        assertTrue(reader.seek("y"));
+        assertEquals("r", reader.getString());
+        assertFalse(reader.seek("z"));
+        assertEquals(Token.END, reader.token());
+        assertEquals(Token.NONE, reader.next());
+        final BEncodeReader list = BEncodeReader.newInstance("li1ei-2e3:abce".getBytes());
+        assertEquals(Token.LIST, list.next());
+        assertEquals(1L, this.nextLong(list));
+        assertEquals(-2L, this.nextLong(list));
+        assertEquals(Token.BYTES, list.next());
+        assertEquals(ByteBuffer.wrap("abc".getBytes()), list.getBuffer());
+        assertEquals(Token.END, list.next());
+    }
+
+    @Test
+    void testLong() throws PacketSizeException {
+        final BEncodeReader reader = BEncodeReader.newInstance("li9223372036854775807ei-9223372036854775808ee".getBytes());
+        assertEquals(Token.LIST, reader.next());
+        assertEquals(Long.MAX_VALUE, this.nextLong(reader));
+        assertEquals(Long.MIN_VALUE, this.nextLong(reader));
+        final BEncodeReader overflow = BEncodeReader.newInstance("i9223372036854775808e".getBytes());
+        assertThrows(PacketSizeException.class, overflow::next);
+    }
+
+    @Test
+    void testEncoder() throws PacketSizeException {
+        final Map<String, Object> map = this.dht();
+        final byte[] bytes = BEncodeEncoder.encodeMap(map);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(2048);
+        final int length = BEncodeEncoder.encodeMap(map, buffer);
+        assertEquals(bytes.length, length);
+        assertEquals(ByteBuffer.wrap(bytes), buffer.flip());
+        final BEncodeDecoder decoder = BEncodeDecoder.newInstance(buffer);
+        final Map<String, Object> decode = decoder.nextMap();
+        assertArrayEquals((byte[]) map.get("t"), (byte[]) decode.get("t"));
+        assertEquals(map.get("v"), decode.get("v"));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void testCosted() throws PacketSizeException {
+        final int count = 100000;
+        final Map<String, byte[]> samples = new LinkedHashMap<>();
+        samples.put("DHT", BEncodeEncoder.encodeMap(this.dht()));
+        samples.put("Tracker", BEncodeEncoder.encodeMap(this.tracker()));
+        samples.put("Torrent", BEncodeEncoder.encodeMap(this.torrent()));
+        for (Map.Entry<String, byte[]> entry : samples.entrySet()) {
+            final byte[] bytes = entry.getValue();
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+            // 预热
+            this.decode(bytes);
+            this.read(buffer);
+            this.cost();
+            for (int index = 0; index < count; index++) {
+                this.decode(bytes);
+            }
+            final long decoderCosted = this.costed();
+            this.cost();
+            for (int index = 0; index < count; index++) {
+                this.read(buffer);
+            }
+            final long readerCosted = this.costed();
+            this.log("{}：{}字节，解码器：{}，读取器：{}", entry.getKey(), bytes.length, decoderCosted, readerCosted);
+            assertEquals(this.decode(bytes), this.read(ByteBuffer.wrap(bytes)));
+        }
+        final Map<String, Object> dht = this.dht();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(2048);
+        final long bytesCosted = this.costed(count, () -> BEncodeEncoder.encodeMap(dht));
+        final long bufferCosted = this.costed(count, () -> BEncodeEncoder.encodeMap(dht, buffer.clear()));
+        this.log("DHT编码：字节数组：{}，直接内存：{}", bytesCosted, bufferCosted);
+    }
+
+    /**
+     * 读取数值
+     */
+    private long nextLong(BEncodeReader reader) throws PacketSizeException {
+        assertEquals(Token.NUMBER, reader.next());
+        return reader.getLong();
+    }
+
+    /**
+     * 解码器读取消息长度
+     */
+    private long decode(byte[] bytes) throws PacketSizeException {
+        final BEncodeDecoder decoder = BEncodeDecoder.newInstance(bytes);
+        final Map<String, Object> map = decoder.nextMap();
+        final Object value = map.get("t");
+        return value instanceof Long number ? number : ((byte[]) value).length;
+    }
+
+    /**
+     * 读取器读取消息长度
+     */
+    private long read(ByteBuffer buffer) throws PacketSizeException {
+        final BEncodeReader reader = BEncodeReader.newInstance(buffer);
+        reader.next();
+        if(!reader.seek("t")) {
+            return -1L;
+        }
+        return reader.token() == Token.NUMBER ? reader.getLong() : reader.getLength();
+    }
+
+    /**
+     * DHT响应（find_node）
+     */
+    private Map<String, Object> dht() {
+        final Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", new byte[20]);
+        response.put("nodes", new byte[26 * 8]);
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("t", new byte[] { 1, 2 });
+        map.put("y", "r");
+        map.put("r", response);
+        map.put("v", 1024L);
+        return map;
+    }
+
+    /**
+     * Tracker响应
+     */
+    private Map<String, Object> tracker() {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("complete", 100L);
+        map.put("incomplete", 20L);
+        map.put("interval", 1800L);
+        map.put("peers", new byte[6 * 50]);
+        map.put("t", 1800L);
+        return map;
+    }
+
+    /**
+     * 种子文件
+     */
+    private Map<String, Object> torrent() {
+        final List<Object> files = new ArrayList<>();
+        for (int index = 0; index < 100; index++) {
+            final Map<String, Object> file = new LinkedHashMap<>();
+            file.put("length", 1024L * 1024 * index);
+            file.put("path", List.of("acgist", "file-" + index + ".mkv"));
+            files.add(file);
+        }
+        final Map<String, Object> info = new LinkedHashMap<>();
+        info.put("files", files);
+        info.put("name", "acgist");
+        info.put("piece length", 16384L);
+        info.put("pieces", new byte[20 * 1000]);
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("announce", "http://tracker.acgist.com/announce");
+        map.put("creation date", 1600000000L);
+        map.put("info", info);
+        map.put("t", 1L);
+        return map;
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.acgist.snail.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.utils.Performance;
+
+class ByteBufferContextTest extends Performance {
+
+    @Test
+    void testAllocate() {
+        final ByteBufferContext context = ByteBufferContext.getInstance();
+        final long outstanding = context.outstanding();
+        final ByteBuffer buffer = context.allocate(SystemConfig.TCP_BUFFER_LENGTH);
+        assertTrue(buffer.isDirect());
+        assertEquals(SystemConfig.TCP_BUFFER_LENGTH, buffer.capacity());
+        assertEquals(outstanding + 1, context.outstanding());
+        buffer.putInt(1);
+        context.release(buffer);
+        assertEquals(outstanding, context.outstanding());
+        final long hit = context.hit();
+        final ByteBuffer reuse = context.allocate(SystemConfig.TCP_BUFFER_LENGTH);
+        assertSame(buffer, reuse);
+        assertEquals(0, reuse.position());
+        assertEquals(hit + 1, context.hit());
+        context.release(reuse);
+        assertEquals(4 * SystemConfig.ONE_KB, context.allocate(3 * SystemConfig.ONE_KB).capacity());
+        assertEquals(SystemConfig.UDP_BUFFER_LENGTH, context.allocate(1).capacity());
+        assertEquals(SystemConfig.ONE_MB, context.allocate(SystemConfig.ONE_MB).capacity());
+    }
+    
+    @Test
+    void testRelease() {
+        final ByteBufferContext context = ByteBufferContext.getInstance();
+        final long outstanding = context.outstanding();
+        // 超过最大分级
+        final ByteBuffer large = context.allocate(SystemConfig.ONE_MB);
+        assertEquals(outstanding, context.outstanding());
+        context.release(large);
+        assertEquals(outstanding, context.outstanding());
+        // 不是缓冲池申请的直接内存
+        context.release(ByteBuffer.allocate(SystemConfig.TCP_BUFFER_LENGTH));
+        context.release(ByteBuffer.allocateDirect(3 * SystemConfig.ONE_KB));
+        context.release(ByteBuffer.allocateDirect(SystemConfig.TCP_BUFFER_LENGTH).asReadOnlyBuffer());
+        assertEquals(outstanding, context.outstanding());
+        final ByteBuffer buffer = context.allocate(SystemConfig.TCP_BUFFER_LENGTH);
+        assertEquals(outstanding + 1, context.outstanding());
+        context.release(buffer);
+        assertEquals(outstanding, context.outstanding());
+        assertTrue(context.outstanding() >= 0);
+    }
+    
+    @Test
+    void testCosted() {
+        final ByteBufferContext context = ByteBufferContext.getInstance();
+        this.costed(100000, () -> context.release(context.allocate(SystemConfig.TCP_BUFFER_LENGTH)));
+        this.costed(100000, () -> ByteBuffer.allocateDirect(SystemConfig.TCP_BUFFER_LENGTH));
+    }
+    
+}
@@ -0,0 +1,147 @@
+package com.acgist.snail.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.ThreadUtils;
+
+class TcpMessageHandlerTest extends Performance {
+
+    /**
+     * 大消息标记
+     */
+    private static final int LARGE_FLAG = 0x40000000;
+    /**
+     * 大消息长度
+     */
+    private static final int LARGE_LENGTH = 1000;
+
+    @Test
+    void testSend() throws Exception {
+        final int threadSize = 8;
+        final int count = 5000;
+        long length = 0L;
+        for (int index = 0; index < count; index++) {
+            length += index % 100 == 0 ? 8 + LARGE_LENGTH : 8;
+        }
+        final long total = length * threadSize;
+        try(
+            final AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+            final AsynchronousSocketChannel client = AsynchronousSocketChannel.open();
+        ) {
+            final var accept = server.accept();
+            client.connect(server.getLocalAddress()).get();
+            final AsynchronousSocketChannel remote = accept.get();
+            final TcpMessageHandler handler = new TcpMessageHandler() {
+                @Override
+                public boolean useless() {
+                    return false;
+                }
+            };
+            handler.handle(client);
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final Thread reader = new Thread(() -> {
+                try {
+                    long size = 0L;
+                    final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                    while(size < total) {
+                        buffer.clear();
+                        final int read = remote.read(buffer).get();
+                        if(read < 0) {
+                            break;
+                        }
+                        size += read;
+                        output.write(buffer.array(), 0, read);
+                    }
+                } catch (Exception e) {
+                    this.log("读取异常", e);
+                }
+            });
+            reader.start();
+            final CountDownLatch latch = new CountDownLatch(threadSize);
+            this.cost();
+            for (int thread = 0; thread < threadSize; thread++) {
+                final int id = thread;
+                new Thread(() -> {
+                    try {
+                        for (int index = 0; index < count; index++) {
+                            if(index % 100 == 0) {
+                                // 消息头和消息体连续发送
+                                final ByteBuffer header = ByteBuffer.allocate(8);
+                                header.putInt(id).putInt(index | LARGE_FLAG).flip();
+                                handler.send(new ByteBuffer[] { header, ByteBuffer.allocate(LARGE_LENGTH) }, 0);
+                            } else {
+                                final ByteBuffer message = ByteBuffer.allocate(8);
+                                message.putInt(id).putInt(index);
+                                handler.send(message);
+                            }
+                        }
+                    } catch (NetException e) {
+                        this.log("发送异常", e);
+                    } finally {
+                        latch.countDown();
+                    }
+                }).start();
+            }
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+            reader.join(30000);
+            this.costed();
+            assertEquals(total, output.size());
+            assertEquals(0L, handler.queueLength());
+            // 每个线程消息顺序发送
+            final int[] indexes = new int[threadSize];
+            final ByteBuffer data = ByteBuffer.wrap(output.toByteArray());
+            while(data.hasRemaining()) {
+                final int id = data.getInt();
+                int index = data.getInt();
+                if((index & LARGE_FLAG) != 0) {
+                    index &= ~LARGE_FLAG;
+                    data.position(data.position() + LARGE_LENGTH);
+                }
+                assertEquals(indexes[id]++, index);
+            }
+            handler.close();
+            ThreadUtils.sleep(200);
+            assertFalse(client.isOpen());
+        }
+    }
+
+    @Test
+    void testTimeout() throws Exception {
+        try(
+            final AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+            final AsynchronousSocketChannel client = AsynchronousSocketChannel.open();
+        ) {
+            final var accept = server.accept();
+            client.connect(server.getLocalAddress()).get();
+            final AsynchronousSocketChannel remote = accept.get();
+            final TcpMessageHandler handler = new TcpMessageHandler() {
+                @Override
+                public boolean useless() {
+                    return false;
+                }
+            };
+            handler.handle(client);
+            // 超时时间：等待发送完成
+            handler.send(ByteBuffer.wrap("acgist".getBytes()), 5);
+            assertEquals(0L, handler.queueLength());
+            final ByteBuffer buffer = ByteBuffer.allocate(16);
+            remote.read(buffer).get();
+            assertEquals("acgist", new String(buffer.array(), 0, buffer.position()));
+            handler.close();
+        }
+    }
+
+}
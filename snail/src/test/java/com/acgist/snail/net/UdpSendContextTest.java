@@ -0,0 +1,132 @@
+package com.acgist.snail.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.utils.Performance;
+
+class UdpSendContextTest extends Performance {
+
+    /**
+     * 发送速率（KB/s）
+     */
+    private static final int RATE = 1024;
+    /**
+     * 发送中的消息数量
+     */
+    private static final int WINDOW = 64;
+
+    @Test
+    void testSend() throws IOException, InterruptedException {
+        this.send(0);
+    }
+
+    @Test
+    void testPacing() throws IOException, InterruptedException {
+        final int size = 1000;
+        final long costed = this.send(RATE);
+        // 超出令牌桶容量的数据按照发送速率发送
+        final long expected = (size * (long) SystemConfig.ONE_KB - 16L * SystemConfig.UDP_BUFFER_LENGTH) * 1000 / (RATE * SystemConfig.ONE_KB);
+        assertTrue(costed >= expected * 9 / 10);
+    }
+
+    /**
+     * 发送消息：每个测试使用独立发送上下文
+     * 
+     * @param rate 发送速率（KB/s）
+     * 
+     * @return 发送时间（毫秒）
+     */
+    private long send(int rate) throws IOException, InterruptedException {
+        final int size = 1000;
+        final int length = SystemConfig.ONE_KB;
+        final UdpSendContext context = new UdpSendContext(rate);
+        try (
+            final DatagramChannel receiver = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+            final DatagramChannel sender = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        ) {
+            sender.configureBlocking(false);
+            final boolean[] disorder = new boolean[1];
+            final AtomicInteger received = new AtomicInteger();
+            final CountDownLatch latch = new CountDownLatch(size);
+            final Thread thread = new Thread(() -> {
+                final ByteBuffer buffer = ByteBuffer.allocate(length);
+                try {
+                    for (int index = 0; index < size; index++) {
+                        buffer.clear();
+                        receiver.receive(buffer);
+                        if(buffer.flip().getInt() != index) {
+                            disorder[0] = true;
+                        }
+                        received.incrementAndGet();
+                        latch.countDown();
+                    }
+                } catch (IOException e) {
+                    this.log("接收消息异常：{}", e);
+                }
+            });
+            thread.start();
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            final long start = System.currentTimeMillis();
+            for (int index = 0; index < size; index++) {
+                // 限制发送中的消息数量：防止接收缓冲区溢出丢包
+                while(index - received.get() >= WINDOW) {
+                    Thread.yield();
+                }
+                buffer.clear().putInt(index).position(length).flip();
+                assertTrue(context.send(sender, buffer, receiver.getLocalAddress()));
+                // 调用方可以直接复用消息
+                assertFalse(buffer.hasRemaining());
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            final long costed = System.currentTimeMillis() - start;
+            this.log("发送消息：{}-{}-{}", size, costed, context);
+            assertEquals(size, received.get());
+            assertFalse(disorder[0]);
+            assertEquals(0, context.drop());
+            assertEquals(0, context.size());
+            return costed;
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    @Test
+    void testDrop() throws IOException {
+        final int size = 2048;
+        // 限速：单个地址队列可以排满
+        final UdpSendContext context = new UdpSendContext(1);
+        try (
+            final DatagramChannel sender = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        ) {
+            sender.configureBlocking(false);
+            final InetSocketAddress target = new InetSocketAddress("127.0.0.1", 9);
+            final ByteBuffer buffer = ByteBuffer.allocate(SystemConfig.ONE_KB);
+            int success = 0;
+            for (int index = 0; index < size; index++) {
+                if(context.send(sender, buffer.clear(), target)) {
+                    success++;
+                }
+            }
+            this.log("发送消息：{}-{}", success, context);
+            // 单个地址队列已满
+            assertTrue(context.drop() > 0);
+            assertEquals(size, success + context.drop());
+        } finally {
+            context.shutdown();
+        }
+    }
+
+}
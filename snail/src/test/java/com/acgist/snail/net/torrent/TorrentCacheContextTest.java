@@ -0,0 +1,213 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.context.ITaskSessionStatus.Status;
+import com.acgist.snail.context.entity.TaskEntity;
+import com.acgist.snail.context.session.TaskSession;
+import com.acgist.snail.context.wrapper.DescriptionWrapper;
+import com.acgist.snail.format.BEncodeEncoder;
+import com.acgist.snail.logger.LoggerConfig;
+import com.acgist.snail.net.DownloadException;
+import com.acgist.snail.net.NetException;
+import com.acgist.snail.protocol.Protocol.Type;
+import com.acgist.snail.utils.Performance;
+
+class TorrentCacheContextTest extends Performance {
+
+    /**
+     * Piece大小
+     */
+    private static final int PIECE_LENGTH = TorrentPiece.SLICE_LENGTH;
+    /**
+     * Piece数量
+     */
+    private static final int PIECE_SIZE = 4;
+    /**
+     * 文件名称
+     */
+    private static final String FILE_NAME = "acgist.bin";
+
+    @Test
+    void testHit() throws DownloadException, NetException, IOException {
+        LoggerConfig.off();
+        final TorrentCacheContext context = TorrentCacheContext.getInstance();
+        final long cacheSize = context.cacheSize();
+        final Path folder = Files.createTempDirectory("snail-cache");
+        final TorrentStreamGroup group = this.newGroup(folder, "hit");
+        final byte[] data = this.write(group, 0);
+        assertEquals(PIECE_LENGTH, group.cacheSize());
+        assertEquals(cacheSize + PIECE_LENGTH, context.cacheSize());
+        // 命中缓存：文件没有写入数据
+        assertArrayEquals(data, this.read(group, 0));
+        assertArrayEquals(new byte[PIECE_LENGTH], this.readFile(folder, 0));
+        // 没有下载：没有命中缓存
+        assertArrayEquals(new byte[PIECE_LENGTH], this.read(group, 1));
+        group.flush();
+        assertEquals(0, group.cacheSize());
+        assertEquals(cacheSize, context.cacheSize());
+        // 刷出缓存：读取文件数据
+        assertArrayEquals(data, this.readFile(folder, 0));
+        assertArrayEquals(data, this.read(group, 0));
+        group.release();
+    }
+
+    @Test
+    void testEviction() throws DownloadException, NetException, IOException {
+        LoggerConfig.off();
+        final TorrentCacheContext context = TorrentCacheContext.getInstance();
+        final long cacheSize = context.cacheSize();
+        final Path largeFolder = Files.createTempDirectory("snail-cache");
+        final Path smallFolder = Files.createTempDirectory("snail-cache");
+        final TorrentStreamGroup large = this.newGroup(largeFolder, "large");
+        final TorrentStreamGroup small = this.newGroup(smallFolder, "small");
+        final byte[] data = this.write(large, 0);
+        this.write(large, 1);
+        this.write(large, 2);
+        this.write(small, 0);
+        assertEquals(3 * PIECE_LENGTH, large.cacheSize());
+        assertEquals(PIECE_LENGTH, small.cacheSize());
+        // 模拟其他任务占满缓存：刚好没有超过限制
+        final long fill = context.limitSize() - context.cacheSize();
+        context.cache(fill);
+        try {
+            assertFalse(context.overflow());
+            this.write(small, 1);
+            // 超过限制：刷出缓存最大的文件流组
+            assertFalse(context.overflow());
+            assertEquals(0, large.cacheSize());
+            assertEquals(2 * PIECE_LENGTH, small.cacheSize());
+            assertArrayEquals(data, this.readFile(largeFolder, 0));
+        } finally {
+            context.cache(-fill);
+        }
+        small.flush();
+        assertEquals(cacheSize, context.cacheSize());
+        large.release();
+        small.release();
+    }
+
+    @Test
+    void testRelease() throws DownloadException, NetException, IOException {
+        LoggerConfig.off();
+        final TorrentCacheContext context = TorrentCacheContext.getInstance();
+        final long cacheSize = context.cacheSize();
+        final Path folder = Files.createTempDirectory("snail-cache");
+        final TorrentStreamGroup group = this.newGroup(folder, "release");
+        final byte[] data = this.write(group, 2);
+        assertEquals(cacheSize + PIECE_LENGTH, context.cacheSize());
+        // 释放资源刷出缓存
+        group.release();
+        assertEquals(0, group.cacheSize());
+        assertEquals(cacheSize, context.cacheSize());
+        assertArrayEquals(data, this.readFile(folder, 2));
+        // 已经删除：缓存超过限制不会刷出
+        context.cache(context.limitSize() + 1);
+        try {
+            assertTrue(context.overflow());
+            context.flush();
+            assertTrue(context.overflow());
+        } finally {
+            context.cache(-(context.limitSize() + 1));
+        }
+    }
+
+    /**
+     * 新建文件流组
+     * 
+     * @param folder 下载目录
+     * @param name   种子名称
+     * 
+     * @return 文件流组
+     */
+    private TorrentStreamGroup newGroup(Path folder, String name) throws DownloadException, IOException {
+        final Map<String, Object> file = new LinkedHashMap<>();
+        file.put(TorrentFile.ATTR_LENGTH, (long) PIECE_LENGTH * PIECE_SIZE);
+        file.put(TorrentFile.ATTR_PATH, List.of(FILE_NAME));
+        final Map<String, Object> info = new LinkedHashMap<>();
+        info.put(TorrentInfo.ATTR_NAME, name);
+        info.put(TorrentInfo.ATTR_PIECE_LENGTH, (long) PIECE_LENGTH);
+        info.put(TorrentInfo.ATTR_PIECES, new byte[20 * PIECE_SIZE]);
+        info.put(TorrentInfo.ATTR_FILES, List.of(file));
+        final Path torrent = folder.resolve(name + ".torrent");
+        Files.write(torrent, BEncodeEncoder.encodeMap(Map.of(Torrent.ATTR_INFO, info)));
+        final TorrentSession session = TorrentContext.getInstance().newTorrentSession(torrent.toString());
+        final TaskEntity entity = new TaskEntity();
+        entity.setFile(folder.toString());
+        entity.setType(Type.TORRENT);
+        entity.setName(name);
+        entity.setStatus(Status.AWAIT);
+        entity.setDescription(DescriptionWrapper.newEncoder(List.of(FILE_NAME)).serialize());
+        session.upload(TaskSession.newInstance(entity));
+        return session.torrentStreamGroup();
+    }
+
+    /**
+     * 保存Piece
+     * 
+     * @param group 文件流组
+     * @param index Piece索引
+     * 
+     * @return Piece数据
+     */
+    private byte[] write(TorrentStreamGroup group, int index) {
+        final byte[] data = new byte[PIECE_LENGTH];
+        Arrays.fill(data, (byte) (index + 1));
+        final TorrentPiece piece = TorrentPiece.newInstance(PIECE_LENGTH, index, 0, PIECE_LENGTH, null, false);
+        piece.write(0, data);
+        assertTrue(group.write(piece));
+        // 释放下载引用：缓存保留引用
+        piece.release();
+        return data;
+    }
+
+    /**
+     * 读取Piece
+     * 
+     * @param group 文件流组
+     * @param index Piece索引
+     * 
+     * @return Piece数据
+     */
+    private byte[] read(TorrentStreamGroup group, int index) throws NetException {
+        final ByteBuffer buffer = group.read(index, 0, PIECE_LENGTH);
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 读取文件数据
+     * 
+     * @param folder 下载目录
+     * @param index  Piece索引
+     * 
+     * @return 文件数据
+     */
+    private byte[] readFile(Path folder, int index) throws IOException {
+        final byte[] bytes = new byte[PIECE_LENGTH];
+        try (final RandomAccessFile file = new RandomAccessFile(folder.resolve(FILE_NAME).toFile(), "r")) {
+            if(file.length() > (long) index * PIECE_LENGTH) {
+                file.seek((long) index * PIECE_LENGTH);
+                file.read(bytes);
+            }
+        }
+        return bytes;
+    }
+
+}
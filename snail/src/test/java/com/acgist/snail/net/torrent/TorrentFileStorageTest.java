@@ -0,0 +1,90 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.DownloadConfig;
+import com.acgist.snail.net.DownloadException;
+import com.acgist.snail.utils.Performance;
+
+class TorrentFileStorageTest extends Performance {
+
+    @Test
+    void testReadWrite() throws DownloadException, IOException {
+        final Path path = Files.createTempFile("snail", ".storage");
+        final TorrentFileStorage storage = TorrentFileStorage.newInstance(path.toString());
+        try {
+            final byte[] bytes = new byte[] {1, 2, 3, 4};
+            storage.write(ByteBuffer.wrap(bytes), 1024);
+            assertEquals(1028, storage.size());
+            final ByteBuffer buffer = ByteBuffer.allocate(4);
+            assertEquals(4, storage.read(buffer, 1024));
+            assertArrayEquals(bytes, buffer.array());
+            final ByteBuffer tail = ByteBuffer.allocate(8);
+            assertEquals(2, storage.read(tail, 1026));
+        } finally {
+            storage.close();
+            Files.deleteIfExists(path);
+        }
+    }
+    
+    @Test
+    void testAllocate() throws DownloadException, IOException {
+        final Path path = Files.createTempFile("snail", ".storage");
+        final TorrentFileStorage storage = TorrentFileStorage.newInstance(path.toString());
+        try {
+            storage.allocate(1024, DownloadConfig.AllocateMode.LAZY);
+            assertEquals(0, storage.size());
+            storage.allocate(1024, DownloadConfig.AllocateMode.SPARSE);
+            assertEquals(1024, storage.size());
+            final byte[] bytes = new byte[] {1, 2, 3, 4};
+            storage.write(ByteBuffer.wrap(bytes), 0);
+            storage.allocate(3 * 1024 * 1024 + 1, DownloadConfig.AllocateMode.PREALLOCATE);
+            assertEquals(3 * 1024 * 1024 + 1, storage.size());
+            final ByteBuffer buffer = ByteBuffer.allocate(4);
+            storage.read(buffer, 0);
+            assertArrayEquals(bytes, buffer.array());
+        } finally {
+            storage.close();
+            Files.deleteIfExists(path);
+        }
+    }
+    
+    @Test
+    void testMapped() throws DownloadException, IOException {
+        final Path path = Files.createTempFile("snail", ".storage");
+        final TorrentFileStorage storage = TorrentFileStorage.newInstance(path.toString());
+        try {
+            final byte[] bytes = new byte[] {1, 2, 3, 4};
+            storage.write(ByteBuffer.wrap(bytes), 0);
+            assertNull(TorrentMappedStorage.newInstance(8, storage));
+            final TorrentMappedStorage mappedStorage = TorrentMappedStorage.newInstance(4, storage);
+            assertNotNull(mappedStorage);
+            final ByteBuffer slice = ByteBuffer.allocate(2);
+            assertEquals(2, mappedStorage.read(slice, 1));
+            assertArrayEquals(new byte[] {2, 3}, slice.array());
+            final ByteBuffer buffer = ByteBuffer.allocate(4);
+            assertEquals(4, mappedStorage.read(buffer, 0));
+            assertArrayEquals(bytes, buffer.array());
+            mappedStorage.close();
+            mappedStorage.close();
+            // 释放映射以后使用文件通道读取
+            final ByteBuffer closeBuffer = ByteBuffer.allocate(4);
+            assertEquals(4, mappedStorage.read(closeBuffer, 0));
+            assertArrayEquals(bytes, closeBuffer.array());
+        } finally {
+            storage.close();
+            Files.deleteIfExists(path);
+        }
+    }
+
+}
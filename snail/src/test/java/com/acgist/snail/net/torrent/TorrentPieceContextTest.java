@@ -0,0 +1,44 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.utils.Performance;
+
+class TorrentPieceContextTest extends Performance {
+
+    @Test
+    void testBorrow() {
+        final TorrentPieceContext context = TorrentPieceContext.getInstance();
+        final long usedSize = context.usedSize();
+        final byte[] bytes = context.borrow(SystemConfig.ONE_MB - 1);
+        assertEquals(SystemConfig.ONE_MB, bytes.length);
+        assertEquals(usedSize + SystemConfig.ONE_MB, context.usedSize());
+        context.release(bytes);
+        assertEquals(usedSize, context.usedSize());
+        assertSame(bytes, context.borrow(SystemConfig.ONE_MB));
+        context.release(bytes);
+        assertNull(context.borrow((int) Math.min(Integer.MAX_VALUE, context.limitSize() + 1)));
+    }
+    
+    @Test
+    void testRelease() {
+        final TorrentPiece piece = TorrentPiece.newInstance(1024, 0, 0, 1024, null, false);
+        assertNotNull(piece);
+        assertTrue(piece.retain());
+        piece.release();
+        assertTrue(piece.write(0, new byte[1024]));
+        piece.release();
+        assertFalse(piece.retain());
+        assertFalse(piece.write(0, new byte[1024]));
+        assertNull(piece.read(0, 1024));
+    }
+    
+}
@@ -0,0 +1,103 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+
+class TorrentPiecePickerTest extends Performance {
+
+    @Test
+    void testAtomicBitSet() {
+        final AtomicBitSet bitSet = AtomicBitSet.newInstance(100, 300);
+        assertFalse(bitSet.get(99));
+        assertFalse(bitSet.set(99));
+        assertTrue(bitSet.set(100));
+        assertFalse(bitSet.set(100));
+        assertTrue(bitSet.set(300));
+        assertTrue(bitSet.get(300));
+        bitSet.clear(300);
+        assertFalse(bitSet.get(300));
+        bitSet.clear();
+        assertFalse(bitSet.get(100));
+    }
+    
+    @Test
+    void testPick() {
+        final TorrentPiecePicker picker = TorrentPiecePicker.newInstance(100);
+        final BitSet peerPieces = new BitSet();
+        peerPieces.set(0, 100);
+        picker.available(peerPieces);
+        final BitSet rarePieces = new BitSet();
+        rarePieces.set(10, 90);
+        picker.available(rarePieces);
+        picker.available(rarePieces);
+        final AtomicBitSet claimPieces = AtomicBitSet.newInstance(0, 99);
+        final AtomicBitSet pausePieces = AtomicBitSet.newInstance(0, 99);
+        // 顺序选择
+        assertEquals(20, picker.pick(peerPieces, 20, 99, claimPieces, pausePieces, true));
+        // 最少优先
+        final Set<Integer> indexSet = new HashSet<>();
+        int index;
+        while((index = picker.pick(peerPieces, 0, 99, claimPieces, pausePieces, false)) >= 0) {
+            if(indexSet.size() < 20) {
+                assertTrue(index < 10 || index >= 90);
+            }
+            indexSet.add(index);
+        }
+        assertEquals(99, indexSet.size());
+        assertEquals(-1, picker.pick(peerPieces, 0, 99, claimPieces, null, false));
+        claimPieces.clear(50);
+        pausePieces.set(50);
+        assertEquals(-1, picker.pick(peerPieces, 0, 99, claimPieces, pausePieces, false));
+        assertEquals(50, picker.pick(peerPieces, 0, 99, claimPieces, null, false));
+        picker.unavailable(rarePieces);
+        picker.unavailable(rarePieces);
+        picker.unavailable(rarePieces);
+        picker.unavailable(rarePieces);
+        assertEquals(0, picker.availability(50));
+        assertEquals(1, picker.availability(5));
+    }
+    
+    @Test
+    void testCosted() {
+        final int size = 4096;
+        final BitSet peerPieces = new BitSet();
+        peerPieces.set(0, size);
+        final TorrentPiecePicker picker = TorrentPiecePicker.newInstance(size);
+        picker.available(peerPieces);
+        final BitSet pieces = new BitSet();
+        final BitSet pausePieces = new BitSet();
+        final BitSet downloadPieces = new BitSet();
+        final Object lock = new Object();
+        // 原有选择器：加锁、新建位图
+        this.costed(size, 8, () -> {
+            synchronized (lock) {
+                final BitSet pickPieces = new BitSet();
+                pickPieces.or(peerPieces);
+                pickPieces.andNot(pieces);
+                pickPieces.andNot(pausePieces);
+                pickPieces.andNot(downloadPieces);
+                final int index = pickPieces.nextSetBit(0);
+                if(index >= 0) {
+                    downloadPieces.set(index);
+                }
+                pausePieces.clear();
+            }
+        });
+        final AtomicBitSet claimPieces = AtomicBitSet.newInstance(0, size - 1);
+        final AtomicBitSet atomicPausePieces = AtomicBitSet.newInstance(0, size - 1);
+        this.costed(size, 8, () -> {
+            picker.pick(peerPieces, 0, size - 1, claimPieces, atomicPausePieces, false);
+            atomicPausePieces.clear();
+        });
+    }
+    
+}
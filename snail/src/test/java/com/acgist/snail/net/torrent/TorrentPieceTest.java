@@ -7,6 +7,9 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import org.junit.jupiter.api.Test;
 
 import com.acgist.snail.utils.DigestUtils;
@@ -33,6 +36,59 @@ class TorrentPieceTest extends Performance {
         assertTrue(piece.verify());
     }
     
+    @Test
+    void testDigest() {
+        final int length = 3 * 16 * 1024 - 2;
+        final byte[] verify = new byte[length];
+        verify[1] = 100;
+        verify[length - 1] = 100;
+        final byte[] hash = DigestUtils.sha1().digest(verify);
+        // 乱序写入
+        final TorrentPiece piece = TorrentPiece.newInstance(3 * 16 * 1024, 10, 0, length, hash, true);
+        piece.write(2 * 16 * 1024, Arrays.copyOfRange(verify, 2 * 16 * 1024, length));
+        piece.write(16 * 1024, Arrays.copyOfRange(verify, 16 * 1024, 2 * 16 * 1024));
+        piece.write(0, Arrays.copyOfRange(verify, 0, 16 * 1024));
+        assertTrue(piece.completed());
+        assertTrue(piece.verify());
+        assertTrue(piece.verify());
+        // 没有对齐
+        final TorrentPiece unalignedPiece = TorrentPiece.newInstance(3 * 16 * 1024, 10, 0, length, hash, true);
+        unalignedPiece.write(0, Arrays.copyOfRange(verify, 0, 1024));
+        unalignedPiece.write(1024, Arrays.copyOfRange(verify, 1024, length));
+        assertTrue(unalignedPiece.completed());
+        assertTrue(unalignedPiece.verify());
+        // 错误数据
+        final TorrentPiece errorPiece = TorrentPiece.newInstance(3 * 16 * 1024, 10, 0, length, hash, true);
+        errorPiece.write(0, new byte[16 * 1024]);
+        errorPiece.write(16 * 1024, new byte[16 * 1024]);
+        errorPiece.write(2 * 16 * 1024, new byte[16 * 1024 - 2]);
+        assertTrue(errorPiece.completed());
+        assertFalse(errorPiece.verify());
+    }
+    
+    @Test
+    void testBounds() {
+        final int pieceLength = 2 * 16 * 1024;
+        final byte[] verify = new byte[pieceLength];
+        final TorrentPiece piece = TorrentPiece.newInstance(pieceLength, 10, 0, pieceLength, DigestUtils.sha1().digest(verify), true);
+        // 超长数据
+        final ByteBuffer oversized = ByteBuffer.allocate(16 * 1024 + 1);
+        assertFalse(piece.write(16 * 1024, oversized));
+        assertEquals(16 * 1024 + 1, oversized.remaining());
+        // 超出开始偏移
+        assertFalse(piece.write(-1, new byte[16 * 1024]));
+        // 超出结束偏移
+        assertFalse(piece.write(pieceLength, new byte[1]));
+        assertFalse(piece.completed());
+        // 缺少数据
+        assertFalse(piece.write(0, new byte[16 * 1024 - 1]));
+        assertFalse(piece.completed());
+        piece.write(16 * 1024 - 1, new byte[16 * 1024 + 1]);
+        assertTrue(piece.completed());
+        assertTrue(piece.verify());
+        piece.release();
+    }
+    
     @Test
     void testRead() {
         final int pieceLength = 1024;
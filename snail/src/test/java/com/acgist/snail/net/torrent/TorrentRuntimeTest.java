@@ -0,0 +1,71 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.context.TimerWheel;
+import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.ThreadUtils;
+
+class TorrentRuntimeTest extends Performance {
+
+    @Test
+    void testFairness() throws InterruptedException {
+        final TorrentRuntime runtime = TorrentRuntime.getInstance();
+        final TorrentExecutor busy = runtime.newExecutor();
+        final TorrentExecutor idle = runtime.newExecutor();
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        final CountDownLatch busyLatch = new CountDownLatch(100);
+        // 阻塞任务：线程池补偿线程
+        for (int index = 0; index < 100; index++) {
+            busy.executeBlocking(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                ThreadUtils.sleep(50);
+                running.decrementAndGet();
+                busyLatch.countDown();
+            });
+        }
+        // 繁忙任务不能阻塞其他任务
+        final CountDownLatch idleLatch = new CountDownLatch(1);
+        idle.execute(idleLatch::countDown);
+        assertTrue(idleLatch.await(1, TimeUnit.SECONDS));
+        assertTrue(busyLatch.await(30, TimeUnit.SECONDS));
+        this.log("同时执行任务数量：{}，平均排队时间：{}，最大排队时间：{}", maxRunning.get(), busy.queueLatency(), runtime.maxQueueLatency());
+        assertTrue(maxRunning.get() <= 8);
+        assertTrue(busy.queueLatency() > idle.queueLatency());
+        busy.shutdown();
+        idle.shutdown();
+    }
+    
+    @Test
+    void testScheduled() {
+        final TorrentRuntime runtime = TorrentRuntime.getInstance();
+        final int size = 1000;
+        final int threadSize = Thread.getAllStackTraces().size();
+        final int timerSize = runtime.timerSize();
+        final AtomicInteger count = new AtomicInteger(0);
+        final TimerWheel.Timeout[] timeouts = new TimerWheel.Timeout[size * 6];
+        // 模拟任务定时任务：PeerDownloaderGroup、PeerUploaderGroup、Tracker、DHT、PEX、HAVE
+        for (int index = 0; index < timeouts.length; index++) {
+            timeouts[index] = runtime.scheduledAtFixedDelay(0, 1, TimeUnit.SECONDS, runtime.newExecutor(), count::incrementAndGet);
+        }
+        ThreadUtils.sleep(2500);
+        this.log("执行次数：{}，线程数量：{}-{}，平均排队时间：{}", count.get(), threadSize, Thread.getAllStackTraces().size(), runtime.queueLatency());
+        assertTrue(count.get() >= timeouts.length * 2);
+        assertTrue(Thread.getAllStackTraces().size() - threadSize <= runtime.parallelism() + 16);
+        for (TimerWheel.Timeout timeout : timeouts) {
+            SystemThreadContext.shutdown(timeout);
+        }
+        ThreadUtils.sleep(500);
+        assertEquals(timerSize, runtime.timerSize());
+    }
+    
+}
@@ -0,0 +1,88 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.utils.DigestUtils;
+import com.acgist.snail.utils.Performance;
+
+class TorrentStreamVerifierTest extends Performance {
+
+    @Test
+    void testVerify() {
+        final int size = 1024;
+        final byte[] bytes = new byte[256 * 1024];
+        final byte[] hash = DigestUtils.sha1(bytes);
+        final AtomicInteger success = new AtomicInteger();
+        final AtomicInteger fail = new AtomicInteger();
+        this.cost();
+        try (final TorrentStreamVerifier verifier = TorrentStreamVerifier.newInstance(size, bytes.length)) {
+            for (int index = 0; index < size; index++) {
+                final int pieceIndex = index;
+                verifier.submit(
+                    () -> {
+                        final ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+                        if(pieceIndex % 2 == 0) {
+                            buffer.put(0, (byte) 1);
+                        }
+                        return buffer;
+                    },
+                    hash,
+                    verify -> {
+                        if(verify) {
+                            success.incrementAndGet();
+                        } else {
+                            fail.incrementAndGet();
+                        }
+                    }
+                );
+            }
+            verifier.await();
+            assertEquals(100, verifier.progress());
+        }
+        this.costed();
+        assertEquals(size / 2, success.get());
+        assertEquals(size / 2, fail.get());
+    }
+
+    @Test
+    void testBuffer() {
+        final int size = 16;
+        // Piece大小超过预读缓冲大小
+        final int length = SystemConfig.getVerifyBufferSize() * SystemConfig.ONE_MB + SystemConfig.ONE_KB;
+        final byte[] hash = DigestUtils.sha1(new byte[SystemConfig.ONE_KB]);
+        final AtomicInteger reading = new AtomicInteger();
+        final AtomicInteger maxReading = new AtomicInteger();
+        final AtomicInteger success = new AtomicInteger();
+        final int availableBuffer = TorrentStreamVerifier.availableBuffer();
+        try (final TorrentStreamVerifier verifier = TorrentStreamVerifier.newInstance(size, length)) {
+            for (int index = 0; index < size; index++) {
+                verifier.submit(
+                    () -> {
+                        maxReading.accumulateAndGet(reading.incrementAndGet(), Math::max);
+                        return ByteBuffer.allocate(SystemConfig.ONE_KB);
+                    },
+                    hash,
+                    verify -> {
+                        reading.decrementAndGet();
+                        if(verify) {
+                            success.incrementAndGet();
+                        }
+                    }
+                );
+            }
+            verifier.await();
+            assertEquals(100, verifier.progress());
+        }
+        // 只能预读一个Piece
+        assertEquals(1, maxReading.get());
+        assertEquals(size, success.get());
+        assertEquals(availableBuffer, TorrentStreamVerifier.availableBuffer());
+    }
+
+}
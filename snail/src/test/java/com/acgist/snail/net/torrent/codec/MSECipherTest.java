@@ -1,13 +1,24 @@
 package com.acgist.snail.net.torrent.codec;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
 import org.junit.jupiter.api.Test;
 
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.torrent.InfoHash;
 import com.acgist.snail.utils.ArrayUtils;
+import com.acgist.snail.utils.DigestUtils;
 import com.acgist.snail.utils.Performance;
 
 class MSECipherTest extends Performance {
@@ -64,4 +75,91 @@ class MSECipherTest extends Performance {
         assertTrue(costed < 1000);
     }
     
+    @Test
+    void testJce() throws NetException, GeneralSecurityException {
+        final byte[] secret = ArrayUtils.random(96);
+        final InfoHash infoHash = InfoHash.newInstance(ArrayUtils.random(20));
+        final var sender = MSECipher.newSender(secret, infoHash);
+        final Cipher cipher = this.jce("keyA", secret, infoHash);
+        final Random random = new Random(0);
+        for (int index = 0; index < 1000; index++) {
+            final byte[] data = new byte[random.nextInt(0, 20000)];
+            random.nextBytes(data);
+            final byte[] expect = cipher.update(data);
+            final ByteBuffer buffer = switch (index % 4) {
+                // 堆内存
+                case 0 -> ByteBuffer.wrap(data.clone());
+                // 直接内存
+                case 1 -> ByteBuffer.allocateDirect(data.length).put(data).flip();
+                // 直接内存：小端
+                case 2 -> ByteBuffer.allocateDirect(data.length).order(ByteOrder.LITTLE_ENDIAN).put(data).flip();
+                // 写模式
+                default -> ByteBuffer.allocate(data.length + 16).put(data);
+            };
+            sender.encrypt(buffer);
+            if(index % 4 == 3) {
+                assertEquals(data.length, buffer.position());
+                buffer.flip();
+            } else {
+                assertEquals(0, buffer.position());
+                assertEquals(data.length, buffer.limit());
+            }
+            final byte[] actual = new byte[buffer.remaining()];
+            buffer.get(actual);
+            assertArrayEquals(expect, actual);
+        }
+    }
+    
+    @Test
+    void testThroughput() throws NetException, GeneralSecurityException {
+        final byte[] secret = ArrayUtils.random(96);
+        final InfoHash infoHash = InfoHash.newInstance(ArrayUtils.random(20));
+        final var sender = MSECipher.newSender(secret, infoHash);
+        final Cipher cipher = this.jce("keyA", secret, infoHash);
+        final int count = 20000;
+        final int length = 16 * 1024;
+        final byte[] data = ArrayUtils.random(length);
+        final ByteBuffer heap = ByteBuffer.wrap(data);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(length).put(data).flip();
+        long costed = this.costed(count, () -> sender.encrypt(heap));
+        this.log("ARC4（堆内存）：{}GB/s", this.throughput(count, length, costed));
+        costed = this.costed(count, () -> sender.encrypt(direct));
+        this.log("ARC4（直接内存）：{}GB/s", this.throughput(count, length, costed));
+        costed = this.costed(count, () -> cipher.update(data));
+        this.log("JCE：{}GB/s", this.throughput(count, length, costed));
+    }
+    
+    /**
+     * @param count  次数
+     * @param length 长度
+     * @param costed 时间（毫秒）
+     * 
+     * @return 吞吐量（GB/s）
+     */
+    private double throughput(int count, int length, long costed) {
+        return (double) count * length / Math.max(1L, costed) * 1000 / (1L << 30);
+    }
+    
+    /**
+     * 新建JCE加密套件
+     * 
+     * @param key      keyA | keyB
+     * @param secret   DH Secret
+     * @param infoHash InfoHash
+     * 
+     * @return 加密套件
+     * 
+     * @throws GeneralSecurityException 加密异常
+     */
+    private Cipher jce(String key, byte[] secret, InfoHash infoHash) throws GeneralSecurityException {
+        final MessageDigest digest = DigestUtils.sha1();
+        digest.update(key.getBytes());
+        digest.update(secret);
+        digest.update(infoHash.getInfoHash());
+        final Cipher cipher = Cipher.getInstance("ARCFOUR/ECB/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(digest.digest(), "ARCFOUR"));
+        cipher.update(new byte[1024]);
+        return cipher;
+    }
+    
 }
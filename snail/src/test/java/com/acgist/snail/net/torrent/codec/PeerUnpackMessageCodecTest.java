@@ -0,0 +1,207 @@
+package com.acgist.snail.net.torrent.codec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.PeerConfig;
+import com.acgist.snail.net.NetException;
+import com.acgist.snail.net.codec.IMessageDecoder;
+import com.acgist.snail.net.torrent.IEncryptMessageSender;
+import com.acgist.snail.net.torrent.TorrentPiece;
+import com.acgist.snail.net.torrent.peer.PeerSubMessageHandler;
+import com.acgist.snail.utils.Performance;
+
+class PeerUnpackMessageCodecTest extends Performance {
+
+    /**
+     * Piece消息数量
+     */
+    private static final int PIECE_SIZE = 64;
+    
+    @Test
+    void testDecode() throws NetException {
+        final List<byte[]> messages = this.messages();
+        final byte[] traffic = this.traffic(messages);
+        final Random random = new Random(0);
+        for (int chunk : new int[] { 1, 3, 4, 5, 7, 1024, TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH + 13, traffic.length, -1 }) {
+            final List<byte[]> decodes = new ArrayList<>();
+            final PeerUnpackMessageCodec codec = this.codec(message -> {
+                final byte[] bytes = new byte[message.remaining()];
+                message.get(bytes);
+                decodes.add(bytes);
+            });
+            int position = 0;
+            while(position < traffic.length) {
+                // 小于零：随机长度
+                final int length = Math.min(chunk < 0 ? random.nextInt(1, 40000) : chunk, traffic.length - position);
+                codec.decode(ByteBuffer.wrap(traffic, position, length).slice());
+                position += length;
+            }
+            assertEquals(messages.size(), decodes.size());
+            for (int index = 0; index < messages.size(); index++) {
+                assertArrayEquals(messages.get(index), decodes.get(index));
+            }
+        }
+    }
+    
+    @Test
+    void testCosted() throws NetException {
+        final byte[] traffic = this.traffic(this.messages());
+        final long[] size = new long[1];
+        final PeerUnpackMessageCodec codec = this.codec(message -> {
+            size[0] += message.remaining();
+            message.position(message.limit());
+        });
+        // 跳过握手
+        codec.decode(ByteBuffer.wrap(traffic, 0, PeerConfig.HANDSHAKE_LENGTH));
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(16 * 1024);
+        final long costed = this.costed(1000, () -> {
+            int position = PeerConfig.HANDSHAKE_LENGTH;
+            while(position < traffic.length) {
+                final int length = Math.min(buffer.capacity(), traffic.length - position);
+                buffer.clear();
+                buffer.put(traffic, position, length).flip();
+                try {
+                    codec.decode(buffer);
+                } catch (NetException e) {
+                    this.log("解码异常", e);
+                }
+                position += length;
+            }
+        });
+        this.log("解码：{}-{}", costed, size[0]);
+    }
+    
+    /**
+     * 新建拆包处理器
+     * 
+     * @param consumer 消息处理
+     * 
+     * @return 拆包处理器
+     */
+    private PeerUnpackMessageCodec codec(MessageConsumer consumer) {
+        final PeerSubMessageHandler peerSubMessageHandler = PeerSubMessageHandler.newInstance();
+        peerSubMessageHandler.messageEncryptSender(new EmptyMessageSender());
+        return new PeerUnpackMessageCodec(new IMessageDecoder<ByteBuffer>() {
+            private boolean handshake = false;
+            @Override
+            public void onMessage(ByteBuffer message) throws NetException {
+                if(!this.handshake) {
+                    // 设置握手状态
+                    this.handshake = true;
+                    peerSubMessageHandler.onMessage(message.duplicate());
+                }
+                consumer.accept(message);
+            }
+        }, peerSubMessageHandler);
+    }
+    
+    /**
+     * 模拟Peer消息：握手、位图、have、request、piece（心跳没有消息）
+     * 
+     * @return 消息（没有长度）
+     */
+    private List<byte[]> messages() {
+        final Random random = new Random(0);
+        final List<byte[]> messages = new ArrayList<>();
+        final byte[] handshake = new byte[PeerConfig.HANDSHAKE_LENGTH];
+        random.nextBytes(handshake);
+        messages.add(handshake);
+        messages.add(this.message(PeerConfig.Type.BITFIELD, 256, random));
+        for (int index = 0; index < PIECE_SIZE; index++) {
+            messages.add(this.message(PeerConfig.Type.HAVE, 4, random));
+            messages.add(this.message(PeerConfig.Type.REQUEST, 12, random));
+            messages.add(this.message(PeerConfig.Type.PIECE, 8 + TorrentPiece.SLICE_LENGTH, random));
+        }
+        return messages;
+    }
+    
+    /**
+     * @param type    类型
+     * @param length  负载长度
+     * @param random  随机数
+     * 
+     * @return 消息（没有长度）
+     */
+    private byte[] message(PeerConfig.Type type, int length, Random random) {
+        final byte[] message = new byte[length + 1];
+        random.nextBytes(message);
+        message[0] = type.getId();
+        return message;
+    }
+    
+    /**
+     * @param messages 消息
+     * 
+     * @return 消息流（每条Piece消息以后插入心跳）
+     */
+    private byte[] traffic(List<byte[]> messages) {
+        int length = 0;
+        for (byte[] message : messages) {
+            length += message.length + 2 * Integer.BYTES;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(messages.get(0));
+        for (int index = 1; index < messages.size(); index++) {
+            final byte[] message = messages.get(index);
+            buffer.putInt(message.length).put(message);
+            if(message[0] == PeerConfig.Type.PIECE.getId()) {
+                buffer.putInt(0);
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+    
+    /**
+     * 消息处理
+     */
+    private interface MessageConsumer {
+        
+        void accept(ByteBuffer message);
+        
+    }
+    
+    /**
+     * 忽略发送消息
+     */
+    private static final class EmptyMessageSender implements IEncryptMessageSender {
+
+        @Override
+        public boolean available() {
+            return true;
+        }
+
+        @Override
+        public void send(ByteBuffer buffer, int timeout) {
+        }
+
+        @Override
+        public void sendEncrypt(ByteBuffer buffer, int timeout) {
+        }
+
+        @Override
+        public InetSocketAddress remoteSocketAddress() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public ConnectType connectType() {
+            return ConnectType.TCP;
+        }
+        
+    }
+    
+}
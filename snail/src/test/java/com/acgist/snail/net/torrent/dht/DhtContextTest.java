@@ -1,15 +1,19 @@
 package com.acgist.snail.net.torrent.dht;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 import java.util.Arrays;
 
 import org.junit.jupiter.api.Test;
 
+import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.net.torrent.dht.request.PingRequest;
 import com.acgist.snail.net.torrent.dht.response.PingResponse;
 import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.ThreadUtils;
 
 class DhtContextTest extends Performance {
 
@@ -21,6 +25,20 @@ class DhtContextTest extends Performance {
         assertNotNull(response);
     }
     
+    @Test
+    void testTimeout() {
+        final DhtContext context = DhtContext.getInstance();
+        final long outstanding = context.outstanding();
+        final long timeout = context.timeout();
+        final var request = PingRequest.newRequest();
+        context.request(request);
+        assertEquals(outstanding + 1, context.outstanding());
+        ThreadUtils.sleep(SystemConfig.RECEIVE_TIMEOUT_MILLIS + 1000);
+        assertEquals(outstanding, context.outstanding());
+        assertEquals(timeout + 1, context.timeout());
+        assertNull(context.response(PingResponse.newInstance(request)));
+    }
+    
     @Test
     void testCosted() {
         this.costed(100000, () -> this.testRequest());
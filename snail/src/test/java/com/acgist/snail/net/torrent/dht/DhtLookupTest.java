@@ -0,0 +1,206 @@
+package com.acgist.snail.net.torrent.dht;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.DhtConfig;
+import com.acgist.snail.format.BEncodeDecoder;
+import com.acgist.snail.format.BEncodeEncoder;
+import com.acgist.snail.logger.LoggerConfig;
+import com.acgist.snail.utils.ArrayUtils;
+import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.StringUtils;
+import com.acgist.snail.utils.ThreadUtils;
+
+class DhtLookupTest extends Performance {
+
+    /**
+     * 模拟节点数量
+     */
+    private static final int NODE_SIZE = 256;
+
+    @Test
+    void testLookup() throws Exception {
+        LoggerConfig.off();
+        final List<SimulateNode> nodes = new ArrayList<>();
+        try(final Selector selector = Selector.open()) {
+            for (int index = 0; index < NODE_SIZE; index++) {
+                final DatagramChannel channel = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+                channel.configureBlocking(false);
+                final SimulateNode node = new SimulateNode(ArrayUtils.random(DhtConfig.NODE_ID_LENGTH), channel);
+                channel.register(selector, SelectionKey.OP_READ, node);
+                nodes.add(node);
+            }
+            // 每个模拟节点使用K桶保存其他节点
+            for (SimulateNode node : nodes) {
+                final Map<Integer, List<SimulateNode>> buckets = new LinkedHashMap<>();
+                for (SimulateNode other : nodes) {
+                    if(node != other) {
+                        final List<SimulateNode> bucket = buckets.computeIfAbsent(this.prefix(node.id, other.id), key -> new ArrayList<>());
+                        if(bucket.size() < DhtConfig.BUCKET_NODE_SIZE) {
+                            bucket.add(other);
+                        }
+                    }
+                }
+                buckets.values().forEach(node.nodes::addAll);
+            }
+            final Thread thread = new Thread(() -> this.loop(selector));
+            thread.setDaemon(true);
+            thread.start();
+            final byte[] target = ArrayUtils.random(DhtConfig.NODE_ID_LENGTH);
+            final List<String> expect = nodes.stream()
+                .sorted(this.comparator(target))
+                .limit(DhtConfig.BUCKET_NODE_SIZE)
+                .map(node -> StringUtils.hex(node.id))
+                .toList();
+            final List<NodeSession> seeds = nodes.subList(0, 3).stream()
+                .map(SimulateNode::session)
+                .toList();
+            this.cost();
+            final DhtLookup lookup = DhtLookup.getPeers(target).lookup(seeds);
+            for (int index = 0; index < 100 && !lookup.isDone(); index++) {
+                ThreadUtils.sleep(100);
+            }
+            this.costed();
+            final List<String> actual = lookup.nodes().stream()
+                .map(node -> StringUtils.hex(node.getId()))
+                .toList();
+            this.log("请求数量：{}", lookup.getRequestSize());
+            assertTrue(lookup.isDone());
+            assertEquals(expect, actual);
+            assertTrue(lookup.getRequestSize() < NODE_SIZE / 2);
+            thread.interrupt();
+        } finally {
+            for (SimulateNode node : nodes) {
+                node.channel.close();
+            }
+        }
+    }
+
+    /**
+     * 模拟节点响应
+     * 
+     * @param selector 选择器
+     */
+    private void loop(Selector selector) {
+        final ByteBuffer buffer = ByteBuffer.allocate(2048);
+        try {
+            while(!Thread.currentThread().isInterrupted()) {
+                if(selector.select(100) <= 0) {
+                    continue;
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    final SimulateNode node = (SimulateNode) key.attachment();
+                    buffer.clear();
+                    final SocketAddress address = node.channel.receive(buffer);
+                    if(address != null) {
+                        buffer.flip();
+                        node.channel.send(ByteBuffer.wrap(this.response(node, buffer)), address);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (Exception e) {
+            this.log("模拟节点异常：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 模拟节点响应：返回距离目标最近的节点
+     * 
+     * @param node   模拟节点
+     * @param buffer 请求
+     * 
+     * @return 响应
+     */
+    private byte[] response(SimulateNode node, ByteBuffer buffer) throws Exception {
+        final BEncodeDecoder decoder = BEncodeDecoder.newInstance(buffer).next();
+        final Map<String, Object> a = decoder.getMap(DhtConfig.KEY_A);
+        byte[] target = (byte[]) a.get(DhtConfig.KEY_INFO_HASH);
+        if(target == null) {
+            target = (byte[]) a.get(DhtConfig.KEY_TARGET);
+        }
+        final List<SimulateNode> closeNodes = node.nodes.stream()
+            .sorted(this.comparator(target))
+            .limit(DhtConfig.BUCKET_NODE_SIZE)
+            .toList();
+        final ByteBuffer nodes = ByteBuffer.allocate(26 * closeNodes.size());
+        for (SimulateNode closeNode : closeNodes) {
+            nodes.put(closeNode.id);
+            nodes.put(new byte[] { 127, 0, 0, 1 });
+            nodes.putShort((short) closeNode.port());
+        }
+        final Map<String, Object> r = new LinkedHashMap<>();
+        r.put(DhtConfig.KEY_ID, node.id);
+        r.put(DhtConfig.KEY_NODES, nodes.array());
+        final Map<String, Object> response = new LinkedHashMap<>();
+        response.put(DhtConfig.KEY_T, decoder.getBytes(DhtConfig.KEY_T));
+        response.put(DhtConfig.KEY_Y, DhtConfig.KEY_R);
+        response.put(DhtConfig.KEY_R, r);
+        return BEncodeEncoder.encodeMap(response);
+    }
+
+    /**
+     * @return 异或距离比较器
+     */
+    private Comparator<SimulateNode> comparator(byte[] target) {
+        return (source, other) -> NodeContext.compareDistance(target, source.id, other.id);
+    }
+
+    /**
+     * @return 公共前缀长度
+     */
+    private int prefix(byte[] source, byte[] target) {
+        for (int index = 0; index < source.length; index++) {
+            final int xor = (source[index] ^ target[index]) & 0xFF;
+            if(xor != 0) {
+                return index * 8 + Integer.numberOfLeadingZeros(xor) - 24;
+            }
+        }
+        return source.length * 8;
+    }
+
+    /**
+     * 模拟节点
+     */
+    private static final class SimulateNode {
+
+        private final byte[] id;
+        private final DatagramChannel channel;
+        private final List<SimulateNode> nodes;
+
+        private SimulateNode(byte[] id, DatagramChannel channel) {
+            this.id      = id;
+            this.channel = channel;
+            this.nodes   = new ArrayList<>();
+        }
+
+        private int port() {
+            try {
+                return ((InetSocketAddress) this.channel.getLocalAddress()).getPort();
+            } catch (Exception e) {
+                return 0;
+            }
+        }
+
+        private NodeSession session() {
+            return NodeSession.newInstance(this.id, "127.0.0.1", this.port());
+        }
+
+    }
+
+}
@@ -58,9 +58,14 @@ class NodeContextTest extends Performance {
         final var nodes = NodeContext.getInstance().findNode(target);
         nodes.forEach(node -> this.log(StringUtils.hex(node.getId())));
 //      this.log("----");
-        final var newNodes = new ArrayList<>(nodes);
-        Collections.sort(newNodes);
+        // 异或距离最近节点
+        final var newNodes = NodeContext.getInstance().nodes().stream()
+            .filter(NodeSession::useable)
+            .sorted(NodeContext.distanceComparator(StringUtils.unhex(target)))
+            .limit(nodes.size())
+            .toList();
 //      newNodes.forEach(node -> this.log(StringUtils.hex(node.getId())));
+        assertEquals(8, nodes.size());
         for (int index = 0; index < nodes.size(); index++) {
             assertEquals(nodes.get(index), newNodes.get(index));
         }
@@ -0,0 +1,39 @@
+package com.acgist.snail.net.torrent.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.net.torrent.TorrentRuntime;
+import com.acgist.snail.utils.Performance;
+
+class PeerRequestContextTest extends Performance {
+
+    @Test
+    void testThreadSize() throws InterruptedException {
+        final int size = 5000;
+        final int events = 20;
+        final PeerRequestContext context = PeerRequestContext.getInstance();
+        final long threadSize = Thread.getAllStackTraces().size();
+        this.cost();
+        // 模拟Peer请求事件：每个Peer同时只有一个请求事件
+        for (int event = 0; event < events; event++) {
+            final CountDownLatch latch = new CountDownLatch(size);
+            for (int index = 0; index < size; index++) {
+                context.submit(latch::countDown);
+            }
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+        }
+        this.costed();
+        final TorrentRuntime runtime = TorrentRuntime.getInstance();
+        this.log("线程数量：{}-{}-{}", threadSize, Thread.getAllStackTraces().size(), runtime.poolSize());
+        // 请求事件使用阻塞任务提交：线程池可以补偿线程
+        assertTrue(Thread.getAllStackTraces().size() - threadSize <= runtime.parallelism() + 16);
+        assertEquals(0, context.size());
+    }
+    
+}
@@ -0,0 +1,115 @@
+package com.acgist.snail.net.torrent.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.net.torrent.TorrentPiece;
+import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.ThreadUtils;
+
+class PeerRequestQueueTest extends Performance {
+
+    @Test
+    void testRequest() {
+        final PeerRequestQueue queue = new PeerRequestQueue();
+        final TorrentPiece piece = TorrentPiece.newInstance(1024 * 1024, 1, 0, 1024 * 1024, null, false);
+        queue.request(piece, 0, TorrentPiece.SLICE_LENGTH, 0);
+        queue.request(piece, TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH, 0);
+        assertEquals(2, queue.size());
+        assertSame(piece, queue.response(1, 0, TorrentPiece.SLICE_LENGTH));
+        // 重复响应
+        assertNull(queue.response(1, 0, TorrentPiece.SLICE_LENGTH));
+        assertEquals(1, queue.size());
+        queue.remove(piece);
+        assertEquals(0, queue.size());
+        piece.release();
+    }
+    
+    @Test
+    void testReject() {
+        final PeerRequestQueue queue = new PeerRequestQueue();
+        final TorrentPiece piece = TorrentPiece.newInstance(1024 * 1024, 1, 0, 1024 * 1024, null, false);
+        final BitSet allowedPieces = new BitSet();
+        queue.request(piece, 0, TorrentPiece.SLICE_LENGTH, 0);
+        queue.reject(1, 0);
+        assertEquals(0, queue.size());
+        assertNull(queue.retry(allowedPieces));
+        PeerRequest retry = queue.retry(null);
+        assertNotNull(retry);
+        assertEquals(1, retry.reject());
+        queue.request(retry.piece(), retry.begin(), retry.length(), retry.reject());
+        queue.reject(1, 0);
+        retry = queue.retry(null);
+        queue.request(retry.piece(), retry.begin(), retry.length(), retry.reject());
+        queue.reject(1, 0);
+        assertNull(queue.retry(null));
+        assertEquals(1, queue.failPieces().size());
+        assertTrue(queue.failPieces().isEmpty());
+        // 阻塞丢弃请求
+        queue.request(piece, 0, TorrentPiece.SLICE_LENGTH, 0);
+        queue.request(piece, TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH, 0);
+        queue.choke();
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.retry(null).begin());
+        assertEquals(TorrentPiece.SLICE_LENGTH, queue.retry(null).begin());
+        piece.release();
+    }
+    
+    @Test
+    void testLength() {
+        final PeerRequestQueue queue = new PeerRequestQueue();
+        final TorrentPiece piece = TorrentPiece.newInstance(1024 * 1024, 1, 0, 1024 * 1024, null, false);
+        queue.request(piece, 0, TorrentPiece.SLICE_LENGTH, 0);
+        queue.request(piece, TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH, 0);
+        // 超长数据
+        assertNull(queue.response(1, 0, TorrentPiece.SLICE_LENGTH + 1));
+        // 缺少数据
+        assertNull(queue.response(1, TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH - 1));
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.rate());
+        // 长度错误请求重试
+        PeerRequest retry = queue.retry(null);
+        assertEquals(0, retry.begin());
+        assertEquals(TorrentPiece.SLICE_LENGTH, retry.length());
+        assertEquals(1, retry.reject());
+        retry = queue.retry(null);
+        assertEquals(TorrentPiece.SLICE_LENGTH, retry.begin());
+        assertEquals(TorrentPiece.SLICE_LENGTH, retry.length());
+        assertNull(queue.retry(null));
+        queue.request(retry.piece(), retry.begin(), retry.length(), retry.reject());
+        assertSame(piece, queue.response(1, TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH));
+        piece.release();
+    }
+    
+    @Test
+    void testDepth() {
+        final PeerRequestQueue queue = new PeerRequestQueue();
+        final TorrentPiece piece = TorrentPiece.newInstance(4 * 1024 * 1024, 1, 0, 4 * 1024 * 1024, null, false);
+        assertEquals(PeerRequestQueue.MIN_REQUEST_SIZE, queue.depth());
+        int begin = 0;
+        final long end = System.currentTimeMillis() + 1200;
+        while(System.currentTimeMillis() < end) {
+            final int depth = queue.depth();
+            while(queue.size() < depth && begin < piece.getLength()) {
+                queue.request(piece, begin, TorrentPiece.SLICE_LENGTH, 0);
+                begin += TorrentPiece.SLICE_LENGTH;
+            }
+            ThreadUtils.sleep(20);
+            queue.response(1, begin - queue.size() * TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH);
+        }
+        this.log("往返时间：{}，下载速度：{}，请求深度：{}", queue.rtt(), queue.rate(), queue.depth());
+        assertTrue(queue.rtt() >= 20);
+        assertTrue(queue.rate() > 0);
+        assertTrue(queue.depth() > PeerRequestQueue.MIN_REQUEST_SIZE);
+        assertTrue(queue.depth() <= PeerRequestQueue.MAX_REQUEST_SIZE);
+        piece.release();
+    }
+    
+}
@@ -0,0 +1,320 @@
+package com.acgist.snail.net.torrent.utp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.UtpConfig;
+import com.acgist.snail.utils.Performance;
+
+class UtpLedbatTest extends Performance {
+
+    /**
+     * 数据包大小
+     */
+    private static final int MSS = UtpConfig.PACKET_MAX_LENGTH;
+    /**
+     * 目标延迟（微秒）
+     */
+    private static final int TARGET_DELAY = 100_000;
+    /**
+     * 模拟时间（毫秒）
+     */
+    private static final int DURATION = 60_000;
+    /**
+     * 统计开始时间（毫秒）：忽略慢启动
+     */
+    private static final int WARMUP = 10_000;
+
+    @Test
+    void testDelay() {
+        final UtpLedbat ledbat = UtpLedbat.newInstance(TARGET_DELAY);
+        // 时钟偏差导致时间差溢出
+        final int offset = Integer.MAX_VALUE - 20_000;
+        ledbat.delay(offset + 30_000, 0L);
+        ledbat.delay(offset + 10_000, 1_000L);
+        ledbat.delay(offset + 60_000, 2_000L);
+        assertEquals(offset + 10_000, ledbat.baseDelay());
+        assertEquals(0L, ledbat.queuingDelay());
+        for (int index = 0; index < 4; index++) {
+            ledbat.delay(offset + 60_000, 3_000L + index);
+        }
+        assertEquals(50_000L, ledbat.queuingDelay());
+        final int cwnd = ledbat.cwnd();
+        ledbat.ack(MSS, cwnd);
+        assertTrue(ledbat.cwnd() > cwnd);
+        for (int index = 0; index < 4; index++) {
+            ledbat.delay(offset + 310_000, 4_000L + index);
+        }
+        final int overCwnd = ledbat.cwnd();
+        ledbat.ack(MSS, overCwnd);
+        assertTrue(ledbat.cwnd() < overCwnd);
+        ledbat.loss(10_000L, 1_000);
+        assertTrue(ledbat.cwnd() <= overCwnd / 2);
+        ledbat.timeout();
+        assertEquals(UtpLedbat.MIN_CWND, ledbat.cwnd());
+    }
+
+    @Test
+    void testSimulate() {
+        // 家用上行带宽：1Mbps、RTT 50ms、缓冲区100KB（缓冲区膨胀）
+        final Result slowLegacy = this.simulate("上行", new Legacy(), 125, 25, 100 * 1024, 0.0D);
+        final Result slowLedbat = this.simulate("上行", new Ledbat(), 125, 25, 100 * 1024, 0.0D);
+        assertTrue(slowLedbat.queuingDelay < slowLegacy.queuingDelay);
+        assertTrue(slowLedbat.queuingDelay <= TARGET_DELAY / 1000 * 1.5);
+        assertTrue(slowLedbat.throughput >= 125 * 0.9);
+        // 高带宽：100Mbps、RTT 60ms、缓冲区1MB
+        final Result fatLegacy = this.simulate("高带宽", new Legacy(), 12_500, 30, 1024 * 1024, 0.0D);
+        final Result fatLedbat = this.simulate("高带宽", new Ledbat(), 12_500, 30, 1024 * 1024, 0.0D);
+        assertTrue(fatLedbat.throughput > fatLegacy.throughput * 2);
+        assertTrue(fatLedbat.queuingDelay <= TARGET_DELAY / 1000 * 1.5);
+        // 丢包：2Mbps、RTT 100ms、缓冲区256KB、丢包率0.5%
+        final Result lossLegacy = this.simulate("丢包", new Legacy(), 250, 50, 256 * 1024, 0.005D);
+        final Result lossLedbat = this.simulate("丢包", new Ledbat(), 250, 50, 256 * 1024, 0.005D);
+        assertTrue(lossLedbat.queuingDelay < lossLegacy.queuingDelay);
+        assertTrue(lossLedbat.throughput >= 250 / 2);
+    }
+
+    /**
+     * 模拟发送
+     * 瓶颈链路：先进先出队列、队列满了丢弃数据包、随机丢包，响应链路没有排队。
+     * 收到后续数据包三个响应视为丢包，超过超时时间没有响应视为全部丢包。
+     * 
+     * @param name       名称
+     * @param controller 拥塞控制
+     * @param rate       带宽（字节/毫秒）
+     * @param delay      单向传播延迟（毫秒）
+     * @param buffer     缓冲区大小（字节）
+     * @param lossRate   随机丢包率
+     * 
+     * @return 模拟结果
+     */
+    private Result simulate(String name, Controller controller, int rate, int delay, int buffer, double lossRate) {
+        final Random random = new Random(1024L);
+        final ArrayDeque<Packet> link = new ArrayDeque<>();
+        final ArrayDeque<Packet> acks = new ArrayDeque<>();
+        final ArrayDeque<Packet> flights = new ArrayDeque<>();
+        // 两端时钟偏差
+        final int clockOffset = random.nextInt();
+        int seqnr = 0;
+        int flight = 0;
+        int rtt = 0;
+        int linkBytes = 0;
+        long credit = 0L;
+        long pacingTimestamp = 0L;
+        long lastAck = 0L;
+        long delivered = 0L;
+        long queuingDelay = 0L;
+        for (long time = 0; time < DURATION; time++) {
+            final long now = time * 1000;
+            // 处理响应
+            boolean loss = false;
+            while(!acks.isEmpty() && acks.peek().ackTime <= time) {
+                final Packet packet = acks.poll();
+                if(!flights.remove(packet)) {
+                    // 已经视为丢包
+                    continue;
+                }
+                final int before = flight;
+                flight -= packet.size;
+                lastAck = time;
+                final int packetRtt = (int) (now - packet.sendTime);
+                rtt = rtt == 0 ? packetRtt : rtt + (packetRtt - rtt) / 8;
+                if(time >= WARMUP) {
+                    delivered += packet.size;
+                }
+                controller.ack(packet.size, before, packet.delay, now, rtt);
+                final Iterator<Packet> iterator = flights.iterator();
+                while(iterator.hasNext()) {
+                    final Packet lossPacket = iterator.next();
+                    if(lossPacket.seqnr >= packet.seqnr - 3) {
+                        break;
+                    }
+                    iterator.remove();
+                    flight -= lossPacket.size;
+                    loss = true;
+                }
+            }
+            if(loss) {
+                controller.loss(now, rtt);
+            }
+            // 超时
+            if(flight > 0 && time - lastAck > Math.max(1000, 4 * rtt / 1000)) {
+                flights.clear();
+                flight = 0;
+                lastAck = time;
+                controller.timeout();
+            }
+            // 发送
+            while(flight == 0 || flight + MSS <= controller.wnd()) {
+                if(pacingTimestamp > now + 1000) {
+                    break;
+                }
+                pacingTimestamp = Math.max(pacingTimestamp, now - controller.pacing(4 * MSS, rtt)) + controller.pacing(MSS, rtt);
+                final Packet packet = new Packet(seqnr++, MSS, now);
+                flights.add(packet);
+                flight += MSS;
+                if(random.nextDouble() < lossRate || linkBytes + MSS > buffer) {
+                    continue;
+                }
+                link.add(packet);
+                linkBytes += MSS;
+            }
+            // 瓶颈链路
+            credit += rate;
+            while(!link.isEmpty() && credit >= link.peek().size) {
+                final Packet packet = link.poll();
+                credit -= packet.size;
+                linkBytes -= packet.size;
+                packet.delay = (int) ((time + delay) * 1000 - packet.sendTime) + clockOffset;
+                packet.ackTime = time + 2L * delay;
+                acks.add(packet);
+            }
+            if(link.isEmpty()) {
+                credit = Math.min(credit, rate);
+            }
+            if(time >= WARMUP) {
+                queuingDelay += linkBytes / rate;
+            }
+        }
+        final Result result = new Result(
+            delivered / (DURATION - WARMUP),
+            queuingDelay / (DURATION - WARMUP)
+        );
+        this.log("{}-{}：吞吐量（字节/毫秒）：{}/{}，排队延迟（毫秒）：{}", name, controller.getClass().getSimpleName(), result.throughput, rate, result.queuingDelay);
+        return result;
+    }
+
+    /**
+     * 模拟结果
+     * 
+     * @param throughput   吞吐量（字节/毫秒）
+     * @param queuingDelay 平均排队延迟（毫秒）
+     */
+    private record Result(long throughput, long queuingDelay) {
+    }
+
+    /**
+     * 模拟数据包
+     */
+    private static final class Packet {
+
+        private final int seqnr;
+        private final int size;
+        private final long sendTime;
+        private int delay;
+        private long ackTime;
+
+        private Packet(int seqnr, int size, long sendTime) {
+            this.seqnr    = seqnr;
+            this.size     = size;
+            this.sendTime = sendTime;
+        }
+
+    }
+
+    /**
+     * 拥塞控制
+     */
+    private interface Controller {
+
+        int wnd();
+
+        void ack(int bytes, int flight, int delay, long now, int rtt);
+
+        void loss(long now, int rtt);
+
+        void timeout();
+
+        long pacing(int bytes, int rtt);
+
+    }
+
+    /**
+     * 原始窗口控制：超时时间等于默认超时时间窗口加一，否则窗口减半，窗口单位：数据包。
+     */
+    private static final class Legacy implements Controller {
+
+        private static final int MIN_WND_SIZE = 16;
+        private static final int MAX_WND_SIZE = 64;
+        private static final int MAX_TIMEOUT = 500_000;
+
+        private int wnd = MIN_WND_SIZE;
+        private int rtt;
+        private int rttVar;
+        private int timeout = MAX_TIMEOUT;
+
+        @Override
+        public int wnd() {
+            return this.wnd * MSS;
+        }
+
+        @Override
+        public void ack(int bytes, int flight, int delay, long now, int packetRtt) {
+            final int delta = this.rtt - packetRtt;
+            this.rtt += (packetRtt - this.rtt) / 8;
+            this.rttVar += (Math.abs(delta) - this.rttVar) / 4;
+            this.timeout = Math.max(this.rtt + this.rttVar * 4, MAX_TIMEOUT);
+            if(this.timeout <= MAX_TIMEOUT) {
+                this.wnd = Math.min(MAX_WND_SIZE, this.wnd + 1);
+            } else {
+                this.wnd = Math.max(MIN_WND_SIZE, this.wnd / 2);
+            }
+        }
+
+        @Override
+        public void loss(long now, int rtt) {
+        }
+
+        @Override
+        public void timeout() {
+        }
+
+        @Override
+        public long pacing(int bytes, int rtt) {
+            return 0L;
+        }
+
+    }
+
+    /**
+     * LEDBAT
+     */
+    private static final class Ledbat implements Controller {
+
+        private final UtpLedbat ledbat = UtpLedbat.newInstance(TARGET_DELAY);
+
+        @Override
+        public int wnd() {
+            return this.ledbat.cwnd();
+        }
+
+        @Override
+        public void ack(int bytes, int flight, int delay, long now, int rtt) {
+            this.ledbat.delay(delay, now);
+            this.ledbat.ack(bytes, flight);
+        }
+
+        @Override
+        public void loss(long now, int rtt) {
+            this.ledbat.loss(now, rtt);
+        }
+
+        @Override
+        public void timeout() {
+            this.ledbat.timeout();
+        }
+
+        @Override
+        public long pacing(int bytes, int rtt) {
+            return this.ledbat.pacing(bytes, rtt);
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.acgist.snail.net.torrent.utp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+
+class UtpPacerTest extends Performance {
+
+    @Test
+    void testPacing() throws InterruptedException {
+        final UtpPacer pacer = UtpPacer.getInstance();
+        final int size = 100;
+        final long begin = System.nanoTime();
+        final long interval = TimeUnit.MICROSECONDS.toNanos(200);
+        // 预留添加任务时间
+        final long start = begin + TimeUnit.MILLISECONDS.toNanos(20);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final long[] early = new long[1];
+        final CountDownLatch latch = new CountDownLatch(size);
+        // 倒序添加：按照发送时间执行
+        for (int index = size - 1; index >= 0; index--) {
+            final int value = index;
+            final long timestamp = start + interval * index;
+            pacer.pacing(timestamp, () -> {
+                if(System.nanoTime() - timestamp < 0L) {
+                    early[0]++;
+                }
+                order.add(value);
+                latch.countDown();
+            });
+        }
+        // 添加任务不用等待发送时间
+        final long costed = System.nanoTime() - begin;
+        this.log("添加任务时间（纳秒）：{}", costed);
+        assertTrue(costed < start - begin + interval * size);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        final long total = System.nanoTime() - start;
+        this.log("执行任务时间（纳秒）：{}", total);
+        assertTrue(total >= interval * (size - 1));
+        assertEquals(0, early[0]);
+        for (int index = 0; index < size; index++) {
+            assertEquals(Integer.valueOf(index), order.get(index));
+        }
+        assertEquals(0, pacer.size());
+    }
+
+    @Test
+    void testOrder() throws InterruptedException {
+        final UtpPacer pacer = UtpPacer.getInstance();
+        final int size = 1000;
+        final long timestamp = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(size);
+        // 相同发送时间：按照添加顺序执行
+        for (int index = 0; index < size; index++) {
+            final int value = index;
+            pacer.pacing(timestamp, () -> {
+                order.add(value);
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int index = 0; index < size; index++) {
+            assertEquals(Integer.valueOf(index), order.get(index));
+        }
+    }
+
+}
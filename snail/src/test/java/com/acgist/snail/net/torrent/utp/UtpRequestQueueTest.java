@@ -1,19 +1,40 @@
 package com.acgist.snail.net.torrent.utp;
 
-import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 
-import com.acgist.snail.net.torrent.peer.PeerSubMessageHandler;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.utils.Performance;
 
-class UtpRequestQueueTest {
+class UtpRequestQueueTest extends Performance {
 
     @Test
     void testUtpRequestQueue() throws InterruptedException {
         final UtpRequestQueue manager = UtpRequestQueue.getInstance();
-        manager.queue().add(UtpRequest.newInstance(null, PeerSubMessageHandler.newInstance()));
-        manager.queue().add(UtpRequest.newInstance(null, PeerSubMessageHandler.newInstance()));
-        assertNotEquals(manager.queue(), manager.queue());
+        final UtpContext context = UtpContext.getInstance();
+        final String key = context.buildKey((short) 1024, new InetSocketAddress("127.0.0.1", 18888));
+        // 相同连接相同分片
+        assertSame(manager.queue(key), manager.queue(key));
+        final Set<UtpRequestShard> shards = new HashSet<>();
+        for (int index = 0; index < 1000; index++) {
+            shards.add(manager.queue(context.buildKey((short) index, new InetSocketAddress("127.0.0.1", 18888))));
+        }
+        // 不同连接分散到所有分片
+        assertEquals(SystemThreadContext.DEFAULT_THREAD_SIZE, shards.size());
+        assertEquals(manager.shards().size(), shards.size());
+        final CountDownLatch latch = new CountDownLatch(1);
+        assertTrue(manager.queue(key).offer(latch::countDown));
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        manager.shards().forEach(shard -> this.log("请求分片：{}", shard));
     }
 
 }
@@ -0,0 +1,77 @@
+package com.acgist.snail.net.torrent.utp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+
+class UtpRequestShardTest extends Performance {
+
+    @Test
+    void testFull() {
+        final UtpRequestShard shard = new UtpRequestShard(0, 4);
+        for (int index = 0; index < 4; index++) {
+            assertTrue(shard.offer(() -> {}));
+        }
+        assertFalse(shard.offer(() -> {}));
+        assertEquals(1, shard.drop());
+        assertEquals(4, shard.size());
+        // 没有消费者线程：手动处理
+        assertEquals(4, shard.drain());
+        assertEquals(0, shard.size());
+        assertEquals(4, shard.count());
+        assertEquals(4, shard.maxSize());
+        assertTrue(shard.offer(() -> {}));
+        assertEquals(1, shard.drain());
+        assertEquals(0, shard.drain());
+    }
+    
+    @Test
+    void testOrder() throws InterruptedException {
+        final int producers = 4;
+        final int count = 100_000;
+        final UtpRequestShard shard = new UtpRequestShard(0, 1024);
+        final Thread consumer = new Thread(shard::execute);
+        consumer.start();
+        // 每个生产者消息保持顺序：只有消费者线程修改
+        final int[] sequences = new int[producers];
+        final boolean[] disorder = new boolean[1];
+        final CountDownLatch latch = new CountDownLatch(producers * count);
+        this.cost();
+        for (int producer = 0; producer < producers; producer++) {
+            final int id = producer;
+            new Thread(() -> {
+                for (int index = 0; index < count; index++) {
+                    final int sequence = index;
+                    final UtpRequest request = () -> {
+                        if(sequences[id] != sequence) {
+                            disorder[0] = true;
+                        }
+                        sequences[id] = sequence + 1;
+                        latch.countDown();
+                    };
+                    while(!shard.offer(request)) {
+                        Thread.yield();
+                    }
+                }
+            }).start();
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        this.costed();
+        assertFalse(disorder[0]);
+        assertEquals(producers * count, shard.count());
+        assertEquals(0, shard.size());
+        assertTrue(shard.maxSize() <= 1024);
+        this.log("请求分片：{}", shard);
+        shard.shutdown();
+        consumer.join(1000);
+        assertFalse(consumer.isAlive());
+    }
+    
+}
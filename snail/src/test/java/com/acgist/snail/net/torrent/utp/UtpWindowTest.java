@@ -1,20 +1,47 @@
 package com.acgist.snail.net.torrent.utp;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
 
+import com.acgist.snail.config.UtpConfig;
 import com.acgist.snail.logger.LoggerConfig;
+import com.acgist.snail.net.ByteBufferContext;
+import com.acgist.snail.net.NetException;
+import com.acgist.snail.net.codec.IMessageDecoder;
+import com.acgist.snail.utils.DateUtils;
 import com.acgist.snail.utils.Performance;
 
 class UtpWindowTest extends Performance {
     
+    /**
+     * 模拟超时时间（微秒）
+     */
+    private static final int TIMEOUT = 10_000_000;
+    
     void ack(UtpWindow window) {
-        for (int index = 0; index < 15; index++) {
-            window.build();
+        try {
+            for (int index = 0; index < 15; index++) {
+                window.build();
+            }
+            final short seqnr = window.build().getSeqnr();
+            window.ack(seqnr, 100);
+        } catch (NetException e) {
+            throw new IllegalStateException(e);
         }
-        final short seqnr = window.build().getSeqnr();
-        window.ack(seqnr, 100);
     }
     
     @Test
@@ -23,5 +50,190 @@ class UtpWindowTest extends Performance {
         final UtpWindow window = UtpWindow.newSendInstance();
         assertDoesNotThrow(() -> this.costed(100000, () -> this.ack(window)));
     }
+    
+    @Test
+    void testSack() throws IOException, NetException {
+        LoggerConfig.off();
+        final UtpWindow recvWindow = UtpWindow.newRecvInstance(new IMessageDecoder<>() {});
+        recvWindow.connect(0, (short) 0);
+        assertNull(recvWindow.sack());
+        // 丢失：1、2、5
+        for (final short seqnr : new short[] { 3, 4, 6 }) {
+            recvWindow.receive(0, seqnr, ByteBuffer.allocate(10));
+        }
+        final byte[] sack = recvWindow.sack();
+        assertArrayEquals(new byte[] { 0B0001_0110, 0, 0, 0 }, sack);
+        final UtpWindow sendWindow = UtpWindow.newSendInstance();
+        final List<UtpWindowData> packets = new ArrayList<>();
+        for (int index = 0; index < 6; index++) {
+            final UtpWindowData packet = sendWindow.build(ByteBuffer.allocate(10));
+            packet.updateGetTimestamp();
+            packets.add(packet);
+        }
+        assertTrue(sendWindow.ack((short) 0, UtpConfig.WND_SIZE, 0, ByteBuffer.wrap(sack)));
+        // 后面三个数据包已经确认：1、2；后面一个数据包已经确认：5
+        final List<UtpWindowData> list = sendWindow.fastRetransmit((short) 0, ByteBuffer.wrap(sack), 1);
+        assertEquals(List.of(packets.get(0), packets.get(1)), list);
+        list.forEach(UtpWindowData::updateGetTimestamp);
+        // 只会快速重传一次
+        assertTrue(sendWindow.fastRetransmit((short) 0, ByteBuffer.wrap(sack), 1).isEmpty());
+        // 累计确认
+        assertFalse(sendWindow.ack((short) 4, UtpConfig.WND_SIZE, 0, null));
+        assertTrue(sendWindow.ack((short) 4, UtpConfig.WND_SIZE, 0, null));
+        assertTrue(sendWindow.fastRetransmit((short) 4, null, UtpConfig.FAST_ACK_RETRY_TIMES - 1).isEmpty());
+        assertEquals(List.of(packets.get(4)), sendWindow.fastRetransmit((short) 4, null, UtpConfig.FAST_ACK_RETRY_TIMES));
+    }
+    
+    @Test
+    void testRing() throws NetException {
+        LoggerConfig.off();
+        final ByteBufferContext context = ByteBufferContext.getInstance();
+        final long outstanding = context.outstanding();
+        final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final byte[] sack = new byte[UtpConfig.SACK_MAX_LENGTH];
+        final ByteBuffer payload = ByteBuffer.allocate(UtpConfig.PACKET_MAX_LENGTH);
+        final UtpWindow sendWindow = UtpWindow.newSendInstance();
+        final UtpWindow recvWindow = UtpWindow.newRecvInstance(new IMessageDecoder<>() {});
+        recvWindow.connect(0, (short) (sendWindow.seqnr() - 1));
+        // 请求编号溢出多次：每次发送两个数据包乱序接收
+        final int count = 4 * 65536;
+        long allocated = 0L;
+        for (int index = 0; index < count; index += 2) {
+            if(index == count / 2) {
+                // 忽略预热
+                allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+            }
+            final UtpWindowData first  = sendWindow.build(payload.clear());
+            final UtpWindowData second = sendWindow.build(payload.clear());
+            recvWindow.receive(second.updateGetTimestamp(), second.getSeqnr(), payload.clear());
+            assertEquals(Integer.BYTES, recvWindow.sack(sack));
+            assertEquals(0B0000_0001, sack[0]);
+            recvWindow.receive(first.updateGetTimestamp(), first.getSeqnr(), payload.clear());
+            assertEquals(second.getSeqnr(), recvWindow.seqnr());
+            assertEquals(0, recvWindow.sack(sack));
+            assertFalse(sendWindow.ack(recvWindow.seqnr(), UtpConfig.WND_SIZE, 0, null));
+            while(context.outstanding() != outstanding) {
+                // 等待请求队列处理完成：请求队列积压时槽位新建窗口数据
+                Thread.yield();
+            }
+        }
+        allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocated;
+        allocated = allocated / (count / 2);
+        this.log("每个数据包申请内存（字节）：{}", allocated);
+        // 请求分片使用环形数组：添加请求不会新建对象
+        assertTrue(allocated < 8);
+        assertTrue(sendWindow.timeoutWindowData(DateUtils.timestampUs() + TIMEOUT).isEmpty());
+        assertEquals(outstanding, context.outstanding());
+    }
+    
+    @Test
+    void testFull() throws NetException {
+        LoggerConfig.off();
+        final UtpWindow sendWindow = UtpWindow.newSendInstance();
+        final UtpWindowData first = sendWindow.build();
+        for (int index = 1; index < 1024; index++) {
+            sendWindow.build();
+        }
+        // 环形缓冲区已满：槽位数据没有响应不能复用
+        assertThrows(NetException.class, sendWindow::build);
+        assertTrue(first.isAvailable());
+        assertEquals(1, first.getSeqnr());
+        assertFalse(sendWindow.ack(first.getSeqnr(), UtpConfig.WND_SIZE));
+        assertFalse(first.isAvailable());
+        assertDoesNotThrow(() -> sendWindow.build());
+    }
+    
+    @Test
+    void testLossCosted() throws IOException, NetException {
+        LoggerConfig.off();
+        for (int loss = 1; loss <= 5; loss++) {
+            final double lossRate = loss / 100.0D;
+            final long sack = this.simulate(lossRate, true);
+            final long ack = this.simulate(lossRate, false);
+            this.log("丢包率：{}%，有效吞吐量（字节/轮）：选择确认：{}，重复响应：{}", loss, sack, ack);
+            // 低丢包率重复响应也能恢复：往返时间使用真实时间存在少量误差
+            assertTrue(sack * 100 >= ack * 99);
+            if(loss == 5) {
+                assertTrue(sack > ack);
+            }
+        }
+    }
+    
+    /**
+     * 轮次模拟：每轮（一个RTT）发送窗口允许的数据包，数据包随机丢失，每个收到的数据包立即响应。
+     * 快速重传：收到响应立即发送，下一轮到达。
+     * 超时重传：连续多轮没有确认新的数据重传所有超时数据包，下一轮到达。
+     * 
+     * @param lossRate 丢包率
+     * @param sack     是否使用选择确认
+     * 
+     * @return 有效吞吐量（字节/轮）
+     */
+    private long simulate(double lossRate, boolean sack) throws IOException, NetException {
+        final int rounds = 2000;
+        final int timeoutRounds = 4;
+        final Random random = new Random(1024L);
+        final byte[] payload = new byte[UtpConfig.PACKET_MAX_LENGTH];
+        final UtpWindow sendWindow = UtpWindow.newSendInstance();
+        final UtpWindow recvWindow = UtpWindow.newRecvInstance(new IMessageDecoder<>() {});
+        recvWindow.connect(0, (short) 0);
+        final List<UtpWindowData> retransmit = new ArrayList<>();
+        int stall = 0;
+        int ackLossTimes = 0;
+        long delivered = 0L;
+        short lastAcknr = 0;
+        for (int round = 0; round < rounds; round++) {
+            // 重传数据包已经发送
+            final List<UtpWindowData> packets = new ArrayList<>(retransmit);
+            final int retransmitSize = retransmit.size();
+            retransmit.clear();
+            while(sendWindow.available() >= payload.length) {
+                packets.add(sendWindow.build(ByteBuffer.wrap(payload)));
+            }
+            for (int index = 0; index < packets.size(); index++) {
+                final UtpWindowData packet = packets.get(index);
+                if(index >= retransmitSize) {
+                    packet.updateGetTimestamp();
+                }
+                if(random.nextDouble() < lossRate) {
+                    continue;
+                }
+                recvWindow.receive(packet.getTimestamp(), packet.getSeqnr(), ByteBuffer.allocate(packet.getLength()));
+                final short acknr = recvWindow.seqnr();
+                final byte[] sackBytes = sack ? recvWindow.sack() : null;
+                final ByteBuffer sackBuffer = sackBytes == null ? null : ByteBuffer.wrap(sackBytes);
+                ackLossTimes = sendWindow.ack(acknr, UtpConfig.WND_SIZE, 0, sackBuffer) ? ackLossTimes + 1 : 0;
+                this.retransmit(retransmit, sendWindow.fastRetransmit(acknr, sackBuffer, ackLossTimes));
+            }
+            final short acknr = recvWindow.seqnr();
+            delivered += ((short) (acknr - lastAcknr) & 0xFFFF) * (long) payload.length;
+            if(acknr == lastAcknr) {
+                if(++stall >= timeoutRounds) {
+                    stall = 0;
+                    this.retransmit(retransmit, sendWindow.timeoutWindowData(DateUtils.timestampUs() + TIMEOUT));
+                }
+            } else {
+                stall = 0;
+            }
+            lastAcknr = acknr;
+        }
+        return delivered / rounds;
+    }
+    
+    /**
+     * 发送重传数据包
+     * 
+     * @param retransmit 下一轮到达数据包
+     * @param packets    重传数据包
+     */
+    private void retransmit(List<UtpWindowData> retransmit, List<UtpWindowData> packets) {
+        for (final UtpWindowData packet : packets) {
+            if(!retransmit.contains(packet)) {
+                packet.updateGetTimestamp();
+                retransmit.add(packet);
+            }
+        }
+    }
 
 }